@@ -1,15 +1,21 @@
 package Client.ConnectionLayer;
 
 import Client.Controller.ClientController;
+import Concurrency.TaskRunner;
 import ConnectionLayer.Address;
+import ConnectionLayer.Heartbeat;
+import ConnectionLayer.OutboundQueue;
+import ConnectionLayer.SyncClock;
+import Logging.AsyncLogger;
 import Protocol.*;
 
 import java.io.*;
 import java.net.ConnectException;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
-import java.util.logging.Logger;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * This class is used on client-side for connecting to a host
@@ -17,12 +23,20 @@ import java.util.logging.Logger;
  */
 public class ClientConnector {
     public static final int DEFAULT_PORT = 23432;
+    /**
+     * Bytes a connection queues for sending before further messages are rejected (congested at half of it)
+     */
+    public static final int SEND_QUEUE_LIMIT = BinaryMessageCodec.MAX_FRAME_SIZE;
+    /**
+     * Longest time the writer keeps sending the queued messages (including the close message) after closing
+     */
+    public static final long CLOSE_FLUSH_MS = 500;
 
     private final Address address;
     private final String password;
     private final int version;
 
-    private final Logger logger;
+    private final AsyncLogger logger;
 
 /*-----------------------------------------------------CONTROLLER-----------------------------------------------------*/
 
@@ -33,7 +47,7 @@ public class ClientConnector {
      * @param version client version (send to host to ensure compatibility)
      */
     public ClientConnector(Address address, String password, int version) {
-        logger = Logger.getLogger(ClientConnector.class.getName());
+        logger = AsyncLogger.getLogger(ClientConnector.class.getName());
         this.address = address;
         this.password = password;
         this.version = version;
@@ -69,6 +83,7 @@ public class ClientConnector {
             logger.warning("connection rejected");
             return null;
         }
+        connection.startWriter();
         return connection;
     }
 
@@ -79,11 +94,20 @@ public class ClientConnector {
      * the host
      */
     public class Connection {
-        private final Logger logger;
+        private final AsyncLogger logger;
         private final Socket socket;
-        // Object streams for message sending and receiving
-        private final ObjectInputStream in;
-        private final ObjectOutputStream out;
+        // wire format for message sending and receiving (selected by version)
+        private final MessageCodec codec;
+        // clock time the last message was read (for time sync replies)
+        private long lastReceiveTime;
+        // messages waiting for the writer thread (null during the handshake and for the serialized wire format)
+        private volatile OutboundQueue outQueue = null;
+        private volatile Thread writer = null;
+        // close requested, the writer closes the socket once the queue is sent (or the deadline passed)
+        private volatile boolean closing = false;
+        private volatile long closeDeadline;
+        // read timeout derived from the heartbeat interval of the host (0 until the first ping)
+        private int readTimeout = 0;
 
         /**
          * Create Connection object
@@ -94,10 +118,8 @@ public class ClientConnector {
          */
         public Connection (Socket socket) throws IOException {
             this.socket = socket;
-            logger = Logger.getLogger(Connection.class.getName());
-            out = new ObjectOutputStream(socket.getOutputStream());
-            out.flush();
-            in = new ObjectInputStream(socket.getInputStream());
+            logger = AsyncLogger.getLogger(Connection.class.getName());
+            codec = MessageCodec.forVersion(version, socket.getInputStream(), socket.getOutputStream());
         }
 
         /**
@@ -171,31 +193,163 @@ public class ClientConnector {
 
         /**
          * Send Message Object to host
+         * [non-blocking] once established, the message is queued and written by the writer thread
+         * @param msg Message Object
+         * @return false if the message was dropped (send queue full)
+         */
+        public boolean sendMessage(Message msg) {
+            logger.fine("send:\n{}", msg);
+            return write(msg);
+        }
+
+        /**
+         * Check if the host takes the data slower than it is sent
+         * @return true if the send queue is above its high watermark
+         */
+        public boolean isCongested() {
+            OutboundQueue queue = outQueue;
+            return queue != null && queue.isCongested();
+        }
+
+        /**
+         * Get queue depth and flush latency of the send queue
+         * @return send queue metrics, null before the connection is established
+         */
+        public OutboundQueue.Metrics getSendMetrics() {
+            OutboundQueue queue = outQueue;
+            return queue == null ? null : queue.getMetrics();
+        }
+
+        /**
+         * Receive next message Object from host
+         * Clock offset probes and heartbeat pings are answered directly and not returned
+         * [blocking]
+         * @return Message Object; null if the connection was closed, the host sent malformed data or stopped responding
+         */
+        public Message receiveMessage() {
+            while (true) {
+                Message msg = readMessage();
+                if (msg == null) return null;
+                switch (msg.getType()) {
+                    case MCTimeSync.TYPE_ID -> answerTimeSync((MCTimeSync) msg.getContent());
+                    case MCPing.TYPE_ID -> answerPing((MCPing) msg.getContent());
+                    default -> {
+                        return msg;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Answer a clock offset probe (not logged, t3 is taken right before encoding)
+         * @param probe received probe
+         */
+        private void answerTimeSync(MCTimeSync probe) {
+            write(new Message(MCTimeSyncReply.TYPE_ID, new MCTimeSyncReply(probe.getHostSendTime(), lastReceiveTime, SyncClock.now())));
+        }
+
+        /**
+         * Answer a heartbeat ping, adapt the read timeout to the interval of the host
+         * @param ping received ping
+         */
+        private void answerPing(MCPing ping) {
+            write(new Message(MCPong.TYPE_ID, new MCPong(ping.getSequence(), ping.getHostSendTime())));
+            int timeout = ping.getInterval() * Heartbeat.getMissedLimit();
+            if (timeout == readTimeout) return;
+            try {
+                socket.setSoTimeout(timeout);
+                readTimeout = timeout;
+                logger.info("read timeout set to {}ms", timeout);
+            } catch (SocketException e) {
+                logger.warning("setting read timeout failed\n" + e.getMessage());
+            }
+        }
+
+        /**
+         * Queue a message for the writer thread, write it directly before the writer is started
          * @param msg Message Object
+         * @return false if the message was dropped
          */
-        public void sendMessage(Message msg) {
-            logger.info("send:\n" + msg.toString());
+        private boolean write(Message msg) {
+            OutboundQueue queue = outQueue;
+            if (queue != null) {
+                if (queue.add(msg)) return true;
+                logger.warning("send queue full, message dropped\n{}\n{}", queue.getMetrics(), msg);
+                return false;
+            }
             try {
-                out.writeObject(msg);
+                codec.writeMessage(msg);
             } catch (IOException e) {
                 logger.severe("sendMessage(...) failed\nMessage: " + msg.toString() + "\n" + e.getMessage() + "\nshutting down");
                 e.printStackTrace();
                 System.exit(1);
             }
+            return true;
         }
 
         /**
-         * Receive next message Object from host
+         * Hand sending over to a writer thread (after the handshake)
+         * Only the binary wire format is queued, the serialized one keeps writing on the calling thread.
+         */
+        private void startWriter() {
+            if (!(codec instanceof BinaryMessageCodec)) return;
+            OutputStream out;
+            try {
+                out = socket.getOutputStream();
+            } catch (IOException e) {
+                logger.warning("no output stream, keeping direct writes\n" + e.getMessage());
+                return;
+            }
+            Thread thread = TaskRunner.newThread("ClientConnector-Writer", () -> writeLoop(out));
+            writer = thread;
+            outQueue = new OutboundQueue(SEND_QUEUE_LIMIT, 0, () -> LockSupport.unpark(thread),
+                    congested -> logger.info("send queue {}", congested ? "congested" : "free"));
+            thread.start();
+        }
+
+        /**
+         * Writer thread: write everything queued with as few writes as possible, park while the queue is empty
+         * After close the queue is sent (bounded by CLOSE_FLUSH_MS), then the writer closes the socket.
+         * @param out output stream of the socket
+         */
+        private void writeLoop(OutputStream out) {
+            OutboundQueue queue = outQueue;
+            while (!socket.isClosed()) {
+                try {
+                    queue.write(out);
+                } catch (IOException e) {
+                    if (!socket.isClosed()) logger.warning("sendMessage(...) failed\n" + e.getMessage());
+                    queue.clear();
+                    closeSocket();
+                    return;
+                }
+                if (closing && (queue.isEmpty() || System.currentTimeMillis() >= closeDeadline)) {
+                    if (!queue.isEmpty()) logger.warning("closing with unsent messages\n{}", queue.getMetrics());
+                    queue.clear();
+                    closeSocket();
+                    return;
+                }
+                if (queue.isEmpty()) LockSupport.park(this);
+            }
+        }
+
+        /**
+         * Read next message Object from the codec
          * [blocking]
-         * @return Message Object
+         * @return Message Object; null if the connection was closed or the host sent malformed data
          */
-        public Message receiveMessage() {
+        private Message readMessage() {
             Message msg = null;
             try {
-                msg = (Message) in.readObject();
+                msg = codec.readMessage();
+                lastReceiveTime = SyncClock.now();
             } catch (EOFException e) {
                 logger.info("eof reached");
                 return null;
+            } catch (SocketTimeoutException e) {
+                logger.warning("host not responding for {}ms, closing connection", readTimeout);
+                close(0);
+                return null;
             } catch (SocketException e) {
                 if (socket.isClosed()) {
                     logger.info("socket closed");
@@ -205,21 +359,40 @@ public class ClientConnector {
                     e.printStackTrace();
                     System.exit(-1);
                 }
-            } catch (IOException | ClassNotFoundException e) {
+            } catch (ProtocolViolationException e) {
+                logger.warning("received malformed message\n" + e.getMessage() + "\nclosing connection");
+                close(2);
+                return null;
+            } catch (IOException e) {
                 logger.severe("receiveMessage(...) failed\n" + e.getMessage() + "\nshutting down");
                 e.printStackTrace();
                 System.exit(1);
             }
-            logger.info("received:\n" + msg.toString());
+            logger.fine("received:\n{}", msg);
             return msg;
         }
 
         /**
          * Close connection by sending close message and closing the underlying socket
+         * [non-blocking] once established, the writer thread sends the close message and closes the socket
          * @param errorCode closing-reason to send to the client
          */
         public void close(int errorCode) {
             sendMessage(new Message(MCClose.TYPE_ID, new MCClose(errorCode)));
+            Thread thread = writer;
+            if (thread == null) {
+                closeSocket();
+                return;
+            }
+            closeDeadline = System.currentTimeMillis() + CLOSE_FLUSH_MS;
+            closing = true;
+            LockSupport.unpark(thread);
+        }
+
+        /**
+         * Close the underlying socket (unblocks the receiver)
+         */
+        private void closeSocket() {
             try {
                 socket.close();
                 logger.info("socket closed");
@@ -257,7 +430,10 @@ public class ClientConnector {
             while (true) {
                 Message msg;
                 msg = connection.receiveMessage();
-                if (msg == null) break;
+                if (msg == null) {
+                    controller.connectionLost(connection);
+                    break;
+                }
                 controller.messageReceived(msg);
                 if (msg.getType() == MCClose.TYPE_ID) break;
             }
@@ -4,16 +4,18 @@ import Client.GUI.ClientGui;
 import Client.Controller.Games.GameControllerCreator;
 import Client.ConnectionLayer.ClientConnector;
 import Client.GUI.SettingsDialog;
+import Concurrency.Mailbox;
+import Concurrency.StateMachine;
+import Concurrency.TaskRunner;
 import ConnectionLayer.Address;
 import Exceptions.BadGameIDException;
-import Exceptions.UnimplementedException;
+import Logging.AsyncLogger;
 import Protocol.*;
 
 import javax.swing.*;
 import javax.swing.plaf.FontUIResource;
 import java.awt.*;
 import java.io.IOException;
-import java.util.logging.Logger;
 import java.util.prefs.Preferences;
 
 /**
@@ -22,103 +24,52 @@ import java.util.prefs.Preferences;
  */
 public class ClientController {
 
-    private static final int VERSION = 0x00010001;
+    private static final int VERSION = 0x00010004;
+    /**
+     * Close code of the marker message posted when the connection is lost without a close message
+     */
+    private static final int LOST = -1;
     private final PreferenceStorage prefs;
 
-    private final Logger logger;
+    private final AsyncLogger logger;
     private final ClientGui gui;
-    private ClientConnector.Connection connection = null;   // null while no connection active
-    private GameControllerCreator.GameController gameController = null;
+    private volatile ClientConnector.Connection connection = null;   // null while no connection active
+    private GameControllerCreator.GameController gameController = null;    // dispatcher (inbox drain) only
     private ClientConnector.Receiver receiver = null;
-
-    private State state = State.Offline;
+    private volatile Mailbox<Message> inbox = null;
+
+    private final StateMachine<State> state = new StateMachine<>(State.Offline)
+            .allow(State.Offline, State.Connected)
+            .allow(State.Connected, State.Game, State.WorkSheet, State.Offline)
+            .allow(State.Game, State.Connected, State.Offline)
+            .allow(State.WorkSheet, State.Connected, State.Offline);
+    private final DispatchTable<State, ClientConnector.Connection> handlers = new DispatchTable<State, ClientConnector.Connection>(State.class)
+            .on(MCClose.TYPE_ID, this::closeReceived, State.Connected, State.Game, State.WorkSheet)
+            .on(MCGameStart.TYPE_ID, this::gameStartReceived, State.Connected)
+            .on(MCGameEnd.TYPE_ID, this::gameEndReceived, State.Game)
+            .on(MCGameTransmit.TYPE_ID, this::gameTransmitReceived, State.Game);
 
 /*--------------------------------------------------CONNECTION_LAYER--------------------------------------------------*/
 
     /**
      * Receiver received message
-     * Parse and forward
+     * Queue it for the dispatcher (lock-free, the receiver never waits for the handlers)
      * @param msg received message
      */
-    public synchronized void messageReceived(Message msg) {
-        int type = msg.getType();
-        int family = type >> 8;
-        switch (family) {
-            case 1:
-                if (type != MCClose.TYPE_ID) {
-                    // protocol violation
-                    logger.severe("Host protocol violation\n" + msg.toString() + "\nclosing connection");
-                    connection.close(2);
-                } else {
-                    // closed
-                    gui.disconnected();
-                    state = State.Offline;
-                    connection = null;
-                    gameController = null;
-                    receiver = null;
-                    logger.severe("Host closed connection\n" + msg.toString());
-                }
-                state = State.Offline;
-                connection = null;
-                break;
-            case 2:
-                if (type == 0x0201 && state == State.Connected) {   // TODO get type statically
-                    // TODO start work-sheet presentation
-                    throw new UnimplementedException("ClientController::messageReceived(...) unimpl");
-                } else if (state == State.WorkSheet) {
-                    // TODO forward message
-                    throw new UnimplementedException("ClientController::messageReceived(...) unimpl");
-                } else {
-                    // protocol violation
-                    logger.severe("Host protocol violation\n" + msg.toString() + "\nclosing connection");
-                    connection.close(2);
-                    state = State.Offline;
-                    connection = null;
-                }
-                break;
-            case 3:
-                if (type == MCGameStart.TYPE_ID && state == State.Connected) {
-                    // start game
-                    MCGameStart content = (MCGameStart) msg.getContent();
-                    try {
-                        gameController = GameControllerCreator.create(content.getGameID(), gui, this);
-                        logger.info("started game");
-                        state = State.Game;
-                    } catch (BadGameIDException e) {
-                        logger.severe("game id does not exist\n" + e.getMessage() + "\nshutting down");
-                        System.exit(1);
-                    }
-                } else if (type == MCGameEnd.TYPE_ID && state == State.Game) {
-                    // end game
-                    gui.ended();
-                    gameController = null;
-                    state = State.Connected;
-                } else if (state == State.Game) {
-                    // forward content
-                    try {
-                        gameController.messageReceived(msg.getContent());
-                    } catch (ProtocolViolationException e) {
-                        // protocol violation
-                        logger.severe("Host protocol violation\n" + msg.toString() + "\nclosing connection");
-                        connection.close(2);
-                        state = State.Offline;
-                        connection = null;
-                    }
-                } else {
-                    // protocol violation
-                    logger.severe("Host protocol violation\n" + msg.toString() + "\nclosing connection");
-                    connection.close(2);
-                    state = State.Offline;
-                    connection = null;
-                }
-                break;
-            default:
-                // protocol violation
-                logger.severe("Host protocol violation\n" + msg.toString() + "\nclosing connection");
-                connection.close(2);
-                state = State.Offline;
-                connection = null;
-        }
+    public void messageReceived(Message msg) {
+        Mailbox<Message> tmp = inbox;
+        if (tmp == null || !tmp.post(msg)) logger.warning("message without connection\n{}", msg);
+    }
+
+    /**
+     * Receiver stopped without a close message (eof, I/O error or host not responding)
+     * Queued behind the received messages, so they are handled before going offline
+     * @param source connection that was lost
+     */
+    public void connectionLost(ClientConnector.Connection source) {
+        Mailbox<Message> tmp = inbox;
+        if (source != connection || tmp == null) return;
+        tmp.post(new Message(MCClose.TYPE_ID, new MCClose(LOST)));
     }
 
 /*--------------------------------------------------------GUI--------------------------------------------------------*/
@@ -157,10 +108,12 @@ public class ClientController {
         }
 
         if (connection != null) {
-            state = State.Connected;
+            ClientConnector.Connection established = connection;
+            inbox = new Mailbox<>("ClientDispatcher", msg -> dispatch(established, msg));
+            state.move(State.Offline, State.Connected);
             gui.connected();
             receiver = new ClientConnector.Receiver(this, connection);
-            new Thread(receiver).start();
+            TaskRunner.start("ClientConnector-Receiver", receiver);
             logger.info("receiver started");
             return 0;
         } else {
@@ -234,11 +187,76 @@ public class ClientController {
      */
     public void sendGameReply(MCGameReply.GRContent content) {
         MCGameReply tmp = new MCGameReply(content);
-        connection.sendMessage(new Message(tmp.getType(), tmp));
+        ClientConnector.Connection current = connection;
+        if (current != null) current.sendMessage(new Message(tmp.getType(), tmp));
     }
 
 /*------------------------------------------------------PRIVATE------------------------------------------------------*/
 
+    /**
+     * Handle a received message (drained from the inbox)
+     * A message without handler in the current state is a protocol violation.
+     * @param source connection the message was received on
+     * @param msg received message
+     */
+    private void dispatch(ClientConnector.Connection source, Message msg) {
+        State current = state.get();
+        if (current == State.Offline || source != connection) {
+            logger.fine("dropped message of closed connection\n{}", msg);
+            return;
+        }
+        try {
+            handlers.dispatch(current, source, msg);
+        } catch (ProtocolViolationException e) {
+            logger.severe("Host protocol violation\n{}\n{}\nclosing connection", e.getMessage(), msg);
+            source.close(2);
+            offline();
+        }
+    }
+
+    private void closeReceived(ClientConnector.Connection source, Message msg) {
+        if (((MCClose) msg.getContent()).getErrorCode() == LOST) {
+            logger.severe("connection to host lost");
+        } else {
+            logger.severe("Host closed connection\n{}", msg);
+        }
+        offline();
+    }
+
+    private void gameStartReceived(ClientConnector.Connection source, Message msg) {
+        MCGameStart content = (MCGameStart) msg.getContent();
+        try {
+            gameController = GameControllerCreator.create(content.getGameID(), gui, this);
+            state.move(State.Connected, State.Game);
+            logger.info("started game");
+        } catch (BadGameIDException e) {
+            logger.severe("game id does not exist\n" + e.getMessage() + "\nshutting down");
+            System.exit(1);
+        }
+    }
+
+    private void gameEndReceived(ClientConnector.Connection source, Message msg) {
+        state.move(State.Game, State.Connected);
+        gui.ended();
+        gameController = null;
+    }
+
+    private void gameTransmitReceived(ClientConnector.Connection source, Message msg) throws ProtocolViolationException {
+        gameController.messageReceived(msg.getContent());
+    }
+
+    /**
+     * Connection is gone, return to the login
+     */
+    private void offline() {
+        state.moveTo(State.Offline);
+        gui.disconnected();
+        gameController = null;
+        connection = null;
+        receiver = null;
+        inbox.close();
+    }
+
     private void setDefaultFontSize(int scaling) {
         int size = 12*scaling/100;
         java.util.Enumeration<Object> keys = UIManager.getDefaults().keys();
@@ -268,7 +286,7 @@ public class ClientController {
      * Create Client program
      */
     public ClientController() {
-        logger = Logger.getLogger(ClientController.class.getName());
+        logger = AsyncLogger.getLogger(ClientController.class.getName());
         prefs = new PreferenceStorage();
 
         // set default font size
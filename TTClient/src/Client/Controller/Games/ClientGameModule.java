@@ -0,0 +1,29 @@
+package Client.Controller.Games;
+
+import Client.Controller.ClientController;
+import Client.GUI.ClientGui;
+import ContentPanes.Games.GamePanel;
+import Exceptions.BadGameIDException;
+import Games.GameModule;
+
+/**
+ * Client part of a game
+ * Supplied as service (META-INF/services/Client.Controller.Games.ClientGameModule), see GameControllerCreator
+ */
+public interface ClientGameModule extends GameModule {
+    /**
+     * Create the game specific controller (which creates its GUI, see createPane)
+     * @param mainGui reference to main GUI
+     * @param controller main controller
+     * @return game specific controller
+     * @throws BadGameIDException thrown if the game specific GUI does not exist
+     */
+    GameControllerCreator.GameController createController(ClientGui mainGui, ClientController controller) throws BadGameIDException;
+
+    /**
+     * Create the game specific GUI
+     * @param controller game specific controller created by this module
+     * @return game specific GUI
+     */
+    GamePanel createPane(GameControllerCreator.GameController controller);
+}
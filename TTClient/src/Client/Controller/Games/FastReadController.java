@@ -6,13 +6,15 @@ import Exceptions.BadGameIDException;
 import ContentPanes.Games.FastReadPane;
 import ContentPanes.Games.GRCFastRead;
 import ContentPanes.Games.GTCFastRead;
+import ContentPanes.Games.GTCFastReadPreload;
+import ContentPanes.Games.GTCFastReadShow;
+import Logging.AsyncLogger;
 import Protocol.MCGameTransmit;
 import Protocol.MessageContent;
 import Protocol.ProtocolViolationException;
 
 import javax.swing.*;
 import java.lang.reflect.InvocationTargetException;
-import java.util.logging.Logger;
 
 /**
  * Specialized Game Controller for Fast-Read
@@ -22,7 +24,7 @@ public class FastReadController implements GameControllerCreator.GameController
 
     private final FastReadPane gui;
     private final ClientController controller;
-    private final Logger logger;
+    private final AsyncLogger logger;
 
 /*--------------------------------------------------MAIN_CONTROLLER--------------------------------------------------*/
 
@@ -34,48 +36,90 @@ public class FastReadController implements GameControllerCreator.GameController
     public FastReadController(ClientGui tmp, ClientController controller) throws BadGameIDException {
         gui = (FastReadPane) tmp.startedGame(ID, this);
         this.controller = controller;
-        this.logger = Logger.getLogger(ClientController.class.getName());
+        this.logger = AsyncLogger.getLogger(ClientController.class.getName());
     }
 
     /**
      * MessageReceived
      * Parse and Execute
-     * Sends GameReply as soon as displaying finished
+     * Preloads tokens or displays a token (sent directly or preloaded)
      * @param transmit received massage content
      * @throws ProtocolViolationException thrown if received a protocol violating message
      */
     @Override
     public void messageReceived(MessageContent transmit) throws ProtocolViolationException {
         if (transmit.getType() != MCGameTransmit.TYPE_ID) {
-            logger.warning("Protocol violation: Host send non game transmit\n" + transmit.toString());
+            logger.warning("Protocol violation: Host send non game transmit\n{}", transmit);
             throw new ProtocolViolationException("FastRead received wrong message type");
         }
         MCGameTransmit.GTContent tmp = ((MCGameTransmit)transmit).getContent();
         if (tmp.getGameID() != ID) {
-            logger.warning("Protocol violation: Host send game transmit for wrong game\n" + transmit.toString());
+            logger.warning("Protocol violation: Host send game transmit for wrong game\n{}", transmit);
             throw new ProtocolViolationException("FastRead received message for different game");
         }
-        GTCFastRead content = (GTCFastRead) tmp;
-        gui.setToken(content.getToken());
+        if (tmp instanceof GTCFastReadPreload) {
+            GTCFastReadPreload content = (GTCFastReadPreload) tmp;
+            if (content.isReset()) gui.clearPreloaded();
+            for (int i = 0; i < content.getIds().length; i++) {
+                gui.preload(content.getIds()[i], content.getTokens()[i]);
+            }
+        } else if (tmp instanceof GTCFastReadShow) {
+            GTCFastReadShow content = (GTCFastReadShow) tmp;
+            if (!gui.select(content.getId())) {
+                logger.warning("Protocol violation: Host requested token that was not preloaded\n{}", transmit);
+                throw new ProtocolViolationException("FastRead received show for unknown token");
+            }
+            if (content.getShowAt() != 0) {
+                gui.displayAt(content.getShowAt(), content.getMillis(), finishedCallback(content.getId(), content.getMillis()));
+            } else {
+                display(content.getId(), content.getMillis());
+            }
+        } else {
+            GTCFastRead content = (GTCFastRead) tmp;
+            gui.setToken(content.getToken());
+            display(-1, content.getMillis());
+        }
+    }
+
+    /**
+     * Display the current token
+     * Sends GameReply with the measured exposure as soon as displaying finished
+     * @param id token id (-1 for a directly sent token)
+     * @param millis requested exposure (in milliseconds)
+     */
+    private void display(int id, int millis) {
         try {
-            SwingUtilities.invokeAndWait(() -> gui.display(content.getMillis(), new FastReadPane.DisplayFinishedCallback() {
-                @Override
-                public void displayFinished() {
-                    controller.sendGameReply(new GRCFastRead());
-                }
-            }));
+            SwingUtilities.invokeAndWait(() -> gui.display(millis, finishedCallback(id, millis)));
         } catch (InterruptedException | InvocationTargetException e) {
             logger.warning("queueing display(...) failed\n" + e.getMessage());
         }
     }
 
+    /**
+     * Create callback sending the GameReply with the measured exposure
+     * @param id token id (-1 for a directly sent token)
+     * @param millis requested exposure (in milliseconds)
+     * @return display finished callback
+     */
+    private FastReadPane.DisplayFinishedCallback finishedCallback(int id, int millis) {
+        return new FastReadPane.DisplayFinishedCallback() {
+            @Override
+            public void displayFinished(long achievedNanos) {
+                long achievedMicros = achievedNanos / 1000;
+                long errorMicros = achievedMicros - millis * 1000L;
+                logger.fine("displayed {}ms token for {}us", millis, achievedMicros);
+                controller.sendGameReply(new GRCFastRead(id, (int) achievedMicros, (int) errorMicros));
+            }
+        };
+    }
+
 /*--------------------------------------------------------GUI--------------------------------------------------------*/
 
     /*
      * Notification by GUI -> displaying finished -> notify host
      *
     public void displayFin() {
-        controller.sendGameReply(new GRCFastRead());
+        controller.sendGameReply(new GRCFastRead(-1, 0, 0));
     }*/
 
 /*--------------------------------------------------------ALL--------------------------------------------------------*/
@@ -0,0 +1,28 @@
+package Client.Controller.Games;
+
+import Client.Controller.ClientController;
+import Client.GUI.ClientGui;
+import ContentPanes.Games.FastReadPane;
+import ContentPanes.Games.GTCFastRead;
+import ContentPanes.Games.GamePanel;
+import Exceptions.BadGameIDException;
+
+/**
+ * Client part of the FastRead game
+ */
+public class FastReadModule implements ClientGameModule {
+    @Override
+    public int getGameID() {
+        return GTCFastRead.gameID;
+    }
+
+    @Override
+    public GameControllerCreator.GameController createController(ClientGui mainGui, ClientController controller) throws BadGameIDException {
+        return new FastReadController(mainGui, controller);
+    }
+
+    @Override
+    public GamePanel createPane(GameControllerCreator.GameController controller) {
+        return new FastReadPane(false);
+    }
+}
@@ -2,14 +2,19 @@ package Client.Controller.Games;
 
 import Client.Controller.ClientController;
 import Client.GUI.ClientGui;
+import ContentPanes.Games.GamePanel;
 import Exceptions.BadGameIDException;
+import Games.GameRegistry;
 import Protocol.MessageContent;
 import Protocol.ProtocolViolationException;
 
 /**
  * Generator for GameControllers
+ * The games are the installed ClientGameModules (see GameRegistry)
  */
 public class GameControllerCreator {
+    private static final GameRegistry<ClientGameModule> modules = new GameRegistry<>(ClientGameModule.class);
+
     /**
      * Create game specific Controller
      * @param id game ID
@@ -18,10 +23,18 @@ public class GameControllerCreator {
      * @throws BadGameIDException thrown if game ID does not exist
      */
     public static GameController create(int id, ClientGui mainGui, ClientController controller) throws BadGameIDException {
-        return switch (id) {
-            case 0 -> new FastReadController(mainGui, controller);
-            default -> throw new BadGameIDException(id);
-        };
+        return modules.require(id).createController(mainGui, controller);
+    }
+
+    /**
+     * Create the game specific GUI
+     * @param id game ID
+     * @param controller game specific controller
+     * @return game specific GUI
+     * @throws BadGameIDException thrown if game ID does not exist
+     */
+    public static GamePanel createPane(int id, GameController controller) throws BadGameIDException {
+        return modules.require(id).createPane(controller);
     }
 
     /**
@@ -3,7 +3,6 @@ package Client.GUI;
 import Client.Controller.Games.GameControllerCreator;
 import Client.Controller.ClientController;
 import Exceptions.BadGameIDException;
-import ContentPanes.Games.FastReadPane;
 import ContentPanes.Games.GamePanel;
 
 import javax.swing.*;
@@ -92,16 +91,11 @@ public class ClientGui extends JFrame {
      * @throws BadGameIDException thrown if game with given id does not exist
      */
     public GamePanel startedGame(int id, GameControllerCreator.GameController controller) throws BadGameIDException {
-        switch (id) {
-            case 0 -> {
-                gamePanel = new FastReadPane(false);
-                setContentPane(gamePanel);
-                revalidate();
-                repaint();
-                return gamePanel;
-            }
-            default -> throw new BadGameIDException(id);
-        }
+        gamePanel = GameControllerCreator.createPane(id, controller);
+        setContentPane(gamePanel);
+        revalidate();
+        repaint();
+        return gamePanel;
     }
 
     /**
@@ -1,20 +1,21 @@
 package Client.GUI;
 
 import Client.Controller.ClientController;
+import Concurrency.TaskRunner;
 import ConnectionLayer.Address;
+import Logging.AsyncLogger;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.util.ResourceBundle;
-import java.util.logging.Logger;
 
 /**
  * Login Panel
  * Allows user inputs to connect to a host
  */
 public class ClientLoginPanel extends JPanel {
-    private final Logger logger;
+    private final AsyncLogger logger;
 
 /*------------------------------------------------------MAIN_GUI------------------------------------------------------*/
 
@@ -24,7 +25,7 @@ public class ClientLoginPanel extends JPanel {
      */
     public ClientLoginPanel(ClientController controller, String defaultAddress) {
         super();
-        this.logger = Logger.getLogger(ClientLoginPanel.class.getName());
+        this.logger = AsyncLogger.getLogger(ClientLoginPanel.class.getName());
 
         setLayout(new BorderLayout());
         add(mainPanel, BorderLayout.CENTER);
@@ -48,58 +49,24 @@ public class ClientLoginPanel extends JPanel {
                     return;
                 }
                 statusTextField.setText(resourceBundle.getString("connecting"));
-                // try to connect
-                new SwingWorker<Integer, Object>() {
-                    @Override
-                    protected Integer doInBackground() {
-                        return controller.connect(address, new String(passwordField.getPassword()));
-                    }
-
-                    @Override
-                    protected void done() {
-                        try {
-                            Integer res = get();
-                            if (res == null) {
-                                logger.severe("Could not get return value\nshutting down");
-                                System.exit(-1);
-                            }
-                            switch (res) {
-                                case 0 -> {
-                                    statusTextField.setText(resourceBundle.getString("connected"));
-                                    addressTextField.setEditable(true);
-                                    passwordField.setEditable(true);
-                                    connectButton.setEnabled(true);
-                                }
-                                case -1 -> {
-                                    statusTextField.setText(resourceBundle.getString("connection_failed"));
-                                    addressTextField.setEditable(true);
-                                    passwordField.setEditable(true);
-                                    connectButton.setEnabled(true);
-                                }
-                                case -2 -> {
-                                    statusTextField.setText(resourceBundle.getString("password_wrong_client_side"));
-                                    addressTextField.setEditable(true);
-                                    passwordField.setEditable(true);
-                                    connectButton.setEnabled(true);
-                                }
-                                case -3 -> {
-                                    statusTextField.setText(resourceBundle.getString("host_closed"));
-                                    addressTextField.setEditable(true);
-                                    passwordField.setEditable(true);
-                                    connectButton.setEnabled(true);
-                                }
-                                case -4 -> {
-                                    statusTextField.setText(resourceBundle.getString("host_protocol_violation"));
-                                    addressTextField.setEditable(true);
-                                    passwordField.setEditable(true);
-                                    connectButton.setEnabled(true);
-                                }
-                            }
-                        } catch (Exception ex) {
-                            ex.printStackTrace();
+                // try to connect (handshake on a background thread, result handled on the EDT)
+                String password = new String(passwordField.getPassword());
+                TaskRunner.start("ClientConnector-Handshake", () -> {
+                    int res = controller.connect(address, password);
+                    SwingUtilities.invokeLater(() -> {
+                        switch (res) {
+                            case 0 -> statusTextField.setText(resourceBundle.getString("connected"));
+                            case -1 -> statusTextField.setText(resourceBundle.getString("connection_failed"));
+                            case -2 -> statusTextField.setText(resourceBundle.getString("password_wrong_client_side"));
+                            case -3 -> statusTextField.setText(resourceBundle.getString("host_closed"));
+                            case -4 -> statusTextField.setText(resourceBundle.getString("host_protocol_violation"));
+                            default -> logger.warning("unknown connect result: " + res);
                         }
-                    }
-                }.execute();
+                        addressTextField.setEditable(true);
+                        passwordField.setEditable(true);
+                        connectButton.setEnabled(true);
+                    });
+                });
             }
         });
     }
@@ -1,17 +1,16 @@
 package ConnectionTester;
 
 import Protocol.Message;
+import Protocol.MessageCodec;
+import Protocol.ProtocolViolationException;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
 
 public class ConnectionTester {
     private final GUI gui;
-    private ObjectOutputStream out;
-    private ObjectInputStream in;
+    private MessageCodec codec;
     private Socket socket;
 
     public static void main(String[] args) {
@@ -25,9 +24,7 @@ public class ConnectionTester {
     public void connect(String ip, int port) {
         try {
             socket = new Socket(ip, port);
-            out = new ObjectOutputStream(socket.getOutputStream());
-            out.flush();
-            in = new ObjectInputStream(socket.getInputStream());
+            codec = MessageCodec.forVersion(MessageCodec.BINARY_VERSION, socket.getInputStream(), socket.getOutputStream());
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(-1);
@@ -40,9 +37,7 @@ public class ConnectionTester {
         try {
             ServerSocket serverSocket = new ServerSocket(port);
             socket = serverSocket.accept();
-            out = new ObjectOutputStream(socket.getOutputStream());
-            out.flush();
-            in = new ObjectInputStream(socket.getInputStream());
+            codec = MessageCodec.forVersion(MessageCodec.BINARY_VERSION, socket.getInputStream(), socket.getOutputStream());
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(-1);
@@ -54,7 +49,7 @@ public class ConnectionTester {
     public void send(Message msg) {
         try {
             System.out.println("snd: " + msg.toString());
-            out.writeObject(msg);
+            codec.writeMessage(msg);
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(-1);
@@ -72,7 +67,7 @@ public class ConnectionTester {
 
     public Message receive() {
         try {
-            Message msg = (Message) in.readObject();
+            Message msg = codec.readMessage();
             System.out.println("rcv: " + msg.toString());
             return msg;
         } catch (IOException e) {
@@ -81,7 +76,7 @@ public class ConnectionTester {
                 System.exit(-1);
             }
             return null;
-        } catch (ClassNotFoundException e) {
+        } catch (ProtocolViolationException e) {
             e.printStackTrace();
             System.exit(-1);
             return null;
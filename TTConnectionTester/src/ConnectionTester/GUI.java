@@ -196,11 +196,20 @@ public class GUI extends JFrame {
                 receiveTypeTF.setText("0302:GameTransmit");
                 receiveContentLabel.setText("");
                 receiveContentTF.setText("");
-                receiveGameContentLabel.setText("GTFastRead");
-                receiveTokenLabel.setText("Token");
-                receiveTokenTF.setText(""+((GTCFastRead)((MCGameTransmit)msg.getContent()).getContent()).getToken());
-                receiveMillisLabel.setText("Millis");
-                receiveMillisTF.setText(""+((GTCFastRead)((MCGameTransmit)msg.getContent()).getContent()).getMillis());
+                MCGameTransmit.GTContent gameContent = ((MCGameTransmit)msg.getContent()).getContent();
+                if (gameContent instanceof GTCFastRead) {
+                    receiveGameContentLabel.setText("GTFastRead");
+                    receiveTokenLabel.setText("Token");
+                    receiveTokenTF.setText(""+((GTCFastRead)gameContent).getToken());
+                    receiveMillisLabel.setText("Millis");
+                    receiveMillisTF.setText(""+((GTCFastRead)gameContent).getMillis());
+                } else {
+                    receiveGameContentLabel.setText("GTFastRead");
+                    receiveTokenLabel.setText("Content");
+                    receiveTokenTF.setText(gameContent.toString());
+                    receiveMillisLabel.setText("");
+                    receiveMillisTF.setText("");
+                }
             }
             case 0x0303 -> {
                 receiveTypeTF.setText("0303:GameReply");
@@ -234,7 +243,7 @@ public class GUI extends JFrame {
             case 9 -> content = new MCGameEnd();
             case 10 -> content = new MCGameStart(Integer.parseInt(sendContentTF.getText()));
             case 11 -> content = new MCGameTransmit(new GTCFastRead(sendTokenTF.getText(), Integer.parseInt(sendMillisTF.getText())));
-            case 12 -> content = new MCGameReply(new GRCFastRead());
+            case 12 -> content = new MCGameReply(new GRCFastRead(-1, 0, 0));
             default -> {return null;}
         }
         return new Message(content.getType(), content);
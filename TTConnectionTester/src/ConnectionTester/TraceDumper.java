@@ -0,0 +1,88 @@
+package ConnectionTester;
+
+import Protocol.MCClose;
+import Protocol.MCGameEnd;
+import Protocol.MCGameReply;
+import Protocol.MCGameStart;
+import Protocol.MCGameTransmit;
+import Protocol.MCHello;
+import Protocol.MCHelloReply;
+import Protocol.MCPing;
+import Protocol.MCPong;
+import Protocol.MCRegistration;
+import Protocol.MCRegistrationAccept;
+import Protocol.MCTimeSync;
+import Protocol.MCTimeSyncReply;
+import Protocol.ProtocolTrace;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Prints a protocol trace file (see ProtocolTrace) as text: one line per message and a summary per session,
+ * direction and message type
+ *
+ * Usage: TraceDumper <trace file> [--summary]
+ */
+public class TraceDumper {
+    private static final Map<Short, String> names = Map.ofEntries(
+            Map.entry(MCClose.TYPE_ID, "Close"),
+            Map.entry(MCHello.TYPE_ID, "Hello"),
+            Map.entry(MCHelloReply.TYPE_ID, "HelloReply"),
+            Map.entry(MCRegistration.TYPE_ID, "Registration"),
+            Map.entry(MCRegistrationAccept.TYPE_ID, "RegistrationAccept"),
+            Map.entry(MCTimeSync.TYPE_ID, "TimeSync"),
+            Map.entry(MCTimeSyncReply.TYPE_ID, "TimeSyncReply"),
+            Map.entry(MCPing.TYPE_ID, "Ping"),
+            Map.entry(MCPong.TYPE_ID, "Pong"),
+            Map.entry(MCGameEnd.TYPE_ID, "GameEnd"),
+            Map.entry(MCGameStart.TYPE_ID, "GameStart"),
+            Map.entry(MCGameTransmit.TYPE_ID, "GameTransmit"),
+            Map.entry(MCGameReply.TYPE_ID, "GameReply"));
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: TraceDumper <trace file> [--summary]");
+            System.exit(2);
+        }
+        List<ProtocolTrace.Event> events = ProtocolTrace.read(Paths.get(args[0]));
+        boolean summaryOnly = args.length > 1 && args[1].equals("--summary");
+
+        Map<String, long[]> summary = new TreeMap<>();      // count, bytes
+        long previous = events.isEmpty() ? 0 : events.get(0).getEpochNanos();
+        for (ProtocolTrace.Event event : events) {
+            String direction = event.getDirection() == ProtocolTrace.SENT ? "send" : "recv";
+            String type = name(event.getType());
+            if (!summaryOnly) {
+                System.out.printf("%s %+10.1fus  #%-3d %s %-18s %7d B%n", instant(event.getEpochNanos()),
+                        (event.getEpochNanos() - previous) / 1000.0, event.getSession(), direction, type, event.getSize());
+            }
+            previous = event.getEpochNanos();
+            long[] total = summary.computeIfAbsent(String.format("#%-3d %s %-18s", event.getSession(), direction, type), key -> new long[2]);
+            total[0]++;
+            total[1] += event.getSize();
+        }
+
+        if (!events.isEmpty()) {
+            double seconds = (events.get(events.size() - 1).getEpochNanos() - events.get(0).getEpochNanos()) / 1e9;
+            System.out.printf("%n%d messages from %s, %.3f s%n", events.size(), instant(events.get(0).getEpochNanos()), seconds);
+        }
+        for (Map.Entry<String, long[]> entry : summary.entrySet()) {
+            long[] total = entry.getValue();
+            System.out.printf("%s %8d messages %10d B (avg %d B)%n", entry.getKey(), total[0], total[1], total[1] / total[0]);
+        }
+    }
+
+    private static String name(short type) {
+        String name = names.get(type);
+        return name != null ? name : String.format("0x%04x", type);
+    }
+
+    private static Instant instant(long epochNanos) {
+        return Instant.ofEpochSecond(Math.floorDiv(epochNanos, 1_000_000_000L), Math.floorMod(epochNanos, 1_000_000_000L));
+    }
+}
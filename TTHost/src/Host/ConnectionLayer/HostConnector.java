@@ -1,28 +1,59 @@
 package Host.ConnectionLayer;
 
+import Concurrency.TaskRunner;
+import ConnectionLayer.ClockEstimator;
+import ConnectionLayer.Heartbeat;
+import ConnectionLayer.OutboundQueue;
+import ConnectionLayer.RttStats;
+import ConnectionLayer.SyncClock;
 import Host.Controller.HostController;
 import Host.CustomLogger;
 import Protocol.*;
 
-import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
 import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class is used on host-side to listen for incoming client communication attempts
- * The main purpose is to create a Connection object for client <-> host communication
+ * All client connections are multiplexed on a single selector driven I/O thread, listening continues while clients
+ * are connected, every established connection is reported to the controller as its own session
+ * Clients older than MessageCodec.BINARY_VERSION (serialized wire format) are handed over to a blocking reader thread
+ * of their own after their first bytes were detected. They only get messages their version knows: time sync and
+ * heartbeat are gated by MCTimeSync.MIN_VERSION and MCPing.MIN_VERSION, game controllers check
+ * Connection.getClientVersion, and serialized classes keep the serialVersionUID of earlier versions.
  */
 public class HostConnector {
     public static final int DEFAULT_PORT = 23432;
-    private String password;
+    /**
+     * Interval of the clock offset probes on established connections
+     */
+    public static final long TIME_SYNC_INTERVAL_MS = 2000;
+    /**
+     * Bytes a connection queues for sending before further messages are rejected (congested at half of it)
+     */
+    public static final int SEND_QUEUE_LIMIT = 4 * BinaryMessageCodec.MAX_FRAME_SIZE;
+    private volatile String password;
 
     private final HostController controller;
     private final CustomLogger logger;
-    private ServerSocket serverSocket = null;
-    private Connection connection = null;
-    private Thread listener = null;
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    // accepted connections still in the handshake
+    private final Set<Connection> pending = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger connectionCounter = new AtomicInteger();
+    private final ConcurrentLinkedQueue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+    private Selector selector = null;
+    private ServerSocketChannel serverChannel = null;
+    private Thread ioThread = null;
 
 /*-----------------------------------------------------CONTROLLER-----------------------------------------------------*/
 
@@ -41,332 +72,665 @@ public class HostConnector {
      * @param password optional password for client verification
      * @throws IOException thrown by socket operation, usually a severe problem resulting in program halt
      */
-    public void startListening(int port, String password) throws IOException {
-        assert (serverSocket == null);
-        assert (listener == null);
-        // open listening socket
+    public synchronized void startListening(int port, String password) throws IOException {
+        assert (serverChannel == null);
         this.password = password;
-        serverSocket = new ServerSocket(port);
-        logger.info("Listening on " + serverSocket.toString());
-        listener = new Thread(new Listener(serverSocket));
-        listener.start();
-        logger.info("Listener started");
+        startIOThread();
+        // open listening socket
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        ServerSocketChannel tmp = serverChannel;
+        runInIOThread(() -> {
+            try {
+                tmp.register(selector, SelectionKey.OP_ACCEPT);
+            } catch (ClosedChannelException e) {
+                logger.info("listening stopped before registration");
+            }
+        });
+        logger.info("Listening on " + serverChannel.getLocalAddress());
+        statusChanged(Status.Online, null, null);
     }
 
     /**
      * Stop the listening process
+     * Established connections stay open
      */
-    public void stopListening() {
-        assert (serverSocket != null);
-        assert (listener != null);
+    public synchronized void stopListening() {
+        assert (serverChannel != null);
         try {
-            serverSocket.close();
-            serverSocket = null;
-            listener = null;
+            serverChannel.close();
+            serverChannel = null;
+            selector.wakeup();  // lets the selector drop the cancelled key
         } catch (Exception e) {
             logger.severe("stopListening failed\n" + e.getMessage() + "\nshutting down");
             System.exit(1);
         }
         logger.info("listening stopped");
+        statusChanged(Status.Offline, null, ResourceBundle.getBundle("Resources/StringLiterals").getString("listening_stopped"));
+    }
+
+    /**
+     * Check if the connector accepts new clients
+     * @return true if listening
+     */
+    public synchronized boolean isListening() {
+        return serverChannel != null;
     }
 
     /**
-     * Disconnect from the client
+     * Disconnect from all clients
+     * @param errorCode closing-reason to send to the clients
      */
-    public void disconnect(int errorCode) {
-        assert (connection != null);
-        connection.close(errorCode);
-        connection = null;
-        logger.info("disconnected");
+    public void disconnectAll(int errorCode) {
+        for (Connection connection : connections) {
+            connection.close(errorCode);
+        }
+        logger.info("disconnected all");
     }
 
 /*------------------------------------------------------PRIVATE------------------------------------------------------*/
 
     /**
-     * Called by listener to forward connection status changes
+     * Called by the I/O thread to forward connection status changes
      * @param status new connection status
-     * @param connection connection object (only if status==connected)
+     * @param connection affected connection (null if listening status changed)
      * @param msg special message to display in GUI
      */
     private void statusChanged(Status status, Connection connection, String msg) {
         logger.info("status changed to " + status.name());
-        if (status == Status.Connected) {
-            this.connection = connection;
-            try {
-                this.serverSocket.close();
-            } catch (IOException e) {
-                logger.severe("socket close failed\n" + e.getMessage() + "\nshutting down");
-                e.printStackTrace();
-                System.exit(1);
-            }
-            this.serverSocket = null;
-            this.listener = null;
-        }
         controller.connectionStatus(status, connection, msg);
     }
 
+    /**
+     * Execute a task (e.g. channel registration) on the I/O thread before its next select
+     * @param task task to execute
+     */
+    private void runInIOThread(Runnable task) {
+        pendingTasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Create selector and I/O thread (once)
+     * @throws IOException thrown by selector creation
+     */
+    private void startIOThread() throws IOException {
+        if (ioThread != null) return;
+        selector = Selector.open();
+        ioThread = TaskRunner.start("HostConnector-IO", new IOLoop());
+        logger.info("I/O thread started");
+    }
+
     /**
      * This class represents the connection between a host and a client and is able to send/receive messages to/from
      * the client
+     * Reading and the communication initiation handshake are driven by the I/O thread
      */
     public class Connection {
-        private final Socket clientSocket;
-        private final ObjectInputStream in;
-        private final ObjectOutputStream out;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final int number = connectionCounter.incrementAndGet();     // session number in the protocol trace
+        private final OutboundQueue outQueue = new OutboundQueue(SEND_QUEUE_LIMIT, number,
+                () -> runInIOThread(this::flush), this::congestionChanged);
+        private ByteBuffer readBuffer = ByteBuffer.allocate(256);
+        private final ClockEstimator clock = new ClockEstimator();
+        private final Heartbeat heartbeat = new Heartbeat();
+        private long lastReadTime;
+        private final long acceptedAt = System.currentTimeMillis();
+
+        private Handshake handshake = Handshake.Hello;
+        private boolean closeAfterFlush = false;
+        private volatile int clientVersion;
+        // serialized wire format of a legacy client (null for binary clients, which are driven by the I/O thread)
+        private volatile MessageCodec legacyCodec = null;
 
-        private int clientVersion;
+        /**
+         * Create Connection object and register it for reading
+         * @param channel accepted client channel
+         * @throws IOException thrown by channel operation
+         */
+        private Connection(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            this.key = channel.register(selector, SelectionKey.OP_READ, this);
+            pending.add(this);
+        }
 
         /**
-         * Create Connection object
-         * Creates streams and prepares 'low-level' communication
-         * [possibly blocking]
-         * @param clientSocket Socket-connection between client and host
-         * @throws IOException thrown by socket operation, usually a severe problem resulting in program halt
+         * Send Message Object to client
+         * [non-blocking] the message is queued and written by the I/O thread
+         * @param msg Message Object
+         * @return false if the message was dropped (connection closed or send queue full)
          */
-        public Connection (Socket clientSocket) throws IOException {
-            this.clientSocket = clientSocket;
-            out = new ObjectOutputStream(clientSocket.getOutputStream());
-            out.flush();
-            in = new ObjectInputStream(clientSocket.getInputStream());
+        public boolean sendMessage(Message msg) {
+            logger.fine("send:\n{}", msg);
+            return enqueue(msg);
         }
 
         /**
-         * Establishes communication via communication initiation handshake
-         * [blocking]
-         * @return true if connection established successfully; false if password incorrect
-         * @throws ProtocolViolationException thrown if client violated communication initiation protocol
-         * @throws ConnectionClosedException thrown if host closed socket surprisingly
+         * Check if the client takes the data slower than it is sent
+         * Optional data (e.g. prefetching) should not be sent while congested.
+         * @return true if the send queue is above its high watermark
          */
-        private boolean initiateCommunication() throws ProtocolViolationException, ConnectionClosedException {
-            // wait for Hello
-            Message msg = receiveMessage();
-            if (msg.getType() == MCHello.TYPE_ID) {
-                MCHello content = (MCHello) msg.getContent();
-                clientVersion = content.getVersion();
-                // TODO check if version matches
-            } else {
-                logger.warning("protocol violation (no hello)");
-                close(2);
-                throw new ProtocolViolationException("Client initiated communication without Hello: " + msg.toString());
+        public boolean isCongested() {
+            return outQueue.isCongested();
+        }
+
+        /**
+         * Get queue depth and flush latency of the send queue
+         * @return send queue metrics
+         */
+        public OutboundQueue.Metrics getSendMetrics() {
+            return outQueue.getMetrics();
+        }
+
+        /**
+         * Get the clock offset estimation of this connection (client clock minus host clock)
+         * @return clock estimator, not synchronized for clients older than MCTimeSync.MIN_VERSION
+         */
+        public ClockEstimator getClock() {
+            return clock;
+        }
+
+        /**
+         * Get the round trip statistics of the heartbeat of this connection
+         * @return round trip times, without samples for clients older than MCPing.MIN_VERSION
+         */
+        public RttStats getRtt() {
+            return heartbeat.getRtt();
+        }
+
+        /**
+         * Close connection by sending close message and closing the underlying socket (after sending)
+         * @param errorCode closing-reason to send to the client
+         */
+        public void close(int errorCode) {
+            boolean wasEstablished;
+            synchronized (this) {
+                if (!channel.isOpen() || closeAfterFlush) return;
+                sendMessage(new Message(MCClose.TYPE_ID, new MCClose(errorCode)));
+                closeAfterFlush = true;
+                wasEstablished = handshake == Handshake.Established;
+                handshake = Handshake.Closed;
+                if (outQueue.isEmpty()) closeChannel();
             }
-            logger.info("hello received, version: " + getClientVersion());
-
-            // send Hello-Reply
-            boolean pwRequired = password != null;
-            MessageContent tmp = new MCHelloReply(pwRequired);
-            Message helloReply = new Message(tmp.getType(), tmp);
-            sendMessage(helloReply);
-            logger.info("hello-reply send");
-
-            // no password required -> finished
-            if (!pwRequired) {
-                logger.info("no password required\nconnection established");
-                return true;
+            connections.remove(this);
+            pending.remove(this);
+            if (wasEstablished) {
+                statusChanged(Status.Offline, this, ResourceBundle.getBundle("Resources/StringLiterals").getString("disconnected"));
             }
+            logger.info("connection closed, code: " + errorCode);
+        }
 
-            // wait for Registration
-            msg = receiveMessage();
-            switch (msg.getType()) {
-                case MCRegistration.TYPE_ID -> {
-                    MCRegistration content = (MCRegistration) msg.getContent();
-                    if (!content.getPassword().equals(password)) {
-                        logger.warning("password wrong");
-                        close(3);
-                        return false;
-                    }
-                }
-                case MCClose.TYPE_ID -> {
-                    logger.warning("connection closed after hello-reply");
-                    throw new ConnectionClosedException("Connection closed after hello-reply: " + helloReply.toString(), ((MCClose)msg.getContent()).getErrorCode());
-                }
-                default -> {
-                    logger.warning("protocol violation after hello-reply");
-                    close(2);
-                    throw new ProtocolViolationException("received wrong message: [" + msg.toString() + "]\nafter hello-reply: [" + helloReply.toString() + "]");
+        /**
+         * Get the Clients version
+         * @return client version
+         */
+        public int getClientVersion() {
+            return clientVersion;
+        }
+
+        /**
+         * Encode message into the out queue, the I/O thread is woken to write it
+         * @param msg Message Object
+         * @return false if the message was dropped
+         */
+        private boolean enqueue(Message msg) {
+            if (!channel.isOpen()) {
+                logger.warning("sendMessage(...) on closed connection\nMessage: {}", msg);
+                return false;
+            }
+            MessageCodec legacy = legacyCodec;
+            if (legacy != null) {
+                try {
+                    legacy.writeMessage(msg);
+                    return true;
+                } catch (IOException e) {
+                    logger.warning("sendMessage(...) failed\n" + e.getMessage() + "\nclosing connection");
+                    // not on the calling thread, which may hold the connection lock (controller notification)
+                    runInIOThread(this::lost);
+                    return false;
                 }
             }
-            logger.info("registration received");
-
-            // send registration-Accept
-            tmp = new MCRegistrationAccept();
-            msg = new Message(tmp.getType(), tmp);
-            sendMessage(msg);
-            logger.info("registration-accept send\nconnection established");
+            if (!outQueue.add(msg)) {
+                logger.warning("send queue full, message dropped\n{}\n{}", outQueue.getMetrics(), msg);
+                return false;
+            }
             return true;
         }
 
         /**
-         * Send Message Object to client
-         * @param msg Message Object
+         * Send queue crossed a watermark
+         * @param congested true if the queue is above the high watermark
+         */
+        private void congestionChanged(boolean congested) {
+            logger.info("send queue {}\n{}", congested ? "congested" : "free", outQueue.getMetrics());
+        }
+
+        /**
+         * Send a clock offset probe (not logged, t1 is taken right before encoding)
          */
-        public void sendMessage(Message msg) {
-            logger.info("send:\n" + msg.toString());
+        private void sendTimeSync() {
+            if (clientVersion < MCTimeSync.MIN_VERSION) return;
+            enqueue(new Message(MCTimeSync.TYPE_ID, new MCTimeSync(SyncClock.now())));
+            flush();    // already on the I/O thread, write right away to keep t1 close to the actual send
+        }
+
+        /**
+         * Add the round trip of a probe to the estimation, continue the initial burst until the window is filled
+         * @param reply reply of the client
+         */
+        private void timeSyncReceived(MCTimeSyncReply reply) {
+            clock.addSample(reply.getHostSendTime(), reply.getClientReceiveTime(), reply.getClientSendTime(), lastReadTime);
+            if (clock.getSampleCount() < ClockEstimator.SAMPLES) sendTimeSync();
+            if (handshake == Handshake.Established) controller.clockUpdated(this);
+        }
+
+        /**
+         * Send the next heartbeat ping, drop the connection if the client missed too many beats
+         */
+        private void sendPing() {
+            if (clientVersion < MCPing.MIN_VERSION) return;
+            if (heartbeat.isDead()) {
+                logger.warning("client missed {} heartbeats, connection lost", Heartbeat.getMissedLimit());
+                lost();
+                return;
+            }
+            enqueue(new Message(MCPing.TYPE_ID, heartbeat.ping(SyncClock.now())));
+            flush();    // already on the I/O thread, keep the send time close to the actual send
+        }
+
+        /**
+         * Add the round trip of a ping to the statistics
+         * @param pong reply of the client
+         */
+        private void pongReceived(MCPong pong) {
+            if (heartbeat.pong(pong, lastReadTime) < 0) {
+                logger.fine("dropped stale pong\n{}", pong);
+                return;
+            }
+            if (handshake == Handshake.Established) controller.rttUpdated(this);
+        }
+
+        /**
+         * Write as much of the out queue as the socket takes (one gathering write), register for write readiness for
+         * the rest (on the I/O thread)
+         */
+        private synchronized void flush() {
+            if (!channel.isOpen()) return;
+            boolean drained;
             try {
-                out.writeObject(msg);
+                drained = outQueue.write(channel);
             } catch (IOException e) {
-                logger.severe("sendMessage(...) failed\nMessage: " + msg.toString() + "\n" + e.getMessage() + "\nshutting down");
-                e.printStackTrace();
-                System.exit(1);
+                logger.warning("sendMessage(...) failed\n" + e.getMessage() + "\nclosing connection");
+                outQueue.clear();
+                // not while holding the connection lock (controller notification)
+                runInIOThread(this::lost);
+                return;
+            }
+            try {
+                if (drained) {
+                    if (closeAfterFlush) {
+                        closeChannel();
+                    } else if (key.isValid()) {
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                } else if (key.isValid()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    selector.wakeup();
+                }
+            } catch (CancelledKeyException e) {
+                // closed meanwhile (legacy hand over or lost connection), nothing left to write for
+            }
+        }
+
+        /**
+         * Drop the connection if its handshake did not finish within the heartbeat timeout (on the I/O thread)
+         * @param now current time (in milliseconds)
+         */
+        private void checkHandshake(long now) {
+            if (!channel.isOpen()) {
+                pending.remove(this);
+                return;
             }
+            if (now - acceptedAt < (long) Heartbeat.getInterval() * Heartbeat.getMissedLimit()) return;
+            logger.warning("handshake not finished after {}ms, connection dropped", now - acceptedAt);
+            boolean announced = handshake == Handshake.Registration;
+            lost();
+            if (announced) statusChanged(Status.Online, null, null);
         }
 
         /**
-         * Receive next message Object from client
-         * [blocking]
-         * @return Message Object
+         * Called by the I/O thread if the channel has readable data
+         * Extracts complete frames and handles them
          */
-        public Message receiveMessage() {
-            Message msg = null;
+        private void onReadable() {
+            int read;
             try {
-                msg = (Message) in.readObject();
-            } catch (SocketException e) {
-                if (clientSocket.isClosed()) {
-                    return null;
-                } else {
-                    logger.severe("receiveMessage(...) failed\n" + e.getMessage() + "\nshutting down");
-                    e.printStackTrace();
-                    System.exit(1);
+                read = channel.read(readBuffer);
+                lastReadTime = SyncClock.now();
+            } catch (IOException e) {
+                logger.warning("receiveMessage(...) failed\n" + e.getMessage());
+                lost();
+                return;
+            }
+            if (read == -1) {
+                logger.info("eof reached");
+                lost();
+                return;
+            }
+            readBuffer.flip();
+            try {
+                if (handshake == Handshake.Hello && readBuffer.remaining() >= 2
+                        && readBuffer.get(0) == (byte) 0xAC && readBuffer.get(1) == (byte) 0xED) {
+                    startLegacy();
+                    return;
                 }
-            } catch (IOException | ClassNotFoundException e) {
-                logger.severe("receiveMessage(...) failed\n" + e.getMessage() + "\nshutting down");
-                e.printStackTrace();
-                System.exit(1);
+                while (readBuffer.remaining() >= 4 && channel.isOpen()) {
+                    int length = readBuffer.getInt(readBuffer.position());
+                    if (length < 2 || length > BinaryMessageCodec.MAX_FRAME_SIZE) {
+                        throw new ProtocolViolationException("bad frame length (" + length + ")");
+                    }
+                    if (readBuffer.remaining() < 4 + length) break;
+                    Message msg = BinaryMessageCodec.decode(new WireBuffer(readBuffer.array(), readBuffer.position() + 4, length));
+                    readBuffer.position(readBuffer.position() + 4 + length);
+                    ProtocolTrace.record(ProtocolTrace.RECEIVED, msg.getType(), length, number);
+                    logger.fine("received:\n{}", msg);
+                    handle(msg);
+                }
+            } catch (ProtocolViolationException e) {
+                violation(e);
+                return;
+            }
+            readBuffer.compact();
+            // grow for large frames
+            if (!readBuffer.hasRemaining()) {
+                ByteBuffer tmp = ByteBuffer.allocate(readBuffer.capacity() * 2);
+                readBuffer.flip();
+                tmp.put(readBuffer);
+                readBuffer = tmp;
             }
-            assert (msg != null);
-            logger.info("received:\n" + msg.toString());
-            return msg;
         }
 
         /**
-         * Close connection by sending close message and closing the underlying socket
-         * @param errorCode closing-reason to send to the client
+         * Handle a received message: communication initiation handshake or forward to the controller
+         * @param msg received message
+         * @throws ProtocolViolationException thrown if client violated communication initiation protocol
          */
-        public void close(int errorCode) {
-            sendMessage(new Message(MCClose.TYPE_ID, new MCClose(errorCode)));
+        private void handle(Message msg) throws ProtocolViolationException {
+            if (msg.getType() == MCTimeSyncReply.TYPE_ID && (handshake == Handshake.Registration || handshake == Handshake.Established)) {
+                timeSyncReceived((MCTimeSyncReply) msg.getContent());
+                return;
+            }
+            if (msg.getType() == MCPong.TYPE_ID && (handshake == Handshake.Registration || handshake == Handshake.Established)) {
+                pongReceived((MCPong) msg.getContent());
+                return;
+            }
+            switch (handshake) {
+                case Hello -> {
+                    // wait for Hello
+                    if (msg.getType() != MCHello.TYPE_ID) {
+                        logger.warning("protocol violation (no hello)");
+                        throw new ProtocolViolationException("Client initiated communication without Hello: " + msg.toString());
+                    }
+                    clientVersion = ((MCHello) msg.getContent()).getVersion();
+                    MessageCodec legacy = legacyCodec;
+                    boolean fits = legacy != null ? legacy.matchesVersion(clientVersion) : clientVersion >= MessageCodec.BINARY_VERSION;
+                    if (!fits) {
+                        throw new ProtocolViolationException("Client version " + clientVersion + " used wrong wire format");
+                    }
+                    logger.info("hello received, version: " + getClientVersion());
+                    statusChanged(Status.Connecting, null, null);
+
+                    // send Hello-Reply
+                    boolean pwRequired = password != null;
+                    MessageContent tmp = new MCHelloReply(pwRequired);
+                    sendMessage(new Message(tmp.getType(), tmp));
+                    logger.info("hello-reply send");
+                    sendTimeSync();
+
+                    // no password required -> finished
+                    if (!pwRequired) {
+                        logger.info("no password required\nconnection established");
+                        established();
+                    } else {
+                        handshake = Handshake.Registration;
+                    }
+                }
+                case Registration -> {
+                    // wait for Registration
+                    switch (msg.getType()) {
+                        case MCRegistration.TYPE_ID -> {
+                            MCRegistration content = (MCRegistration) msg.getContent();
+                            if (!content.getPassword().equals(password)) {
+                                logger.warning("password wrong");
+                                close(3);
+                                statusChanged(Status.Online, null, ResourceBundle.getBundle("Resources/StringLiterals").getString("password_wrong_host_side"));
+                                return;
+                            }
+                        }
+                        case MCClose.TYPE_ID -> {
+                            logger.warning("connection closed after hello-reply");
+                            closeChannel();
+                            statusChanged(Status.Online, null, ResourceBundle.getBundle("Resources/StringLiterals").getString("client_closed_connection"));
+                            return;
+                        }
+                        default -> {
+                            logger.warning("protocol violation after hello-reply");
+                            throw new ProtocolViolationException("received wrong message: [" + msg.toString() + "]\nafter hello-reply");
+                        }
+                    }
+                    logger.info("registration received");
+
+                    // send registration-Accept
+                    MessageContent tmp = new MCRegistrationAccept();
+                    sendMessage(new Message(tmp.getType(), tmp));
+                    logger.info("registration-accept send\nconnection established");
+                    established();
+                }
+                case Established -> {
+                    controller.messageReceived(this, msg);
+                    if (msg.getType() == MCClose.TYPE_ID) lost();
+                }
+                case Closed -> logger.info("dropped message on closing connection\n{}", msg);
+            }
+        }
+
+        /**
+         * Close the connection after a protocol violation
+         * @param e violation
+         */
+        private void violation(ProtocolViolationException e) {
+            logger.warning("Protocol Violation\n" + e.getMessage());
+            boolean established = handshake == Handshake.Established;
+            close(2);
+            if (!established) {
+                statusChanged(Status.Online, null, ResourceBundle.getBundle("Resources/StringLiterals").getString("protocol_violation"));
+            }
+        }
+
+        /**
+         * Hand a client using the serialized wire format over to a blocking reader thread (on the I/O thread)
+         * The channel leaves the selector, the bytes read so far are passed on to the reader.
+         */
+        private void startLegacy() {
+            byte[] received = new byte[readBuffer.remaining()];
+            readBuffer.get(received);
+            key.cancel();
+            // the cancelled key is deregistered by the next select, only then the channel may block
+            runInIOThread(() -> {
+                try {
+                    channel.configureBlocking(true);
+                } catch (IOException e) {
+                    logger.warning("legacy client not switchable to blocking mode\n" + e.getMessage());
+                    closeChannel();
+                    return;
+                }
+                TaskRunner.start("HostConnector-Legacy", () -> legacyLoop(received));
+            });
+        }
+
+        /**
+         * Reader thread of a legacy client: detect the codec, then read and handle messages until the connection ends
+         * @param received bytes read before the hand over
+         */
+        private void legacyLoop(byte[] received) {
             try {
-                clientSocket.close();
-                statusChanged(Status.Offline, null, ResourceBundle.getBundle("Resources/StringLiterals").getString("disconnected"));
+                MessageCodec codec = MessageCodec.detect(new SequenceInputStream(new ByteArrayInputStream(received),
+                        channel.socket().getInputStream()), channel.socket().getOutputStream());
+                legacyCodec = codec;
+                logger.info("client uses the serialized wire format");
+                while (channel.isOpen()) {
+                    Message msg = codec.readMessage();
+                    lastReadTime = SyncClock.now();
+                    logger.fine("received:\n{}", msg);
+                    handle(msg);
+                }
+            } catch (ProtocolViolationException e) {
+                violation(e);
             } catch (IOException e) {
-                logger.severe("closing connection failed\n" + e.getMessage() + "\nshutting down");
-                e.printStackTrace();
-                System.exit(1);
+                if (channel.isOpen()) logger.warning("receiveMessage(...) failed\n" + e.getMessage());
+                lost();
             }
-            logger.info("connection closed, code: " + errorCode);
         }
 
         /**
-         * Get the Clients version
-         * @return client version
+         * Handshake finished, report new session
          */
-        public int getClientVersion() {
-            return clientVersion;
+        private void established() {
+            handshake = Handshake.Established;
+            pending.remove(this);
+            connections.add(this);
+            statusChanged(Status.Connected, this, null);
         }
-    }
-
-    /**
-     * This class is used to Listen independently of other executions
-     */
-    class Listener implements Runnable {
-        ServerSocket serverSocket;
 
         /**
-         * Create a listener for this socket
-         * @param serverSocket listening socket
+         * Connection lost (eof or I/O error)
          */
-        public Listener(ServerSocket serverSocket) {
-            this.serverSocket = serverSocket;
+        private void lost() {
+            boolean wasEstablished;
+            synchronized (this) {
+                wasEstablished = handshake == Handshake.Established;
+                handshake = Handshake.Closed;
+                closeChannel();
+            }
+            connections.remove(this);
+            pending.remove(this);
+            if (wasEstablished) {
+                statusChanged(Status.Offline, this, ResourceBundle.getBundle("Resources/StringLiterals").getString("disconnected"));
+            }
         }
 
         /**
-         * Listen until fatal error occurs or connection attempt by a client
+         * Close channel and deregister from the selector
          */
+        private synchronized void closeChannel() {
+            try {
+                key.cancel();
+                channel.close();
+            } catch (IOException e) {
+                logger.warning("closing connection failed\n" + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Selector loop: accepts clients, dispatches read/write readiness to the connections and sends the periodic clock
+     * offset probes and heartbeats
+     * A runtime exception while serving one connection drops only that connection, the loop keeps running.
+     */
+    private class IOLoop implements Runnable {
+        private long nextTimeSync = System.currentTimeMillis() + TIME_SYNC_INTERVAL_MS;
+        private long nextPing = System.currentTimeMillis() + Heartbeat.getInterval();
+
         @Override
         public void run() {
-
             while (true) {
-                // listen on socket and accept
-                Socket tmp = null;
                 try {
-                    statusChanged(Status.Online, null, null);
-                    tmp = serverSocket.accept();
-                } catch (SocketException e) {      // Listening stopped -> end
-                    logger.info("Listening stopped");
-                    logger.info(e.getMessage());
-                    try {
-                        serverSocket.close();
-                    } catch (IOException e1) {
-                        logger.severe("closing socket failed\n" + e1.getMessage() + "\nshutting down");
-                        e1.printStackTrace();
-                        System.exit(1);
+                    long timeout = Math.min(nextTimeSync, nextPing) - System.currentTimeMillis();
+                    if (timeout > 0) {
+                        selector.select(timeout);
+                    } else {
+                        selector.selectNow();
+                    }
+                    long now = System.currentTimeMillis();
+                    if (now >= nextTimeSync) {
+                        nextTimeSync = now + TIME_SYNC_INTERVAL_MS;
+                        for (Connection connection : connections) serve(connection, connection::sendTimeSync);
+                    }
+                    if (now >= nextPing) {
+                        nextPing = now + Heartbeat.getInterval();
+                        for (Connection connection : connections) serve(connection, connection::sendPing);
+                        for (Connection connection : pending) serve(connection, () -> connection.checkHandshake(now));
                     }
-                    statusChanged(Status.Offline, null, ResourceBundle.getBundle("Resources/StringLiterals").getString("listening_stopped"));
-                    return;
                 } catch (IOException e) {
-                    logger.severe("Socket.accept failed\n" + e.getMessage() + "\nshutting down");
+                    logger.severe("Selector.select failed\n" + e.getMessage() + "\nshutting down");
                     e.printStackTrace();
                     System.exit(-1);
                 }
-
-                statusChanged(Status.Connecting, null, null);
-
-                try {
-                    Connection connection = new Connection(tmp);
-                    if (!connection.initiateCommunication()) {
-                        statusChanged(Status.Online, null, ResourceBundle.getBundle("Resources/StringLiterals").getString("password_wrong_host_side"));
+                Runnable task;
+                while ((task = pendingTasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        logger.warning("I/O task failed\n" + e);
+                    }
+                }
+                Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    SelectionKey key = iter.next();
+                    iter.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept((ServerSocketChannel) key.channel());
                         continue;
                     }
-                    statusChanged(Status.Connected, connection, null);
-                    return;
-                } catch (IOException e) {
-                    logger.severe("connection creation failed\n" + e.getMessage() + "\nshutting down");
-                    e.printStackTrace();
-                    System.exit(-1);
-                } catch (ProtocolViolationException e) {
-                    logger.warning("Protocol Violation\n" + e.getMessage());
-                    e.printStackTrace();
-                    statusChanged(Status.Online, null, ResourceBundle.getBundle("Resources/StringLiterals").getString("protocol_violation"));
-                } catch (ConnectionClosedException e) {
-                    logger.warning("Client closed connection\n" + e.getMessage());
-                    e.printStackTrace();
-                    statusChanged(Status.Online, null, ResourceBundle.getBundle("Resources/StringLiterals").getString("client_closed_connection"));
+                    Connection connection = (Connection) key.attachment();
+                    serve(connection, () -> {
+                        if (key.isWritable()) connection.flush();
+                        if (key.isValid() && key.isReadable()) connection.onReadable();
+                    });
                 }
             }
         }
-    }
-
-    /**
-     * Independent Message Receiver
-     * Receives Messages and forwards them to the controller
-     */
-    public static class Receiver implements Runnable {
-        private final Connection connection;
-        private final HostController controller;
 
         /**
-         * Create Receiver Runnable
-         * @param controller controller reference for incoming message notification
-         * @param connection connection reference to receive messages
+         * Run an action of a connection, drop the connection if it fails unexpectedly
+         * @param connection served connection
+         * @param action action on the connection
          */
-        public Receiver(HostController controller, Connection connection) {
-            this.controller = controller;
-            this.connection = connection;
+        private void serve(Connection connection, Runnable action) {
+            try {
+                action.run();
+            } catch (CancelledKeyException e) {
+                logger.info("connection closed while serving it");
+                connection.lost();
+            } catch (RuntimeException e) {
+                logger.warning("serving connection failed, connection dropped\n" + e);
+                e.printStackTrace();
+                connection.lost();
+            }
         }
 
-        /**
-         * Runnable: receive message and forward
-         */
-        @Override
-        public void run() {
-            while (true) {
-                Message msg;
-                msg = connection.receiveMessage();
-                if (msg == null) break;
-                controller.messageReceived(msg);
-                if (msg.getType() == MCClose.TYPE_ID) break;
+        private void accept(ServerSocketChannel server) {
+            try {
+                SocketChannel channel = server.accept();
+                if (channel == null) return;
+                logger.info("accepted " + channel.getRemoteAddress());
+                new Connection(channel);
+            } catch (IOException e) {
+                logger.warning("accept failed\n" + e.getMessage());
             }
         }
     }
 
+    /**
+     * Progress of the communication initiation handshake of a connection
+     */
+    private enum Handshake {Hello, Registration, Established, Closed}
+
     /**
      * Representing the current connection status
      */
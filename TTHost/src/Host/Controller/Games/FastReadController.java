@@ -1,39 +1,126 @@
 package Host.Controller.Games;
 
+import Concurrency.TaskRunner;
 import Exceptions.BadGameIDException;
 import Host.CustomLogger;
 import Host.GUI.Games.FastReadPane;
 import Host.GUI.HostGui;
 import Host.Controller.HostController;
+import ContentPanes.Games.GRCFastRead;
 import ContentPanes.Games.GTCFastRead;
+import ContentPanes.Games.GTCFastReadPreload;
+import ContentPanes.Games.GTCFastReadShow;
+import ConnectionLayer.ClockEstimator;
+import ConnectionLayer.RttStats;
+import ConnectionLayer.SyncClock;
 import Protocol.MCGameReply;
 import Protocol.MCGameTransmit;
 import Protocol.MessageContent;
 import Protocol.ProtocolViolationException;
 
+import javax.swing.*;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * Controller for the FastRead game
+ * GUI notifications from the playlist thread and the session mailbox are passed to the EDT.
+ * Clients older than GTCFastReadPreload.MIN_VERSION get every token with its display order (GTCFastRead) and only
+ * report that the display finished.
  */
 public class FastReadController implements GameControllerCreator.GameController {
     public static final int ID = 0;
 
+    /**
+     * Number of tokens sent ahead of the current one
+     */
+    public static final int PREFETCH = 16;
+    /**
+     * Safety margin added to the p99 one-way delay of the heartbeat (in nanoseconds)
+     */
+    private static final long RTT_MARGIN = 10_000_000L;
+
     private final FastReadPane gui;
     private final HostController mainController;
 
     private final CustomLogger logger;
 
+    // mirror of the client's preload window (first in, first out)
+    private final Set<Integer> preloaded = new LinkedHashSet<>();
+    private boolean resetPending = true;
+
+    private volatile FastReadPlaylist playlist = null;
+
 /*------------------------------------------------------GAME_GUI------------------------------------------------------*/
 
     /**
      * User pressed display
-     * Send client display order
+     * Send client display order (preloads the token first if the client does not have it yet)
+     * and prefetch the following tokens while the client displays
+     * With a synchronized client clock the token is scheduled far enough ahead to arrive in time,
+     * so host preview and client show it at the same instant.
+     * @param id token id (start index in the presented text)
      * @param token token to display
      * @param millis display duration (in milliseconds)
+     * @return host clock time (see SyncClock) the client shows the token at, -1 if the token could not be preloaded
+     * (send queue full, nothing was shown)
      */
-    public void display(String token, int millis) {
+    public long display(int id, String token, int millis) {
         logger.info("display token(" + token + ") for " + millis + "ms");
-        MCGameTransmit.GTContent content = new GTCFastRead(token, millis);
-        mainController.sendGameTransmit(content);
+        Map<Integer, String> single = new LinkedHashMap<>();
+        single.put(id, token);
+        if (!preload(single)) {
+            logger.warning("token not preloaded (send queue full), display skipped");
+            return -1;
+        }
+        long hostAt = SyncClock.now() + scheduleLead();
+        if (!show(id, token, millis, hostAt)) {
+            logger.warning("display order not sent (send queue full), display skipped");
+            return -1;
+        }
+        prefetch();
+        return hostAt;
+    }
+
+    /**
+     * User started the automatic sequence
+     * Shows the given tokens one after another on a scheduler thread, the GUI is notified when it finished
+     * @param tokens tokens to show in order, mapped by token id (start index in the presented text)
+     * @param schedule per token display duration
+     * @param gapMillis pause between two tokens (in milliseconds)
+     */
+    public synchronized void startPlaylist(Map<Integer, String> tokens, FastReadPlaylist.Schedule schedule, int gapMillis) {
+        if (playlist != null) playlist.stop();
+        playlist = new FastReadPlaylist(this, tokens, schedule, gapMillis);
+        TaskRunner.start("FastRead-Playlist", playlist);
+    }
+
+    /**
+     * User stopped the automatic sequence
+     */
+    public synchronized void stopPlaylist() {
+        if (playlist != null) playlist.stop();
+    }
+
+    /**
+     * Send the client the next PREFETCH tokens it does not have yet
+     * Skipped while the connection is congested, show orders preload their token themselves.
+     */
+    public synchronized void prefetch() {
+        if (isLegacyClient() || mainController.isSendCongested()) return;
+        preload(gui.upcomingTokens(PREFETCH));
+    }
+
+    /**
+     * Presented text changed (token ids are no longer valid)
+     * The next preload tells the client to drop its preloaded tokens
+     */
+    public synchronized void contentChanged() {
+        preloaded.clear();
+        resetPending = true;
     }
 
     /**
@@ -42,6 +129,7 @@ public class FastReadController implements GameControllerCreator.GameController
      */
     public void end() {
         logger.info("ending game");
+        stopPlaylist();
         mainController.endGame();
     }
 
@@ -60,6 +148,7 @@ public class FastReadController implements GameControllerCreator.GameController
 
     /**
      * Forward received Message Object
+     * Reports the exposure measured by the client to the running playlist or the GUI
      * @param reply content of the message
      */
     @Override
@@ -67,11 +156,120 @@ public class FastReadController implements GameControllerCreator.GameController
         if (reply.getType() != MCGameReply.TYPE_ID) throw new ProtocolViolationException("FastRead received wrong message type");
         MCGameReply.GRContent tmp = ((MCGameReply)reply).getContent();
         if (tmp.getGameID() != ID) throw new ProtocolViolationException("FastRead received message for different game");
-        gui.displayFinished();
+        GRCFastRead content = (GRCFastRead) tmp;
+        FastReadPlaylist current = playlist;
+        if (isLegacyClient()) {
+            // the reply carries neither token id nor timing
+            if (current != null && current.repliedUnmeasured()) return;
+            logger.info("token displayed");
+            SwingUtilities.invokeLater(() -> gui.displayFinished());
+            return;
+        }
+        if (current != null && current.replied(content)) return;
+        logger.info("token displayed for " + content.getAchievedMicros() + "us (error " + content.getErrorMicros() + "us)");
+        SwingUtilities.invokeLater(() -> gui.displayFinished(content.getAchievedMicros(), content.getErrorMicros()));
+    }
+
+/*------------------------------------------------------PLAYLIST------------------------------------------------------*/
+
+    /**
+     * Get how far ahead of its show time a show order has to be sent
+     * With a synchronized client clock the lead covers the clock estimation and the heartbeat's p99 one-way delay,
+     * otherwise the client shows on arrival and the lead is the average one-way delay, so the show time matches the
+     * expected arrival.
+     * @return lead time (in nanoseconds)
+     */
+    long scheduleLead() {
+        ClockEstimator clock = mainController.getClock();
+        RttStats rtt = mainController.getRtt();
+        boolean measured = rtt != null && rtt.getCount() > 0;
+        if (clock != null && clock.isSynchronized()) {
+            long lead = clock.suggestedLead();
+            return measured ? Math.max(lead, rtt.getP99() / 2 + RTT_MARGIN) : lead;
+        }
+        return measured ? rtt.getAvg() / 2 : 0;
+    }
+
+    /**
+     * Send show order for a preloaded token
+     * Older clients get the token itself and show it on arrival.
+     * @param id token id
+     * @param token token (only sent to older clients)
+     * @param millis display duration (in milliseconds)
+     * @param hostAt host clock time (see SyncClock) to show the token at
+     * @return false if the order was not sent (send queue full)
+     */
+    boolean show(int id, String token, int millis, long hostAt) {
+        if (isLegacyClient()) return mainController.sendGameTransmit(new GTCFastRead(token, millis));
+        ClockEstimator clock = mainController.getClock();
+        long clientAt = clock != null && clock.isSynchronized() ? clock.toRemote(hostAt) : 0;
+        return mainController.sendGameTransmit(new GTCFastReadShow(id, millis, clientAt));
+    }
+
+    /**
+     * Playlist sent the show order of a token, the preview follows it
+     * @param id token id
+     * @param millis display duration (in milliseconds)
+     * @param hostAt host clock time (see SyncClock) the client shows the token at
+     */
+    void playlistShowing(int id, int millis, long hostAt) {
+        SwingUtilities.invokeLater(() -> gui.playlistShowing(id, millis, hostAt));
+    }
+
+    /**
+     * Send the client the given tokens it does not have yet
+     * Nothing is sent to older clients, they get each token with its show order.
+     * @param tokens tokens mapped by token id, in display order
+     * @return true if the client has all given tokens, false if the preload was rejected (send queue full)
+     */
+    synchronized boolean preload(Map<Integer, String> tokens) {
+        if (isLegacyClient()) return true;
+        tokens.keySet().removeAll(preloaded);
+        if (tokens.isEmpty() && !resetPending) return true;
+        int[] ids = new int[tokens.size()];
+        String[] texts = new String[tokens.size()];
+        int i = 0;
+        for (Map.Entry<Integer, String> entry : tokens.entrySet()) {
+            ids[i] = entry.getKey();
+            texts[i] = entry.getValue();
+            i++;
+        }
+        // the mirror only changes if the client gets the preload
+        if (!mainController.sendGameTransmit(new GTCFastReadPreload(resetPending, ids, texts))) return false;
+        for (int id : ids) preloaded.add(id);
+        Iterator<Integer> eldest = preloaded.iterator();
+        while (preloaded.size() > GTCFastReadPreload.WINDOW) {
+            eldest.next();
+            eldest.remove();
+        }
+        resetPending = false;
+        return true;
+    }
+
+    /**
+     * Playlist sent all tokens and received the replies (or was stopped)
+     * @param finished finished playlist
+     */
+    synchronized void playlistFinished(FastReadPlaylist finished) {
+        if (playlist != finished) return;
+        playlist = null;
+        int replied = finished.getReplyCount();
+        int sent = finished.getSentCount();
+        long meanAbsErrorMicros = finished.getMeanAbsErrorMicros();
+        long maxAbsErrorMicros = finished.getMaxAbsErrorMicros();
+        SwingUtilities.invokeLater(() -> gui.playlistFinished(replied, sent, meanAbsErrorMicros, maxAbsErrorMicros));
     }
 
 /*------------------------------------------------------PRIVATE------------------------------------------------------*/
 
+    /**
+     * Check if the client predates preload and show orders
+     * @return true if the client only understands GTCFastRead
+     */
+    private boolean isLegacyClient() {
+        return mainController.getClientVersion() < GTCFastReadPreload.MIN_VERSION;
+    }
+
     /**
      * Return the game specific ID
      * @return game ID (0)
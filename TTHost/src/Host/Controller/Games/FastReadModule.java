@@ -0,0 +1,37 @@
+package Host.Controller.Games;
+
+import ContentPanes.Games.GTCFastRead;
+import Exceptions.BadGameIDException;
+import Host.Controller.HostController;
+import Host.GUI.Games.FastReadPane;
+import Host.GUI.Games.GamePanel;
+import Host.GUI.HostGui;
+
+import java.util.ResourceBundle;
+
+/**
+ * Host part of the FastRead game
+ */
+public class FastReadModule implements HostGameModule {
+    @Override
+    public int getGameID() {
+        return GTCFastRead.gameID;
+    }
+
+    @Override
+    public GameControllerCreator.GameController createController(HostGui mainGui, HostController controller) throws BadGameIDException {
+        return new FastReadController(mainGui, controller);
+    }
+
+    @Override
+    public GamePanel createPane(GameControllerCreator.GameController controller) {
+        return new FastReadPane(controller);
+    }
+
+    @Override
+    public GameControllerCreator.Info getInfo() {
+        ResourceBundle resources = ResourceBundle.getBundle("Resources/StringLiterals");
+        return new GameControllerCreator.Info(resources.getString("game_name_" + getGameID()),
+                resources.getString("game_description_" + getGameID()));
+    }
+}
@@ -0,0 +1,355 @@
+package Host.Controller.Games;
+
+import Concurrency.DeadlineTimer;
+import ConnectionLayer.SyncClock;
+import ContentPanes.Games.GRCFastRead;
+import Host.CustomLogger;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Automatic FastRead sequence
+ * A single scheduler thread walks the token list: every token is shown for the duration given by the schedule,
+ * followed by the gap. Show orders are sent one schedule lead ahead of their (clock synchronized) show time and the
+ * tokens are preloaded PREFETCH ahead, so no message waits for a reply. The host preview shows every token at the
+ * same scheduled instant as the client.
+ * A show order is only sent for a token the client is known to have: a rejected preload (congested connection) is
+ * retried until the send time of the token, then the token is skipped.
+ * Replies of the client are matched by token id and recorded per token. Clients older than
+ * GTCFastReadPreload.MIN_VERSION reply without id and timing, their replies are taken in sending order.
+ */
+public class FastReadPlaylist implements Runnable {
+    private static final long REPLY_TIMEOUT = 2_000_000_000L;   // 2s after the last exposure
+    private static final long PRELOAD_RETRY_MS = 10;
+
+    private final FastReadController controller;
+    private final CustomLogger logger;
+    private final int[] ids;
+    private final String[] tokens;
+    private final Schedule schedule;
+    private final long gap;
+    private final Map<Integer, Integer> indexOf = new HashMap<>();
+
+    // per token timings
+    private final int[] requestedMillis;
+    private final long[] scheduledAt;
+    private final int[] achievedMicros;
+    private final int[] errorMicros;
+    private final boolean[] replied;
+    private final boolean[] skipped;
+    private final boolean[] unmeasured;
+    private int sent = 0;       // tokens handled (shown or skipped)
+    private int skips = 0;
+    private int replies = 0;
+    private int measured = 0;
+
+    private volatile boolean stopped = false;
+
+    /**
+     * Create playlist
+     * @param controller controller sending preload and show orders
+     * @param tokens tokens to show in order, mapped by token id
+     * @param schedule per token display duration
+     * @param gapMillis pause between two tokens (in milliseconds)
+     */
+    public FastReadPlaylist(FastReadController controller, Map<Integer, String> tokens, Schedule schedule, int gapMillis) {
+        this.controller = controller;
+        this.logger = CustomLogger.getInstance();
+        this.schedule = schedule;
+        this.gap = gapMillis * 1_000_000L;
+        this.ids = new int[tokens.size()];
+        this.tokens = new String[tokens.size()];
+        int i = 0;
+        for (Map.Entry<Integer, String> entry : tokens.entrySet()) {
+            ids[i] = entry.getKey();
+            this.tokens[i] = entry.getValue();
+            indexOf.put(entry.getKey(), i);
+            i++;
+        }
+        requestedMillis = new int[ids.length];
+        scheduledAt = new long[ids.length];
+        achievedMicros = new int[ids.length];
+        errorMicros = new int[ids.length];
+        replied = new boolean[ids.length];
+        skipped = new boolean[ids.length];
+        unmeasured = new boolean[ids.length];
+    }
+
+    /**
+     * Scheduler thread: send all show orders in time, wait for the outstanding replies, report
+     */
+    @Override
+    public void run() {
+        logger.info("playlist started (" + ids.length + " tokens)");
+        long next = SyncClock.now() + controller.scheduleLead();
+        try {
+            for (int i = 0; i < ids.length && !stopped; i++) {
+                boolean confirmed = controller.preload(window(i));
+                int millis = schedule.millis(i);
+                long lead = controller.scheduleLead();
+                long at = Math.max(next, SyncClock.now() + lead);
+                if (!confirmed && !confirm(i, at - lead)) {
+                    if (stopped) break;
+                    logger.warning("token " + ids[i] + " skipped, preload rejected (send queue full)");
+                    skip(i);
+                    continue;
+                }
+                DeadlineTimer.waitUntil(SyncClock.toNanoTime(at - lead));
+                if (stopped) break;
+                synchronized (this) {
+                    requestedMillis[i] = millis;
+                    scheduledAt[i] = at;
+                    sent = i + 1;
+                }
+                if (!controller.show(ids[i], tokens[i], millis, at)) {
+                    logger.warning("token " + ids[i] + " skipped, show order rejected (send queue full)");
+                    skip(i);
+                    continue;
+                }
+                controller.playlistShowing(ids[i], millis, at);
+                next = at + millis * 1_000_000L + gap;
+            }
+            // outstanding replies
+            long deadline = SyncClock.toNanoTime(next) + REPLY_TIMEOUT;
+            synchronized (this) {
+                while (replies < sent - skips && !stopped) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) break;
+                    wait(left / 1_000_000L + 1);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info(report());
+        controller.playlistFinished(this);
+    }
+
+    /**
+     * Stop sending show orders (tokens already sent are still shown)
+     */
+    public void stop() {
+        stopped = true;
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Record the reply of the client
+     * @param reply reply for a token of this playlist
+     * @return false if the token does not belong to this playlist
+     */
+    public synchronized boolean replied(GRCFastRead reply) {
+        Integer index = indexOf.get(reply.getId());
+        if (index == null || index >= sent || replied[index] || skipped[index]) return false;
+        achievedMicros[index] = reply.getAchievedMicros();
+        errorMicros[index] = reply.getErrorMicros();
+        replied[index] = true;
+        replies++;
+        measured++;
+        schedule.replied(index, requestedMillis[index], reply);
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Record a reply without token id and timing (older clients), it belongs to the oldest token not replied yet
+     * @return false if no sent token of this playlist waits for a reply
+     */
+    public synchronized boolean repliedUnmeasured() {
+        for (int i = 0; i < sent; i++) {
+            if (replied[i] || skipped[i]) continue;
+            replied[i] = true;
+            unmeasured[i] = true;
+            replies++;
+            notifyAll();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get number of tokens sent to the client
+     * @return sent tokens (without skipped ones)
+     */
+    public synchronized int getSentCount() {
+        return sent - skips;
+    }
+
+    /**
+     * Get number of tokens skipped because the client could not get them in time
+     * @return skipped tokens
+     */
+    public synchronized int getSkippedCount() {
+        return skips;
+    }
+
+    /**
+     * Get number of tokens the client reported as displayed
+     * @return replied tokens
+     */
+    public synchronized int getReplyCount() {
+        return replies;
+    }
+
+    /**
+     * Get mean absolute exposure error of the replied tokens (with timing)
+     * @return mean absolute error (in microseconds)
+     */
+    public synchronized long getMeanAbsErrorMicros() {
+        if (measured == 0) return 0;
+        long sum = 0;
+        for (int i = 0; i < sent; i++) {
+            if (replied[i]) sum += Math.abs(errorMicros[i]);
+        }
+        return sum / measured;
+    }
+
+    /**
+     * Get maximal absolute exposure error of the replied tokens (with timing)
+     * @return maximal absolute error (in microseconds)
+     */
+    public synchronized long getMaxAbsErrorMicros() {
+        long max = 0;
+        for (int i = 0; i < sent; i++) {
+            if (replied[i]) max = Math.max(max, Math.abs(errorMicros[i]));
+        }
+        return max;
+    }
+
+    /**
+     * Create per token timing report (token, requested duration, scheduled host time, achieved duration, error)
+     * @return report
+     */
+    public synchronized String report() {
+        StringBuilder builder = new StringBuilder("playlist finished: ").append(replies).append('/').append(sent)
+                .append(" tokens replied, mean |error| ").append(getMeanAbsErrorMicros()).append("us, max |error| ")
+                .append(getMaxAbsErrorMicros()).append("us, ").append(skips).append(" skipped");
+        for (int i = 0; i < sent; i++) {
+            builder.append('\n').append(ids[i]).append('\t').append(tokens[i]).append('\t').append(requestedMillis[i])
+                    .append("ms\t").append(scheduledAt[i]).append('\t');
+            if (skipped[i]) {
+                builder.append("skipped");
+            } else if (unmeasured[i]) {
+                builder.append("displayed");
+            } else if (replied[i]) {
+                builder.append(achievedMicros[i]).append("us\t").append(errorMicros[i]).append("us");
+            } else {
+                builder.append("no reply");
+            }
+        }
+        return builder.toString();
+    }
+
+/*------------------------------------------------------PRIVATE------------------------------------------------------*/
+
+    /**
+     * Token i is not shown
+     */
+    private synchronized void skip(int i) {
+        skipped[i] = true;
+        skips++;
+        sent = i + 1;
+    }
+
+    /**
+     * Retry preloading token i until the client has it
+     * @param i position of the token
+     * @param until host clock time (see SyncClock) the show order of the token has to be sent at
+     * @return false if the token could not be preloaded in time (or the playlist was stopped)
+     */
+    private boolean confirm(int i, long until) throws InterruptedException {
+        while (!stopped && SyncClock.now() < until) {
+            Thread.sleep(PRELOAD_RETRY_MS);
+            Map<Integer, String> single = new LinkedHashMap<>();
+            single.put(ids[i], tokens[i]);
+            if (controller.preload(single)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Tokens i (the next shown) to i + PREFETCH
+     */
+    private Map<Integer, String> window(int i) {
+        Map<Integer, String> window = new LinkedHashMap<>();
+        for (int j = i; j < Math.min(ids.length, i + FastReadController.PREFETCH + 1); j++) {
+            window.put(ids[j], tokens[j]);
+        }
+        return window;
+    }
+
+/*-----------------------------------------------------SCHEDULES-----------------------------------------------------*/
+
+    /**
+     * Same duration for every token
+     * @param millis display duration (in milliseconds)
+     * @return schedule
+     */
+    public static Schedule fixed(int millis) {
+        return index -> millis;
+    }
+
+    /**
+     * Duration changing linearly over the first tokens, then held
+     * @param fromMillis duration of the first token (in milliseconds)
+     * @param toMillis duration from token steps on (in milliseconds)
+     * @param steps number of tokens to reach toMillis
+     * @return schedule
+     */
+    public static Schedule ramp(int fromMillis, int toMillis, int steps) {
+        return index -> index >= steps ? toMillis : fromMillis + (toMillis - fromMillis) * index / Math.max(1, steps);
+    }
+
+    /**
+     * Duration corrected by the exposure error the client reports, so the achieved duration converges to the target
+     * @param targetMillis desired on-screen duration (in milliseconds)
+     * @return schedule
+     */
+    public static Schedule adaptive(int targetMillis) {
+        return new AdaptiveSchedule(targetMillis);
+    }
+
+    /**
+     * Per token display duration
+     */
+    public interface Schedule {
+        /**
+         * Get the duration of a token
+         * @param index position in the playlist
+         * @return display duration (in milliseconds)
+         */
+        int millis(int index);
+
+        /**
+         * Client reported the achieved exposure of a token
+         * @param index position in the playlist
+         * @param requestedMillis duration that was requested
+         * @param reply reply of the client
+         */
+        default void replied(int index, int requestedMillis, GRCFastRead reply) {
+        }
+    }
+
+    private static class AdaptiveSchedule implements Schedule {
+        private final int targetMicros;
+        private volatile int meanErrorMicros = 0;   // smoothed achieved minus requested
+
+        public AdaptiveSchedule(int targetMillis) {
+            this.targetMicros = targetMillis * 1000;
+        }
+
+        @Override
+        public int millis(int index) {
+            return Math.max(1, Math.round((targetMicros - meanErrorMicros) / 1000f));
+        }
+
+        @Override
+        public void replied(int index, int requestedMillis, GRCFastRead reply) {
+            meanErrorMicros += (reply.getErrorMicros() - meanErrorMicros) / 4;
+        }
+    }
+}
@@ -1,17 +1,19 @@
 package Host.Controller.Games;
 
 import Exceptions.BadGameIDException;
+import Games.GameRegistry;
+import Host.GUI.Games.GamePanel;
 import Host.GUI.HostGui;
 import Host.Controller.HostController;
 import Protocol.MessageContent;
 import Protocol.ProtocolViolationException;
 
-import java.util.ResourceBundle;
-
 /**
  * Generator for GameControllers
+ * The games are the installed HostGameModules (see GameRegistry)
  */
 public abstract class GameControllerCreator {
+    private static final GameRegistry<HostGameModule> modules = new GameRegistry<>(HostGameModule.class);
 
 /*-----------------------------------------------------CONTROLLER-----------------------------------------------------*/
 
@@ -23,10 +25,18 @@ public abstract class GameControllerCreator {
      * @throws BadGameIDException thrown if game ID does not exist
      */
     public static GameController create(int id, HostGui mainGui, HostController controller) throws BadGameIDException {
-        return switch (id) {
-            case 0 -> new FastReadController(mainGui, controller);
-            default -> throw new BadGameIDException(id);
-        };
+        return modules.require(id).createController(mainGui, controller);
+    }
+
+    /**
+     * Create the game specific GUI
+     * @param id game ID
+     * @param controller game specific controller
+     * @return game specific GUI
+     * @throws BadGameIDException thrown if game ID does not exist
+     */
+    public static GamePanel createPane(int id, GameController controller) throws BadGameIDException {
+        return modules.require(id).createPane(controller);
     }
 
     /**
@@ -36,10 +46,15 @@ public abstract class GameControllerCreator {
      * @throws BadGameIDException thrown if game id does not exist
      */
     public static Info getInfo(int id) throws BadGameIDException {
-        if (id < 0 || id > 0) {
-            throw new BadGameIDException(id);
-        }
-        return new Info(ResourceBundle.getBundle("Resources/StringLiterals").getString("game_name_"+id), ResourceBundle.getBundle("Resources/StringLiterals").getString("game_description_"+id));
+        return modules.require(id).getInfo();
+    }
+
+    /**
+     * Get the IDs of the installed games
+     * @return game IDs in ascending order
+     */
+    public static int[] getGameIDs() {
+        return modules.getGameIDs();
     }
 
 /*------------------------------------------------------PRIVATE------------------------------------------------------*/
@@ -0,0 +1,35 @@
+package Host.Controller.Games;
+
+import Exceptions.BadGameIDException;
+import Games.GameModule;
+import Host.Controller.HostController;
+import Host.GUI.Games.GamePanel;
+import Host.GUI.HostGui;
+
+/**
+ * Host part of a game
+ * Supplied as service (META-INF/services/Host.Controller.Games.HostGameModule), see GameControllerCreator
+ */
+public interface HostGameModule extends GameModule {
+    /**
+     * Create the game specific controller (which creates its GUI, see createPane)
+     * @param mainGui reference to main GUI
+     * @param controller main controller
+     * @return game specific controller
+     * @throws BadGameIDException thrown if the game specific GUI does not exist
+     */
+    GameControllerCreator.GameController createController(HostGui mainGui, HostController controller) throws BadGameIDException;
+
+    /**
+     * Create the game specific GUI
+     * @param controller game specific controller created by this module
+     * @return game specific GUI
+     */
+    GamePanel createPane(GameControllerCreator.GameController controller);
+
+    /**
+     * Get name and description of the game (in the current locale)
+     * @return game info
+     */
+    GameControllerCreator.Info getInfo();
+}
@@ -1,24 +1,37 @@
 package Host.Controller;
 
+import Concurrency.Mailbox;
+import Concurrency.StateMachine;
 import Exceptions.UnimplementedException;
 import Host.Controller.Games.GameControllerCreator;
 import Host.CustomLogger;
+import Host.WorkSheet;
 import Host.GUI.HostGui;
 import Host.ConnectionLayer.HostConnector;
 import Host.GUI.Dialogs;
 import Host.GUI.SettingsDialog;
 import Exceptions.BadGameIDException;
 import ConnectionLayer.Address;
+import ConnectionLayer.ClockEstimator;
 import ConnectionLayer.ConnectionTools;
+import ConnectionLayer.RttStats;
 import Protocol.*;
 
 import javax.swing.*;
 import javax.swing.plaf.FontUIResource;
 import javax.swing.tree.TreePath;
 import java.awt.*;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.prefs.Preferences;
 
 /**
@@ -26,98 +39,93 @@ import java.util.prefs.Preferences;
  * Controls all processes and starts different sub-programs
  */
 public class HostController {
+    private static final int SEARCH_RESULTS = 50;
+
     private final CustomLogger logger;
     private final PreferenceStorage prefs;
     private Storage storage;
     private final HostGui gui;
     private final HostConnector connector;
-    private HostConnector.Connection connection;
-    private GameControllerCreator.GameController gameController;
-    private State state = State.Offline;
-    private HostConnector.Receiver receiver;
+    private final Map<HostConnector.Connection, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong sessionCounter = new AtomicLong();
+    private final DispatchTable<State, Session> handlers = createHandlers();
+    private volatile Session activeSession = null;   // session controlled by the GUI
 
 /*--------------------------------------------------ConnectionLayer--------------------------------------------------*/
 
     /**
      * Connection status changed
-     * Notify GUI
+     * Create/remove sessions and notify GUI about the active session
      * @param status new connection status
+     * @param connection affected connection (null if the listening status changed)
      * @param msg special message to display
      */
-    public void connectionStatus(HostConnector.Status status, HostConnector.Connection connection, String msg) {
+    public synchronized void connectionStatus(HostConnector.Status status, HostConnector.Connection connection, String msg) {
         if (status == HostConnector.Status.Connected) {
-            this.state = State.Connected;
-            this.connection = connection;
-            this.receiver = new HostConnector.Receiver(this, connection);
-            new Thread(receiver).start();
+            Session session = new Session(connection);
+            sessions.put(connection, session);
+            if (activeSession != null) {
+                logger.info("additional session queued");
+                gui.connectionStatusChanged(HostConnector.Status.Connected, ResourceBundle.getBundle("Resources/StringLiterals").getString("session_queued"));
+                return;
+            }
+            activeSession = session;
+        } else if (status == HostConnector.Status.Offline && connection != null) {
+            Session session = sessions.remove(connection);
+            if (session == null) return;
+            session.ended();
+            if (session != activeSession) return;
+            // the oldest queued session takes over
+            activeSession = sessions.values().stream().min(Comparator.comparingLong(s -> s.number)).orElse(null);
+            if (activeSession != null) {
+                gui.connectionStatusChanged(HostConnector.Status.Connected, msg);
+                return;
+            }
+            if (connector.isListening()) status = HostConnector.Status.Online;
+        } else if (activeSession != null) {
+            // listening status changes do not affect the active session
+            if (msg != null) gui.connectionStatusChanged(HostConnector.Status.Connected, msg);
+            return;
         }
         gui.connectionStatusChanged(status, msg);
     }
 
     /**
      * Receiver received message
-     * Parse and forward
+     * Queue it for the session of the connection (lock-free, the I/O thread never waits for the handlers)
+     * @param connection connection the message was received on
      * @param msg received message
      */
-    public synchronized void messageReceived(Message msg) {
-        int type = msg.getType();
-        int family = type >> 8;
-        switch (family) {
-            case 1:
-                if (type != MCClose.TYPE_ID) {
-                    // protocol violation
-                    logger.severe("Host protocol violation\n" + msg.toString() + "\nclosing connection");
-                    connector.disconnect(2);
-                } else {
-                    // closed
-                    endGame();
-                    logger.severe("Host closed connection\n" + msg.toString());
-                    connector.disconnect(0);
-                }
-                state = State.Offline;
-                connection = null;
-                break;
-            case 2:
-                if (type == 0x0203 && state == State.WorkSheet) {   // TODO get type statically
-                    // TODO forward message
-                    throw new UnimplementedException("ClientController::messageReceived(...) unimpl");
-                } else {
-                    // protocol violation
-                    logger.severe("Host protocol violation\n" + msg.toString() + "\nclosing connection");
-                    connector.disconnect(2);
-                    state = State.Offline;
-                    connection = null;
-                }
-                break;
-            case 3:
-                if (type == MCGameReply.TYPE_ID && state == State.Game) {
-                    // forward content
-                    try {
-                        gameController.messageReceived(msg.getContent());
-                    } catch (ProtocolViolationException e) {
-                        // protocol violation
-                        logger.severe("Host protocol violation\n" + msg.toString() + "\nclosing connection");
-                        connector.disconnect(2);
-                        state = State.Offline;
-                        connection = null;
-                    }
-                } else {
-                    // protocol violation
-                    logger.severe("Host protocol violation\n" + msg.toString() + "\nclosing connection");
-                    connector.disconnect(2);
-                    state = State.Offline;
-                    connection = null;
-                }
-                break;
-            default:
-                // protocol violation
-                logger.severe("Host protocol violation\n" + msg.toString() + "\nclosing connection");
-                connector.disconnect(2);
-                state = State.Offline;
-                connection = null;
+    public void messageReceived(HostConnector.Connection connection, Message msg) {
+        Session session = sessions.get(connection);
+        if (session == null || !session.inbox.post(msg)) {
+            logger.warning("message for unknown session\n{}", msg);
         }
     }
 
+    /**
+     * Clock offset estimation of a connection was refined
+     * Show it in the GUI if the connection belongs to the active session
+     * @param connection affected connection
+     */
+    public void clockUpdated(HostConnector.Connection connection) {
+        Session session = activeSession;
+        if (session == null || session.connection != connection) return;
+        ClockEstimator clock = connection.getClock();
+        gui.clockStatusChanged(clock.getOffset(), clock.getJitter());
+    }
+
+    /**
+     * Heartbeat round trip statistics of a connection were updated
+     * Show them in the GUI if the connection belongs to the active session
+     * @param connection affected connection
+     */
+    public void rttUpdated(HostConnector.Connection connection) {
+        Session session = activeSession;
+        if (session == null || session.connection != connection) return;
+        gui.rttStatusChanged(connection.getRtt());
+    }
+
 /*--------------------------------------------------------GUI--------------------------------------------------------*/
 
     /**
@@ -130,6 +138,125 @@ public class HostController {
         return storage.getInfo(path);
     }
 
+    /**
+     * Load thumbnails of the first pictures of a work sheet in the background
+     * @param path path of the selected element (a folder has no pictures)
+     * @param size maximal edge length of the thumbnails
+     * @param count maximal number of pictures
+     * @return future of the pictures in page order, completed on a background thread
+     * @throws Storage.FaultyStorageStructureException thrown if path not existing
+     */
+    public CompletableFuture<List<BufferedImage>> loadSheetPreview(TreePath path, int size, int count) throws Storage.FaultyStorageStructureException {
+        return storage.loadPreview(storage.getNode(path), size, count);
+    }
+
+    /**
+     * Create a folder in the storage
+     * @param parent path of the folder to create it in
+     * @param name name of the new folder
+     * @return path of the new folder
+     * @throws Storage.FaultyStorageStructureException thrown if the parent is no folder or the name is taken
+     * @throws IOException thrown if the change could not be saved (nothing changed)
+     */
+    public TreePath createFolder(TreePath parent, String name) throws Storage.FaultyStorageStructureException, IOException {
+        SheetTreeModel.Node folder = storage.addFolder(storage.getNode(parent), name);
+        return storage.getTreeModel().getPath(folder);
+    }
+
+    /**
+     * Create an empty work sheet in the storage
+     * @param parent path of the folder to create it in
+     * @param name name of the new work sheet
+     * @param description description of the work sheet
+     * @param randomized true iff the pages are shown in random order
+     * @return path of the new work sheet
+     * @throws Storage.FaultyStorageStructureException thrown if the parent is no folder or the name is taken
+     * @throws IOException thrown if the work sheet could not be saved (nothing changed)
+     */
+    public TreePath createWorkSheet(TreePath parent, String name, String description, boolean randomized) throws Storage.FaultyStorageStructureException, IOException {
+        SheetTreeModel.Node folder = storage.getNode(parent);
+        WorkSheet sheet = new WorkSheet(name, folder.getPathString(), randomized);
+        sheet.setDescription(description);
+        SheetTreeModel.Node file = storage.addWorkSheet(folder, sheet, 0);    // no pages, any client shows it
+        try {
+            sheet.close();
+        } catch (IOException e) {
+            logger.warning("work sheet not closable\n" + e.getMessage());
+        }
+        return storage.getTreeModel().getPath(file);
+    }
+
+    /**
+     * Change name, description and randomization of a work sheet (saved in the sheet file and the index)
+     * @param path path of the work sheet
+     * @param name new name
+     * @param description new description
+     * @param randomized true iff the pages are shown in random order
+     * @throws Storage.FaultyStorageStructureException thrown if the element is no work sheet or the name is taken
+     * @throws Storage.CorruptedStorageException thrown if the sheet file is damaged
+     * @throws IOException thrown if the sheet file could not be read or saved
+     */
+    public void editWorkSheet(TreePath path, String name, String description, boolean randomized)
+            throws Storage.FaultyStorageStructureException, Storage.CorruptedStorageException, IOException {
+        SheetTreeModel.Node file = storage.getNode(path);
+        WorkSheet sheet = storage.openWorkSheet(file);
+        try {
+            if (!name.equals(file.getName())) {
+                storage.rename(file, name);     // refused before anything is written if the name is taken
+                sheet.changeName(name);
+            }
+            sheet.setDescription(description);
+            sheet.setRandomize(randomized);
+            storage.saveWorkSheet(file, sheet);
+        } finally {
+            sheet.close();
+        }
+    }
+
+    /**
+     * Rename a folder or work sheet
+     * @param path path of the element (not the root)
+     * @param name new name
+     * @throws Storage.FaultyStorageStructureException thrown if the element is the root or the name is taken
+     * @throws IOException thrown if the change could not be saved (nothing changed)
+     */
+    public void renameEntry(TreePath path, String name) throws Storage.FaultyStorageStructureException, IOException {
+        storage.rename(storage.getNode(path), name);
+    }
+
+    /**
+     * Move a folder or work sheet into another folder
+     * @param path path of the element (not the root)
+     * @param folder path of the new parent folder
+     * @return new path of the element
+     * @throws Storage.FaultyStorageStructureException thrown if the move is not possible or the name is taken in the folder
+     * @throws IOException thrown if the change could not be saved (nothing changed)
+     */
+    public TreePath moveEntry(TreePath path, TreePath folder) throws Storage.FaultyStorageStructureException, IOException {
+        SheetTreeModel.Node node = storage.getNode(path);
+        storage.move(node, storage.getNode(folder));
+        return storage.getTreeModel().getPath(node);
+    }
+
+    /**
+     * Delete a folder (with all its content) or work sheet
+     * @param path path of the element (not the root)
+     * @throws Storage.FaultyStorageStructureException thrown if the element is the root
+     * @throws IOException thrown if the change could not be saved (nothing changed)
+     */
+    public void deleteEntry(TreePath path) throws Storage.FaultyStorageStructureException, IOException {
+        storage.delete(storage.getNode(path));
+    }
+
+    /**
+     * Find work sheets by name, description and page text
+     * @param query search words
+     * @return tree paths of the matching sheets, best match first
+     */
+    public List<TreePath> searchSheets(String query) {
+        return storage.search(query, SEARCH_RESULTS);
+    }
+
     /**
      * Get and return info about a user selected game
      * @param gameID id of the selected game
@@ -165,11 +292,45 @@ public class HostController {
     }
 
     /**
-     * Disconnect from client
+     * Disconnect from client of the active session
      */
     public void disconnect() {
         logger.info("disconnect");
-        connector.disconnect(1);
+        Session session = activeSession;
+        if (session != null) session.connection.close(1);
+    }
+
+    /**
+     * Move the storage to a new location and open it there (call outside of the event dispatch thread)
+     * If the move fails, the storage is opened again at its old location; moving to the same location again
+     * continues the interrupted move.
+     * @param newLocation folder to contain the storage
+     * @return true if the storage was moved, false otherwise
+     */
+    public boolean moveStorage(Path newLocation) {
+        logger.info("moving storage to '" + newLocation + "'");
+        Dialogs.ProgressWindow progress = new Dialogs.ProgressWindow("moving_storage");
+        logger.closeHandlers();     // the log file is part of the storage
+        boolean moved = false;
+        try {
+            storage.moveStorage(newLocation, progress::setProgress, base -> prefs.setStoragePath(base.toString()));
+            moved = true;
+        } catch (IOException e) {
+            logger.warning("storage not moved\n" + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            progress.close();
+        }
+        try {
+            storage = new Storage(Paths.get(prefs.getStoragePath()));
+            logger.addHandler(storage.getFileLog());
+        } catch (Storage.FaultyStorageStructureException | Storage.CorruptedStorageException | IOException e) {
+            logger.severe("Storage not reopened, exiting!\n" + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+        SwingUtilities.invokeLater(() -> gui.reloadSheetTree(storage.getTreeModel()));
+        return moved;
     }
 
     /**
@@ -177,9 +338,8 @@ public class HostController {
      */
     public void exit() {
         logger.info("exiting");
-        if (state != State.Offline) {
-            disconnect();
-        }
+        connector.disconnectAll(1);
+        storage.close();
         logger.closeHandlers();
         System.exit(0);
     }
@@ -206,17 +366,9 @@ public class HostController {
      * @param id id of selected game
      */
     public void startGame(int id) {
-        try {
-            gameController = GameControllerCreator.create(id, gui, this);
-            MessageContent content = new MCGameStart(id);
-            connection.sendMessage(new Message(content.getType(), content));
-            state = State.Game;
-            logger.info("game started");
-        } catch (BadGameIDException e) {
-            logger.severe("game id does not exist\n" + e.getMessage() + "\nshutting down");
-            e.printStackTrace();
-            System.exit(-1);
-        }
+        Session session = activeSession;
+        if (session == null) return;
+        session.startGame(id);
     }
 
     /**
@@ -262,15 +414,56 @@ public class HostController {
 
 /*---------------------------------------------------SUB_CONTROLLER---------------------------------------------------*/
 
+    /**
+     * Get the clock offset estimation of the active session (client clock minus host clock)
+     * @return clock estimator, null if no session is active
+     */
+    public ClockEstimator getClock() {
+        Session session = activeSession;
+        return session == null ? null : session.connection.getClock();
+    }
+
+    /**
+     * Get the heartbeat round trip statistics of the active session
+     * @return round trip statistics, null if no session is active
+     */
+    public RttStats getRtt() {
+        Session session = activeSession;
+        return session == null ? null : session.connection.getRtt();
+    }
+
+    /**
+     * Get the version the client of the active session announced in its Hello
+     * Game controllers use it to fall back to the messages older clients understand.
+     * @return client version, 0 if no session is active
+     */
+    public int getClientVersion() {
+        Session session = activeSession;
+        return session == null ? 0 : session.connection.getClientVersion();
+    }
+
     /**
      * Forward game transmit
      * game-controller -> main-controller -> connection-layer
+     * [non-blocking]
      * @param content content of the transmit message
+     * @return false if the message was not sent (no session or send queue full)
      */
-    public void sendGameTransmit(MCGameTransmit.GTContent content) {
+    public boolean sendGameTransmit(MCGameTransmit.GTContent content) {
         MCGameTransmit tmp = new MCGameTransmit(content);
         Message msg = new Message(tmp.getType(), tmp);
-        connection.sendMessage(msg);
+        Session session = activeSession;
+        return session != null && session.connection.sendMessage(msg);
+    }
+
+    /**
+     * Check if the client of the active session takes the data slower than it is sent
+     * Game controllers should not send optional data (e.g. prefetching) while congested.
+     * @return true if the send queue of the active session is congested
+     */
+    public boolean isSendCongested() {
+        Session session = activeSession;
+        return session != null && session.connection.isCongested();
     }
 
     /**
@@ -278,10 +471,8 @@ public class HostController {
      * Notify main gui
      */
     public void endGame() {
-        MessageContent content = new MCGameEnd();
-        connection.sendMessage(new Message(content.getType(), content));
-        gui.endedGame();
-        gameController = null;
+        Session session = activeSession;
+        if (session != null) session.endGame();
     }
 
 /*------------------------------------------------------PRIVATE------------------------------------------------------*/
@@ -313,7 +504,7 @@ public class HostController {
 
         // create GUI
         gui = new HostGui(this);
-        gui.reloadSheetTree(storage.getJTreeRoot());
+        gui.reloadSheetTree(storage.getTreeModel());
 
         // create Connector
         this.connector = new HostConnector(this);
@@ -361,7 +552,13 @@ public class HostController {
                     logger.info("new storage created");
                 } else {
                     logger.info("checking existing storage...");
-                    Path newPath = Storage.checkStorageSystem(tmpPath);
+                    Dialogs.ProgressWindow progress = new Dialogs.ProgressWindow("checking_storage");
+                    Path newPath;
+                    try {
+                        newPath = Storage.checkStorageSystem(tmpPath, progress::setProgress);
+                    } finally {
+                        progress.close();
+                    }
                     prefs.setStoragePath(newPath.toString());
                     logger.info("existing storage intact");
                 }
@@ -528,5 +725,126 @@ public class HostController {
         }
     }
 
+    /**
+     * Build the handlers of the messages of established sessions
+     * A message without handler in the state of its session is a protocol violation.
+     * @return dispatch table
+     */
+    private DispatchTable<State, Session> createHandlers() {
+        return new DispatchTable<State, Session>(State.class)
+                .on(MCClose.TYPE_ID, Session::closeReceived, State.Connected, State.Game, State.WorkSheet)
+                .on(MCGameReply.TYPE_ID, Session::gameReplyReceived, State.Game)
+                // reply sent before the client received the game end
+                .on(MCGameReply.TYPE_ID, (session, msg) -> logger.fine("dropped late game reply\n{}", msg), State.Connected);
+    }
+
+    /**
+     * State of one client connection
+     * Messages of a connection are queued and handled in order by the session's mailbox (one at a time on the shared pool), the GUI changes the
+     * state only through the state machine, so neither waits for the other.
+     */
+    private class Session {
+        private final HostConnector.Connection connection;
+        private final long number = sessionCounter.incrementAndGet();
+        private final Mailbox<Message> inbox;
+        private final StateMachine<State> state = new StateMachine<>(State.Connected)
+                .allow(State.Connected, State.Game, State.WorkSheet, State.Offline)
+                .allow(State.Game, State.Connected, State.Offline)
+                .allow(State.WorkSheet, State.Connected, State.Offline);
+        private volatile GameControllerCreator.GameController gameController = null;
+
+        /**
+         * Create session for an established connection
+         * @param connection connection to the client
+         */
+        Session(HostConnector.Connection connection) {
+            this.connection = connection;
+            inbox = new Mailbox<>("HostSession", this::dispatch);
+        }
+
+        /**
+         * Start a game (called by the GUI)
+         * @param id game ID
+         */
+        void startGame(int id) {
+            if (!state.is(State.Connected)) {
+                logger.warning("game not started in state {}", state);
+                return;
+            }
+            try {
+                gameController = GameControllerCreator.create(id, gui, HostController.this);
+            } catch (BadGameIDException e) {
+                logger.severe("game id does not exist\n" + e.getMessage() + "\nshutting down");
+                e.printStackTrace();
+                System.exit(-1);
+            }
+            if (!state.move(State.Connected, State.Game)) {
+                logger.warning("session ended while starting game");
+                gameController = null;
+                gui.endedGame();
+                return;
+            }
+            MessageContent content = new MCGameStart(id);
+            connection.sendMessage(new Message(content.getType(), content));
+            logger.info("game started");
+        }
+
+        /**
+         * End the running game of this session
+         */
+        void endGame() {
+            if (!state.move(State.Game, State.Connected)) return;
+            MessageContent content = new MCGameEnd();
+            connection.sendMessage(new Message(content.getType(), content));
+            if (this == activeSession) gui.endedGame();
+            gameController = null;
+        }
+
+        /**
+         * Connection of the session is gone
+         * Closes the mailbox, the queued messages are still handled
+         */
+        void ended() {
+            State previous = state.moveTo(State.Offline);
+            if (previous == State.Game) {
+                gameController = null;
+                if (this == activeSession) gui.endedGame();
+            }
+            inbox.close();
+        }
+
+/*------------------------------------------------------PRIVATE------------------------------------------------------*/
+
+        /**
+         * Handle a received message (drained from the session's mailbox)
+         * @param msg received message
+         */
+        private void dispatch(Message msg) {
+            State current = state.get();
+            if (current == State.Offline) {
+                logger.fine("dropped message of ended session\n{}", msg);
+                return;
+            }
+            try {
+                handlers.dispatch(current, this, msg);
+            } catch (ProtocolViolationException e) {
+                logger.severe("Client protocol violation\n{}\n{}\nclosing connection", e.getMessage(), msg);
+                connection.close(2);
+                ended();
+            }
+        }
+
+        private void closeReceived(Message msg) {
+            // the connector closes the channel and reports the session offline
+            logger.info("Client closed connection\n{}", msg);
+            ended();
+        }
+
+        private void gameReplyReceived(Message msg) throws ProtocolViolationException {
+            GameControllerCreator.GameController controller = gameController;
+            if (controller != null) controller.messageReceived(msg.getContent());
+        }
+    }
+
     private enum State {Offline, Connected, Game, WorkSheet}
 }
@@ -0,0 +1,399 @@
+package Host.Controller;
+
+import Concurrency.TaskRunner;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Content addressed picture storage
+ *
+ * A picture is stored once under the SHA-256 of its bytes (hex), in a sub-directory named by the first two digits
+ * ("Pictures/3f/3fa4..."). Pages reference pictures by this hash, so equal pictures of different sheets share a file.
+ *
+ * Decoded pictures are delivered asynchronously: decoding runs on background threads, results are kept in a memory
+ * cache bounded in bytes (least recently used are dropped first). Downscaled versions (THUMBNAIL_SIZES) are stored
+ * as PNG in the thumbnail directory, so a thumbnail is decoded from the full picture only once.
+ */
+public class PictureStore {
+    public static final int HASH_LENGTH = 64;
+    public static final int FULL_SIZE = 0;
+    public static final int[] THUMBNAIL_SIZES = {64, 256, 1024};
+
+    private static final long DEFAULT_CACHE_BYTES = 64L * 1024 * 1024;
+    private static final int DECODERS = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+
+    private final Path directory;
+    private final Path thumbnails;
+    private final ImageCache cache;
+    private final Map<Key, CompletableFuture<BufferedImage>> loading = new ConcurrentHashMap<>();
+    private ExecutorService decoder;
+
+    /**
+     * Create store over the picture directory (thumbnails are not persisted)
+     * @param directory picture directory of the storage
+     */
+    public PictureStore(Path directory) {
+        this(directory, null, DEFAULT_CACHE_BYTES);
+    }
+
+    /**
+     * Create store over the picture directory
+     * @param directory picture directory of the storage
+     * @param thumbnails directory of the persistent thumbnail cache, null to not persist thumbnails
+     * @param cacheBytes maximal size of the decoded pictures kept in memory (in bytes)
+     */
+    public PictureStore(Path directory, Path thumbnails, long cacheBytes) {
+        this.directory = directory;
+        this.thumbnails = thumbnails;
+        this.cache = new ImageCache(cacheBytes);
+    }
+
+    /**
+     * Add a picture (nothing is written if it is stored already)
+     * @param data encoded picture (e.g. JPEG, PNG)
+     * @return content hash of the picture
+     * @throws IOException thrown by writing the picture
+     */
+    public String put(byte[] data) throws IOException {
+        String hash = hash(data);
+        Path file = path(hash);
+        if (!Files.exists(file)) {
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), hash, ".tmp");
+            try {
+                Files.write(tmp, data);
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                // stored concurrently, same content
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Add a picture file (nothing is written if it is stored already)
+     * @param source picture file
+     * @return content hash of the picture
+     * @throws IOException thrown by reading or writing the picture
+     */
+    public String put(Path source) throws IOException {
+        return put(Files.readAllBytes(source));
+    }
+
+    /**
+     * Read the encoded picture
+     * @param hash content hash
+     * @return picture bytes
+     * @throws IOException thrown if the picture is missing or not readable
+     */
+    public byte[] read(String hash) throws IOException {
+        return Files.readAllBytes(path(hash));
+    }
+
+    /**
+     * Get a decoded picture if it is in the memory cache (never blocks)
+     * @param hash content hash
+     * @param size maximal edge length (rounded up to a thumbnail size), FULL_SIZE for the original
+     * @return picture, null if not decoded yet
+     */
+    public BufferedImage getCached(String hash, int size) {
+        return cache.get(new Key(hash, level(size)));
+    }
+
+    /**
+     * Decode a picture in the background (concurrent requests of the same picture share the decoding)
+     * To use the picture in the GUI, continue with e.g. {@code thenAcceptAsync(..., SwingUtilities::invokeLater)}.
+     * @param hash content hash
+     * @param size maximal edge length (rounded up to a thumbnail size), FULL_SIZE for the original
+     * @return future of the picture, failing with an IOException if the picture is missing or not decodable
+     */
+    public CompletableFuture<BufferedImage> load(String hash, int size) {
+        Key key = new Key(hash, level(size));
+        BufferedImage image = cache.get(key);
+        if (image != null) return CompletableFuture.completedFuture(image);
+        CompletableFuture<BufferedImage> future = loading.computeIfAbsent(key, k -> CompletableFuture.supplyAsync(() -> {
+            try {
+                BufferedImage decoded = decode(k);
+                cache.put(k, decoded);
+                return decoded;
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, decoder()));
+        future.whenComplete((result, error) -> loading.remove(key, future));
+        return future;
+    }
+
+    /**
+     * Drop all decoded pictures from memory
+     */
+    public void clearCache() {
+        cache.clear();
+    }
+
+    /**
+     * Stop the decoder threads (running decodings are finished)
+     */
+    public synchronized void close() {
+        if (decoder != null) {
+            decoder.shutdown();
+            decoder = null;
+        }
+    }
+
+    /**
+     * Check if a picture is stored
+     * @param hash content hash
+     * @return true iff the picture file exists
+     */
+    public boolean contains(String hash) {
+        return Files.isRegularFile(path(hash));
+    }
+
+    /**
+     * Get the file of a picture
+     * @param hash content hash
+     * @return path of the picture file (may not exist)
+     */
+    public Path path(String hash) {
+        if (!isHash(hash)) throw new IllegalArgumentException("bad picture hash '" + hash + "'");
+        return directory.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    /**
+     * Check if a string is a well formed content hash
+     * @param hash string to check
+     * @return true iff 64 lower case hex digits
+     */
+    public static boolean isHash(String hash) {
+        if (hash == null || hash.length() != HASH_LENGTH) return false;
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            char c = hash.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compute the content hash of bytes
+     * @param data bytes to hash
+     * @return SHA-256 (hex)
+     */
+    public static String hash(byte[] data) {
+        return hex(digest().digest(data));
+    }
+
+    /**
+     * Compute the content hash of a file
+     * @param file file to hash
+     * @return SHA-256 (hex)
+     * @throws IOException thrown by reading the file
+     */
+    public static String hash(Path file) throws IOException {
+        MessageDigest digest = digest();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            byte[] buffer = new byte[64 * 1024];
+            while (in.read(buffer) >= 0);
+        }
+        return hex(digest.digest());
+    }
+
+/*------------------------------------------------------PRIVATE------------------------------------------------------*/
+
+    private synchronized ExecutorService decoder() {
+        if (decoder == null) decoder = Executors.newFixedThreadPool(DECODERS, task -> TaskRunner.newThread("picture-decoder", task));
+        return decoder;
+    }
+
+    /**
+     * Smallest thumbnail size covering the requested size, FULL_SIZE if larger than all
+     */
+    private static int level(int size) {
+        if (size <= FULL_SIZE) return FULL_SIZE;
+        for (int level : THUMBNAIL_SIZES) {
+            if (size <= level) return level;
+        }
+        return FULL_SIZE;
+    }
+
+    private BufferedImage decode(Key key) throws IOException {
+        if (key.size == FULL_SIZE) return read(path(key.hash), 1);
+
+        Path thumbnail = thumbnails != null ? thumbnails.resolve(Integer.toString(key.size)).resolve(key.hash + ".png") : null;
+        if (thumbnail != null && Files.isRegularFile(thumbnail)) {
+            try {
+                return read(thumbnail, 1);
+            } catch (IOException e) {
+                // damaged cache entry, create again
+            }
+        }
+
+        // decode subsampled to about twice the thumbnail size, then scale smoothly
+        Dimension full = dimension(path(key.hash));
+        int subsampling = Math.max(1, Math.max(full.width, full.height) / (2 * key.size));
+        BufferedImage source = read(path(key.hash), subsampling);
+        BufferedImage scaled = scale(source, key.size);
+        if (thumbnail != null) {
+            Files.createDirectories(thumbnail.getParent());
+            Path tmp = Files.createTempFile(thumbnail.getParent(), key.hash, ".tmp");
+            try {
+                ImageIO.write(scaled, "png", tmp.toFile());
+                Files.move(tmp, thumbnail, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+        return scaled;
+    }
+
+    private static BufferedImage read(Path file, int subsampling) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            if (in == null) throw new IOException("picture not readable: " + file);
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) throw new IOException("unknown picture format: " + file);
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static Dimension dimension(Path file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            if (in == null) throw new IOException("picture not readable: " + file);
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) throw new IOException("unknown picture format: " + file);
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage source, int size) {
+        double factor = Math.min(1, (double) size / Math.max(source.getWidth(), source.getHeight()));
+        int width = Math.max(1, (int) Math.round(source.getWidth() * factor));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * factor));
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = scaled.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.drawImage(source, 0, 0, width, height, null);
+        g.dispose();
+        return scaled;
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);    // required of every JRE
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = digits[(bytes[i] >> 4) & 0xf];
+            hex[2 * i + 1] = digits[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    private static class Key {
+        private final String hash;
+        private final int size;
+
+        Key(String hash, int size) {
+            this.hash = hash;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return size == key.size && hash.equals(key.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(hash, size);
+        }
+    }
+
+    /**
+     * Least recently used cache of decoded pictures, bounded by the size of their pixel data
+     */
+    private static class ImageCache {
+        private final long maxBytes;
+        private final LinkedHashMap<Key, BufferedImage> images = new LinkedHashMap<>(64, 0.75f, true);
+        private long bytes = 0;
+
+        ImageCache(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized BufferedImage get(Key key) {
+            return images.get(key);
+        }
+
+        synchronized void put(Key key, BufferedImage image) {
+            long size = bytes(image);
+            if (size > maxBytes) return;
+            BufferedImage old = images.put(key, image);
+            if (old != null) bytes -= bytes(old);
+            bytes += size;
+            Iterator<BufferedImage> eldest = images.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= bytes(eldest.next());
+                eldest.remove();
+            }
+        }
+
+        synchronized void clear() {
+            images.clear();
+            bytes = 0;
+        }
+
+        private static long bytes(BufferedImage image) {
+            int bits = image.getColorModel().getPixelSize();
+            return (long) image.getWidth() * image.getHeight() * Math.max(1, (bits + 7) / 8);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package Host.Controller;
+
+/**
+ * Receives the progress of a long running storage operation (check, move)
+ */
+public interface ProgressListener {
+    /**
+     * Work was done
+     * @param done finished amount (items or bytes)
+     * @param total amount known so far
+     */
+    void progress(long done, long total);
+}
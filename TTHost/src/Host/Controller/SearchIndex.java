@@ -0,0 +1,590 @@
+package Host.Controller;
+
+import Host.Controller.Storage.CorruptedStorageException;
+import Host.CustomLogger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Full-text index over the work sheets (name, description and page text), keyed by sheet file name
+ *
+ * The index is a memory mapped segment plus the changes since it was written (added and hidden sheets) in memory.
+ * Segment layout (big endian):
+ *  header       magic, format version, sheet count, term count and the offsets of the four tables
+ *  sheets       per sheet the offset of its file name
+ *  terms        sorted by term: offset of the term, first posting, posting count
+ *  postings     sheet number and weight, sorted by sheet number
+ *  strings      length prefixed UTF-8 strings
+ * Changed sheets are merged into a new segment (a new generation file, so a mapped segment is never overwritten)
+ * when enough changes piled up and on closing. A marker file exists while changes are not merged,
+ * so an index that missed changes (crash) is rebuilt when opened.
+ *
+ * Queries match every query word against the terms as exact word, prefix or (for longer words) with one or two typos.
+ */
+public class SearchIndex {
+    public static final int NAME_WEIGHT = 8;
+    public static final int DESCRIPTION_WEIGHT = 4;
+    public static final int TEXT_WEIGHT = 1;
+
+    private static final String EXT = ".tsi";
+    private static final String MARKER = "changed";
+    private static final int MAGIC = 0x54545349;    // "TTSI"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int TERM_SIZE = 12;
+    private static final int POSTING_SIZE = 8;
+    private static final int MAX_TERM = 64;
+    private static final int MAX_WEIGHT = 0xffff;
+    private static final int MERGE_CHANGES = 256;
+    private static final float EXACT = 1f;
+    private static final float PREFIX = 0.6f;
+    private static final float FUZZY = 0.4f;
+    private static final Pattern SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private final Path directory;
+    private final Path marker;
+    private final CustomLogger logger;
+    private Segment segment;
+    private long generation;
+    private boolean damaged = false;
+    private boolean marked;
+
+    // changes since the segment was written
+    private final Map<String, Map<String, Integer>> added = new HashMap<>();
+    private final Set<String> hidden = new HashSet<>();
+
+    /**
+     * Open the newest segment of an index directory
+     * @param directory index directory (created if missing)
+     * @throws IOException thrown if the directory is not accessible
+     */
+    public SearchIndex(Path directory) throws IOException {
+        this.directory = directory;
+        this.marker = directory.resolve(MARKER);
+        this.logger = CustomLogger.getInstance();
+        Files.createDirectories(directory);
+        marked = Files.exists(marker);
+
+        List<Long> generations = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(file -> file.getFileName().toString()).filter(name -> name.matches("\\d{1,18}" + Pattern.quote(EXT)))
+                    .forEach(name -> generations.add(Long.parseLong(name.substring(0, name.length() - EXT.length()))));
+        }
+        generations.sort(null);
+        for (int i = generations.size() - 1; i >= 0 && segment == null; i--) {
+            try {
+                segment = new Segment(segmentFile(generations.get(i)));
+                generation = generations.get(i);
+            } catch (CorruptedStorageException | IOException e) {
+                logger.warning("search index segment damaged\n" + e.getMessage());
+                damaged = true;
+            }
+        }
+        if (segment == null) {
+            segment = Segment.EMPTY;
+            damaged = true;
+        }
+        deleteOldSegments();
+    }
+
+    /**
+     * Check if the index has to be built again from all sheets (missing, damaged or changes not merged)
+     * @return true iff it has to be rebuilt
+     */
+    public synchronized boolean needsRebuild() {
+        return damaged || marked;
+    }
+
+    /**
+     * Mark the index as changed before a change is recorded (an index not merged afterwards is rebuilt)
+     * @throws IOException thrown if the marker is not writable
+     */
+    public synchronized void markChanged() throws IOException {
+        if (!marked) {
+            Files.write(marker, new byte[0]);
+            marked = true;
+        }
+    }
+
+    /**
+     * Drop all sheets (before rebuilding the index)
+     */
+    public synchronized void clear() {
+        segment = Segment.EMPTY;
+        added.clear();
+        hidden.clear();
+    }
+
+    /**
+     * Add or replace a sheet
+     * @param fileName sheet file name
+     * @param name name of the entry
+     * @param description description of the sheet
+     * @param texts text of the pages
+     */
+    public void put(String fileName, String name, String description, Collection<String> texts) {
+        Map<String, Integer> weights = new HashMap<>();
+        addTerms(weights, name, NAME_WEIGHT);
+        addTerms(weights, description, DESCRIPTION_WEIGHT);
+        for (String text : texts) addTerms(weights, text, TEXT_WEIGHT);
+        synchronized (this) {
+            hidden.add(fileName);
+            added.put(fileName, weights);
+        }
+    }
+
+    /**
+     * Remove a sheet
+     * @param fileName sheet file name
+     */
+    public synchronized void remove(String fileName) {
+        hidden.add(fileName);
+        added.remove(fileName);
+    }
+
+    /**
+     * Check if enough changes piled up to merge them
+     * @return true iff merge should be called
+     */
+    public synchronized boolean isMergeDue() {
+        return hidden.size() >= MERGE_CHANGES;
+    }
+
+    /**
+     * Find sheets matching all words of a query
+     * @param query search words (the last one may be incomplete)
+     * @param limit maximum number of hits
+     * @return hits, best first
+     */
+    public synchronized List<Hit> search(String query, int limit) {
+        List<String> tokens = new ArrayList<>(new LinkedHashSet<>(tokenize(query)));
+        List<Hit> hits = new ArrayList<>();
+        if (tokens.isEmpty()) return hits;
+
+        // typos are only considered for words not found as they are
+        Set<String> typos = new HashSet<>();
+        for (String token : tokens) {
+            boolean known = segment.contains(token);
+            for (Iterator<Map<String, Integer>> sheets = added.values().iterator(); !known && sheets.hasNext(); ) {
+                known = sheets.next().containsKey(token);
+            }
+            if (!known && token.length() >= 4) typos.add(token);
+        }
+
+        // segment
+        Map<Integer, Float> total = null;
+        for (String token : tokens) {
+            Map<Integer, Float> scores = segment.match(token, typos.contains(token));
+            if (total == null) {
+                total = scores;
+            } else {
+                total.keySet().retainAll(scores.keySet());
+                for (Map.Entry<Integer, Float> entry : total.entrySet()) entry.setValue(entry.getValue() + scores.get(entry.getKey()));
+            }
+            if (total.isEmpty()) break;
+        }
+        for (Map.Entry<Integer, Float> entry : total.entrySet()) {
+            String fileName = segment.getFileName(entry.getKey());
+            if (!hidden.contains(fileName)) hits.add(new Hit(fileName, entry.getValue()));
+        }
+
+        // changes
+        for (Map.Entry<String, Map<String, Integer>> sheet : added.entrySet()) {
+            float score = 0;
+            for (String token : tokens) {
+                float best = 0;
+                for (Map.Entry<String, Integer> term : sheet.getValue().entrySet()) {
+                    best = Math.max(best, similarity(token, term.getKey(), typos.contains(token)) * term.getValue());
+                }
+                if (best == 0) {
+                    score = 0;
+                    break;
+                }
+                score += best;
+            }
+            if (score > 0) hits.add(new Hit(sheet.getKey(), score));
+        }
+
+        hits.sort((a, b) -> a.score != b.score ? Float.compare(b.score, a.score) : a.fileName.compareTo(b.fileName));
+        return hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+    }
+
+    /**
+     * Write the segment and the changes into a new segment
+     * @throws IOException thrown if the new segment could not be written (the changes stay in memory)
+     */
+    public synchronized void merge() throws IOException {
+        TreeMap<String, Postings> terms = new TreeMap<>();
+        List<String> fileNames = new ArrayList<>();
+        int[] numbers = new int[segment.sheetCount];
+        for (int sheet = 0; sheet < segment.sheetCount; sheet++) {
+            String fileName = segment.getFileName(sheet);
+            numbers[sheet] = hidden.contains(fileName) ? -1 : fileNames.size();
+            if (numbers[sheet] >= 0) fileNames.add(fileName);
+        }
+        for (int term = 0; term < segment.termCount; term++) {
+            Postings postings = null;
+            for (int p = segment.getFirstPosting(term), end = p + segment.getPostingCount(term); p < end; p++) {
+                int number = numbers[segment.getSheet(p)];
+                if (number < 0) continue;
+                if (postings == null) postings = terms.computeIfAbsent(segment.getTerm(term), key -> new Postings());
+                postings.add(number, segment.getWeight(p));
+            }
+        }
+        for (Map.Entry<String, Map<String, Integer>> sheet : added.entrySet()) {
+            int number = fileNames.size();
+            fileNames.add(sheet.getKey());
+            for (Map.Entry<String, Integer> term : sheet.getValue().entrySet()) {
+                terms.computeIfAbsent(term.getKey(), key -> new Postings()).add(number, term.getValue());
+            }
+        }
+
+        long next = generation + 1;
+        Path file = segmentFile(next);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        write(tmp, fileNames, terms);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        try {
+            segment = new Segment(file);
+        } catch (CorruptedStorageException e) {
+            throw new IOException(e.getMessage());
+        }
+        generation = next;
+        added.clear();
+        hidden.clear();
+        damaged = false;
+        deleteOldSegments();
+        Files.deleteIfExists(marker);
+        marked = false;
+        logger.info("search index merged: " + fileNames.size() + " sheets, " + terms.size() + " terms");
+    }
+
+    /**
+     * Merge pending changes
+     */
+    public synchronized void close() {
+        if (!hidden.isEmpty() || damaged) {
+            try {
+                merge();
+            } catch (IOException e) {
+                logger.warning("search index not merged\n" + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Split a text into normalized words (lower case, without accents)
+     * @param text text to split, may be null
+     * @return words
+     */
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) return tokens;
+        String normalized = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("").toLowerCase(Locale.ROOT);
+        for (String token : SEPARATOR.split(normalized)) {
+            if (token.length() < 2) continue;
+            tokens.add(token.length() > MAX_TERM ? token.substring(0, MAX_TERM) : token);
+        }
+        return tokens;
+    }
+
+    /**
+     * Sheet found by a query
+     */
+    public static class Hit {
+        private final String fileName;
+        private final float score;
+
+        public Hit(String fileName, float score) {
+            this.fileName = fileName;
+            this.score = score;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public float getScore() {
+            return score;
+        }
+
+        @Override
+        public String toString() {
+            return fileName + " (" + score + ")";
+        }
+    }
+
+/*------------------------------------------------------PRIVATE------------------------------------------------------*/
+
+    private Path segmentFile(long generation) {
+        return directory.resolve(generation + EXT);
+    }
+
+    private void deleteOldSegments() {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (!name.equals(MARKER) && !file.equals(segmentFile(generation))) {
+                    try {
+                        Files.delete(file);
+                    } catch (IOException e) {
+                        // still mapped (Windows), deleted next time
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.warning("search index directory not readable\n" + e.getMessage());
+        }
+    }
+
+    private static void addTerms(Map<String, Integer> weights, String text, int weight) {
+        for (String token : tokenize(text)) weights.merge(token, weight, (a, b) -> Math.min(MAX_WEIGHT, a + b));
+    }
+
+    /**
+     * Rate how well a term matches a query word
+     * @return EXACT, PREFIX, FUZZY or 0
+     */
+    private static float similarity(String token, String term, boolean typos) {
+        if (term.equals(token)) return EXACT;
+        if (term.startsWith(token)) return PREFIX;
+        return typos && isClose(token, term) ? FUZZY : 0;
+    }
+
+    /**
+     * Check if a term is within the typo distance of a query word (Levenshtein, aborted once above the distance)
+     */
+    private static boolean isClose(String token, String term) {
+        if (token.length() < 4) return false;
+        int distance = token.length() >= 8 ? 2 : 1;
+        int n = token.length();
+        int m = term.length();
+        if (Math.abs(n - m) > distance) return false;
+        int[] previous = new int[m + 1];
+        int[] current = new int[m + 1];
+        for (int j = 0; j <= m; j++) previous[j] = j;
+        for (int i = 1; i <= n; i++) {
+            current[0] = i;
+            int best = i;
+            char c = token.charAt(i - 1);
+            for (int j = 1; j <= m; j++) {
+                int cost = c == term.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1], previous[j]) + 1, previous[j - 1] + cost);
+                best = Math.min(best, current[j]);
+            }
+            if (best > distance) return false;
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[m] <= distance;
+    }
+
+    private static void write(Path file, List<String> fileNames, TreeMap<String, Postings> terms) throws IOException {
+        int postingCount = 0;
+        for (Postings postings : terms.values()) postingCount += postings.size;
+        int sheets = HEADER_SIZE;
+        int termTable = sheets + fileNames.size() * 4;
+        int postingTable = termTable + terms.size() * TERM_SIZE;
+        int strings = postingTable + postingCount * POSTING_SIZE;
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(fileNames.size());
+            out.writeInt(terms.size());
+            out.writeInt(sheets);
+            out.writeInt(termTable);
+            out.writeInt(postingTable);
+            out.writeInt(strings);
+
+            List<byte[]> utf8 = new ArrayList<>();
+            int offset = strings;
+            for (String fileName : fileNames) {
+                out.writeInt(offset);
+                byte[] bytes = fileName.getBytes(StandardCharsets.UTF_8);
+                utf8.add(bytes);
+                offset += 4 + bytes.length;
+            }
+            int first = 0;
+            for (Map.Entry<String, Postings> term : terms.entrySet()) {
+                out.writeInt(offset);
+                out.writeInt(first);
+                out.writeInt(term.getValue().size);
+                byte[] bytes = term.getKey().getBytes(StandardCharsets.UTF_8);
+                utf8.add(bytes);
+                offset += 4 + bytes.length;
+                first += term.getValue().size;
+            }
+            for (Postings postings : terms.values()) {
+                for (int i = 0; i < 2 * postings.size; i++) out.writeInt(postings.data[i]);
+            }
+            for (byte[] bytes : utf8) {
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Growable list of sheet number and weight pairs
+     */
+    private static class Postings {
+        private int[] data = new int[4];
+        private int size = 0;
+
+        void add(int sheet, int weight) {
+            if (2 * size == data.length) data = Arrays.copyOf(data, 2 * data.length);
+            data[2 * size] = sheet;
+            data[2 * size + 1] = weight;
+            size++;
+        }
+    }
+
+    /**
+     * Read-only view of a mapped segment file
+     */
+    private static class Segment {
+        static final Segment EMPTY = new Segment();
+
+        private final ByteBuffer buffer;
+        private final int sheetCount;
+        private final int termCount;
+        private final int sheets;
+        private final int terms;
+        private final int postings;
+
+        private Segment() {
+            buffer = ByteBuffer.allocate(0);
+            sheetCount = termCount = sheets = terms = postings = 0;
+        }
+
+        Segment(Path file) throws IOException, CorruptedStorageException {
+            MappedByteBuffer mapped;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            buffer = mapped;
+            try {
+                if (buffer.getInt(0) != MAGIC) throw new CorruptedStorageException("Search index: bad magic");
+                if (buffer.getInt(4) != VERSION) throw new CorruptedStorageException("Search index: unknown version " + buffer.getInt(4));
+                sheetCount = buffer.getInt(8);
+                termCount = buffer.getInt(12);
+                sheets = buffer.getInt(16);
+                terms = buffer.getInt(20);
+                postings = buffer.getInt(24);
+                int strings = buffer.getInt(28);
+                if (sheetCount < 0 || termCount < 0 || sheets != HEADER_SIZE || terms != sheets + 4 * sheetCount
+                        || postings != terms + TERM_SIZE * termCount || strings < postings || strings > buffer.capacity()) {
+                    throw new CorruptedStorageException("Search index: bad header");
+                }
+                if (termCount > 0 && strings != postings + POSTING_SIZE * (getFirstPosting(termCount - 1) + getPostingCount(termCount - 1))) {
+                    throw new CorruptedStorageException("Search index: bad posting table");
+                }
+            } catch (IndexOutOfBoundsException e) {
+                throw new CorruptedStorageException("Search index: truncated");
+            }
+        }
+
+        String getFileName(int sheet) {
+            return readString(buffer.getInt(sheets + 4 * sheet));
+        }
+
+        String getTerm(int term) {
+            return readString(buffer.getInt(terms + TERM_SIZE * term));
+        }
+
+        int getFirstPosting(int term) {
+            return buffer.getInt(terms + TERM_SIZE * term + 4);
+        }
+
+        int getPostingCount(int term) {
+            return buffer.getInt(terms + TERM_SIZE * term + 8);
+        }
+
+        int getSheet(int posting) {
+            return buffer.getInt(postings + POSTING_SIZE * posting);
+        }
+
+        int getWeight(int posting) {
+            return buffer.getInt(postings + POSTING_SIZE * posting + 4);
+        }
+
+        /**
+         * Score the sheets of all terms matching a query word (best matching term per sheet)
+         */
+        Map<Integer, Float> match(String token, boolean typos) {
+            Map<Integer, Float> scores = new HashMap<>();
+            for (int term = lowerBound(token); term < termCount; term++) {
+                String value = getTerm(term);
+                if (!value.startsWith(token)) break;
+                addScores(scores, term, value.equals(token) ? EXACT : PREFIX);
+            }
+            if (typos) {
+                for (int term = 0; term < termCount; term++) {
+                    String value = getTerm(term);
+                    if (!value.startsWith(token) && isClose(token, value)) addScores(scores, term, FUZZY);
+                }
+            }
+            return scores;
+        }
+
+        boolean contains(String token) {
+            int term = lowerBound(token);
+            return term < termCount && getTerm(term).equals(token);
+        }
+
+        private void addScores(Map<Integer, Float> scores, int term, float factor) {
+            for (int p = getFirstPosting(term), end = p + getPostingCount(term); p < end; p++) {
+                scores.merge(getSheet(p), factor * getWeight(p), Math::max);
+            }
+        }
+
+        private int lowerBound(String token) {
+            int low = 0;
+            int high = termCount;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (getTerm(middle).compareTo(token) < 0) low = middle + 1;
+                else high = middle;
+            }
+            return low;
+        }
+
+        private String readString(int offset) {
+            int length = buffer.getInt(offset);
+            byte[] utf8 = new byte[length];
+            buffer.get(offset + 4, utf8);
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+    }
+}
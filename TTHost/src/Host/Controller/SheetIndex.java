@@ -0,0 +1,448 @@
+package Host.Controller;
+
+import Host.Controller.Storage.CorruptedStorageException;
+import Host.CustomLogger;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Memory mapped binary sheet index
+ *
+ * Layout (big endian):
+ *  header       magic, format version, size and modification time of the index.tti it was converted from,
+ *               node count and the offsets of the three tables
+ *  strings      length prefixed UTF-8 strings, referenced by their offset (equal strings are stored once)
+ *  nodes        fixed width records, node 0 is the root folder
+ *  children     per folder a run of node numbers, sorted by name
+ *
+ * Nothing is parsed when opening: all accessors read the mapped records on demand.
+ * The text index (index.tti) stays the reference, the binary index is regenerated whenever it is outdated.
+ */
+public class SheetIndex {
+    public static final int ROOT = 0;
+
+    private static final int MAGIC = 0x54544249;    // "TTBI"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 48;
+    private static final int RECORD_SIZE = 36;
+    private static final int NONE = -1;
+
+    // record layout
+    private static final int TYPE = 0;          // byte 'd' or 'f'
+    private static final int RANDOMIZED = 1;    // byte 0/1
+    private static final int NAME = 4;          // string offset
+    private static final int FILE_NAME = 8;     // string offset (NONE for folders)
+    private static final int DESCRIPTION = 12;  // string offset (NONE for folders)
+    private static final int MIN_VERSION = 16;
+    private static final int PAGES = 20;
+    private static final int PARENT = 24;       // node number (NONE for root)
+    private static final int CHILD_START = 28;  // index into the children table
+    private static final int CHILD_COUNT = 32;
+
+    private final MappedByteBuffer buffer;
+    private final long sourceSize;
+    private final long sourceModified;
+    private final int nodeCount;
+    private final int strings;
+    private final int nodes;
+    private final int children;
+
+    /**
+     * Map a binary index file
+     * @param file binary index
+     * @throws IOException thrown if the file is not readable
+     * @throws CorruptedStorageException thrown if the file is no valid binary index
+     */
+    public SheetIndex(Path file) throws IOException, CorruptedStorageException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            if (buffer.getInt(0) != MAGIC) throw new CorruptedStorageException("Binary index: bad magic");
+            if (buffer.getInt(4) != VERSION) throw new CorruptedStorageException("Binary index: unknown version " + buffer.getInt(4));
+            sourceSize = buffer.getLong(8);
+            sourceModified = buffer.getLong(16);
+            nodeCount = buffer.getInt(24);
+            strings = buffer.getInt(28);
+            nodes = buffer.getInt(32);
+            children = buffer.getInt(36);
+            int end = buffer.getInt(40);
+            if (nodeCount < 1 || strings != HEADER_SIZE || nodes < strings || children != nodes + nodeCount * RECORD_SIZE
+                    || end < children || end != buffer.capacity()) {
+                throw new CorruptedStorageException("Binary index: bad header");
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new CorruptedStorageException("Binary index: truncated");
+        }
+        if (!isFolder(ROOT)) throw new CorruptedStorageException("Binary index: root wrong");
+    }
+
+    /**
+     * Open the binary index of a text index, (re-)converting it if missing or outdated
+     * @param text text index (index.tti)
+     * @param binary binary index
+     * @return mapped index
+     * @throws IOException thrown by reading or writing the index files
+     * @throws CorruptedStorageException thrown if the text index is damaged
+     */
+    public static SheetIndex open(Path text, Path binary) throws IOException, CorruptedStorageException {
+        if (Files.isRegularFile(binary)) {
+            try {
+                SheetIndex index = new SheetIndex(binary);
+                if (index.isCurrent(text)) return index;
+            } catch (CorruptedStorageException e) {
+                CustomLogger.getInstance().warning("binary index damaged, converting again\n" + e.getMessage());
+            }
+        }
+        convert(text, binary);
+        return new SheetIndex(binary);
+    }
+
+    /**
+     * Check if the index was converted from the current version of the text index
+     * @param text text index (index.tti)
+     * @return true iff size and modification time match
+     * @throws IOException thrown if the attributes of the text index are not readable
+     */
+    public boolean isCurrent(Path text) throws IOException {
+        return Files.size(text) == sourceSize && Files.getLastModifiedTime(text).toMillis() == sourceModified;
+    }
+
+    /**
+     * Get number of nodes (folders and files, including the root)
+     * @return node count
+     */
+    public int size() {
+        return nodeCount;
+    }
+
+    public boolean isFolder(int node) {
+        return buffer.get(record(node) + TYPE) == 'd';
+    }
+
+    public String getName(int node) {
+        return string(buffer.getInt(record(node) + NAME));
+    }
+
+    public String getFileName(int node) {
+        return string(buffer.getInt(record(node) + FILE_NAME));
+    }
+
+    public String getDescription(int node) {
+        return string(buffer.getInt(record(node) + DESCRIPTION));
+    }
+
+    public int getMinVersion(int node) {
+        return buffer.getInt(record(node) + MIN_VERSION);
+    }
+
+    public int getPages(int node) {
+        return buffer.getInt(record(node) + PAGES);
+    }
+
+    public boolean isRandomized(int node) {
+        return buffer.get(record(node) + RANDOMIZED) != 0;
+    }
+
+    /**
+     * Get parent folder
+     * @param node node number
+     * @return node number of the parent, -1 for the root
+     */
+    public int getParent(int node) {
+        return buffer.getInt(record(node) + PARENT);
+    }
+
+    /**
+     * Get number of children (0 for files)
+     * @param node node number
+     * @return child count
+     */
+    public int getChildCount(int node) {
+        return buffer.getInt(record(node) + CHILD_COUNT);
+    }
+
+    /**
+     * Get a child (children are sorted by name)
+     * @param node node number of the folder
+     * @param index position of the child
+     * @return node number of the child
+     */
+    public int getChild(int node, int index) {
+        int count = getChildCount(node);
+        if (index < 0 || index >= count) throw new IndexOutOfBoundsException("child " + index + " of " + count);
+        return buffer.getInt(children + (buffer.getInt(record(node) + CHILD_START) + index) * 4);
+    }
+
+    /**
+     * Find a child by name (binary search)
+     * @param node node number of the folder
+     * @param name name of the child
+     * @return node number of the child, -1 if missing
+     */
+    public int findChild(int node, String name) {
+        int low = 0;
+        int high = getChildCount(node) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int child = getChild(node, mid);
+            int cmp = getName(child).compareTo(name);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return child;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Write the index in the text format (index.tti)
+     * @param writer destination
+     * @throws IOException thrown by the writer
+     */
+    public void writeText(Writer writer) throws IOException {
+        writeText(writer, ROOT);
+        writer.flush();
+    }
+
+    /**
+     * Write a subtree in the text format (index.tti)
+     * @param writer destination
+     * @param node node number of the subtree root
+     * @throws IOException thrown by the writer
+     */
+    void writeText(Writer writer, int node) throws IOException {
+        if (isFolder(node)) {
+            writer.write("d\0" + getName(node) + '\0' + getChildCount(node) + '\n');
+            for (int i = 0; i < getChildCount(node); i++) writeText(writer, getChild(node, i));
+        } else {
+            writer.write("f\0" + getName(node) + '\0' + getFileName(node) + '\0' + getMinVersion(node) + '\0' + getPages(node)
+                    + '\0' + getDescription(node) + '\0' + (isRandomized(node) ? '1' : '0') + '\n');
+        }
+    }
+
+/*----------------------------------------------------CONVERSION-----------------------------------------------------*/
+
+    /**
+     * Convert a text index (index.tti) into a binary index
+     * The binary index is written next to the destination and moved in place, so readers never see a partial file.
+     * @param text text index
+     * @param binary destination of the binary index
+     * @throws IOException thrown by reading or writing the index files
+     * @throws CorruptedStorageException thrown if the text index is damaged
+     */
+    public static void convert(Path text, Path binary) throws IOException, CorruptedStorageException {
+        long size = Files.size(text);
+        long modified = Files.getLastModifiedTime(text).toMillis();
+        Entry root;
+        try (BufferedReader reader = Files.newBufferedReader(text)) {
+            root = readRoot(reader);
+        }
+        Path tmp = binary.resolveSibling(binary.getFileName() + ".tmp");
+        write(root, size, modified, tmp);
+        Files.move(tmp, binary, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Convert a binary index back into a text index (index.tti)
+     * @param binary binary index
+     * @param text destination of the text index
+     * @throws IOException thrown by reading or writing the index files
+     * @throws CorruptedStorageException thrown if the binary index is damaged
+     */
+    public static void toText(Path binary, Path text) throws IOException, CorruptedStorageException {
+        SheetIndex index = new SheetIndex(binary);
+        try (BufferedWriter writer = Files.newBufferedWriter(text)) {
+            index.writeText(writer);
+        }
+    }
+
+/*------------------------------------------------------PRIVATE------------------------------------------------------*/
+
+    private int record(int node) {
+        if (node < 0 || node >= nodeCount) throw new IndexOutOfBoundsException("node " + node + " of " + nodeCount);
+        return nodes + node * RECORD_SIZE;
+    }
+
+    private String string(int offset) {
+        if (offset == NONE) return null;
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        byte[] bytes = new byte[view.getInt()];
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Node of the text index while converting
+     */
+    private static class Entry {
+        private final boolean folder;
+        private final String name;
+        private String fileName;
+        private String description;
+        private int minVersion;
+        private int pages;
+        private boolean randomized;
+        private final List<Entry> children = new ArrayList<>();
+        private int number;
+
+        public Entry(boolean folder, String name) {
+            this.folder = folder;
+            this.name = name;
+        }
+    }
+
+    private static Entry readRoot(BufferedReader reader) throws IOException, CorruptedStorageException {
+        String line = reader.readLine();
+        if (line == null) throw new CorruptedStorageException("Index file empty");
+        String[] data = line.split("\0", -1);
+        if (data.length != 3 || !data[0].equals("d") || !data[1].equals("TherapistsToolbox")) {
+            throw new CorruptedStorageException("Index file: root wrong");
+        }
+        Entry root = new Entry(true, data[1]);
+        readChildren(reader, root, parseInt(data[2], line));
+        return root;
+    }
+
+    private static void readChildren(BufferedReader reader, Entry folder, int numberOfChildren) throws IOException, CorruptedStorageException {
+        for (int i = 0; i < numberOfChildren; i++) {
+            String line = reader.readLine();
+            if (line == null) throw new CorruptedStorageException("Index file: line missing");
+            String[] data = line.split("\0", -1);
+            Entry child;
+            if (data[0].equals("f") && data.length == 7) {
+                child = new Entry(false, data[1]);
+                child.fileName = data[2];
+                child.minVersion = parseInt(data[3], line);
+                child.pages = parseInt(data[4], line);
+                child.description = data[5];
+                child.randomized = parseInt(data[6], line) == 1;
+            } else if (data[0].equals("d") && data.length == 3) {
+                child = new Entry(true, data[1]);
+                readChildren(reader, child, parseInt(data[2], line));
+            } else {
+                throw new CorruptedStorageException("Index file: bad line: '" + line + "'");
+            }
+            folder.children.add(child);
+        }
+        folder.children.sort(Comparator.comparing(entry -> entry.name));
+    }
+
+    private static int parseInt(String value, String line) throws CorruptedStorageException {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new CorruptedStorageException("Index file: bad number in line: '" + line + "'");
+        }
+    }
+
+    private static void write(Entry root, long sourceSize, long sourceModified, Path file) throws IOException {
+        // number nodes in pre-order (same order as the text index)
+        List<Entry> entries = new ArrayList<>();
+        List<Entry> pending = new ArrayList<>();
+        pending.add(root);
+        while (!pending.isEmpty()) {
+            Entry entry = pending.remove(pending.size() - 1);
+            entry.number = entries.size();
+            entries.add(entry);
+            for (int i = entry.children.size() - 1; i >= 0; i--) pending.add(entry.children.get(i));
+        }
+
+        // string table
+        StringTable table = new StringTable();
+        int[][] refs = new int[entries.size()][];
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            refs[i] = new int[] { table.add(entry.name), table.add(entry.fileName), table.add(entry.description) };
+        }
+        byte[] strings = table.bytes();
+
+        int nodes = HEADER_SIZE + strings.length;
+        int children = nodes + entries.size() * RECORD_SIZE;
+        int end = children + (entries.size() - 1) * 4;
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sourceSize);
+            out.writeLong(sourceModified);
+            out.writeInt(entries.size());
+            out.writeInt(HEADER_SIZE);
+            out.writeInt(nodes);
+            out.writeInt(children);
+            out.writeInt(end);
+            out.writeInt(0);
+            out.write(strings);
+
+            Map<Entry, Integer> parents = new HashMap<>();
+            int childStart = 0;
+            for (Entry entry : entries) {
+                for (Entry child : entry.children) parents.put(child, entry.number);
+                out.writeByte(entry.folder ? 'd' : 'f');
+                out.writeByte(entry.randomized ? 1 : 0);
+                out.writeShort(0);
+                out.writeInt(refs[entry.number][0]);
+                out.writeInt(entry.folder ? NONE : refs[entry.number][1]);
+                out.writeInt(entry.folder ? NONE : refs[entry.number][2]);
+                out.writeInt(entry.minVersion);
+                out.writeInt(entry.pages);
+                out.writeInt(parents.getOrDefault(entry, NONE));
+                out.writeInt(childStart);
+                out.writeInt(entry.children.size());
+                childStart += entry.children.size();
+            }
+            for (Entry entry : entries) {
+                for (Entry child : entry.children) out.writeInt(child.number);
+            }
+        }
+    }
+
+    /**
+     * Deduplicating string table builder
+     */
+    private static class StringTable {
+        private final Map<String, Integer> offsets = new HashMap<>();
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        public int add(String string) throws IOException {
+            if (string == null) return NONE;
+            Integer offset = offsets.get(string);
+            if (offset == null) {
+                offset = HEADER_SIZE + out.size();
+                byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(utf8.length);
+                out.write(utf8);
+                offsets.put(string, offset);
+            }
+            return offset;
+        }
+
+        public byte[] bytes() {
+            return bytes.toByteArray();
+        }
+    }
+}
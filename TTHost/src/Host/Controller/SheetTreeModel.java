@@ -0,0 +1,370 @@
+package Host.Controller;
+
+import javax.swing.event.EventListenerList;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tree model of the sheet storage, backed by the sheet index
+ *
+ * A node only holds its index number, name and parent; the children of a folder are created when the tree asks for
+ * them (i.e. when the folder is expanded), before that their number is read from the index.
+ * Nodes added after loading carry their attributes themselves (index number -1).
+ * Changes are published as insert/remove/change events of the affected nodes only.
+ * Must be used on the event dispatch thread.
+ */
+public class SheetTreeModel implements TreeModel {
+    private final SheetIndex index;
+    private final Node root;
+    private final EventListenerList listeners = new EventListenerList();
+
+    /**
+     * Create model over a sheet index
+     * @param index mapped sheet index
+     */
+    public SheetTreeModel(SheetIndex index) {
+        this.index = index;
+        this.root = new Node(SheetIndex.ROOT, index.getName(SheetIndex.ROOT), true);
+    }
+
+    @Override
+    public Node getRoot() {
+        return root;
+    }
+
+    @Override
+    public Node getChild(Object parent, int i) {
+        return ((Node) parent).children().get(i);
+    }
+
+    @Override
+    public int getChildCount(Object parent) {
+        return ((Node) parent).getChildCount();
+    }
+
+    @Override
+    public boolean isLeaf(Object node) {
+        return !((Node) node).folder;
+    }
+
+    @Override
+    public void valueForPathChanged(TreePath path, Object newValue) {
+        // the tree is not editable, renaming goes through the storage
+    }
+
+    @Override
+    public int getIndexOfChild(Object parent, Object child) {
+        if (!(parent instanceof Node) || !(child instanceof Node)) return -1;
+        Node node = (Node) child;
+        if (node.parent != parent) return -1;
+        return indexOf(node);
+    }
+
+    @Override
+    public void addTreeModelListener(TreeModelListener l) {
+        listeners.add(TreeModelListener.class, l);
+    }
+
+    @Override
+    public void removeTreeModelListener(TreeModelListener l) {
+        listeners.remove(TreeModelListener.class, l);
+    }
+
+    /**
+     * Get the tree path of a node
+     * @param node node of this model
+     * @return path from the root
+     */
+    public TreePath getPath(Node node) {
+        return node.parent == null ? new TreePath(node) : getPath(node.parent).pathByAddingChild(node);
+    }
+
+    /**
+     * Get the info of a node
+     * @param node node of this model
+     * @return info of the node (folder or file)
+     */
+    public Storage.Info getInfo(Node node) {
+        String path = node.getPathString();
+        if (node.folder) return new Storage.Info(node.name, path);
+        return new Storage.Info(node.name, path, node.getMinVersion(), node.getPages(), node.getDescription(), node.isRandomized());
+    }
+
+/*-----------------------------------------------------MUTATION------------------------------------------------------*/
+
+    /**
+     * Create a folder that is not attached yet
+     * @param name name of the folder
+     * @return new folder
+     */
+    Node newFolder(String name) {
+        Node folder = new Node(-1, name, true);
+        folder.children = new ArrayList<>();
+        return folder;
+    }
+
+    /**
+     * Create a file that is not attached yet
+     * @param name name of the file
+     * @param fileName name of the sheet file in the sheet directory
+     * @param minVersion minimal client version
+     * @param pages number of pages
+     * @param description description of the sheet
+     * @param randomized true iff the pages are shown in random order
+     * @return new file
+     */
+    Node newFile(String name, String fileName, int minVersion, int pages, String description, boolean randomized) {
+        Node file = new Node(-1, name, false);
+        file.setAttributes(fileName, minVersion, pages, description, randomized);
+        return file;
+    }
+
+    /**
+     * Attach a node to a folder (at its sorted position) and notify the listeners
+     * @param parent folder
+     * @param child detached node
+     */
+    void insert(Node parent, Node child) {
+        assert parent.folder && child.parent == null;
+        List<Node> children = parent.children();
+        int i = insertionPoint(children, child.name);
+        children.add(i, child);
+        child.parent = parent;
+        TreeModelEvent event = new TreeModelEvent(this, getPath(parent), new int[] { i }, new Object[] { child });
+        for (TreeModelListener l : listeners.getListeners(TreeModelListener.class)) l.treeNodesInserted(event);
+    }
+
+    /**
+     * Detach a node from its folder and notify the listeners
+     * @param child attached node (not the root)
+     */
+    void remove(Node child) {
+        Node parent = child.parent;
+        int i = indexOf(child);
+        TreeModelEvent event = new TreeModelEvent(this, getPath(parent), new int[] { i }, new Object[] { child });
+        parent.children.remove(i);
+        child.parent = null;
+        for (TreeModelListener l : listeners.getListeners(TreeModelListener.class)) l.treeNodesRemoved(event);
+    }
+
+    /**
+     * Rename a node, moving it to its new sorted position
+     * @param node attached node
+     * @param name new name
+     */
+    void rename(Node node, String name) {
+        if (node.parent == null) {
+            node.name = name;
+            TreeModelEvent event = new TreeModelEvent(this, new TreePath(node), null, null);
+            for (TreeModelListener l : listeners.getListeners(TreeModelListener.class)) l.treeNodesChanged(event);
+            return;
+        }
+        Node parent = node.parent;
+        remove(node);
+        node.name = name;
+        insert(parent, node);
+    }
+
+    /**
+     * Update the attributes of a file and notify the listeners
+     * @param file attached file
+     * @param fileName name of the sheet file in the sheet directory
+     * @param minVersion minimal client version
+     * @param pages number of pages
+     * @param description description of the sheet
+     * @param randomized true iff the pages are shown in random order
+     */
+    void update(Node file, String fileName, int minVersion, int pages, String description, boolean randomized) {
+        file.setAttributes(fileName, minVersion, pages, description, randomized);
+        if (file.parent == null) return;
+        TreeModelEvent event = new TreeModelEvent(this, getPath(file.parent),
+                new int[] { indexOf(file) }, new Object[] { file });
+        for (TreeModelListener l : listeners.getListeners(TreeModelListener.class)) l.treeNodesChanged(event);
+    }
+
+    /**
+     * Get the children of a folder without materializing them (nodes of a folder never expanded are temporary)
+     * @param folder folder of this model
+     * @return children in name order
+     */
+    List<Node> peekChildren(Node folder) {
+        if (!folder.folder) return List.of();
+        if (folder.children != null) return new ArrayList<>(folder.children);
+        int count = index.getChildCount(folder.number);
+        List<Node> children = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) children.add(folder.indexChild(i));
+        return children;
+    }
+
+    /**
+     * Write the tree in the text index format (index.tti), folders never expanded are copied from the index
+     * @param writer destination
+     * @throws IOException thrown by the writer
+     */
+    void writeText(Writer writer) throws IOException {
+        writeText(writer, root);
+        writer.flush();
+    }
+
+/*------------------------------------------------------PRIVATE------------------------------------------------------*/
+
+    private void writeText(Writer writer, Node node) throws IOException {
+        if (node.folder && node.children == null) {
+            int count = index.getChildCount(node.number);
+            writer.write("d\0" + node.name + '\0' + count + '\n');
+            for (int i = 0; i < count; i++) index.writeText(writer, index.getChild(node.number, i));
+        } else if (node.folder) {
+            writer.write("d\0" + node.name + '\0' + node.children.size() + '\n');
+            for (Node child : node.children) writeText(writer, child);
+        } else {
+            writer.write("f\0" + node.name + '\0' + node.getFileName() + '\0' + node.getMinVersion() + '\0' + node.getPages()
+                    + '\0' + node.getDescription() + '\0' + (node.isRandomized() ? '1' : '0') + '\n');
+        }
+    }
+
+    /**
+     * Position of an attached node among its siblings (binary search by name)
+     */
+    private static int indexOf(Node node) {
+        List<Node> children = node.parent.children();
+        int i = insertionPoint(children, node.name) - 1;
+        while (i >= 0 && children.get(i) != node) i--;
+        return i;
+    }
+
+    private static int insertionPoint(List<Node> children, String name) {
+        int low = 0;
+        int high = children.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (children.get(mid).name.compareTo(name) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Folder or file of the sheet tree
+     */
+    public class Node {
+        private final int number;   // index node, -1 if added after loading
+        private final boolean folder;
+        private String name;
+        private Node parent;
+        private List<Node> children;    // null until materialized
+
+        // file attributes, read from the index until set
+        private boolean attributes = false;
+        private String fileName;
+        private int minVersion;
+        private int pages;
+        private String description;
+        private boolean randomized;
+
+        private Node(int number, String name, boolean folder) {
+            this.number = number;
+            this.name = name;
+            this.folder = folder;
+        }
+
+        public boolean isFolder() {
+            return folder;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Node getParent() {
+            return parent;
+        }
+
+        public String getFileName() {
+            return attributes ? fileName : index.getFileName(number);
+        }
+
+        public int getMinVersion() {
+            return attributes ? minVersion : index.getMinVersion(number);
+        }
+
+        public int getPages() {
+            return attributes ? pages : index.getPages(number);
+        }
+
+        public String getDescription() {
+            return attributes ? description : index.getDescription(number);
+        }
+
+        public boolean isRandomized() {
+            return attributes ? randomized : index.isRandomized(number);
+        }
+
+        /**
+         * Get number of children without materializing them
+         * @return child count
+         */
+        public int getChildCount() {
+            if (!folder) return 0;
+            return children != null ? children.size() : index.getChildCount(number);
+        }
+
+        /**
+         * Find a child by name
+         * @param name name of the child
+         * @return child, null if missing
+         */
+        public Node getChild(String name) {
+            if (!folder) return null;
+            List<Node> children = children();
+            int i = insertionPoint(children, name) - 1;
+            return i >= 0 && children.get(i).name.equals(name) ? children.get(i) : null;
+        }
+
+        /**
+         * Get path of names from the root, separated by '\'
+         * @return path string
+         */
+        public String getPathString() {
+            return parent == null ? name : parent.getPathString() + "\\" + name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+
+        List<Node> children() {
+            if (children == null) {
+                int count = folder ? index.getChildCount(number) : 0;
+                children = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) children.add(indexChild(i));
+            }
+            return children;
+        }
+
+        private Node indexChild(int i) {
+            int child = index.getChild(number, i);
+            Node node = new Node(child, index.getName(child), index.isFolder(child));
+            node.parent = this;
+            return node;
+        }
+
+        private void setAttributes(String fileName, int minVersion, int pages, String description, boolean randomized) {
+            this.fileName = fileName;
+            this.minVersion = minVersion;
+            this.pages = pages;
+            this.description = description;
+            this.randomized = randomized;
+            this.attributes = true;
+        }
+    }
+}
@@ -1,25 +1,35 @@
 package Host.Controller;
 
-import Exceptions.UnimplementedException;
+import Concurrency.TaskRunner;
 import Host.CustomLogger;
+import Host.WorkSheet;
+import Logging.RotatingLogHandler;
 
-import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.TreePath;
-import java.io.BufferedReader;
+import java.awt.image.BufferedImage;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.sql.Timestamp;
-import java.util.Comparator;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
-import java.util.logging.FileHandler;
-import java.util.stream.Stream;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Handler;
 
 /**
  * This class manages the data storage
@@ -35,17 +45,32 @@ public class Storage {
     private static final String TMP_DIR = "TMP";
     private static final String LOG_DIR = "Logs";
     private static final String INDEX_FILE = "index.tti";
-//    private static final String SHEET_EXT = ".tts";
+    private static final String BINARY_INDEX_FILE = "index.ttb";
+    private static final String SHEET_EXT = ".tts";
+    private static final String THUMBNAIL_DIR = "Thumbnails";
+    private static final String SEARCH_DIR = "Search";
 
+    private final Path base;
     private final Path index;
     private final Path sheets;
     private final Path pictures;
     private final Path tmp;
     private final Path log;
 
-    private final SheetTree root;
+    private final SheetIndex sheetIndex;
+    private final SheetTreeModel treeModel;
+    private final PictureStore pictureStore;
+    private final StorageJournal journal;
+    private final SearchIndex searchIndex;
+    private final ExecutorService indexer;
+    private Map<String, SheetTreeModel.Node> sheetNodes;   // by file name, built on the first search
+    private volatile Thread compaction;
 
     private static final long MAX_LOGS_SIZE = 20*1024*1024;
+    private static final long LOG_FILE_SIZE = 2*1024*1024;
+    private static final int LOG_MAX_AGE_DAYS = 90;
+    private static final int COMPACT_RECORDS = 512;
+    private static final long PICTURE_CACHE_BYTES = 96L * 1024 * 1024;
 
     /**
      * Checks the folder at the given path, if all necessary files and folders are available
@@ -58,14 +83,21 @@ public class Storage {
      */
     public Storage (Path location) throws FaultyStorageStructureException, CorruptedStorageException, IOException {
         location = checkStorageStructure(location);
+        this.base = location;
         this.index = location.resolve(INDEX_FILE);
         this.sheets = location.resolve(SHEET_DIR);
         this.pictures = location.resolve(PICTURE_DIR);
         this.tmp = location.resolve(TMP_DIR);
         this.log = location.resolve(LOG_DIR);
-        cleanLogs();
 
-        this.root = new SheetTree(new BufferedReader(Files.newBufferedReader(this.index)));
+        this.journal = new StorageJournal(this.tmp, this.index);     // may finish a compaction, before the index is read
+        this.sheetIndex = SheetIndex.open(this.index, location.resolve(BINARY_INDEX_FILE));
+        this.treeModel = new SheetTreeModel(sheetIndex);
+        this.pictureStore = new PictureStore(this.pictures, this.tmp.resolve(THUMBNAIL_DIR), PICTURE_CACHE_BYTES);
+        replayJournal();
+        this.searchIndex = new SearchIndex(this.tmp.resolve(SEARCH_DIR));
+        this.indexer = Executors.newSingleThreadExecutor(task -> TaskRunner.newThread("search-indexer", task));
+        if (searchIndex.needsRebuild()) rebuildSearchIndex();
     }
 
     /**
@@ -78,47 +110,41 @@ public class Storage {
      * @throws CorruptedStorageException thrown iff the Storage content is damaged
      */
     public static Path checkStorageSystem(Path userPath) throws FaultyStorageStructureException, CorruptedStorageException, IOException {
+        return checkStorageSystem(userPath, null);
+    }
+
+    /**
+     * Checks the given Path for structure-damages
+     * iff correct, performs also a full-check
+     * The storage is not opened: the content is checked against the index as stored, the journal is neither replayed
+     * nor compacted (the actual open does that).
+     *
+     * @param userPath Path to the storage system
+     * @param listener receives the progress of the content check (from worker threads), may be null
+     * @return Path of the base-dir iff correct
+     * @throws FaultyStorageStructureException thrown iff the Storage structure is damaged
+     * @throws CorruptedStorageException thrown iff the Storage content is damaged
+     */
+    public static Path checkStorageSystem(Path userPath, ProgressListener listener) throws FaultyStorageStructureException, CorruptedStorageException, IOException {
         // check structure
         Path baseDir = checkStorageStructure(userPath);
 
         // check content
-        Storage storage = new Storage(baseDir);
-        storage.checkStorageContent();
+        SheetIndex index = SheetIndex.open(baseDir.resolve(INDEX_FILE), baseDir.resolve(BINARY_INDEX_FILE));
+        checkStorageContent(new SheetTreeModel(index), baseDir.resolve(SHEET_DIR), baseDir.resolve(PICTURE_DIR), listener);
 
         return baseDir;
     }
 
     /**
-     * Returns a FileHandler for a new log file
-     * The name of the log file will be its creation time stamp
-     * @return FileHandler for a new log file
+     * Returns a handler for a new log file
+     * The log files are named by their creation time stamp, rolled over at LOG_FILE_SIZE, compressed and deleted
+     * by age and total size in the background
+     * @return handler for a new log file
      * @throws IOException thrown due to file creation problems
      */
-    public FileHandler getFileLog() throws IOException {
-        Path file = log.resolve(new Timestamp(new Date().getTime()).toString().replace(':', '-') + ".txt");
-        Files.createFile(file);
-        return new FileHandler(file.toString());
-    }
-
-    private void cleanLogs() throws IOException {
-        var wrapper = new Object() { long size = 0; };
-        Stream<Path> paths = Files.walk(log);
-        paths.filter(Files::isRegularFile)
-                .sorted(Comparator.comparing(Path::toString))
-                .forEachOrdered(path -> {
-                    try {
-                        wrapper.size += Files.size(path);
-                    } catch (IOException e) {
-                        CustomLogger.getInstance().warning("log file size not readable\n" + e.getMessage());
-                    }
-                    if (wrapper.size > MAX_LOGS_SIZE) {
-                        try {
-                            Files.delete(path);
-                        } catch (IOException e) {
-                            CustomLogger.getInstance().warning("log file not deletable\n" + e.getMessage());
-                        }
-                    }
-                });
+    public Handler getFileLog() throws IOException {
+        return new RotatingLogHandler(log, LOG_FILE_SIZE, MAX_LOGS_SIZE, LOG_MAX_AGE_DAYS);
     }
 
     /**
@@ -180,24 +206,55 @@ public class Storage {
 
     /**
      * Checks for Errors in the Storage
-     * (checks all files and Pictures)
+     * (checks all files and Pictures in parallel, orphaned files are only logged)
      *
+     * @param listener receives the progress (from worker threads), may be null
+     * @return report of the check
      * @throws CorruptedStorageException thrown iff the Storage content is damaged
      */
-    private void checkStorageContent() throws CorruptedStorageException {
-        // TODO
-        // throw new Exceptions.UnimplementedException("src/Host/Storage.java: checkStorageContent(...) is unimplemented");
+    public StorageChecker.Report checkStorageContent(ProgressListener listener) throws CorruptedStorageException {
+        return checkStorageContent(treeModel, sheets, pictures, listener);
     }
 
     /**
-     * Moved the entire Storage to a new location
+     * Checks for Errors in the files of a sheet tree
      *
-     * @param newLocation path for the new storage location
-     * @return true, iff moving was successful; false, iff something went wrong (all modifications reversed)
+     * @param model sheet tree
+     * @param sheets sheet directory
+     * @param pictures picture directory
+     * @param listener receives the progress (from worker threads), may be null
+     * @return report of the check
+     * @throws CorruptedStorageException thrown iff the Storage content is damaged
      */
-    public boolean moveStorage(Path newLocation) {
-        // TODO
-        throw new UnimplementedException("src/Host/Storage.java: moveStorage(...) is unimplemented");
+    private static StorageChecker.Report checkStorageContent(SheetTreeModel model, Path sheets, Path pictures, ProgressListener listener) throws CorruptedStorageException {
+        CustomLogger logger = CustomLogger.getInstance();
+        StorageChecker.Report report = new StorageChecker(sheets, pictures, listener).check(model);
+        logger.info("storage content checked: " + report);
+        for (String orphan : report.getOrphans()) logger.warning("orphaned file: " + orphan);
+        if (!report.isIntact()) {
+            for (String problem : report.getProblems()) logger.warning(problem);
+            throw new CorruptedStorageException(report.getProblems().size() + " damaged or missing files, first: "
+                    + report.getProblems().get(0));
+        }
+        return report;
+    }
+
+    /**
+     * Moves the entire Storage to a new location
+     * The storage is closed first and must be opened again at the returned location. An interrupted move (error, crash)
+     * is continued by moving to the same location again; the old location stays valid until the switch.
+     *
+     * @param newLocation path of the folder to contain the "TherapistsToolbox" folder
+     * @param listener receives moved and total bytes (from worker threads), may be null
+     * @param switchLocation called with the new base-dir once all files are there, before the old ones are removed
+     * @return Path of the new base-dir
+     * @throws IOException thrown if the storage could not be moved completely (the old storage is unchanged)
+     */
+    public Path moveStorage(Path newLocation, ProgressListener listener, Consumer<Path> switchLocation) throws IOException {
+        close();
+        Path target = newLocation.resolve(BASE_DIR);
+        new StorageMover(base, target, tmp, listener).move(switchLocation);
+        return target;
     }
 
     /**
@@ -266,12 +323,546 @@ public class Storage {
 
     }
 
-    public DefaultMutableTreeNode getJTreeRoot() {
-        return root.getJTreeRoot();
+    /**
+     * Get the tree model of the sheet storage (children are loaded from the index on demand)
+     * @return tree model
+     */
+    public SheetTreeModel getTreeModel() {
+        return treeModel;
     }
 
+    /**
+     * Get the info of a node of the sheet tree
+     * @param path tree path of the node (as handed out by the tree model)
+     * @return info of the node
+     * @throws FaultyStorageStructureException thrown if the node does not belong to the tree model
+     */
     public Info getInfo(TreePath path) throws FaultyStorageStructureException {
-        return root.getInfo(path);
+        return treeModel.getInfo(getNode(path));
+    }
+
+    /**
+     * Get the node of the sheet tree a tree path ends with
+     * @param path tree path of the node (as handed out by the tree model)
+     * @return node
+     * @throws FaultyStorageStructureException thrown if the node does not belong to the tree model
+     */
+    public SheetTreeModel.Node getNode(TreePath path) throws FaultyStorageStructureException {
+        Object node = path.getLastPathComponent();
+        if (!(node instanceof SheetTreeModel.Node)) throw new FaultyStorageStructureException("Requested missing node");
+        return (SheetTreeModel.Node) node;
+    }
+
+    /**
+     * Find work sheets by name, description and page text
+     * Every word of the query has to match a word of the sheet (exactly, as prefix or with a typo).
+     * @param query search words
+     * @param limit maximum number of results
+     * @return tree paths of the matching sheets, best match first
+     */
+    public List<TreePath> search(String query, int limit) {
+        if (sheetNodes == null) {
+            sheetNodes = new HashMap<>();
+            for (SheetTreeModel.Node file : files(treeModel.getRoot())) sheetNodes.put(file.getFileName(), file);
+        }
+        List<TreePath> paths = new ArrayList<>();
+        for (SearchIndex.Hit hit : searchIndex.search(query, limit)) {
+            SheetTreeModel.Node node = sheetNodes.get(hit.getFileName());
+            if (node == null) continue;
+            try {
+                paths.add(treeModel.getPath(resolve(pathOf(node))));     // the node may be a temporary one
+            } catch (FaultyStorageStructureException e) {
+                sheetNodes = null;
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Load thumbnails of the first pictures of a work sheet (for the sheet browser)
+     * The sheet file is read on a background thread and the pictures are decoded by the picture store, the calling
+     * thread never waits for the disk.
+     * @param file work sheet entry
+     * @param size maximal edge length of the thumbnails
+     * @param count maximal number of pictures
+     * @return future of the pictures in page order (missing or undecodable pictures are left out, a folder or an
+     *         unreadable sheet has none)
+     */
+    public CompletableFuture<List<BufferedImage>> loadPreview(SheetTreeModel.Node file, int size, int count) {
+        if (file.isFolder()) return CompletableFuture.completedFuture(List.of());
+        Path path = sheets.resolve(file.getFileName());
+        String directory = file.getParent().getPathString();
+        String name = file.getName();
+        CompletableFuture<Set<String>> hashes = new CompletableFuture<>();
+        TaskRunner.start("sheet-preview", () -> {
+            try {
+                WorkSheet sheet = WorkSheet.open(path, directory);
+                try {
+                    hashes.complete(sheet.getPictureHashes());
+                } finally {
+                    sheet.close();
+                }
+            } catch (IOException | CorruptedStorageException e) {
+                CustomLogger.getInstance().warning("'" + name + "': no preview\n" + e.getMessage());
+                hashes.complete(Set.of());
+            }
+        });
+        return hashes.thenCompose(pictures -> {
+            List<CompletableFuture<BufferedImage>> loads = new ArrayList<>();
+            for (String hash : pictures) {
+                if (loads.size() == count) break;
+                if (PictureStore.isHash(hash)) loads.add(pictureStore.load(hash, size).exceptionally(e -> null));
+            }
+            return CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+                List<BufferedImage> images = new ArrayList<>();
+                for (CompletableFuture<BufferedImage> load : loads) images.add(load.join());
+                images.removeIf(Objects::isNull);
+                return images;
+            });
+        });
+    }
+
+    /**
+     * Open the work sheet of an entry (pages are loaded on demand)
+     * @param file work sheet entry
+     * @return opened work sheet (must be closed)
+     * @throws FaultyStorageStructureException thrown if the node is no file
+     * @throws CorruptedStorageException thrown if the sheet file is damaged
+     * @throws IOException thrown if the sheet file is not readable
+     */
+    public WorkSheet openWorkSheet(SheetTreeModel.Node file) throws FaultyStorageStructureException, CorruptedStorageException, IOException {
+        if (file.isFolder()) throw new FaultyStorageStructureException("'" + file.getName() + "' is no work sheet");
+        return WorkSheet.open(sheets.resolve(file.getFileName()), file.getParent().getPathString());
+    }
+
+    /**
+     * Save a work sheet into the sheet file of an entry and update the entry (pages, description, randomization)
+     * @param file work sheet entry
+     * @param sheet work sheet to save
+     * @throws FaultyStorageStructureException thrown if the node is no file
+     * @throws IOException thrown by writing the sheet file or the journal
+     */
+    public void saveWorkSheet(SheetTreeModel.Node file, WorkSheet sheet) throws FaultyStorageStructureException, IOException {
+        if (file.isFolder()) throw new FaultyStorageStructureException("'" + file.getName() + "' is no work sheet");
+        sheet.save(sheets.resolve(file.getFileName()));
+        updateFile(file, file.getFileName(), file.getMinVersion(), sheet.getPageCount(), sheet.getDescription(), sheet.isRandomize());
+    }
+
+
+/*-----------------------------------------------------MUTATION------------------------------------------------------*/
+// changes are written to the journal before they are applied, must be called on the event dispatch thread
+
+    /**
+     * Create a folder
+     * @param parent folder to create the folder in
+     * @param name name of the new folder
+     * @return created folder
+     * @throws FaultyStorageStructureException thrown if the parent is no folder or the name is taken
+     * @throws IOException thrown if the change could not be journaled (nothing changed)
+     */
+    public SheetTreeModel.Node addFolder(SheetTreeModel.Node parent, String name) throws FaultyStorageStructureException, IOException {
+        StorageJournal.Operation operation = new StorageJournal.Operation(StorageJournal.ADD_FOLDER, pathOf(parent));
+        operation.name = name;
+        return commit(operation);
+    }
+
+    /**
+     * Save a new work sheet into a new sheet file and create its entry
+     * @param parent folder to create the entry in
+     * @param sheet work sheet to save (its name is the displayed name)
+     * @param minVersion minimal client version
+     * @return created entry
+     * @throws FaultyStorageStructureException thrown if the parent is no folder or the name is taken
+     * @throws IOException thrown by writing the sheet file or the journal (nothing changed)
+     */
+    public SheetTreeModel.Node addWorkSheet(SheetTreeModel.Node parent, WorkSheet sheet, int minVersion) throws FaultyStorageStructureException, IOException {
+        checkFree(parent, sheet.getName());
+        String fileName = newSheetFileName();
+        sheet.save(sheets.resolve(fileName));
+        try {
+            return addFile(parent, sheet.getName(), fileName, minVersion, sheet.getPageCount(), sheet.getDescription(), sheet.isRandomize());
+        } catch (FaultyStorageStructureException | IOException e) {
+            sheet.close();
+            Files.deleteIfExists(sheets.resolve(fileName));
+            throw e;
+        }
+    }
+
+    /**
+     * Create a work sheet entry
+     * @param parent folder to create the entry in
+     * @param name displayed name
+     * @param fileName name of the sheet file in the sheet directory
+     * @param minVersion minimal client version
+     * @param pages number of pages
+     * @param description description of the sheet
+     * @param randomized true iff the pages are shown in random order
+     * @return created entry
+     * @throws FaultyStorageStructureException thrown if the parent is no folder or the name is taken
+     * @throws IOException thrown if the change could not be journaled (nothing changed)
+     */
+    public SheetTreeModel.Node addFile(SheetTreeModel.Node parent, String name, String fileName, int minVersion, int pages,
+                                       String description, boolean randomized) throws FaultyStorageStructureException, IOException {
+        StorageJournal.Operation operation = new StorageJournal.Operation(StorageJournal.ADD_FILE, pathOf(parent));
+        setFile(operation, name, fileName, minVersion, pages, description, randomized);
+        return commit(operation);
+    }
+
+    /**
+     * Change the attributes of a work sheet entry
+     * @param file entry to update
+     * @param fileName name of the sheet file in the sheet directory
+     * @param minVersion minimal client version
+     * @param pages number of pages
+     * @param description description of the sheet
+     * @param randomized true iff the pages are shown in random order
+     * @throws FaultyStorageStructureException thrown if the node is no file
+     * @throws IOException thrown if the change could not be journaled (nothing changed)
+     */
+    public void updateFile(SheetTreeModel.Node file, String fileName, int minVersion, int pages, String description,
+                           boolean randomized) throws FaultyStorageStructureException, IOException {
+        StorageJournal.Operation operation = new StorageJournal.Operation(StorageJournal.UPDATE, pathOf(file));
+        setFile(operation, file.getName(), fileName, minVersion, pages, description, randomized);
+        commit(operation);
+    }
+
+    /**
+     * Rename a folder or work sheet entry
+     * @param node node to rename (not the root)
+     * @param name new name
+     * @throws FaultyStorageStructureException thrown if the node is the root or the name is taken
+     * @throws IOException thrown if the change could not be journaled (nothing changed)
+     */
+    public void rename(SheetTreeModel.Node node, String name) throws FaultyStorageStructureException, IOException {
+        StorageJournal.Operation operation = new StorageJournal.Operation(StorageJournal.RENAME, pathOf(node));
+        operation.name = name;
+        commit(operation);
+    }
+
+    /**
+     * Move a folder or work sheet entry into another folder
+     * @param node node to move (not the root)
+     * @param folder new parent (not inside node)
+     * @throws FaultyStorageStructureException thrown if the move is not possible or the name is taken in the folder
+     * @throws IOException thrown if the change could not be journaled (nothing changed)
+     */
+    public void move(SheetTreeModel.Node node, SheetTreeModel.Node folder) throws FaultyStorageStructureException, IOException {
+        StorageJournal.Operation operation = new StorageJournal.Operation(StorageJournal.MOVE, pathOf(node));
+        operation.target = pathOf(folder);
+        commit(operation);
+    }
+
+    /**
+     * Delete a folder (with all its content) or work sheet entry
+     * @param node node to delete (not the root)
+     * @throws FaultyStorageStructureException thrown if the node is the root
+     * @throws IOException thrown if the change could not be journaled (nothing changed)
+     */
+    public void delete(SheetTreeModel.Node node) throws FaultyStorageStructureException, IOException {
+        commit(new StorageJournal.Operation(StorageJournal.DELETE, pathOf(node)));
+    }
+
+    /**
+     * Finish a running index compaction and pending search index updates, fold the journal into the index and close it
+     * Afterwards the index holds every change, so the storage files can be copied (moved) on their own.
+     */
+    public void close() {
+        indexer.shutdown();
+        try {
+            indexer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        searchIndex.close();
+        Thread running = compaction;
+        if (running != null) {
+            try {
+                running.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (journal.getRecords() > 0) {
+            try {
+                journal.compact(index, snapshot(), journal.position());
+                CustomLogger.getInstance().info("sheet index compacted");
+            } catch (IOException e) {
+                CustomLogger.getInstance().warning("sheet index compaction failed\n" + e.getMessage());
+            }
+        }
+        pictureStore.close();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            CustomLogger.getInstance().warning("journal not closable\n" + e.getMessage());
+        }
+    }
+
+/*------------------------------------------------------PRIVATE------------------------------------------------------*/
+
+    /**
+     * Create a unique file name for a new sheet file
+     * @return file name in the sheet directory
+     */
+    private String newSheetFileName() {
+        return UUID.randomUUID() + SHEET_EXT;
+    }
+
+    private SheetTreeModel.Node commit(StorageJournal.Operation operation) throws FaultyStorageStructureException, IOException {
+        SheetTreeModel.Node node = apply(operation, true);
+        if (journal.getRecords() >= COMPACT_RECORDS && compaction == null) compact();
+        return node;
+    }
+
+    private void replayJournal() throws IOException {
+        CustomLogger logger = CustomLogger.getInstance();
+        List<StorageJournal.Operation> operations = journal.replay();
+        for (StorageJournal.Operation operation : operations) {
+            try {
+                apply(operation, false);
+            } catch (FaultyStorageStructureException e) {
+                logger.warning("journal: operation skipped\n" + e.getMessage());
+            }
+        }
+        if (!operations.isEmpty()) logger.info("journal: " + operations.size() + " changes replayed");
+        if (journal.getRecords() >= COMPACT_RECORDS) compact();
+    }
+
+    /**
+     * Check an operation, journal it (if requested) and change the tree
+     */
+    private SheetTreeModel.Node apply(StorageJournal.Operation operation, boolean record) throws FaultyStorageStructureException, IOException {
+        SheetTreeModel.Node node = resolve(operation.path);
+        SheetTreeModel.Node folder = null;
+        switch (operation.type) {
+            case StorageJournal.ADD_FOLDER, StorageJournal.ADD_FILE -> checkFree(node, operation.name);
+            case StorageJournal.RENAME -> {
+                checkNotRoot(node);
+                checkFree(node.getParent(), operation.name);
+            }
+            case StorageJournal.MOVE -> {
+                checkNotRoot(node);
+                folder = resolve(operation.target);
+                for (SheetTreeModel.Node n = folder; n != null; n = n.getParent()) {
+                    if (n == node) throw new FaultyStorageStructureException("Folder can not be moved into itself");
+                }
+                checkFree(folder, node.getName());
+            }
+            case StorageJournal.DELETE -> checkNotRoot(node);
+            case StorageJournal.UPDATE -> {
+                if (node.isFolder()) throw new FaultyStorageStructureException("Folder has no sheet attributes");
+                checkText(operation.fileName);
+                checkText(operation.description);
+            }
+        }
+        if (operation.type == StorageJournal.ADD_FILE) {
+            checkText(operation.fileName);
+            checkText(operation.description);
+        }
+
+        if (record) {
+            searchIndex.markChanged();
+            journal.append(operation);
+            if (operation.type != StorageJournal.ADD_FILE && operation.type != StorageJournal.UPDATE) sheetNodes = null;
+        }
+
+        switch (operation.type) {
+            case StorageJournal.ADD_FOLDER -> {
+                SheetTreeModel.Node child = treeModel.newFolder(operation.name);
+                treeModel.insert(node, child);
+                return child;
+            }
+            case StorageJournal.ADD_FILE -> {
+                SheetTreeModel.Node child = treeModel.newFile(operation.name, operation.fileName, operation.minVersion,
+                        operation.pages, operation.description, operation.randomized);
+                treeModel.insert(node, child);
+                if (record) index(child);
+                return child;
+            }
+            case StorageJournal.RENAME -> {
+                treeModel.rename(node, operation.name);
+                if (record && !node.isFolder()) index(node);
+            }
+            case StorageJournal.MOVE -> {
+                treeModel.remove(node);
+                treeModel.insert(folder, node);
+            }
+            case StorageJournal.DELETE -> {
+                if (record) unindex(node);
+                treeModel.remove(node);
+            }
+            case StorageJournal.UPDATE -> {
+                if (record && !node.getFileName().equals(operation.fileName)) unindex(node);
+                treeModel.update(node, operation.fileName, operation.minVersion, operation.pages, operation.description,
+                        operation.randomized);
+                if (record) index(node);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Write the current tree as new index in the background (the snapshot is taken on the calling thread)
+     */
+    private void compact() throws IOException {
+        byte[] snapshot = snapshot();
+        long position = journal.position();
+        Thread thread = TaskRunner.newThread("storage-compaction", () -> {
+            try {
+                journal.compact(index, snapshot, position);
+                CustomLogger.getInstance().info("sheet index compacted");
+            } catch (IOException e) {
+                CustomLogger.getInstance().warning("sheet index compaction failed\n" + e.getMessage());
+            } finally {
+                compaction = null;
+            }
+        });
+        compaction = thread;
+        thread.start();
+    }
+
+    /**
+     * Write the current tree as index text
+     * @return index text
+     */
+    private byte[] snapshot() throws IOException {
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        treeModel.writeText(new OutputStreamWriter(snapshot, StandardCharsets.UTF_8));
+        return snapshot.toByteArray();
+    }
+
+    /**
+     * Queue (re-)indexing a work sheet entry
+     */
+    private void index(SheetTreeModel.Node file) {
+        if (sheetNodes != null) sheetNodes.put(file.getFileName(), file);
+        String fileName = file.getFileName();
+        String name = file.getName();
+        String description = file.getDescription();
+        String directory = file.getParent().getPathString();
+        indexer.execute(() -> indexSheet(fileName, name, description, directory));
+    }
+
+    /**
+     * Queue removing the work sheets of a folder or entry from the search index
+     */
+    private void unindex(SheetTreeModel.Node node) {
+        List<SheetTreeModel.Node> files = node.isFolder() ? files(node) : List.of(node);
+        for (SheetTreeModel.Node file : files) {
+            String fileName = file.getFileName();
+            if (sheetNodes != null) sheetNodes.remove(fileName);
+            indexer.execute(() -> searchIndex.remove(fileName));
+        }
+    }
+
+    /**
+     * Index the text of a work sheet (on the indexer thread)
+     */
+    private void indexSheet(String fileName, String name, String description, String directory) {
+        List<String> texts = new ArrayList<>();
+        Path file = sheets.resolve(fileName);
+        if (Files.isRegularFile(file)) {
+            try {
+                WorkSheet sheet = WorkSheet.open(file, directory);
+                try {
+                    for (int i = 0; i < sheet.getPageCount(); i++) Collections.addAll(texts, sheet.getPage(i).getSearchTexts());
+                } finally {
+                    sheet.close();
+                }
+            } catch (IOException | CorruptedStorageException e) {
+                CustomLogger.getInstance().warning("'" + name + "': page text not indexed\n" + e.getMessage());
+            }
+        }
+        searchIndex.put(fileName, name, description, texts);
+        if (searchIndex.isMergeDue()) mergeSearchIndex();
+    }
+
+    private void mergeSearchIndex() {
+        try {
+            searchIndex.merge();
+        } catch (IOException e) {
+            CustomLogger.getInstance().warning("search index not merged\n" + e.getMessage());
+        }
+    }
+
+    /**
+     * Index all work sheets again (in the background, the tree is read on the calling thread)
+     */
+    private void rebuildSearchIndex() throws IOException {
+        CustomLogger.getInstance().info("building search index");
+        searchIndex.markChanged();
+        indexer.execute(searchIndex::clear);
+        for (SheetTreeModel.Node file : files(treeModel.getRoot())) {
+            String fileName = file.getFileName();
+            String name = file.getName();
+            String description = file.getDescription();
+            String directory = file.getParent().getPathString();
+            indexer.execute(() -> indexSheet(fileName, name, description, directory));
+        }
+        indexer.execute(this::mergeSearchIndex);
+    }
+
+    /**
+     * Get all work sheet entries below a folder (without materializing the tree)
+     */
+    private List<SheetTreeModel.Node> files(SheetTreeModel.Node folder) {
+        List<SheetTreeModel.Node> files = new ArrayList<>();
+        List<SheetTreeModel.Node> pending = new ArrayList<>();
+        pending.add(folder);
+        while (!pending.isEmpty()) {
+            for (SheetTreeModel.Node child : treeModel.peekChildren(pending.remove(pending.size() - 1))) {
+                if (child.isFolder()) pending.add(child);
+                else files.add(child);
+            }
+        }
+        return files;
+    }
+
+    private SheetTreeModel.Node resolve(String[] path) throws FaultyStorageStructureException {
+        SheetTreeModel.Node node = treeModel.getRoot();
+        for (String name : path) {
+            node = node.getChild(name);
+            if (node == null) throw new FaultyStorageStructureException("Missing node '" + String.join("\\", path) + "'");
+        }
+        return node;
+    }
+
+    private static String[] pathOf(SheetTreeModel.Node node) {
+        int depth = 0;
+        for (SheetTreeModel.Node n = node; n.getParent() != null; n = n.getParent()) depth++;
+        String[] path = new String[depth];
+        for (SheetTreeModel.Node n = node; n.getParent() != null; n = n.getParent()) path[--depth] = n.getName();
+        return path;
+    }
+
+    private static void setFile(StorageJournal.Operation operation, String name, String fileName, int minVersion, int pages,
+                                String description, boolean randomized) {
+        operation.name = name;
+        operation.fileName = fileName;
+        operation.minVersion = minVersion;
+        operation.pages = pages;
+        operation.description = description;
+        operation.randomized = randomized;
+    }
+
+    private static void checkFree(SheetTreeModel.Node folder, String name) throws FaultyStorageStructureException {
+        if (!folder.isFolder()) throw new FaultyStorageStructureException("'" + folder.getName() + "' is no folder");
+        checkText(name);
+        if (name.isEmpty()) throw new FaultyStorageStructureException("Empty name");
+        if (folder.getChild(name) != null) throw new FaultyStorageStructureException("'" + name + "' already exists");
+    }
+
+    private static void checkNotRoot(SheetTreeModel.Node node) throws FaultyStorageStructureException {
+        if (node.getParent() == null) throw new FaultyStorageStructureException("Root can not be changed");
+    }
+
+    /**
+     * Text must not contain the separators of the index file
+     */
+    private static void checkText(String text) throws FaultyStorageStructureException {
+        if (text == null || text.indexOf('\0') >= 0 || text.indexOf('\n') >= 0 || text.indexOf('\r') >= 0) {
+            throw new FaultyStorageStructureException("Invalid text for the index");
+        }
     }
 
     /**
@@ -345,217 +936,4 @@ public class Storage {
             return randomized;
         }
     }
-
-    private static class SheetTree {
-        private abstract static class Node {
-            protected String name;
-            protected char type;
-            protected DefaultMutableTreeNode jTreeNode;
-
-            public abstract void save(PrintWriter writer) throws IOException;
-            protected DefaultMutableTreeNode getJTreeNode() {
-                return jTreeNode;
-            }
-            public abstract Info getInfo(TreePath path, int index) throws FaultyStorageStructureException;
-        }
-        private static class Folder extends Node {
-            private final TreeMap<String, Node> children;
-
-            public Folder(String name) {
-                this.name = name;
-                this.type = 'd';
-                this.children = new TreeMap<>();
-                this.jTreeNode = new DefaultMutableTreeNode(this.name, true);
-            }
-
-            public Folder(String name, BufferedReader reader, int numberOfChildren) throws CorruptedStorageException, IOException {
-                this.name = name;
-                this.type = 'd';
-                children = new TreeMap<>();
-                this.jTreeNode = new DefaultMutableTreeNode(this.name, true);
-                this.restoreChildren(reader, numberOfChildren);
-            }
-
-            @Override
-            public void save(PrintWriter writer) throws IOException {
-                writer.println(this.toString());
-                for (Map.Entry<String, Node> child : children.entrySet()) {
-                    child.getValue().save(writer);
-                }
-            }
-
-            @Override
-            public Info getInfo(TreePath path, int index) throws FaultyStorageStructureException {
-                assert(index > 0);
-                assert(index < path.getPathCount());
-
-                if (index+1 == path.getPathCount()) return this.extractInfo(path);
-                Node child = children.get(path.getPathComponent(index+1).toString());
-                if (child == null) throw new FaultyStorageStructureException("Requested info for missing node");
-                return child.getInfo(path, index+1);
-            }
-
-            private Info extractInfo(TreePath treePath) {
-                StringBuilder path = new StringBuilder(treePath.getPathComponent(0).toString());
-                for (int i = 1; i < treePath.getPathCount(); i++) path.append("\\").append(treePath.getPathComponent(i).toString());
-                return new Info(this.name, path.toString());
-            }
-
-            @Override
-            public String toString() {
-                return this.type +
-                        '\0' + this.name +
-                        '\0' + this.children.size();
-            }
-
-            private void restoreChildren(BufferedReader reader, int numberOfChildren) throws CorruptedStorageException, IOException {
-                for (int i = 0; i < numberOfChildren; i++) {
-                    String line = reader.readLine();
-                    if (line == null) {
-                        throw new CorruptedStorageException("Index file: line missing");
-                    }
-                    String[] data = line.split("\0", -1);
-                    if (data[0].equals("f") && data.length == 7) {
-                        // create file
-                        Node child = new File(data[1], data[2], Integer.parseInt(data[3]), Integer.parseInt(data[4]), data[5], Integer.parseInt(data[6]) == 1);
-                        children.put(data[1], child);
-                        this.jTreeNode.add(child.getJTreeNode());
-                    } else if (data[0].equals("d") && data.length == 3) {
-                        // create folder
-                        Node child = new Folder(data[1], reader, Integer.parseInt(data[2]));
-                        children.put(data[1], child);
-                        this.jTreeNode.add(child.getJTreeNode());
-                    } else {
-                        throw new CorruptedStorageException("Index file: bad line: '" + line + "'");
-                    }
-                }
-            }
-        }
-        private static class File extends Node {
-            private final String fileName;
-            private final int minVersion;
-            private final int pages;
-            private final String description;
-            private final boolean randomized;
-
-            public File (String name, String fileName, int minVersion, int pages, String description, boolean randomized) {
-                this.name = name;
-                this.fileName = fileName;
-                this.minVersion = minVersion;
-                this.pages = pages;
-                this.description = description;
-                this.randomized = randomized;
-                this.jTreeNode = new DefaultMutableTreeNode(this.name, false);
-            }
-
-            @Override
-            public void save(PrintWriter writer) {
-                writer.write(this.toString());
-            }
-
-            @Override
-            public Info getInfo(TreePath path, int index) {
-                assert(index+1 == 0);
-                return this.extractInfo(path);
-            }
-
-            private Info extractInfo(TreePath treePath) {
-                StringBuilder path = new StringBuilder(treePath.getPathComponent(0).toString());
-                for (int i = 1; i < treePath.getPathCount(); i++) path.append("\\").append(treePath.getPathComponent(i).toString());
-                return new Info(this.name, path.toString(), this.minVersion, this.pages, this.description, this.randomized);
-            }
-
-            @Override
-            public String toString() {
-                String res =  this.type +
-                        '\0' + this.name +
-                        '\0' + this.fileName +
-                        '\0' + this.minVersion +
-                        '\0' + this.pages +
-                        '\0' + this.description;
-                if (randomized) res += "\0" + '1';
-                else            res += "\0" + '0';
-                return res;
-            }
-        }
-
-        private final TreeMap<String, Node> children;
-        private final String name = "TherapistsToolbox";
-        private final char type = 'd';
-        private final DefaultMutableTreeNode jTreeRoot;
-
-        public SheetTree(BufferedReader reader) throws IOException, CorruptedStorageException {
-            children = new TreeMap<>();
-            jTreeRoot = new DefaultMutableTreeNode(this.name, true);
-            this.restore(reader);
-        }
-
-        public void save(PrintWriter writer) throws IOException {
-            writer.println(this.type + '\0' + this.name + '\0' + this.children.size());
-            for (Map.Entry<String, Node> child : this.children.entrySet()) {
-                child.getValue().save(writer);
-            }
-        }
-
-        public void restore(BufferedReader reader) throws IOException, CorruptedStorageException {
-            String line = reader.readLine();
-            if (line == null) {
-                throw new CorruptedStorageException("Index file empty");
-            }
-            String[] data = line.split("\0", -1);
-            if (data.length != 3 || !data[0].equals("" + this.type) || !data[1].equals("" + this.name)) {
-                System.out.println(data.length);
-                System.out.println(data.length);
-                throw new CorruptedStorageException("Index file: root wrong");
-            }
-            int numberOfChildren = Integer.parseInt(data[2]);
-            for (int i = 0; i < numberOfChildren; i++) {
-                this.jTreeRoot.add(restoreChild(reader).getJTreeNode());
-
-            }
-        }
-
-        private Node restoreChild(BufferedReader reader) throws IOException, CorruptedStorageException {
-            String line = reader.readLine();
-            if (line == null) {
-                throw new CorruptedStorageException("Index file: line missing");
-            }
-            String[] data = line.split("\0", -1);
-            if (data[0].equals("f") && data.length == 7) {
-                // create file
-                Node child = new File(data[1], data[2], Integer.parseInt(data[3]), Integer.parseInt(data[4]), data[5], Integer.parseInt(data[6]) == 1);
-                children.put(data[1], child);
-                return child;
-            } else if (data[0].equals("d") && data.length == 3) {
-                // create folder
-                Node child = new Folder(data[1], reader, Integer.parseInt(data[2]));
-                children.put(data[1], child);
-                return child;
-            } else {
-                throw new CorruptedStorageException("Index file: bad line: '" + line + "'");
-            }
-        }
-
-        public DefaultMutableTreeNode getJTreeRoot() {
-            return this.jTreeRoot;
-        }
-
-        public Info getInfo(TreePath path) throws FaultyStorageStructureException {
-            if (!path.getPathComponent(0).toString().equals(this.name)) throw new FaultyStorageStructureException("Requested info for missing node");
-            if (path.getPathCount() == 1) return extractInfo(path);
-            Node child = children.get(path.getPathComponent(1).toString());
-            if (child == null) throw new FaultyStorageStructureException("Requested info for missing node");
-            return child.getInfo(path, 1);
-        }
-
-        private Info extractInfo(TreePath treePath) {
-            StringBuilder path = new StringBuilder(treePath.getPathComponent(0).toString());
-            for (int i = 1; i < treePath.getPathCount(); i++) path.append("\\").append(treePath.getPathComponent(i).toString());
-            return new Info(this.name, path.toString());
-        }
-    }
-
-
-
-
 }
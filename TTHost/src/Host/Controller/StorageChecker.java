@@ -0,0 +1,273 @@
+package Host.Controller;
+
+import Host.Controller.Storage.CorruptedStorageException;
+import Host.WorkSheet;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Integrity check of the storage content
+ *
+ * Verifies every work sheet entry of the index (sheet file present, tables valid, page checksums) and every picture
+ * referenced by a sheet (file present, content matches its hash) and lists the files nobody references.
+ * The folder tree is checked as fork/join tasks (one per folder, its files in chunks) on a pool sized
+ * for blocking I/O; each picture is verified once, by the first task referencing it.
+ */
+public class StorageChecker {
+    private static final int CHUNK = 32;
+    private static final int PROGRESS_STEP = 64;
+
+    private final Path sheets;
+    private final PictureStore pictures;
+    private final Path pictureDir;
+    private final ProgressListener listener;
+
+    private final Set<String> sheetFiles = ConcurrentHashMap.newKeySet();
+    private final Set<String> pictureHashes = ConcurrentHashMap.newKeySet();
+    private final List<String> problems = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong done = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+
+    /**
+     * Create checker
+     * @param sheets sheet directory
+     * @param pictureDir picture directory
+     * @param listener receives checked and found sheets and pictures (from the worker threads), may be null
+     */
+    public StorageChecker(Path sheets, Path pictureDir, ProgressListener listener) {
+        this.sheets = sheets.normalize();
+        this.pictureDir = pictureDir;
+        this.pictures = new PictureStore(pictureDir);
+        this.listener = listener;
+    }
+
+    /**
+     * Check the storage content of a sheet tree
+     * The tree is copied on the calling thread (the model must not change meanwhile), the files are checked in parallel.
+     * @param model sheet tree
+     * @return report of the problems found
+     */
+    public Report check(SheetTreeModel model) {
+        Folder root = snapshot(model, model.getRoot());
+        total.set(root.countFiles());
+        ForkJoinPool pool = new ForkJoinPool(Math.max(8, 4 * Runtime.getRuntime().availableProcessors()));
+        try {
+            pool.invoke(new FolderTask(root));
+        } finally {
+            pool.shutdown();
+        }
+        List<String> orphans = new ArrayList<>();
+        findOrphans(orphans);
+        if (listener != null) listener.progress(done.get(), total.get());
+        return new Report(new ArrayList<>(problems), orphans, done.get());
+    }
+
+    /**
+     * Result of a check
+     */
+    public static class Report {
+        private final List<String> problems;
+        private final List<String> orphans;
+        private final long checked;
+
+        public Report(List<String> problems, List<String> orphans, long checked) {
+            this.problems = problems;
+            this.orphans = orphans;
+            this.checked = checked;
+        }
+
+        /**
+         * Get missing or damaged sheets and pictures
+         * @return problem descriptions
+         */
+        public List<String> getProblems() {
+            return problems;
+        }
+
+        /**
+         * Get files in the sheet and picture directories no index entry or sheet refers to
+         * @return paths relative to the storage directory
+         */
+        public List<String> getOrphans() {
+            return orphans;
+        }
+
+        public long getChecked() {
+            return checked;
+        }
+
+        public boolean isIntact() {
+            return problems.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return checked + " items checked, " + problems.size() + " problems, " + orphans.size() + " orphaned files";
+        }
+    }
+
+/*------------------------------------------------------PRIVATE------------------------------------------------------*/
+
+    private static Folder snapshot(SheetTreeModel model, SheetTreeModel.Node node) {
+        Folder folder = new Folder();
+        for (SheetTreeModel.Node child : model.peekChildren(node)) {
+            if (child.isFolder()) {
+                folder.folders.add(snapshot(model, child));
+            } else {
+                folder.files.add(new Entry(child.getPathString(), child.getFileName(), child.getPages()));
+            }
+        }
+        return folder;
+    }
+
+    private void checkSheet(Entry entry) {
+        sheetFiles.add(entry.fileName);
+        Path file = sheets.resolve(entry.fileName).normalize();
+        if (!sheets.equals(file.getParent())) {
+            problems.add("'" + entry.path + "': bad sheet file name '" + entry.fileName + "'");
+            return;
+        }
+        if (!Files.isRegularFile(file)) {
+            problems.add("'" + entry.path + "': sheet file missing (" + entry.fileName + ")");
+            return;
+        }
+        try {
+            WorkSheet sheet = WorkSheet.open(file, entry.path);
+            try {
+                sheet.verifyPages();
+                if (sheet.getPageCount() != entry.pages) {
+                    problems.add("'" + entry.path + "': index lists " + entry.pages + " pages, sheet has " + sheet.getPageCount());
+                }
+                List<ForkJoinTask<?>> tasks = new ArrayList<>();
+                for (String hash : sheet.getPictureHashes()) {
+                    if (pictureHashes.add(hash)) {
+                        total.incrementAndGet();
+                        tasks.add(ForkJoinTask.adapt(() -> checkPicture(entry, hash)));
+                    }
+                }
+                ForkJoinTask.invokeAll(tasks);
+            } finally {
+                sheet.close();
+            }
+        } catch (IOException | CorruptedStorageException e) {
+            problems.add("'" + entry.path + "': sheet damaged\n" + e.getMessage());
+        }
+    }
+
+    private void checkPicture(Entry entry, String hash) {
+        try {
+            if (!PictureStore.isHash(hash)) {
+                problems.add("'" + entry.path + "': bad picture reference '" + hash + "'");
+            } else if (!pictures.contains(hash)) {
+                problems.add("'" + entry.path + "': picture missing (" + hash + ")");
+            } else if (!PictureStore.hash(pictures.path(hash)).equals(hash)) {
+                problems.add("'" + entry.path + "': picture damaged (" + hash + ")");
+            }
+        } catch (IOException e) {
+            problems.add("'" + entry.path + "': picture not readable (" + hash + ")\n" + e.getMessage());
+        }
+        progress();
+    }
+
+    private void progress() {
+        long count = done.incrementAndGet();
+        if (listener != null && count % PROGRESS_STEP == 0) listener.progress(count, total.get());
+    }
+
+    private void findOrphans(List<String> orphans) {
+        Path base = sheets.getParent();
+        try (Stream<Path> files = Files.list(sheets)) {
+            files.filter(file -> !sheetFiles.contains(file.getFileName().toString()))
+                    .forEach(file -> orphans.add(base.relativize(file).toString()));
+        } catch (IOException e) {
+            problems.add("sheet directory not readable\n" + e.getMessage());
+        }
+        try (Stream<Path> files = Files.walk(pictureDir, 2)) {
+            files.filter(Files::isRegularFile)
+                    .filter(file -> !pictureHashes.contains(file.getFileName().toString()))
+                    .forEach(file -> orphans.add(base.relativize(file).toString()));
+        } catch (IOException e) {
+            problems.add("picture directory not readable\n" + e.getMessage());
+        }
+        Collections.sort(orphans);
+    }
+
+    /**
+     * Forks the sub-folders and the files of a folder (in chunks)
+     */
+    private class FolderTask extends RecursiveAction {
+        private final Folder folder;
+
+        FolderTask(Folder folder) {
+            this.folder = folder;
+        }
+
+        @Override
+        protected void compute() {
+            List<RecursiveAction> tasks = new ArrayList<>();
+            for (Folder child : folder.folders) tasks.add(new FolderTask(child));
+            for (int from = 0; from < folder.files.size(); from += CHUNK) {
+                tasks.add(new FilesTask(folder.files, from, Math.min(from + CHUNK, folder.files.size())));
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    /**
+     * Checks a chunk of the files of a folder
+     */
+    private class FilesTask extends RecursiveAction {
+        private final List<Entry> files;
+        private final int from;
+        private final int to;
+
+        FilesTask(List<Entry> files, int from, int to) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            for (int i = from; i < to; i++) {
+                checkSheet(files.get(i));
+                progress();
+            }
+        }
+    }
+
+    private static class Folder {
+        private final List<Folder> folders = new ArrayList<>();
+        private final List<Entry> files = new ArrayList<>();
+
+        long countFiles() {
+            long count = files.size();
+            for (Folder folder : folders) count += folder.countFiles();
+            return count;
+        }
+    }
+
+    private static class Entry {
+        private final String path;
+        private final String fileName;
+        private final int pages;
+
+        Entry(String path, String fileName, int pages) {
+            this.path = path;
+            this.fileName = fileName;
+            this.pages = pages;
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package Host.Controller;
+
+import Host.CustomLogger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the changes to the sheet index (index.tti)
+ *
+ * Layout: header (magic, generation of the index.tti the records apply to), then records of payload length, CRC32 of
+ * the payload and payload. Every record is forced to the disk before the change is applied, a torn record at the end
+ * (power loss while appending) is cut off when the journal is opened.
+ *
+ * The generation is a random id in the last line of index.tti ("g\0" id), after the tree (readers stop after the
+ * counted lines). Every index written by the compaction gets a new one, an index without (created or rewritten by
+ * an older version) gets one when the journal is opened. Copies of the storage keep it, whatever the file system
+ * does with the modification time.
+ *
+ * Compaction writes the new index and a new journal holding the records appended meanwhile to temporary files
+ * and then moves the index and the journal in place. A crash between the two moves is detected by the header of the
+ * temporary journal matching the new index.
+ */
+class StorageJournal {
+    static final String FILE = "index.journal";
+    private static final String PENDING = FILE + ".tmp";
+    private static final int MAGIC = 0x54544a32;    // "TTJ2"
+    private static final int HEADER_SIZE = 12;
+    private static final String GENERATION = "g\0";
+    private static final int MAX_GENERATION_LINE = 32;
+    private static final int MAX_RECORD = 16 * 1024 * 1024;
+
+    // operations
+    static final byte ADD_FOLDER = 1;
+    static final byte ADD_FILE = 2;
+    static final byte RENAME = 3;
+    static final byte MOVE = 4;
+    static final byte DELETE = 5;
+    static final byte UPDATE = 6;
+
+    private final Path file;
+    private final Path pending;
+    private final CustomLogger logger;
+    private FileChannel channel;
+    private int records = 0;
+
+    /**
+     * Open (or create) the journal of an index, finishing an interrupted compaction
+     * @param tmp storage directory for temporary files
+     * @param index text index (index.tti)
+     * @throws IOException thrown by reading or writing the journal
+     */
+    StorageJournal(Path tmp, Path index) throws IOException {
+        this.file = tmp.resolve(FILE);
+        this.pending = tmp.resolve(PENDING);
+        this.logger = CustomLogger.getInstance();
+        Files.deleteIfExists(index.resolveSibling(index.getFileName() + ".tmp"));
+
+        long generation = readGeneration(index);
+        if (Files.exists(pending)) {
+            if (generation != 0 && belongsTo(pending, generation)) {
+                logger.warning("finishing interrupted index compaction");
+                Files.move(pending, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                Files.delete(pending);
+            }
+        }
+        if (generation == 0) {
+            generation = newGeneration();
+            writeIndex(index, Files.readAllBytes(index), generation);
+            logger.info("index generation " + Long.toHexString(generation) + " assigned");
+        }
+        if (Files.exists(file) && !belongsTo(file, generation)) {
+            logger.warning("journal does not belong to the index, discarded");
+            Files.delete(file);
+        }
+        if (!Files.exists(file)) create(file, generation, null);
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Read all intact records and cut off a torn tail
+     * @return operations in journal order
+     * @throws IOException thrown by reading or truncating the journal
+     */
+    synchronized List<Operation> replay() throws IOException {
+        List<Operation> operations = new ArrayList<>();
+        long length = channel.size();
+        long position = HEADER_SIZE;
+        ByteBuffer head = ByteBuffer.allocate(8);
+        while (position < length) {
+            head.clear();
+            if (length - position < 8 || channel.read(head, position) < 8) break;
+            int size = head.getInt(0);
+            int crc = head.getInt(4);
+            if (size <= 0 || size > MAX_RECORD || position + 8 + size > length) break;
+            ByteBuffer payload = ByteBuffer.allocate(size);
+            channel.read(payload, position + 8);
+            if (checksum(payload.array()) != crc) break;
+            try {
+                operations.add(Operation.decode(payload.flip()));
+            } catch (RuntimeException e) {
+                break;
+            }
+            position += 8 + size;
+        }
+        if (position < length) {
+            logger.warning("journal: damaged record at " + position + ", " + (length - position) + " bytes cut off");
+            channel.truncate(position);
+            channel.force(true);
+        }
+        channel.position(position);
+        records = operations.size();
+        return operations;
+    }
+
+    /**
+     * Durably append an operation
+     * @param operation operation to record
+     * @throws IOException thrown if the record could not be written to the disk
+     */
+    synchronized void append(Operation operation) throws IOException {
+        byte[] payload = operation.encode();
+        ByteBuffer record = ByteBuffer.allocate(8 + payload.length);
+        record.putInt(payload.length).putInt(checksum(payload)).put(payload).flip();
+        long position = channel.position();
+        try {
+            while (record.hasRemaining()) channel.write(record);
+            channel.force(false);
+        } catch (IOException e) {
+            channel.truncate(position);
+            channel.position(position);
+            throw e;
+        }
+        records++;
+    }
+
+    /**
+     * Get number of records since the last compaction
+     * @return record count
+     */
+    synchronized int getRecords() {
+        return records;
+    }
+
+    /**
+     * Get end of the journal (records before it are contained in a snapshot taken now)
+     * @return journal position
+     * @throws IOException thrown if the journal is closed
+     */
+    synchronized long position() throws IOException {
+        return channel.position();
+    }
+
+    /**
+     * Replace the index by a snapshot (under a new generation) and drop the records it contains
+     * @param index text index (index.tti)
+     * @param snapshot text of the new index
+     * @param position journal position at the time of the snapshot
+     * @throws IOException thrown by writing the index or the journal
+     */
+    void compact(Path index, byte[] snapshot, long position) throws IOException {
+        long generation = newGeneration();
+        Path newIndex = writeTemporary(index, snapshot, generation);
+
+        synchronized (this) {
+            // records appended since the snapshot move to the new journal
+            ByteBuffer tail = ByteBuffer.allocate((int) (channel.position() - position));
+            channel.read(tail, position);
+            create(pending, generation, tail.flip());
+            int tailRecords = countRecords(tail.flip());
+
+            Files.move(newIndex, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel.close();
+            Files.move(pending, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+            records = tailRecords;
+        }
+    }
+
+    /**
+     * Close the journal
+     * @throws IOException thrown by closing the file
+     */
+    synchronized void close() throws IOException {
+        channel.close();
+    }
+
+/*------------------------------------------------------PRIVATE------------------------------------------------------*/
+
+    /**
+     * Read the generation from the last line of the index
+     * @return generation, 0 if the index has none
+     */
+    private static long readGeneration(Path index) throws IOException {
+        try (FileChannel in = FileChannel.open(index, StandardOpenOption.READ)) {
+            long size = in.size();
+            ByteBuffer tail = ByteBuffer.allocate((int) Math.min(size, MAX_GENERATION_LINE));
+            while (tail.hasRemaining() && in.read(tail, size - tail.capacity() + tail.position()) >= 0);
+            String text = new String(tail.array(), StandardCharsets.UTF_8);
+            if (!text.endsWith("\n")) return 0;
+            int start = text.lastIndexOf('\n', text.length() - 2) + 1;
+            if (start == 0 && tail.capacity() < size) return 0;     // longer line, no generation
+            if (!text.startsWith(GENERATION, start)) return 0;
+            try {
+                return Long.parseLong(text.substring(start + GENERATION.length(), text.length() - 1), 16);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+    }
+
+    private static long newGeneration() {
+        long generation;
+        do {
+            generation = ThreadLocalRandom.current().nextLong() >>> 1;
+        } while (generation == 0);
+        return generation;
+    }
+
+    /**
+     * Write the tree text with a generation line to index.tti.tmp (forced to the disk)
+     * @return written file
+     */
+    private static Path writeTemporary(Path index, byte[] tree, long generation) throws IOException {
+        Path newIndex = index.resolveSibling(index.getFileName() + ".tmp");
+        byte[] line = (GENERATION + Long.toHexString(generation) + "\n").getBytes(StandardCharsets.UTF_8);
+        try (FileChannel out = FileChannel.open(newIndex, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(tree);
+            while (buffer.hasRemaining()) out.write(buffer);
+            buffer = ByteBuffer.wrap(line);
+            while (buffer.hasRemaining()) out.write(buffer);
+            out.force(true);
+        }
+        return newIndex;
+    }
+
+    /**
+     * Replace the index by its tree text with a generation line
+     */
+    private static void writeIndex(Path index, byte[] tree, long generation) throws IOException {
+        Path newIndex = writeTemporary(index, tree, generation);
+        Files.move(newIndex, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void create(Path path, long generation, ByteBuffer records) throws IOException {
+        try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putLong(generation).flip();
+            while (header.hasRemaining()) out.write(header);
+            while (records != null && records.hasRemaining()) out.write(records);
+            out.force(true);
+        }
+    }
+
+    private static boolean belongsTo(Path path, long generation) throws IOException {
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && in.read(header) >= 0);
+            if (header.hasRemaining()) return false;
+            header.flip();
+            return header.getInt() == MAGIC && header.getLong() == generation;
+        }
+    }
+
+    private static int countRecords(ByteBuffer buffer) {
+        int count = 0;
+        while (buffer.remaining() >= 8) {
+            int size = buffer.getInt();
+            buffer.position(buffer.position() + 4 + size);
+            count++;
+        }
+        return count;
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Change of the sheet tree, nodes are addressed by their path of names below the root
+     */
+    static class Operation {
+        final byte type;
+        final String[] path;
+        String name;
+        String[] target;
+        String fileName;
+        int minVersion;
+        int pages;
+        String description;
+        boolean randomized;
+
+        Operation(byte type, String[] path) {
+            this.type = type;
+            this.path = path;
+        }
+
+        byte[] encode() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(type);
+            writePath(out, path);
+            switch (type) {
+                case ADD_FOLDER, RENAME -> writeString(out, name);
+                case MOVE -> writePath(out, target);
+                case ADD_FILE, UPDATE -> {
+                    writeString(out, name);
+                    writeString(out, fileName);
+                    out.writeInt(minVersion);
+                    out.writeInt(pages);
+                    writeString(out, description);
+                    out.writeBoolean(randomized);
+                }
+                default -> {
+                }
+            }
+            return bytes.toByteArray();
+        }
+
+        static Operation decode(ByteBuffer in) {
+            Operation operation = new Operation(in.get(), readPath(in));
+            switch (operation.type) {
+                case ADD_FOLDER, RENAME -> operation.name = readString(in);
+                case MOVE -> operation.target = readPath(in);
+                case ADD_FILE, UPDATE -> {
+                    operation.name = readString(in);
+                    operation.fileName = readString(in);
+                    operation.minVersion = in.getInt();
+                    operation.pages = in.getInt();
+                    operation.description = readString(in);
+                    operation.randomized = in.get() != 0;
+                }
+                case DELETE -> {
+                }
+                default -> throw new IllegalArgumentException("unknown journal operation " + operation.type);
+            }
+            return operation;
+        }
+
+        private static void writePath(DataOutputStream out, String[] path) throws IOException {
+            out.writeInt(path.length);
+            for (String name : path) writeString(out, name);
+        }
+
+        private static void writeString(DataOutputStream out, String string) throws IOException {
+            byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(utf8.length);
+            out.write(utf8);
+        }
+
+        private static String[] readPath(ByteBuffer in) {
+            String[] path = new String[in.getInt()];
+            for (int i = 0; i < path.length; i++) path[i] = readString(in);
+            return path;
+        }
+
+        private static String readString(ByteBuffer in) {
+            byte[] utf8 = new byte[in.getInt()];
+            in.get(utf8);
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package Host.Controller;
+
+import Concurrency.TaskRunner;
+import Host.CustomLogger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Moves a storage directory to another location
+ *
+ * On the same file system the directory is renamed. Otherwise all files are copied (FileChannel.transferTo, several
+ * files at once), each copy is verified against the source (size and CRC32C) before it is moved to its final name,
+ * and every finished file is appended to a manifest in the TMP directory of the source. Copies keep the modification
+ * time of their source (the binary index is not converted again). An interrupted move to the same location continues
+ * with the files that are not in the manifest (or changed since).
+ * The source is deleted only after the new location was switched to.
+ */
+public class StorageMover {
+    static final String MANIFEST = "move.manifest";
+    private static final String PART = ".part";
+    private static final int COPIERS = 4;
+    private static final int SYNC_FILES = 64;
+
+    private final Path source;
+    private final Path target;
+    private final Path manifest;
+    private final ProgressListener listener;
+    private final CustomLogger logger;
+    private final AtomicLong done = new AtomicLong();
+    private long total;
+    private BufferedWriter manifestWriter;
+    private int unsynced = 0;
+
+    /**
+     * Create mover
+     * @param source storage base directory
+     * @param target new base directory (must not exist, unless continuing an interrupted move to it)
+     * @param tmp TMP directory of the source
+     * @param listener receives copied and total bytes (from the copy threads), may be null
+     */
+    public StorageMover(Path source, Path target, Path tmp, ProgressListener listener) {
+        this.source = source.toAbsolutePath().normalize();
+        this.target = target.toAbsolutePath().normalize();
+        this.manifest = tmp.resolve(MANIFEST);
+        this.listener = listener;
+        this.logger = CustomLogger.getInstance();
+    }
+
+    /**
+     * Move the storage
+     * @param switchLocation called with the new base directory once everything is there, before the source is removed
+     * @throws IOException thrown if a file could not be copied or verified (the move can be continued later)
+     */
+    public void move(Consumer<Path> switchLocation) throws IOException {
+        if (target.startsWith(source)) throw new IOException("storage can not be moved into itself");
+        Map<String, String> finished = readManifest();
+        if (finished == null && Files.exists(target)) throw new IOException("'" + target + "' already exists");
+
+        if (finished == null && rename()) {
+            logger.info("storage renamed to '" + target + "'");
+            switchLocation.accept(target);
+            return;
+        }
+
+        copy(finished == null ? new HashMap<>() : finished);
+        switchLocation.accept(target);
+        removeSource();
+        logger.info("storage moved to '" + target + "'");
+    }
+
+/*------------------------------------------------------PRIVATE------------------------------------------------------*/
+
+    private boolean rename() {
+        try {
+            Files.createDirectories(target.getParent());
+            if (!Files.getFileStore(source).equals(Files.getFileStore(target.getParent()))) return false;
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (AtomicMoveNotSupportedException e) {
+            return false;
+        } catch (IOException e) {
+            logger.warning("storage not renamable, copying\n" + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Read the manifest of an interrupted move to the target
+     * @return finished files (relative path to size and modification time), null if no move to target was started
+     */
+    private Map<String, String> readManifest() throws IOException {
+        if (!Files.isRegularFile(manifest)) return null;
+        List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals(target.toString())) {
+            logger.warning("manifest of a move to another location discarded");
+            Files.delete(manifest);
+            return null;
+        }
+        Map<String, String> finished = new HashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            String[] data = line.split("\t", 3);
+            if (data.length == 3) finished.put(data[2], data[0] + '\t' + data[1]);     // a torn last line is ignored
+        }
+        logger.info("continuing move to '" + target + "', " + finished.size() + " files done");
+        return finished;
+    }
+
+    private void copy(Map<String, String> finished) throws IOException {
+        // files to copy, largest first so the copy threads finish together
+        List<Path> files = new ArrayList<>();
+        List<Path> directories = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(source)) {
+            walk.filter(path -> !path.equals(manifest)).forEach(path -> (Files.isDirectory(path) ? directories : files).add(path));
+        }
+        for (Path directory : directories) Files.createDirectories(target.resolve(source.relativize(directory).toString()));
+        Map<Path, Long> sizes = new HashMap<>();
+        List<Path> pending = new ArrayList<>();
+        Set<String> present = new HashSet<>();
+        for (Path file : files) {
+            String relative = source.relativize(file).toString();
+            present.add(relative);
+            long size = Files.size(file);
+            sizes.put(file, size);
+            total += size;
+            if (stamp(file, size).equals(finished.get(relative)) && Files.isRegularFile(target.resolve(relative))
+                    && Files.size(target.resolve(relative)) == size) {
+                done.addAndGet(size);
+            } else {
+                pending.add(file);
+            }
+        }
+        pending.sort(Comparator.comparing(sizes::get, Comparator.reverseOrder()));
+        progress();
+
+        boolean resumed = !finished.isEmpty();
+        manifestWriter = Files.newBufferedWriter(manifest, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                resumed ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        try {
+            if (!resumed) {
+                manifestWriter.write(target.toString());
+                manifestWriter.newLine();
+                manifestWriter.flush();
+            }
+            ExecutorService copiers = Executors.newFixedThreadPool(COPIERS, task -> TaskRunner.newThread("storage-move", task));
+            try {
+                List<Future<?>> results = new ArrayList<>();
+                for (Path file : pending) {
+                    results.add(copiers.submit(() -> {
+                        copyFile(file, sizes.get(file));
+                        return null;
+                    }));
+                }
+                for (Future<?> result : results) result.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("move interrupted");
+            } finally {
+                copiers.shutdownNow();
+            }
+        } finally {
+            manifestWriter.close();
+        }
+
+        // files deleted from the source since an interrupted move
+        try (Stream<Path> walk = Files.walk(target)) {
+            List<Path> extra = new ArrayList<>();
+            walk.filter(Files::isRegularFile).filter(file -> !present.contains(target.relativize(file).toString())).forEach(extra::add);
+            for (Path file : extra) Files.delete(file);
+        }
+    }
+
+    private void copyFile(Path file, long size) throws IOException {
+        String relative = source.relativize(file).toString();
+        Path destination = target.resolve(relative);
+        Path part = destination.resolveSibling(destination.getFileName() + PART);
+        Files.createDirectories(destination.getParent());
+        FileTime modified = Files.getLastModifiedTime(file);
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                     StandardOpenOption.WRITE)) {
+            long position = 0;
+            while (position < size) {
+                long copied = in.transferTo(position, size - position, out);
+                if (copied <= 0) throw new IOException("'" + relative + "' changed while moving");
+                position += copied;
+                done.addAndGet(copied);
+                progress();
+            }
+            out.force(true);
+        }
+        if (Files.size(part) != size || checksum(file) != checksum(part)) {
+            Files.deleteIfExists(part);
+            throw new IOException("copy of '" + relative + "' differs from the original");
+        }
+        Files.setLastModifiedTime(part, modified);
+        Files.move(part, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        finished(relative, stamp(file, size));
+        if (!Files.getLastModifiedTime(file).equals(modified)) throw new IOException("'" + relative + "' changed while moving");
+    }
+
+    private synchronized void finished(String relative, String stamp) throws IOException {
+        manifestWriter.write(stamp + '\t' + relative);
+        manifestWriter.newLine();
+        // losing the last entries only means copying them again
+        if (++unsynced >= SYNC_FILES) {
+            manifestWriter.flush();
+            unsynced = 0;
+        }
+    }
+
+    private void removeSource() {
+        try (Stream<Path> walk = Files.walk(source)) {
+            List<Path> paths = new ArrayList<>();
+            walk.sorted(Comparator.reverseOrder()).forEach(paths::add);
+            for (Path path : paths) {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    logger.warning("old storage file not deletable: " + path + "\n" + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            logger.warning("old storage not removable\n" + e.getMessage());
+        }
+    }
+
+    private void progress() {
+        if (listener != null) listener.progress(done.get(), total);
+    }
+
+    private static String stamp(Path file, long size) throws IOException {
+        return size + "\t" + Files.getLastModifiedTime(file).toMillis();
+    }
+
+    private static long checksum(Path file) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+        return crc.getValue();
+    }
+}
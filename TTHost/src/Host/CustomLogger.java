@@ -1,40 +1,33 @@
 package Host;
 
-import java.util.logging.FileHandler;
+import Logging.AsyncLogger;
+
 import java.util.logging.Handler;
 import java.util.logging.Logger;
 
-public class CustomLogger {
-    private final Logger logger;
+public class CustomLogger extends AsyncLogger {
     private static final CustomLogger instance = new CustomLogger();
 
     private CustomLogger() {
-        logger = Logger.getAnonymousLogger();
+        super(Logger.getLogger("Host"));
     }
 
     public static CustomLogger getInstance() {
         return instance;
     }
 
-    public void info(String msg) {
-        logger.info(msg);
-    }
-
-    public void warning(String msg) {
-        logger.warning(msg);
-    }
-
-    public void severe(String msg) {
-        logger.severe(msg);
-    }
-
-    public void addHandler(FileHandler fh) {
-        logger.addHandler(fh);
+    public void addHandler(Handler handler) {
+        getTarget().addHandler(handler);
     }
 
+    /**
+     * Write all pending records, then close and remove the handlers
+     */
     public void closeHandlers() {
-        for (Handler handler : logger.getHandlers()) {
+        flushAll();
+        for (Handler handler : getTarget().getHandlers()) {
             handler.close();
+            getTarget().removeHandler(handler);
         }
     }
 }
@@ -78,6 +78,114 @@ public class Dialogs {
         }
     }
 
+    /**
+     * Let's the user enter the name of a folder or work sheet
+     *
+     * @param parent the parent that the dialog blocks
+     * @param titleKey resource key of the title
+     * @param name preset name, null for none
+     * @return the entered name (trimmed), null iff user cancels or enters nothing
+     */
+    public static String askName(Component parent, String titleKey, String name) {
+        ResourceBundle resources = ResourceBundle.getBundle("Resources/StringLiterals");
+        Object result = JOptionPane.showInputDialog(
+                parent,
+                resources.getString("name"),
+                resources.getString(titleKey),
+                JOptionPane.PLAIN_MESSAGE,
+                null,
+                null,
+                name
+        );
+        if (result == null || result.toString().trim().isEmpty()) return null;
+        return result.toString().trim();
+    }
+
+    /**
+     * Let's the user confirm deleting a folder (with all its content) or work sheet
+     *
+     * @param parent the parent that the dialog blocks
+     * @param name name of the folder or work sheet
+     * @param folder true iff a folder is deleted
+     * @return true iff the user confirms
+     */
+    public static boolean confirmDelete(Component parent, String name, boolean folder) {
+        ResourceBundle resources = ResourceBundle.getBundle("Resources/StringLiterals");
+        String message = String.format(resources.getString(folder ? "delete_folder_confirm" : "delete_sheet_confirm"), name);
+        String[] options = {
+                resources.getString("delete"),
+                resources.getString("cancel"),
+        };
+        int result = JOptionPane.showOptionDialog(
+                parent,
+                message,
+                resources.getString("delete"),
+                JOptionPane.DEFAULT_OPTION,
+                JOptionPane.WARNING_MESSAGE,
+                null,
+                options,
+                options[1]
+        );
+        return result == 0;
+    }
+
+    /**
+     * Let's the user enter name, description and randomization of a work sheet
+     *
+     * @param parent the parent that the dialog blocks
+     * @param titleKey resource key of the title
+     * @param preset preset values, null for an empty new work sheet
+     * @return the entered values, null iff user cancels or enters no name
+     */
+    public static SheetAttributes editSheet(Component parent, String titleKey, SheetAttributes preset) {
+        ResourceBundle resources = ResourceBundle.getBundle("Resources/StringLiterals");
+        JTextField name = new JTextField(preset == null ? "" : preset.getName(), 24);
+        JTextField description = new JTextField(preset == null ? "" : preset.getDescription(), 24);
+        JCheckBox randomized = new JCheckBox(resources.getString("randomize"), preset != null && preset.isRandomized());
+        JPanel panel = new JPanel(new GridLayout(0, 1));
+        panel.add(new JLabel(resources.getString("name")));
+        panel.add(name);
+        panel.add(new JLabel(resources.getString("description")));
+        panel.add(description);
+        panel.add(randomized);
+        int result = JOptionPane.showConfirmDialog(
+                parent,
+                panel,
+                resources.getString(titleKey),
+                JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.PLAIN_MESSAGE
+        );
+        if (result != JOptionPane.OK_OPTION || name.getText().trim().isEmpty()) return null;
+        return new SheetAttributes(name.getText().trim(), description.getText().trim(), randomized.isSelected());
+    }
+
+    /**
+     * Name, description and randomization of a work sheet as edited in the dialog
+     */
+    public static class SheetAttributes {
+        private final String name;
+        private final String description;
+        private final boolean randomized;
+
+        public SheetAttributes(String name, String description, boolean randomized) {
+            this.name = name;
+            this.description = description;
+            this.randomized = randomized;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public boolean isRandomized() {
+            return randomized;
+        }
+    }
+
     public static class CancelPressedException extends Exception {
         public CancelPressedException(String message) {
             super(message);
@@ -103,4 +211,52 @@ public class Dialogs {
                 options[0]                                  // option that should be made into a default button
         );
     }
+
+    /**
+     * Window showing the progress of a long running task (e.g. the storage check)
+     * Progress can be reported from any thread.
+     */
+    public static class ProgressWindow {
+        private final JDialog dialog;
+        private final JProgressBar bar;
+
+        /**
+         * Create and show progress window
+         * @param titleKey resource key of the title
+         */
+        public ProgressWindow(String titleKey) {
+            ResourceBundle resources = ResourceBundle.getBundle("Resources/StringLiterals");
+            dialog = new JDialog((Frame) null, resources.getString(titleKey), false);
+            bar = new JProgressBar();
+            bar.setIndeterminate(true);
+            bar.setStringPainted(true);
+            bar.setPreferredSize(new Dimension(360, bar.getPreferredSize().height));
+            dialog.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+            dialog.getContentPane().add(bar);
+            dialog.pack();
+            dialog.setLocationRelativeTo(null);
+            SwingUtilities.invokeLater(() -> dialog.setVisible(true));
+        }
+
+        /**
+         * Report progress
+         * @param done finished items
+         * @param total known items
+         */
+        public void setProgress(long done, long total) {
+            SwingUtilities.invokeLater(() -> {
+                bar.setIndeterminate(false);
+                bar.setMaximum((int) Math.min(Integer.MAX_VALUE, Math.max(total, 1)));
+                bar.setValue((int) Math.min(Integer.MAX_VALUE, done));
+                bar.setString(done + " / " + total);
+            });
+        }
+
+        /**
+         * Close the window
+         */
+        public void close() {
+            SwingUtilities.invokeLater(dialog::dispose);
+        }
+    }
 }
@@ -1,6 +1,7 @@
 package Host.GUI.Games;
 
 import Host.Controller.Games.FastReadController;
+import Host.Controller.Games.FastReadPlaylist;
 import Host.Controller.Games.GameControllerCreator;
 import Host.CustomLogger;
 import ContentPanes.Components.ImprovedFormattedTextField.ImprovedFormattedTextField;
@@ -14,12 +15,17 @@ import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.text.NumberFormat;
 import java.text.ParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
-import java.util.function.Function;
+import java.util.function.IntPredicate;
 
 public class FastReadPane extends GamePanel {
     private static final int ID = 0;
+    private static final int DEFAULT_GAP_MILLIS = 1000;
+    private static final int DEFAULT_RAMP_FROM_MILLIS = 200;
+    private static final int DEFAULT_RAMP_STEPS = 20;
 
     // references
     private final ContentPanes.Games.FastReadPane previewPane;
@@ -35,7 +41,8 @@ public class FastReadPane extends GamePanel {
     private boolean editMode = false;
 
     // token attributes
-    private String content = null;
+    private final FastReadTokenizer tokenizer;
+    private int tokenIndex = -1;
     private int tokenStart = -1;
     private int tokenEnd = -1;
     private String currentToken = null;
@@ -55,8 +62,11 @@ public class FastReadPane extends GamePanel {
 
         separators[0] = new Separator("whitespaces", Character::isWhitespace);
         separators[1] = new Separator("spaces", Character::isSpaceChar);
-        separators[2] = new Separator("semicolon", c -> c.equals(';'));
-        separators[3] = new Separator("pipe", c -> c.equals('|'));
+        separators[2] = new Separator("semicolon", c -> c == ';');
+        separators[3] = new Separator("pipe", c -> c == '|');
+        IntPredicate[] predicates = new IntPredicate[separators.length];
+        for (int i = 0; i < separators.length; i++) predicates[i] = separators[i].isDelimiter;
+        tokenizer = new FastReadTokenizer(textArea.getDocument(), predicates);
 
         textArea.setLineWrap(true);
         textArea.setWrapStyleWord(true);
@@ -74,11 +84,28 @@ public class FastReadPane extends GamePanel {
         timeSelectorPanel.add(timeSelector, BorderLayout.CENTER);
 
         ResourceBundle resourceBundle = ResourceBundle.getBundle("Resources/StringLiterals");
+        gapSelector = new ImprovedFormattedTextField(integerNumberInstance, DEFAULT_GAP_MILLIS);
+        rampFromSelector = new ImprovedFormattedTextField(integerNumberInstance, DEFAULT_RAMP_FROM_MILLIS);
+        rampStepsSelector = new ImprovedFormattedTextField(integerNumberInstance, DEFAULT_RAMP_STEPS);
+        scheduleComboBox = new JComboBox<>();
         try {
             for (Separator sep : separators) {
                 separatorComboBox.addItem(resourceBundle.getString(sep.resourceName));
             }
             currentSeparatorIndex = separatorComboBox.getSelectedIndex();
+            for (ScheduleType type : ScheduleType.values()) {
+                scheduleComboBox.addItem(resourceBundle.getString(type.resourceName));
+            }
+            playlistPanel.add(new JLabel(resourceBundle.getString("schedule")));
+            playlistPanel.add(scheduleComboBox);
+            playlistPanel.add(new JLabel(resourceBundle.getString("gap")));
+            playlistPanel.add(gapSelector);
+            playlistPanel.add(new JLabel(resourceBundle.getString("abr_millisecond")));
+            playlistPanel.add(new JLabel(resourceBundle.getString("ramp_from")));
+            playlistPanel.add(rampFromSelector);
+            playlistPanel.add(new JLabel(resourceBundle.getString("abr_millisecond")));
+            playlistPanel.add(new JLabel(resourceBundle.getString("ramp_steps")));
+            playlistPanel.add(rampStepsSelector);
         } catch (MissingResourceException ex) {
             // TODO
             System.err.println("missing resource");
@@ -102,6 +129,14 @@ public class FastReadPane extends GamePanel {
             }
         });
 
+        scheduleComboBox.addActionListener(new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                updatePlaylistInput();
+            }
+        });
+        updatePlaylistInput();
+
         nextButton.addActionListener(new AbstractAction() {
             @Override
             public void actionPerformed(ActionEvent e) {
@@ -121,9 +156,14 @@ public class FastReadPane extends GamePanel {
             public void actionPerformed(ActionEvent e) {
                 //int millis = Integer.parseInt(timeSelector.getText());
                 int millis = 0;
+                int gapMillis = 0;
+                int rampFromMillis = 0;
+                int rampSteps = 0;
                 try {
-                    NumberFormat numberFormat = NumberFormat.getNumberInstance();
-                    millis = numberFormat.parse(timeSelector.getText()).intValue();
+                    millis = parseInt(timeSelector);
+                    gapMillis = parseInt(gapSelector);
+                    rampFromMillis = parseInt(rampFromSelector);
+                    rampSteps = parseInt(rampStepsSelector);
                 } catch (ParseException ex) {
                     logger.severe("parsing millis failed\n" + ex.getMessage() + "\nshutting down");
                     ex.printStackTrace();
@@ -131,10 +171,32 @@ public class FastReadPane extends GamePanel {
                 }
 
                 int finalMillis = millis;
-                SwingUtilities.invokeLater(() -> previewPane.display(finalMillis, null));
+                int id = tokenStart;
+                String token = currentToken;
                 statusLabel.setIcon(new ImageIcon(this.getClass().getResource("/Resources/Icons/red-circle.png")));
                 displayButton.setEnabled(false);
-                SwingUtilities.invokeLater(() -> controller.display(currentToken, finalMillis));
+                if (autoDisplay) {
+                    // automatic sequence from the current token on, the entered duration is the target exposure
+                    Map<Integer, String> tokens = new LinkedHashMap<>();
+                    tokens.put(id, token);
+                    tokens.putAll(upcomingTokens(Integer.MAX_VALUE));
+                    FastReadPlaylist.Schedule schedule = switch (selectedSchedule()) {
+                        case Adaptive -> FastReadPlaylist.adaptive(finalMillis);
+                        case Fixed -> FastReadPlaylist.fixed(finalMillis);
+                        case Ramp -> FastReadPlaylist.ramp(rampFromMillis, finalMillis, rampSteps);
+                    };
+                    controller.startPlaylist(tokens, schedule, gapMillis);
+                    return;
+                }
+                SwingUtilities.invokeLater(() -> {
+                    // preview shows at the same (clock synchronized) instant as the client
+                    long showAt = controller.display(id, token, finalMillis);
+                    if (showAt < 0) {
+                        displaySkipped();
+                        return;
+                    }
+                    previewPane.displayAt(showAt, finalMillis, null);
+                });
             }
         });
 
@@ -142,6 +204,8 @@ public class FastReadPane extends GamePanel {
             @Override
             public void actionPerformed(ActionEvent e) {
                 autoDisplay = autoDisplayCheckBox.isSelected();
+                if (!autoDisplay) controller.stopPlaylist();
+                updatePlaylistInput();
             }
         });
 
@@ -190,11 +254,78 @@ public class FastReadPane extends GamePanel {
         add(mainPanel, BorderLayout.CENTER);
     }
 
+    /**
+     * Client finished displaying the token
+     * @param achievedMicros on-screen duration measured by the client (in microseconds)
+     * @param errorMicros achieved minus requested duration (in microseconds)
+     */
+    public void displayFinished(int achievedMicros, int errorMicros) {
+        statusLabel.setIcon(new ImageIcon(this.getClass().getResource("/Resources/Icons/green-circle.png")));
+        statusLabel.setText(String.format("%.1f ms (%+.1f ms)", achievedMicros / 1000.0, errorMicros / 1000.0));
+        displayButton.setEnabled(true);
+    }
+
+    /**
+     * Playlist sent the show order of a token: select it and preview it at the instant the client shows it
+     * @param id token id (start index in the presented text)
+     * @param millis display duration (in milliseconds)
+     * @param showAt host clock time (see SyncClock) the client shows the token at
+     */
+    public void playlistShowing(int id, int millis, long showAt) {
+        if (editMode) return;
+        int index = tokenizer.indexOf(currentSeparatorIndex, id);
+        if (index >= tokenizer.count(currentSeparatorIndex) || tokenizer.start(currentSeparatorIndex, index) != id) return;
+        showToken(index);
+        previewPane.displayAt(showAt, millis, null);
+    }
+
+    /**
+     * Client finished displaying the token (older clients, no timing reported)
+     */
     public void displayFinished() {
         statusLabel.setIcon(new ImageIcon(this.getClass().getResource("/Resources/Icons/green-circle.png")));
+        statusLabel.setText("");
         displayButton.setEnabled(true);
     }
 
+    /**
+     * Token could not be sent to the client (send queue full), nothing was shown
+     */
+    public void displaySkipped() {
+        statusLabel.setIcon(new ImageIcon(this.getClass().getResource("/Resources/Icons/green-circle.png")));
+        statusLabel.setText(ResourceBundle.getBundle("Resources/StringLiterals").getString("display_skipped"));
+        displayButton.setEnabled(true);
+    }
+
+    /**
+     * Automatic sequence finished
+     * @param replied number of tokens the client reported as displayed
+     * @param sent number of tokens sent
+     * @param meanAbsErrorMicros mean absolute exposure error (in microseconds)
+     * @param maxAbsErrorMicros maximal absolute exposure error (in microseconds)
+     */
+    public void playlistFinished(int replied, int sent, long meanAbsErrorMicros, long maxAbsErrorMicros) {
+        statusLabel.setIcon(new ImageIcon(this.getClass().getResource("/Resources/Icons/green-circle.png")));
+        statusLabel.setText(String.format("%d/%d, |%.1f ms| (max %.1f ms)", replied, sent, meanAbsErrorMicros / 1000.0, maxAbsErrorMicros / 1000.0));
+        displayButton.setEnabled(true);
+    }
+
+    /**
+     * Get the tokens following the current one (in display order, wrapping around like nextToken)
+     * Tokens are identified by their start index in the presented text.
+     * @param count maximal number of tokens
+     * @return map of token id (start index) to token
+     */
+    public Map<Integer, String> upcomingTokens(int count) {
+        Map<Integer, String> tokens = new LinkedHashMap<>();
+        if (tokenIndex < 0) return tokens;
+        for (int i = tokenizer.next(currentSeparatorIndex, tokenIndex); i != tokenIndex && tokens.size() < count;
+             i = tokenizer.next(currentSeparatorIndex, i)) {
+            tokens.put(tokenizer.start(currentSeparatorIndex, i), tokenizer.token(currentSeparatorIndex, i));
+        }
+        return tokens;
+    }
+
     private void setEditMode(boolean b) {
         editMode = b;
         if (b) {    // change to edit-mode
@@ -204,27 +335,47 @@ public class FastReadPane extends GamePanel {
             textArea.setEnabled(true);
             separatorComboBox.setEnabled(true);
 
-            content = null;
+            tokenIndex = -1;
             tokenStart = -1;
             tokenEnd = -1;
             currentToken = null;
             removeHighlight();
+            if (controller != null) controller.contentChanged();
         } else {    // change to present-mode
-            content = textArea.getText();
-            if (checkContent(separators[currentSeparatorIndex].isDelimiter)) {
+            if (tokenizer.count(currentSeparatorIndex) > 0) {
                 displayButton.setEnabled(true);
                 previousButton.setEnabled(true);
                 nextButton.setEnabled(true);
                 textArea.setEnabled(false);
                 separatorComboBox.setEnabled(false);
 
-                nextToken();
+                showToken(0);
+                if (controller != null) controller.prefetch();
             } else {
                 System.out.println("no printable output");
             }
         }
     }
 
+    private ScheduleType selectedSchedule() {
+        return ScheduleType.values()[Math.max(0, scheduleComboBox.getSelectedIndex())];
+    }
+
+    /**
+     * Enable the playlist settings fitting the selected schedule (only used with automatic display)
+     */
+    private void updatePlaylistInput() {
+        scheduleComboBox.setEnabled(autoDisplay);
+        gapSelector.setEnabled(autoDisplay);
+        boolean ramp = autoDisplay && selectedSchedule() == ScheduleType.Ramp;
+        rampFromSelector.setEnabled(ramp);
+        rampStepsSelector.setEnabled(ramp);
+    }
+
+    private static int parseInt(JTextField field) throws ParseException {
+        return NumberFormat.getNumberInstance().parse(field.getText()).intValue();
+    }
+
     private void highlight() {
         Highlighter highlighter = textArea.getHighlighter();
         Highlighter.HighlightPainter painter = new DefaultHighlighter.DefaultHighlightPainter(Color.yellow);
@@ -243,58 +394,23 @@ public class FastReadPane extends GamePanel {
     }
 
     private void nextToken() {
-        do {
-            tokenStart = tokenEnd + 1;
-            if (tokenStart >= content.length()) tokenStart = 0;
-            tokenEnd = nextIndexOf(content, separators[currentSeparatorIndex].isDelimiter, tokenStart);
-            currentToken = content.substring(tokenStart, tokenEnd).trim();
-        } while (currentToken.length() <= 0);
-
-        // TODO sent setToken(currentToken)
-        previewPane.setToken(currentToken);
-        highlight();
-        if (autoDisplay) displayButton.doClick();
+        showToken(tokenizer.next(currentSeparatorIndex, tokenIndex));
     }
 
     private void prevToken() {
-        do {
-            tokenEnd = tokenStart - 1;
-            if (tokenEnd <= 0) tokenEnd = content.length();
-            tokenStart = prevIndexOf(content, separators[currentSeparatorIndex].isDelimiter, tokenEnd);
-            currentToken = content.substring(tokenStart, tokenEnd).trim();
-        } while (currentToken.length() <= 0);
+        showToken(tokenizer.prev(currentSeparatorIndex, tokenIndex));
+    }
+
+    private void showToken(int index) {
+        if (index < 0) return;      // no tokens
+        tokenIndex = index;
+        tokenStart = tokenizer.start(currentSeparatorIndex, index);
+        tokenEnd = tokenizer.end(currentSeparatorIndex, index);
+        currentToken = tokenizer.token(currentSeparatorIndex, index);
 
         // TODO sent setToken(currentToken)
         previewPane.setToken(currentToken);
         highlight();
-        if (autoDisplay) displayButton.doClick();
-    }
-
-    private int nextIndexOf(String string, Function<Character, Boolean> isDelim, int start) {
-        for (; start < string.length(); start++) {
-            if (isDelim.apply(string.charAt(start))) {
-                return start;
-            }
-        }
-        return string.length();
-    }
-
-    private int prevIndexOf(String string, Function<Character, Boolean> isDelim, int end) {
-        end--;
-        for (; end >= 0; end--) {
-            if (isDelim.apply(string.charAt(end))) {
-                return end+1;
-            }
-        }
-        return 0;
-    }
-
-    private boolean checkContent(Function<Character, Boolean> isDelim) {
-        for (int i = 0; i < content.length(); i++) {
-            char tmp = content.charAt(i);
-            if (!Character.isWhitespace(tmp) && !isDelim.apply(tmp)) return true;
-        }
-        return false;
     }
 
     private JButton displayButton;
@@ -309,21 +425,39 @@ public class FastReadPane extends GamePanel {
     private JPanel previewPanel;
     private JButton endButton;
     private JLabel statusLabel;
+    private JPanel playlistPanel;
 
     private final ImprovedFormattedTextField timeSelector;
+    private final ImprovedFormattedTextField gapSelector;
+    private final ImprovedFormattedTextField rampFromSelector;
+    private final ImprovedFormattedTextField rampStepsSelector;
+    private final JComboBox<String> scheduleComboBox;
 
     @Override
     public int getID() {
         return ID;
     }
 
+    /**
+     * Duration schedules of the automatic sequence (see FastReadPlaylist)
+     */
+    private enum ScheduleType {
+        Adaptive("schedule_adaptive"), Fixed("schedule_fixed"), Ramp("schedule_ramp");
+
+        private final String resourceName;
+
+        ScheduleType(String resourceName) {
+            this.resourceName = resourceName;
+        }
+    }
+
     private static class Separator {
-        public Separator(String resourceName, Function<Character, Boolean> isDelimiter) {
+        public Separator(String resourceName, IntPredicate isDelimiter) {
             this.resourceName = resourceName;
             this.isDelimiter = isDelimiter;
         }
 
         public String resourceName;
-        public Function<Character, Boolean> isDelimiter;
+        public IntPredicate isDelimiter;
     }
 }
@@ -0,0 +1,324 @@
+package Host.GUI.Games;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntPredicate;
+
+/**
+ * Splits the text of a document into tokens, once per separator
+ * A token is a maximal run of non-separator characters, trimmed of whitespace (empty tokens are skipped).
+ * Token boundaries are kept as primitive offset arrays, built on first use of a separator and updated incrementally
+ * on document edits: only the tokens next to the edit are rescanned (read once into a Segment) and the offsets after
+ * the edit are shifted lazily, so an edit costs about the distance to the previous edit, not the document length.
+ * Navigation by token index is constant time.
+ */
+public class FastReadTokenizer implements DocumentListener {
+    private final Document document;
+    private final IntPredicate[] separators;
+    private final Table[] tables;
+
+    /**
+     * Create tokenizer and listen for document edits
+     * @param document document to tokenize
+     * @param separators separator predicates, addressed by their index
+     */
+    public FastReadTokenizer(Document document, IntPredicate... separators) {
+        this.document = document;
+        this.separators = separators;
+        this.tables = new Table[separators.length];
+        document.addDocumentListener(this);
+    }
+
+    /**
+     * Get number of tokens
+     * @param separator separator index
+     * @return token count
+     */
+    public int count(int separator) {
+        return table(separator).count;
+    }
+
+    /**
+     * Get start offset of a token (used as token id)
+     * @param separator separator index
+     * @param index token index
+     * @return start offset in the document
+     */
+    public int start(int separator, int index) {
+        Table table = table(separator);
+        checkIndex(table, index);
+        return table.start(index);
+    }
+
+    /**
+     * Get end offset (exclusive) of a token
+     * @param separator separator index
+     * @param index token index
+     * @return end offset in the document
+     */
+    public int end(int separator, int index) {
+        Table table = table(separator);
+        checkIndex(table, index);
+        return table.end(index);
+    }
+
+    /**
+     * Get the text of a token
+     * @param separator separator index
+     * @param index token index
+     * @return token
+     */
+    public String token(int separator, int index) {
+        Table table = table(separator);
+        checkIndex(table, index);
+        try {
+            return document.getText(table.start(index), table.end(index) - table.start(index));
+        } catch (BadLocationException e) {
+            throw new IllegalStateException("token table out of sync with document", e);
+        }
+    }
+
+    /**
+     * Get index of the token following index (wraps around)
+     * @param separator separator index
+     * @param index token index
+     * @return next token index, -1 if the text has no tokens
+     */
+    public int next(int separator, int index) {
+        int count = count(separator);
+        return count == 0 ? -1 : (index + 1) % count;
+    }
+
+    /**
+     * Get index of the token preceding index (wraps around)
+     * @param separator separator index
+     * @param index token index
+     * @return previous token index, -1 if the text has no tokens
+     */
+    public int prev(int separator, int index) {
+        int count = count(separator);
+        return count == 0 ? -1 : (index - 1 + count) % count;
+    }
+
+    /**
+     * Get a uniformly sampled token index
+     * @param separator separator index
+     * @return random token index, -1 if the text has no tokens
+     */
+    public int random(int separator) {
+        int count = count(separator);
+        return count == 0 ? -1 : ThreadLocalRandom.current().nextInt(count);
+    }
+
+    /**
+     * Get index of the token containing the offset or the first token after it
+     * @param separator separator index
+     * @param offset document offset
+     * @return token index, count if no token follows
+     */
+    public int indexOf(int separator, int offset) {
+        // ends are exclusive: a token ending at offset does not contain it
+        return table(separator).firstEndAfter(offset);
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        edited(e.getOffset(), e.getLength());
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        edited(e.getOffset(), -e.getLength());
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+        // attribute change only
+    }
+
+/*------------------------------------------------------PRIVATE------------------------------------------------------*/
+
+    private Table table(int separator) {
+        if (tables[separator] == null) {
+            Table table = new Table(separators[separator]);
+            table.rescan(text(0, document.getLength()), 0, 0, 0);
+            tables[separator] = table;
+        }
+        return tables[separator];
+    }
+
+    private void edited(int offset, int delta) {
+        for (Table table : tables) {
+            if (table != null) table.edited(offset, delta);
+        }
+    }
+
+    private Segment text(int offset, int length) {
+        Segment segment = new Segment();
+        try {
+            document.getText(offset, length, segment);
+        } catch (BadLocationException e) {
+            throw new IllegalStateException("document changed during tokenization", e);
+        }
+        return segment;
+    }
+
+    private static void checkIndex(Table table, int index) {
+        if (index < 0 || index >= table.count) throw new IndexOutOfBoundsException("token " + index + " of " + table.count);
+    }
+
+    /**
+     * Token boundaries for one separator, sorted and non overlapping
+     * Offsets of the tokens from shiftFrom on are stored without the pending shift of the last edits; moving shiftFrom
+     * to the next edit only touches the tokens in between.
+     */
+    private class Table {
+        private final IntPredicate isSeparator;
+        private int[] starts = new int[64];
+        private int[] ends = new int[64];
+        private int count = 0;
+        private int shiftFrom = 0;
+        private int shift = 0;
+
+        public Table(IntPredicate isSeparator) {
+            this.isSeparator = isSeparator;
+        }
+
+        int start(int index) {
+            return index >= shiftFrom ? starts[index] + shift : starts[index];
+        }
+
+        int end(int index) {
+            return index >= shiftFrom ? ends[index] + shift : ends[index];
+        }
+
+        /**
+         * Get the first token ending after offset
+         * @param offset document offset
+         * @return token index, count if no token ends after offset
+         */
+        int firstEndAfter(int offset) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (end(middle) <= offset) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Get the first token starting after offset
+         * @param offset document offset
+         * @return token index, count if no token starts after offset
+         */
+        int firstStartAfter(int offset) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (start(middle) <= offset) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Document was edited (already applied), rescan the tokens around the edit
+         * Tokens are separated by at least one separator, so rescanning from the end of the second token before the
+         * edit to the start of the second token after it finds the same boundaries as a full scan.
+         * @param offset edit offset
+         * @param delta inserted (positive) or removed (negative) characters
+         */
+        void edited(int offset, int delta) {
+            // old coordinates: the first token that may touch the edit, and the first one behind it
+            int first = Math.max(0, firstEndAfter(offset - 1) - 1);
+            int last = Math.min(count, firstStartAfter(offset + Math.max(-delta, 0)) + 1);
+            int from = first > 0 ? end(first - 1) : 0;
+            int to = last < count ? start(last) + delta : document.getLength();
+            moveShift(last);
+            shift += delta;
+            rescan(text(from, to - from), from, first, last);
+        }
+
+        /**
+         * Replace the tokens [first, last) by the tokens found in segment
+         * @param segment text to scan
+         * @param base document offset of the segment
+         * @param first first replaced token
+         * @param last first kept token after the replaced ones
+         */
+        void rescan(Segment segment, int base, int first, int last) {
+            int[] newStarts = new int[16];
+            int[] newEnds = new int[16];
+            int found = 0;
+            char[] chars = segment.array;
+            int i = segment.offset;
+            int n = segment.offset + segment.count;
+            while (i < n) {
+                while (i < n && isSeparator.test(chars[i])) i++;
+                int start = i;
+                while (i < n && !isSeparator.test(chars[i])) i++;
+                int end = i;
+                while (start < end && Character.isWhitespace(chars[start])) start++;
+                while (end > start && Character.isWhitespace(chars[end - 1])) end--;
+                if (start == end) continue;
+                if (found == newStarts.length) {
+                    newStarts = Arrays.copyOf(newStarts, found * 2);
+                    newEnds = Arrays.copyOf(newEnds, found * 2);
+                }
+                newStarts[found] = base + start - segment.offset;
+                newEnds[found] = base + end - segment.offset;
+                found++;
+            }
+            splice(first, last, newStarts, newEnds, found);
+        }
+
+        /**
+         * Move the start of the pending shift to index (only the tokens in between are updated)
+         */
+        private void moveShift(int index) {
+            for (int i = shiftFrom; i < index; i++) {
+                starts[i] += shift;
+                ends[i] += shift;
+            }
+            for (int i = index; i < shiftFrom; i++) {
+                starts[i] -= shift;
+                ends[i] -= shift;
+            }
+            shiftFrom = index;
+        }
+
+        /**
+         * Replace the tokens [first, last) by the new ones, the kept tokens after them move only if the count changed
+         */
+        private void splice(int first, int last, int[] newStarts, int[] newEnds, int found) {
+            int newCount = count - (last - first) + found;
+            if (newCount > starts.length) {
+                int capacity = Math.max(newCount, starts.length * 2);
+                starts = Arrays.copyOf(starts, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+            }
+            if (found != last - first) {
+                System.arraycopy(starts, last, starts, first + found, count - last);
+                System.arraycopy(ends, last, ends, first + found, count - last);
+            }
+            System.arraycopy(newStarts, 0, starts, first, found);
+            System.arraycopy(newEnds, 0, ends, first, found);
+            count = newCount;
+            shiftFrom = first + found;
+        }
+    }
+}
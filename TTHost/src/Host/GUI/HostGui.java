@@ -1,18 +1,21 @@
 package Host.GUI;
 
+import ConnectionLayer.RttStats;
 import Exceptions.BadGameIDException;
 import Host.ConnectionLayer.HostConnector;
 import Host.Controller.Games.GameControllerCreator;
 import Host.Controller.HostController;
-import Host.GUI.Games.FastReadPane;
+import Host.Controller.Storage;
 import Host.GUI.Games.GamePanel;
 
 import javax.swing.*;
-import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.TreeModel;
 import java.awt.*;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
+import java.nio.file.Path;
 import java.util.ResourceBundle;
+import java.util.concurrent.ExecutionException;
 
 public class HostGui extends JFrame {
 
@@ -73,6 +76,9 @@ public class HostGui extends JFrame {
         JMenuItem menuItemSettings = new JMenuItem(resources.getString("settings"));
         menuData.add(menuItemSettings);
         menuItemSettings.addActionListener(e -> controller.displaySettings(new Dimension(window.getWidth()/2, window.getHeight()/2)));
+        JMenuItem menuItemMoveStorage = new JMenuItem(resources.getString("move_storage"));
+        menuData.add(menuItemMoveStorage);
+        menuItemMoveStorage.addActionListener(e -> moveStorage(menuItemMoveStorage));
 
         JMenu menuHelp = new JMenu(resources.getString("help"));
         menuBar.add(menuHelp);
@@ -88,11 +94,11 @@ public class HostGui extends JFrame {
     }
 
     /**
-     * Reload FileSystem Tree representation after changes (e.g. new File or Folder)
-     * @param rootNode root of the directory tree
+     * Show the FileSystem Tree (later changes, e.g. new File or Folder, are published by the model)
+     * @param model model of the directory tree
      */
-    public void reloadSheetTree(DefaultMutableTreeNode rootNode) {
-        hostMainPane.reloadSheetTree(rootNode);
+    public void reloadSheetTree(TreeModel model) {
+        hostMainPane.reloadSheetTree(model);
         repaint();
         revalidate();
     }
@@ -106,17 +112,29 @@ public class HostGui extends JFrame {
         hostMainPane.connectionStatusChanged(status, msg);
     }
 
+    /**
+     * Notify Gui of a refined clock offset estimation of the active session
+     * @param offset client clock minus host clock (in nanoseconds)
+     * @param jitter jitter of the estimation (in nanoseconds)
+     */
+    public void clockStatusChanged(long offset, long jitter) {
+        hostMainPane.clockStatusChanged(offset, jitter);
+    }
+
+    /**
+     * Notify Gui of new round trip times of the active session
+     * @param rtt heartbeat round trip statistics
+     */
+    public void rttStatusChanged(RttStats rtt) {
+        hostMainPane.rttStatusChanged(rtt);
+    }
+
     public GamePanel startedGame(int id, GameControllerCreator.GameController controller) throws BadGameIDException {
-        switch (id) {
-            case 0:
-                gamePane = new FastReadPane(controller);
-                setContentPane(gamePane);
-                revalidate();
-                repaint();
-                return gamePane;
-            default:
-                throw new BadGameIDException(id);
-        }
+        gamePane = GameControllerCreator.createPane(id, controller);
+        setContentPane(gamePane);
+        revalidate();
+        repaint();
+        return gamePane;
     }
 
     public void endedGame() {
@@ -126,4 +144,38 @@ public class HostGui extends JFrame {
         repaint();
     }
 
+/*------------------------------------------------------PRIVATE------------------------------------------------------*/
+
+    /**
+     * Let the user choose a new location and move the storage there in the background
+     * @param menuItem menu item starting the move (disabled while moving)
+     */
+    private void moveStorage(JMenuItem menuItem) {
+        Path location;
+        try {
+            location = Dialogs.chooseLocation(Storage.defaultPath());
+        } catch (Dialogs.CancelPressedException e) {
+            return;
+        }
+        menuItem.setEnabled(false);
+        new SwingWorker<Boolean, Object>() {
+            @Override
+            protected Boolean doInBackground() {
+                return controller.moveStorage(location);
+            }
+            @Override
+            protected void done() {
+                menuItem.setEnabled(true);
+                try {
+                    if (!get()) {
+                        JOptionPane.showMessageDialog(HostGui.this, resources.getString("storage_not_moved"),
+                                resources.getString("move_storage"), JOptionPane.WARNING_MESSAGE);
+                    }
+                } catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();
+                }
+            }
+        }.execute();
+    }
+
 }
@@ -7,26 +7,46 @@ import Host.Controller.Games.GameControllerCreator;
 import Host.Controller.HostController;
 import Host.CustomLogger;
 import ConnectionLayer.Address;
+import ConnectionLayer.RttStats;
 import Exceptions.UnimplementedException;
 
 import javax.swing.*;
-import javax.swing.tree.DefaultMutableTreeNode;
-import javax.swing.tree.DefaultTreeModel;
+import javax.swing.tree.TreeModel;
 import javax.swing.tree.TreePath;
 import javax.swing.tree.TreeSelectionModel;
 import java.awt.*;
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.Transferable;
+import java.awt.datatransfer.UnsupportedFlavorException;
 import java.awt.event.ActionEvent;
+import java.io.IOException;
+import java.util.List;
 import java.util.ResourceBundle;
 import java.util.concurrent.ExecutionException;
 
 public class HostMainPane extends JPanel {
+    private static final int PREVIEW_SIZE = 64;
+    private static final int PREVIEW_PICTURES = 8;
+    private static final DataFlavor SHEET_PATH_FLAVOR;
+    static {
+        try {
+            SHEET_PATH_FLAVOR = new DataFlavor(DataFlavor.javaJVMLocalObjectMimeType + ";class=" + TreePath.class.getName());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 
     private final HostController controller;
     private final ResourceBundle resources;
     private final CustomLogger logger;
     private JTree sheetsTree;
+    private final JPanel previewPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+    private int previewRequest = 0;
     private HostConnector.Status connectionStatus;
+    private String clockStatus = null;
+    private String rttStatus = null;
     private JRadioButton[] gameButtons;
+    private int[] gameIDs;
 
     public static void main(String[] args) {
         JFrame window = new JFrame();
@@ -116,13 +136,7 @@ public class HostMainPane extends JPanel {
                         controller.startWorkSheet(sheetsTree.getSelectionPath());
                         break;
                     case 1:
-                        int id = -1;
-                        for (int i = 0; i < gameButtons.length; i++) {
-                            if (gameButtons[i].isSelected()) {
-                                id = i;
-                                break;
-                            }
-                        }
+                        int id = selectedGame();
                         assert(id != -1);
                         logger.info("selected game: " + id);
                         controller.startGame(id);
@@ -131,13 +145,22 @@ public class HostMainPane extends JPanel {
             }
         });
 
+        setEditingButtonListeners();
+
         sheetGamesTabbedPane.addChangeListener(e -> displayInfo());
 
         gamesPanel.setLayout(new BoxLayout(gamesPanel, BoxLayout.Y_AXIS));
         ButtonGroup gamesRadioButtons = new ButtonGroup();
-        gameButtons = new JRadioButton[1];  // TODO modify for several games
-        for (int i = 0; i < 1; i++) {       // TODO modify for several games
-            JRadioButton rb = new JRadioButton(resources.getString("fast_read"));
+        gameIDs = GameControllerCreator.getGameIDs();
+        gameButtons = new JRadioButton[gameIDs.length];
+        for (int i = 0; i < gameIDs.length; i++) {
+            String name;
+            try {
+                name = GameControllerCreator.getInfo(gameIDs[i]).getName();
+            } catch (BadGameIDException e) {
+                throw new IllegalStateException(e);     // registered games exist
+            }
+            JRadioButton rb = new JRadioButton(name);
             gamesPanel.add(rb);
             gamesRadioButtons.add(rb);
             gameButtons[i] = rb;
@@ -152,11 +175,9 @@ public class HostMainPane extends JPanel {
 
     /**
      * Display (current) Work Sheet Directory Tree
-     * @param rootNode rootNode of the Directory Tree
+     * @param model model of the Directory Tree
      */
-    public void reloadSheetTree(DefaultMutableTreeNode rootNode) {
-        DefaultTreeModel model = new DefaultTreeModel(rootNode);
-        model.setAsksAllowsChildren(true);
+    public void reloadSheetTree(TreeModel model) {
         sheetsTree = new JTree(model);
         sheetsTree.getSelectionModel().setSelectionMode(TreeSelectionModel.SINGLE_TREE_SELECTION);
         sheetsTree.getSelectionModel().addTreeSelectionListener(
@@ -164,8 +185,13 @@ public class HostMainPane extends JPanel {
                     displayInfo();
                 }
         );
+        sheetsTree.setDragEnabled(true);
+        sheetsTree.setDropMode(DropMode.ON);
+        sheetsTree.setTransferHandler(new SheetTransferHandler());
         workSheetsPanel.removeAll();
+        workSheetsPanel.add(createSearchField(), BorderLayout.NORTH);
         workSheetsPanel.add(sheetsTree, BorderLayout.CENTER);
+        workSheetsPanel.add(previewPanel, BorderLayout.SOUTH);
     }
 
     /**
@@ -175,6 +201,8 @@ public class HostMainPane extends JPanel {
      */
     public void connectionStatusChanged(HostConnector.Status status, String msg) {
         this.connectionStatus = status;
+        clockStatus = null;
+        rttStatus = null;
         disableConnectionInput();
         switch (status) {
             case Online -> {
@@ -208,8 +236,39 @@ public class HostMainPane extends JPanel {
         if (msg != null) consoleTextPane.setText(msg + "\n" + consoleTextPane.getText());
     }
 
+    /**
+     * Called to show the clock offset estimation of the connected client
+     * @param offset client clock minus host clock (in nanoseconds)
+     * @param jitter jitter of the estimation (in nanoseconds)
+     */
+    public void clockStatusChanged(long offset, long jitter) {
+        if (connectionStatus != HostConnector.Status.Connected) return;
+        clockStatus = String.format(resources.getString("clock_status"), offset / 1e6, jitter / 1e6);
+        showConnectedStatus();
+    }
+
+    /**
+     * Called to show the round trip times of the connected client
+     * @param rtt heartbeat round trip statistics of the active session
+     */
+    public void rttStatusChanged(RttStats rtt) {
+        if (connectionStatus != HostConnector.Status.Connected) return;
+        rttStatus = String.format(resources.getString("rtt_status"), rtt.getMin() / 1e6, rtt.getAvg() / 1e6, rtt.getP99() / 1e6);
+        showConnectedStatus();
+    }
+
 /*------------------------------------------------------PRIVATE------------------------------------------------------*/
 
+    /**
+     * Show the connected status with the known clock and round trip details
+     */
+    private void showConnectedStatus() {
+        String text = resources.getString("connected");
+        if (clockStatus != null) text += " | " + clockStatus;
+        if (rttStatus != null) text += " | " + rttStatus;
+        statusFormattedTextField.setText(text);
+    }
+
     /**
      * Called after change to work-sheet or game selection or tabbed-pane switch
      * Displays info about the selected file, folder or game
@@ -225,6 +284,38 @@ public class HostMainPane extends JPanel {
         }
     }
 
+    /**
+     * Create the sheet search field (enter selects the best match, pressed again the next one)
+     * @return search field
+     */
+    private JTextField createSearchField() {
+        JTextField searchField = new JTextField();
+        searchField.setToolTipText(resources.getString("search_sheets"));
+        searchField.addActionListener(new AbstractAction() {
+            private String query = null;
+            private List<TreePath> results = List.of();
+            private int position = 0;
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                String text = searchField.getText().trim();
+                if (!text.equals(query)) {
+                    query = text;
+                    results = controller.searchSheets(text);
+                    position = 0;
+                }
+                if (results.isEmpty()) {
+                    Toolkit.getDefaultToolkit().beep();
+                    return;
+                }
+                TreePath path = results.get(position++ % results.size());
+                sheetsTree.setSelectionPath(path);
+                sheetsTree.scrollPathToVisible(path);
+            }
+        });
+        return searchField;
+    }
+
     /**
      * Displays info about the selected file or folder
      */
@@ -232,6 +323,7 @@ public class HostMainPane extends JPanel {
         assert (sheetGamesTabbedPane.getSelectedIndex() == 0);
 
         TreePath path = sheetsTree.getSelectionPath();
+        showPreview(path);
         if (path == null) {
             infoNameTextField.setText("");
             infoDirTextField.setText("");
@@ -256,8 +348,8 @@ public class HostMainPane extends JPanel {
                     infoPagesTextField.setText("");
                     startButton.setEnabled(false);
                     newDirButton.setEnabled(true);
-                    editDirButton.setEnabled(true);
-                    deleteDirButton.setEnabled(true);
+                    editDirButton.setEnabled(path.getParentPath() != null);     // not the root
+                    deleteDirButton.setEnabled(path.getParentPath() != null);
                     newFileButton.setEnabled(true);
                     editFileButton.setEnabled(false);
                     deleteFileButton.setEnabled(false);
@@ -281,6 +373,29 @@ public class HostMainPane extends JPanel {
         }
     }
 
+    /**
+     * Show thumbnails of the pictures of the selected work sheet (loaded in the background, a result arriving after
+     * the selection changed again is dropped)
+     * @param path selected element, null if nothing is selected
+     */
+    private void showPreview(TreePath path) {
+        int request = ++previewRequest;
+        previewPanel.removeAll();
+        previewPanel.revalidate();
+        previewPanel.repaint();
+        if (path == null) return;
+        try {
+            controller.loadSheetPreview(path, PREVIEW_SIZE, PREVIEW_PICTURES).thenAcceptAsync(pictures -> {
+                if (request != previewRequest) return;
+                for (Image picture : pictures) previewPanel.add(new JLabel(new ImageIcon(picture)));
+                previewPanel.revalidate();
+                previewPanel.repaint();
+            }, SwingUtilities::invokeLater);
+        } catch (Storage.FaultyStorageStructureException e) {
+            logger.warning("no preview\n" + e.getMessage());
+        }
+    }
+
     /**
      * Display info about the selected game
      */
@@ -293,13 +408,7 @@ public class HostMainPane extends JPanel {
         editFileButton.setEnabled(false);
         deleteFileButton.setEnabled(false);
 
-        int gameID = -1;
-        for (int i = 0; i < gameButtons.length; i++) {
-            if (gameButtons[i].isSelected()) {
-                gameID = i;
-                break;
-            }
-        }
+        int gameID = selectedGame();
 
         if (gameID == -1) {
             infoNameTextField.setText("");
@@ -324,6 +433,17 @@ public class HostMainPane extends JPanel {
         }
     }
 
+    /**
+     * Get the selected game
+     * @return game ID, -1 if no game is selected
+     */
+    private int selectedGame() {
+        for (int i = 0; i < gameButtons.length; i++) {
+            if (gameButtons[i].isSelected()) return gameIDs[i];
+        }
+        return -1;
+    }
+
     /**
      * Enables start-button, if connected to a client
      */
@@ -348,10 +468,14 @@ public class HostMainPane extends JPanel {
                 new AbstractAction() {
                     @Override
                     public void actionPerformed(ActionEvent e) {
-                        // TODO show Folder creation Dialog
-                        // TODO default directory (currently selected folder or parent of file)
-                        // TODO perform changes in Storage
-                        // TODO save storage
+                        TreePath parent = sheetsTree.getSelectionPath();
+                        String name = Dialogs.askName(HostMainPane.this, "new_folder", null);
+                        if (parent == null || name == null) return;
+                        try {
+                            selectSheetPath(controller.createFolder(parent, name));
+                        } catch (Storage.FaultyStorageStructureException | IOException ex) {
+                            storageChangeFailed(ex);
+                        }
                     }
                 }
         );
@@ -359,10 +483,17 @@ public class HostMainPane extends JPanel {
                 new AbstractAction() {
                     @Override
                     public void actionPerformed(ActionEvent e) {
-                        // TODO show File creation Dialog
-                        // TODO default directory (currently selected folder or parent of file)
-                        // TODO perform changes in Storage
-                        // TODO save storage
+                        TreePath path = sheetsTree.getSelectionPath();
+                        if (path == null) return;
+                        // in the selected folder or next to the selected work sheet
+                        TreePath parent = sheetsTree.getModel().isLeaf(path.getLastPathComponent()) ? path.getParentPath() : path;
+                        Dialogs.SheetAttributes sheet = Dialogs.editSheet(HostMainPane.this, "new_sheet", null);
+                        if (sheet == null) return;
+                        try {
+                            selectSheetPath(controller.createWorkSheet(parent, sheet.getName(), sheet.getDescription(), sheet.isRandomized()));
+                        } catch (Storage.FaultyStorageStructureException | IOException ex) {
+                            storageChangeFailed(ex);
+                        }
                     }
                 }
         );
@@ -370,9 +501,16 @@ public class HostMainPane extends JPanel {
                 new AbstractAction() {
                     @Override
                     public void actionPerformed(ActionEvent e) {
-                        // TODO show Folder editing Dialog
-                        // TODO perform changes in Storage
-                        // TODO save storage
+                        TreePath path = sheetsTree.getSelectionPath();
+                        if (path == null) return;
+                        String name = Dialogs.askName(HostMainPane.this, "rename", path.getLastPathComponent().toString());
+                        if (name == null) return;
+                        try {
+                            controller.renameEntry(path, name);
+                            displayInfo();
+                        } catch (Storage.FaultyStorageStructureException | IOException ex) {
+                            storageChangeFailed(ex);
+                        }
                     }
                 }
         );
@@ -380,9 +518,18 @@ public class HostMainPane extends JPanel {
                 new AbstractAction() {
                     @Override
                     public void actionPerformed(ActionEvent e) {
-                        // TODO show File editing Dialog
-                        // TODO perform changes in Storage
-                        // TODO save storage
+                        TreePath path = sheetsTree.getSelectionPath();
+                        if (path == null) return;
+                        try {
+                            Storage.Info info = controller.getFileInfo(path);
+                            Dialogs.SheetAttributes sheet = Dialogs.editSheet(HostMainPane.this, "edit_sheet",
+                                    new Dialogs.SheetAttributes(info.getName(), info.getDescription(), info.isRandomized()));
+                            if (sheet == null) return;
+                            controller.editWorkSheet(path, sheet.getName(), sheet.getDescription(), sheet.isRandomized());
+                            displayInfo();
+                        } catch (Storage.FaultyStorageStructureException | Storage.CorruptedStorageException | IOException ex) {
+                            storageChangeFailed(ex);
+                        }
                     }
                 }
         );
@@ -390,10 +537,7 @@ public class HostMainPane extends JPanel {
                 new AbstractAction() {
                     @Override
                     public void actionPerformed(ActionEvent e) {
-                        // TODO show confirmation Dialog
-                        // TODO option delete all sub-folders and -files or merge into parent folder
-                        // TODO perform changes in Storage
-                        // TODO save storage
+                        deleteSelected(true);
                     }
                 }
         );
@@ -401,14 +545,102 @@ public class HostMainPane extends JPanel {
                 new AbstractAction() {
                     @Override
                     public void actionPerformed(ActionEvent e) {
-                        // TODO show confirmation Dialog
-                        // TODO perform changes in Storage
-                        // TODO save storage
+                        deleteSelected(false);
                     }
                 }
         );
     }
 
+    /**
+     * Delete the selected folder (with all its content) or work sheet after confirmation
+     * @param folder true iff a folder is selected
+     */
+    private void deleteSelected(boolean folder) {
+        TreePath path = sheetsTree.getSelectionPath();
+        if (path == null || !Dialogs.confirmDelete(this, path.getLastPathComponent().toString(), folder)) return;
+        try {
+            controller.deleteEntry(path);
+        } catch (Storage.FaultyStorageStructureException | IOException e) {
+            storageChangeFailed(e);
+        }
+    }
+
+    /**
+     * Select an element of the sheet tree and scroll to it
+     * @param path path of the element
+     */
+    private void selectSheetPath(TreePath path) {
+        sheetsTree.setSelectionPath(path);
+        sheetsTree.scrollPathToVisible(path);
+    }
+
+    /**
+     * Show why a change of the storage was refused (nothing was changed)
+     * @param e cause
+     */
+    private void storageChangeFailed(Exception e) {
+        logger.warning("storage change failed\n" + e.getMessage());
+        consoleTextPane.setText(String.format(resources.getString("storage_change_failed"), e.getMessage()) + "\n" + consoleTextPane.getText());
+    }
+
+    /**
+     * Moves folders and work sheets by dragging them onto a folder of the sheet tree
+     */
+    private class SheetTransferHandler extends TransferHandler {
+        @Override
+        public int getSourceActions(JComponent c) {
+            return MOVE;
+        }
+
+        @Override
+        protected Transferable createTransferable(JComponent c) {
+            TreePath path = sheetsTree.getSelectionPath();
+            if (path == null || path.getParentPath() == null) return null;     // the root stays
+            return new Transferable() {
+                @Override
+                public DataFlavor[] getTransferDataFlavors() {
+                    return new DataFlavor[] {SHEET_PATH_FLAVOR};
+                }
+
+                @Override
+                public boolean isDataFlavorSupported(DataFlavor flavor) {
+                    return SHEET_PATH_FLAVOR.equals(flavor);
+                }
+
+                @Override
+                public Object getTransferData(DataFlavor flavor) throws UnsupportedFlavorException {
+                    if (!isDataFlavorSupported(flavor)) throw new UnsupportedFlavorException(flavor);
+                    return path;
+                }
+            };
+        }
+
+        @Override
+        public boolean canImport(TransferSupport support) {
+            if (!support.isDrop() || !support.isDataFlavorSupported(SHEET_PATH_FLAVOR)) return false;
+            TreePath folder = ((JTree.DropLocation) support.getDropLocation()).getPath();
+            TreePath moved = sheetsTree.getSelectionPath();     // the drag started from the (single) selection
+            return folder != null && moved != null && !sheetsTree.getModel().isLeaf(folder.getLastPathComponent())
+                    && !moved.isDescendant(folder) && !folder.equals(moved.getParentPath());
+        }
+
+        @Override
+        public boolean importData(TransferSupport support) {
+            if (!canImport(support)) return false;
+            TreePath folder = ((JTree.DropLocation) support.getDropLocation()).getPath();
+            try {
+                TreePath moved = (TreePath) support.getTransferable().getTransferData(SHEET_PATH_FLAVOR);
+                selectSheetPath(controller.moveEntry(moved, folder));
+                return true;
+            } catch (UnsupportedFlavorException e) {
+                return false;
+            } catch (Storage.FaultyStorageStructureException | IOException e) {
+                storageChangeFailed(e);
+                return false;
+            }
+        }
+    }
+
     // components
     private JPanel mainPanel;
     private JButton newDirButton;
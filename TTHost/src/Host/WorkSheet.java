@@ -2,39 +2,116 @@ package Host;
 
 import ContentClasses.Page;
 import Exceptions.UnimplementedException;
+import Host.Controller.Storage.CorruptedStorageException;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.List;
+import java.io.*;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
 
+/**
+ * Work sheet, stored as one file in the sheet directory
+ *
+ * File layout (big endian):
+ *  header      magic, version, randomize flag, name, description
+ *  pictures    content hashes of all pictures of the sheet
+ *  pages       per page: offset, length and CRC32 of the page data, first and count of its picture references
+ *  references  indices into the picture table
+ *  data        serialized pages
+ *
+ * Opening reads header and tables only, a page is decoded when it is requested (decoded pages are softly cached).
+ * Saving copies the data of unchanged pages without decoding them.
+ */
 public class WorkSheet {
+    private static final int MAGIC = 0x54545331;    // "TTS1"
+    private static final int VERSION = 1;
+    private static final int PAGE_ENTRY = 24;
+    private static final ObjectInputFilter PAGE_FILTER =
+            ObjectInputFilter.Config.createFilter("ContentClasses.*;java.lang.String;maxdepth=32;!*");
 
-    private ArrayList<Page> pages;
+    private ArrayList<Slot> pages;
     private boolean randomize;
     private int maxType;
     private String name;
     private String directory;
-    private Iterator<Page> iter;
     private boolean changed;
     private String description;
 
+    private Path file;
+    private FileChannel channel;
+
     public WorkSheet (String name, String directory, boolean randomize) {
         this.pages = new ArrayList<>();
         this.randomize = randomize;
         this.maxType = 0;
         this.name = name;
         this.directory = directory;
-        if (!randomize) {
-            this.iter = pages.iterator();
-        } else {
-            List<Page> random = new ArrayList<>(pages);
-            Collections.shuffle(random);
-            this.iter = random.iterator();
-        }
+        this.description = "";
         this.changed = false;
     }
 
+    /**
+     * Open a work sheet file (reads header and tables only)
+     * @param file work sheet file
+     * @param directory directory of the sheet in the storage tree
+     * @return opened work sheet (must be closed)
+     * @throws IOException thrown if the file is not readable
+     * @throws CorruptedStorageException thrown if the file is no valid work sheet
+     */
+    public static WorkSheet open(Path file, String directory) throws IOException, CorruptedStorageException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            if (in.readInt() != MAGIC) throw new CorruptedStorageException("Work sheet: bad magic (" + file + ")");
+            int version = in.readInt();
+            if (version != VERSION) throw new CorruptedStorageException("Work sheet: unknown version " + version + " (" + file + ")");
+            boolean randomize = in.readBoolean();
+            WorkSheet sheet = new WorkSheet(readString(in), directory, randomize);
+            sheet.description = readString(in);
+
+            String[] pictures = new String[in.readInt()];
+            for (int i = 0; i < pictures.length; i++) pictures[i] = readString(in);
+            int count = in.readInt();
+            long size = channel.size();
+            int[][] references = new int[count][];
+            for (int i = 0; i < count; i++) {
+                Slot slot = new Slot();
+                slot.offset = in.readLong();
+                slot.length = in.readInt();
+                slot.crc = in.readInt();
+                references[i] = new int[] { in.readInt(), in.readInt() };
+                if (slot.offset < 0 || slot.length < 0 || slot.offset + slot.length > size) {
+                    throw new CorruptedStorageException("Work sheet: page " + i + " out of file (" + file + ")");
+                }
+                sheet.pages.add(slot);
+            }
+            int[] indices = new int[in.readInt()];
+            for (int i = 0; i < indices.length; i++) indices[i] = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Slot slot = sheet.pages.get(i);
+                slot.pictures = new String[references[i][1]];
+                for (int j = 0; j < slot.pictures.length; j++) slot.pictures[j] = pictures[indices[references[i][0] + j]];
+            }
+            sheet.file = file;
+            sheet.channel = channel;
+            return sheet;
+        } catch (EOFException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            channel.close();
+            throw new CorruptedStorageException("Work sheet: truncated (" + file + ")");
+        } catch (IOException | CorruptedStorageException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
     public boolean isRandomize() {
         return randomize;
     }
@@ -56,25 +133,98 @@ public class WorkSheet {
         return directory;
     }
 
+    public String getDescription() {
+        return description;
+    }
+
+    public void setDescription(String description) {
+        this.description = description;
+        changed = true;
+    }
+
     public void changeDirectory(String directory) throws UnimplementedException {
         // TODO move work sheet
         throw new UnimplementedException("src/Host/GUI/WorkSheet.java: changeDirectory(...) is unimplemented");
         // this.directory = directory;
     }
 
-    public void changeName(String name) throws UnimplementedException {
-        // TODO move work sheet
-        throw new UnimplementedException("src/Host/GUI/WorkSheet.java: changeName(...) is unimplemented");
-        // this.name = name;
+    /**
+     * Change the name stored in the sheet file (the file is named independently, it stays in place)
+     * @param name new name
+     */
+    public void changeName(String name) {
+        this.name = name;
+        changed = true;
+    }
+
+    /**
+     * Get number of pages
+     * @return page count
+     */
+    public int getPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * Get a page, decoding it from the file if necessary
+     * @param index page index
+     * @return page
+     * @throws IOException thrown if the sheet file is not readable
+     * @throws CorruptedStorageException thrown if the page data is damaged
+     */
+    public Page getPage(int index) throws IOException, CorruptedStorageException {
+        Slot slot = pages.get(index);
+        if (slot.page != null) return slot.page;
+        Page page = slot.cache != null ? slot.cache.get() : null;
+        if (page == null) {
+            page = decode(readData(slot), index);
+            slot.cache = new SoftReference<>(page);
+        }
+        return page;
+    }
+
+    /**
+     * Get the order in which the pages are presented (shuffled if randomized)
+     * @return page indices
+     */
+    public int[] getPageOrder() {
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < pages.size(); i++) order.add(i);
+        if (randomize) Collections.shuffle(order);
+        return order.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Get the pictures of all pages
+     * @return distinct content hashes
+     */
+    public Set<String> getPictureHashes() {
+        Set<String> pictures = new LinkedHashSet<>();
+        for (Slot slot : pages) pictures.addAll(Arrays.asList(slot.pictures));
+        return pictures;
+    }
+
+    /**
+     * Check the stored data of all pages against their checksums (without decoding them)
+     * @throws IOException thrown if the sheet file is not readable
+     * @throws CorruptedStorageException thrown if the data of a page is damaged
+     */
+    public void verifyPages() throws IOException, CorruptedStorageException {
+        for (int i = 0; i < pages.size(); i++) {
+            Slot slot = pages.get(i);
+            if (slot.page == null && checksum(readData(slot)) != slot.crc) {
+                throw new CorruptedStorageException("Work sheet: checksum of page " + i + " wrong (" + file + ")");
+            }
+        }
     }
 
     public void appendPage(Page page) {
-        this.pages.add(page);
+        this.pages.add(new Slot(page));
         changed = true;
     }
 
     public void addPage(Page page, int index) {
-        this.pages.add(index, page);
+        this.pages.add(index, new Slot(page));
         changed = true;
     }
 
@@ -84,13 +234,186 @@ public class WorkSheet {
     }
 
     public void modifyPage(Page page, int index) {
-        this.pages.set(index, page);
+        this.pages.set(index, new Slot(page));
         changed = true;
     }
 
-    public void save() throws UnimplementedException {
+    /**
+     * Save changes to the file the sheet was opened from or last saved to
+     * @throws IOException thrown by writing the file
+     */
+    public void save() throws IOException {
         if (!changed) return;
-        // TODO save to drive
-        throw new UnimplementedException("src/Host/Library/WorkSheet.java: save(...) is unimplemented");
+        if (file == null) throw new IllegalStateException("work sheet has no file yet");
+        save(file);
+    }
+
+    /**
+     * Save the sheet to a file (written next to it and moved in place)
+     * @param target work sheet file
+     * @throws IOException thrown by reading the old or writing the new file
+     */
+    public void save(Path target) throws IOException {
+        // encode new pages, collect pictures
+        Map<String, Integer> pictures = new LinkedHashMap<>();
+        byte[][] encoded = new byte[pages.size()][];
+        int references = 0;
+        for (int i = 0; i < pages.size(); i++) {
+            Slot slot = pages.get(i);
+            if (slot.page != null) encoded[i] = encode(slot.page);
+            for (String picture : slot.pictures) pictures.putIfAbsent(picture, pictures.size());
+            references += slot.pictures.length;
+        }
+
+        ByteArrayOutputStream headBytes = new ByteArrayOutputStream();
+        DataOutputStream head = new DataOutputStream(headBytes);
+        head.writeInt(MAGIC);
+        head.writeInt(VERSION);
+        head.writeBoolean(randomize);
+        writeString(head, name);
+        writeString(head, description);
+        head.writeInt(pictures.size());
+        for (String picture : pictures.keySet()) writeString(head, picture);
+        head.writeInt(pages.size());
+        long offset = head.size() + (long) pages.size() * PAGE_ENTRY + 4 + references * 4L;
+
+        long[] offsets = new long[pages.size()];
+        int[] lengths = new int[pages.size()];
+        int[] crcs = new int[pages.size()];
+        int reference = 0;
+        for (int i = 0; i < pages.size(); i++) {
+            Slot slot = pages.get(i);
+            offsets[i] = offset;
+            lengths[i] = encoded[i] != null ? encoded[i].length : slot.length;
+            crcs[i] = encoded[i] != null ? checksum(encoded[i]) : slot.crc;
+            head.writeLong(offset);
+            head.writeInt(lengths[i]);
+            head.writeInt(crcs[i]);
+            head.writeInt(reference);
+            head.writeInt(slot.pictures.length);
+            reference += slot.pictures.length;
+            offset += lengths[i];
+        }
+        head.writeInt(references);
+        for (Slot slot : pages) {
+            for (String picture : slot.pictures) head.writeInt(pictures.get(picture));
+        }
+
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            write(out, ByteBuffer.wrap(headBytes.toByteArray()));
+            for (int i = 0; i < pages.size(); i++) {
+                if (encoded[i] != null) {
+                    write(out, ByteBuffer.wrap(encoded[i]));
+                } else {
+                    Slot slot = pages.get(i);
+                    long done = 0;
+                    while (done < slot.length) done += channel.transferTo(slot.offset + done, slot.length - done, out);
+                }
+            }
+            out.force(true);
+        }
+        close();
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // pages now refer to the new file, decoded new pages stay softly cached
+        file = target;
+        channel = FileChannel.open(target, StandardOpenOption.READ);
+        for (int i = 0; i < pages.size(); i++) {
+            Slot slot = pages.get(i);
+            if (slot.page != null) {
+                slot.cache = new SoftReference<>(slot.page);
+                slot.page = null;
+            }
+            slot.offset = offsets[i];
+            slot.length = lengths[i];
+            slot.crc = crcs[i];
+        }
+        changed = false;
+    }
+
+    /**
+     * Close the sheet file (pages not decoded yet are not available afterwards)
+     * @throws IOException thrown by closing the file
+     */
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+/*------------------------------------------------------PRIVATE------------------------------------------------------*/
+
+    private byte[] readData(Slot slot) throws IOException {
+        if (channel == null) throw new IOException("work sheet file closed");
+        ByteBuffer data = ByteBuffer.allocate(slot.length);
+        while (data.hasRemaining()) {
+            if (channel.read(data, slot.offset + data.position()) < 0) throw new EOFException("work sheet truncated");
+        }
+        return data.array();
+    }
+
+    private Page decode(byte[] data, int index) throws IOException, CorruptedStorageException {
+        if (checksum(data) != pages.get(index).crc) {
+            throw new CorruptedStorageException("Work sheet: checksum of page " + index + " wrong (" + file + ")");
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            in.setObjectInputFilter(PAGE_FILTER);
+            return (Page) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException | InvalidClassException | StreamCorruptedException e) {
+            throw new CorruptedStorageException("Work sheet: page " + index + " not decodable (" + file + ")\n" + e.getMessage());
+        }
+    }
+
+    private static byte[] encode(Page page) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(page);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void write(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) out.write(buffer);
+    }
+
+    private static int checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] utf8 = new byte[in.readInt()];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Page of the sheet: either stored in the file (offset, length, checksum) or new/modified (page)
+     */
+    private static class Slot {
+        private long offset;
+        private int length;
+        private int crc;
+        private String[] pictures;
+        private Page page;
+        private SoftReference<Page> cache;
+
+        Slot() {
+        }
+
+        Slot(Page page) {
+            this.page = page;
+            this.pictures = page.getPictureHashes();
+        }
     }
 }
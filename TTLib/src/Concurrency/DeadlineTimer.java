@@ -0,0 +1,39 @@
+package Concurrency;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * High resolution waiting on System.nanoTime deadlines
+ *
+ * Parks until shortly before the deadline and spins for the rest,
+ * so the wake-up does not depend on the scheduler granularity (Thread.sleep may overshoot by several ms).
+ */
+public final class DeadlineTimer {
+    /**
+     * Time before the deadline at which parking stops and busy waiting starts
+     */
+    public static final long SPIN_NANOS = 2_000_000L;
+
+    private DeadlineTimer() {
+    }
+
+    /**
+     * Block the calling thread until the deadline is reached
+     * @param deadline deadline in System.nanoTime units
+     * @return actual wake-up time (System.nanoTime)
+     * @throws InterruptedException thrown if interrupted while waiting
+     */
+    public static long waitUntil(long deadline) throws InterruptedException {
+        long now = System.nanoTime();
+        while (deadline - now > SPIN_NANOS) {
+            LockSupport.parkNanos(deadline - now - SPIN_NANOS);
+            if (Thread.interrupted()) throw new InterruptedException();
+            now = System.nanoTime();
+        }
+        while (deadline - now > 0) {
+            Thread.onSpinWait();
+            now = System.nanoTime();
+        }
+        return now;
+    }
+}
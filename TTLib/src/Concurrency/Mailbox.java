@@ -0,0 +1,121 @@
+package Concurrency;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Multi-producer, single consumer queue drained on a shared pool
+ *
+ * Producers (I/O threads, GUI) only append a node with one atomic swap and never wait for the consumer. A mailbox that
+ * gets an item while it is idle is scheduled on the pool shared by all mailboxes, which hands the items to the consumer
+ * in posting order; at most one pool thread drains a mailbox at a time, so the state the consumer touches needs no lock
+ * and the number of threads does not grow with the number of mailboxes.
+ * @param <T> item type
+ */
+public final class Mailbox<T> {
+    /**
+     * Items handed to the consumer before the mailbox gives the pool thread to the next one
+     */
+    private static final int BATCH = 64;
+    private static final Executor drainers = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), task -> TaskRunner.newThread("Mailbox", task));
+
+    private final String name;
+    private final Consumer<T> consumer;
+    private final AtomicReference<Node<T>> tail;
+    private Node<T> head;       // drainer only, its item is already taken
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private volatile Thread drainer = null;
+    private volatile boolean closed = false;
+
+    /**
+     * Create a mailbox
+     * @param name name of the mailbox (for logs)
+     * @param consumer called for every item on a pool thread, runtime exceptions are logged and dropped
+     */
+    public Mailbox(String name, Consumer<T> consumer) {
+        this.name = name;
+        this.consumer = consumer;
+        head = new Node<>(null);
+        tail = new AtomicReference<>(head);
+    }
+
+    /**
+     * Append an item (lock-free, never blocks)
+     * @param item item to hand to the consumer
+     * @return false if the mailbox is closed (the item is dropped)
+     */
+    public boolean post(T item) {
+        if (closed) return false;
+        Node<T> node = new Node<>(item);
+        Node<T> previous = tail.getAndSet(node);
+        previous.next = node;
+        schedule();
+        return true;
+    }
+
+    /**
+     * Stop accepting items, the items posted so far are still handed to the consumer
+     */
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * Check if the calling thread is currently draining this mailbox
+     * @return true if called by the consumer
+     */
+    public boolean isConsumerThread() {
+        return Thread.currentThread() == drainer;
+    }
+
+/*------------------------------------------------------PRIVATE------------------------------------------------------*/
+
+    /**
+     * Submit a drain unless one is pending or running (the running one checks for new items before it ends)
+     */
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) drainers.execute(this::drain);
+    }
+
+    private void drain() {
+        drainer = Thread.currentThread();
+        int handled = 0;
+        while (handled < BATCH) {
+            Node<T> next = head.next;
+            if (next == null) {
+                if (tail.get() == head) break;
+                Thread.onSpinWait();        // a producer swapped the tail but did not link its node yet
+                continue;
+            }
+            head = next;
+            T item = next.item;
+            next.item = null;
+            handled++;
+            try {
+                consumer.accept(item);
+            } catch (RuntimeException e) {
+                Logger.getLogger(Mailbox.class.getName()).log(Level.SEVERE, "consumer of " + name + " failed", e);
+            }
+        }
+        Node<T> last = head;
+        drainer = null;
+        scheduled.set(false);
+        // items posted while this drain ran found it scheduled and did not submit one
+        if (tail.get() != last) schedule();
+    }
+
+    private static class Node<T> {
+        private T item;
+        private volatile Node<T> next;
+
+        Node(T item) {
+            this.item = item;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package Concurrency;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * State of a session with an explicit set of allowed transitions
+ *
+ * The state is changed by compare-and-set, so threads (GUI and message consumer) can move it without a common lock;
+ * a transition that is not allowed from the current state is refused and reported to the caller.
+ * @param <S> enum of the states
+ */
+public final class StateMachine<S extends Enum<S>> {
+    private final boolean[][] allowed;
+    private final AtomicReference<S> state;
+
+    /**
+     * Create a state machine without any allowed transition
+     * @param initial initial state
+     */
+    public StateMachine(S initial) {
+        int states = initial.getDeclaringClass().getEnumConstants().length;
+        allowed = new boolean[states][states];
+        state = new AtomicReference<>(initial);
+    }
+
+    /**
+     * Allow transitions (while setting up the machine)
+     * @param from source state
+     * @param to target states
+     * @return this state machine
+     */
+    @SafeVarargs
+    public final StateMachine<S> allow(S from, S... to) {
+        for (S target : to) allowed[from.ordinal()][target.ordinal()] = true;
+        return this;
+    }
+
+    /**
+     * Get the current state
+     * @return state
+     */
+    public S get() {
+        return state.get();
+    }
+
+    /**
+     * Check the current state
+     * @param expected state to compare with
+     * @return true if the machine is in the state
+     */
+    public boolean is(S expected) {
+        return state.get() == expected;
+    }
+
+    /**
+     * Move from a given state
+     * @param from expected current state
+     * @param to new state
+     * @return false if the machine is in another state or the transition is not allowed
+     */
+    public boolean move(S from, S to) {
+        return allowed[from.ordinal()][to.ordinal()] && state.compareAndSet(from, to);
+    }
+
+    /**
+     * Move from whatever the current state is
+     * @param to new state
+     * @return previous state, null if the transition from it is not allowed
+     */
+    public S moveTo(S to) {
+        while (true) {
+            S current = state.get();
+            if (!allowed[current.ordinal()][to.ordinal()]) return null;
+            if (state.compareAndSet(current, to)) return current;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return state.get().name();
+    }
+}
@@ -0,0 +1,98 @@
+package Concurrency;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Creates the background threads of host and client (I/O loops, receivers, handshakes, display timers)
+ *
+ * Execution mode is selected by the system property "therapiststoolbox.threads" ("virtual" or "platform").
+ * Without the property virtual threads are used whenever the running JDK supports them.
+ * Virtual threads are looked up reflectively, so the code still compiles and runs on older JDKs.
+ */
+public final class TaskRunner {
+    public static final String MODE_PROPERTY = "therapiststoolbox.threads";
+
+    private static final Mode mode;
+    private static final ThreadFactory virtualFactory;
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    static {
+        Logger logger = Logger.getLogger(TaskRunner.class.getName());
+        ThreadFactory factory = null;
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Object builder = ofVirtual.invoke(null);
+            Method toFactory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            factory = (ThreadFactory) toFactory.invoke(builder);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            logger.info("virtual threads not supported by this JDK");
+        }
+        virtualFactory = factory;
+
+        String requested = System.getProperty(MODE_PROPERTY);
+        if ("platform".equalsIgnoreCase(requested) || virtualFactory == null) {
+            if ("virtual".equalsIgnoreCase(requested)) logger.warning("virtual threads requested but not supported, using platform threads");
+            mode = Mode.Platform;
+        } else {
+            mode = Mode.Virtual;
+        }
+        logger.info("thread mode: " + mode.name());
+    }
+
+    private TaskRunner() {
+    }
+
+    /**
+     * Start a task on a new (virtual or daemon platform) thread
+     * @param name thread name prefix (for logs and debugging)
+     * @param task task to run
+     * @return started thread
+     */
+    public static Thread start(String name, Runnable task) {
+        Thread thread = newThread(name, task);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Create an unstarted (virtual or daemon platform) thread
+     * @param name thread name prefix (for logs and debugging)
+     * @param task task to run
+     * @return unstarted thread
+     */
+    public static Thread newThread(String name, Runnable task) {
+        Thread thread;
+        if (mode == Mode.Virtual) {
+            thread = virtualFactory.newThread(task);
+        } else {
+            thread = new Thread(task);
+            thread.setDaemon(true);
+        }
+        thread.setName(name + "-" + counter.incrementAndGet());
+        return thread;
+    }
+
+    /**
+     * Get the current execution mode
+     * @return execution mode
+     */
+    public static Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Check if the running JDK supports virtual threads
+     * @return true if supported
+     */
+    public static boolean virtualThreadsSupported() {
+        return virtualFactory != null;
+    }
+
+    /**
+     * Thread kind used for background tasks
+     */
+    public enum Mode {Platform, Virtual}
+}
@@ -0,0 +1,110 @@
+package ConnectionLayer;
+
+/**
+ * NTP style estimation of the offset between the local and a remote SyncClock
+ * Every probe round trip yields offset = ((t2 - t1) + (t3 - t4)) / 2 and delay = (t4 - t1) - (t3 - t2).
+ * The sample with the lowest delay among the last SAMPLES is taken as the estimate (least queueing),
+ * jitter is the RMS difference of the other offsets to it.
+ */
+public class ClockEstimator {
+    /**
+     * Number of samples kept
+     */
+    public static final int SAMPLES = 8;
+
+    private static final long MIN_LEAD = 20_000_000L;   // 20ms
+
+    private final long[] offsets = new long[SAMPLES];
+    private final long[] delays = new long[SAMPLES];
+    private int count = 0;
+    private int next = 0;
+
+    private long offset = 0;
+    private long delay = 0;
+    private long jitter = 0;
+
+    /**
+     * Add a probe round trip
+     * @param t1 local send time of the probe
+     * @param t2 remote receive time of the probe
+     * @param t3 remote send time of the reply
+     * @param t4 local receive time of the reply
+     */
+    public synchronized void addSample(long t1, long t2, long t3, long t4) {
+        offsets[next] = ((t2 - t1) + (t3 - t4)) / 2;
+        delays[next] = Math.max(0, (t4 - t1) - (t3 - t2));
+        next = (next + 1) % SAMPLES;
+        if (count < SAMPLES) count++;
+
+        int best = 0;
+        for (int i = 1; i < count; i++) {
+            if (delays[i] < delays[best]) best = i;
+        }
+        offset = offsets[best];
+        delay = delays[best];
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            double diff = offsets[i] - offset;
+            sum += diff * diff;
+        }
+        jitter = count > 1 ? (long) Math.sqrt(sum / (count - 1)) : 0;
+    }
+
+    /**
+     * Check if at least one sample was taken
+     * @return true if estimates are available
+     */
+    public synchronized boolean isSynchronized() {
+        return count > 0;
+    }
+
+    /**
+     * Get number of samples in the estimation window
+     * @return sample count (at most SAMPLES)
+     */
+    public synchronized int getSampleCount() {
+        return count;
+    }
+
+    /**
+     * Get the estimated offset (remote clock minus local clock)
+     * @return offset (in nanoseconds)
+     */
+    public synchronized long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Get the round trip delay of the selected sample
+     * @return delay (in nanoseconds)
+     */
+    public synchronized long getDelay() {
+        return delay;
+    }
+
+    /**
+     * Get the jitter of the offset samples
+     * @return jitter (in nanoseconds)
+     */
+    public synchronized long getJitter() {
+        return jitter;
+    }
+
+    /**
+     * Convert local clock time into remote clock time
+     * @param localTime local SyncClock time
+     * @return remote SyncClock time
+     */
+    public synchronized long toRemote(long localTime) {
+        return localTime + offset;
+    }
+
+    /**
+     * Get how far in the future an event has to be scheduled so a message announcing it arrives in time
+     * one-way delay plus four times the jitter, at least 20ms
+     * @return lead time (in nanoseconds)
+     */
+    public synchronized long suggestedLead() {
+        return Math.max(MIN_LEAD, delay / 2 + 4 * jitter + MIN_LEAD / 2);
+    }
+}
@@ -0,0 +1,84 @@
+package ConnectionLayer;
+
+import Protocol.MCPing;
+import Protocol.MCPong;
+
+/**
+ * Heartbeat of a connection (host side)
+ *
+ * The host pings every established connection each interval, the pongs give the round trip times; a connection that
+ * missed the configured number of beats in a row is dead. The client sets its read timeout from the interval sent in
+ * the pings, so both sides notice a vanished partner.
+ *
+ * Interval and missed beats are configured by the system properties "therapiststoolbox.heartbeat" (milliseconds)
+ * and "therapiststoolbox.heartbeat.missed".
+ */
+public class Heartbeat {
+    public static final String INTERVAL_PROPERTY = "therapiststoolbox.heartbeat";
+    public static final String MISSED_PROPERTY = "therapiststoolbox.heartbeat.missed";
+    public static final int DEFAULT_INTERVAL_MS = 1000;
+    public static final int DEFAULT_MISSED = 3;
+
+    private static final int interval = Math.max(100, Integer.getInteger(INTERVAL_PROPERTY, DEFAULT_INTERVAL_MS));
+    private static final int missedLimit = Math.max(1, Integer.getInteger(MISSED_PROPERTY, DEFAULT_MISSED));
+
+    private final RttStats rtt = new RttStats();
+    private int sequence = 0;
+    private int missed = 0;     // pings sent since the last pong
+
+    /**
+     * Get the configured heartbeat interval
+     * @return interval (in milliseconds)
+     */
+    public static int getInterval() {
+        return interval;
+    }
+
+    /**
+     * Get the configured number of beats a partner may miss in a row
+     * @return missed beats limit
+     */
+    public static int getMissedLimit() {
+        return missedLimit;
+    }
+
+    /**
+     * Create the next ping
+     * @param now host clock (see SyncClock)
+     * @return ping to send
+     */
+    public synchronized MCPing ping(long now) {
+        missed++;
+        return new MCPing(++sequence, now, interval);
+    }
+
+    /**
+     * Account a received pong
+     * @param pong received pong
+     * @param receiveTime host clock when the pong was read
+     * @return round trip time (in nanoseconds), -1 if the pong answers no ping of this heartbeat
+     */
+    public synchronized long pong(MCPong pong, long receiveTime) {
+        if (pong.getSequence() > sequence || pong.getSequence() <= sequence - missed) return -1;
+        missed = 0;
+        long roundTrip = receiveTime - pong.getHostSendTime();
+        rtt.add(roundTrip);
+        return roundTrip;
+    }
+
+    /**
+     * Check if the partner missed too many beats
+     * @return true if the last missedLimit pings were not answered
+     */
+    public synchronized boolean isDead() {
+        return missed >= missedLimit;
+    }
+
+    /**
+     * Get the round trip statistics
+     * @return rolling statistics of the pong round trips
+     */
+    public RttStats getRtt() {
+        return rtt;
+    }
+}
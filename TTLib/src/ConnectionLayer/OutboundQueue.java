@@ -0,0 +1,349 @@
+package ConnectionLayer;
+
+import Protocol.BinaryMessageCodec;
+import Protocol.Message;
+import Protocol.ProtocolTrace;
+import Protocol.WireBuffer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Bounded queue of encoded frames waiting to be written to a connection
+ *
+ * Senders only encode the message and append the frame, they never touch the socket; the writer of the connection
+ * (the selector thread on the host, a writer thread on the client) is woken when the queue turns non-empty and writes
+ * everything queued until then with one call, so bursts of small messages are coalesced.
+ * The queue holds at most a byte limit: above the high watermark the connection counts as congested (senders of
+ * optional data should back off), below the low watermark it is free again, messages beyond the limit are rejected.
+ */
+public final class OutboundQueue {
+    /**
+     * Most frames written by one gathering write
+     */
+    private static final int MAX_GATHER = 64;
+    /**
+     * Most bytes coalesced into one stream write
+     */
+    private static final int MAX_COALESCE = 64 * 1024;
+
+    private final int limit;
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final int traceSession;
+    private final Runnable wakeup;
+    private final Listener listener;
+
+    private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+    private final WireBuffer encodeBuffer = new WireBuffer(256);
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private byte[] coalesceBuffer = null;
+    private long queuedBytes = 0;
+    private boolean congested = false;
+
+    // metrics
+    private int maxDepth = 0;
+    private long sentMessages = 0;
+    private long writes = 0;
+    private long rejected = 0;
+    private long latencySum = 0;
+    private long maxLatency = 0;
+
+    /**
+     * Listener for the congestion state of a queue
+     */
+    public interface Listener {
+        /**
+         * Queued bytes crossed the high (congested) or low (free) watermark
+         * Called on the thread that crossed it, without holding the queue lock.
+         * @param congested true if the queue is congested now
+         */
+        void congestionChanged(boolean congested);
+    }
+
+    /**
+     * Create an empty queue
+     * @param limit maximum queued bytes (high watermark is half of it, low watermark a quarter)
+     * @param traceSession session number recorded in the protocol trace
+     * @param wakeup called when the queue turns non-empty, must make the writer write (and must not block)
+     * @param listener notified about congestion changes, may be null
+     */
+    public OutboundQueue(int limit, int traceSession, Runnable wakeup, Listener listener) {
+        this.limit = limit;
+        this.highWatermark = limit / 2;
+        this.lowWatermark = limit / 4;
+        this.traceSession = traceSession;
+        this.wakeup = wakeup;
+        this.listener = listener;
+    }
+
+    /**
+     * Encode a message and append it
+     * [non-blocking]
+     * @param msg message to send
+     * @return false if the message was rejected because the queue is full
+     */
+    public boolean add(Message msg) {
+        boolean wasEmpty;
+        boolean becameCongested = false;
+        synchronized (this) {
+            encodeBuffer.clear();
+            encodeBuffer.putInt(0);   // length placeholder
+            BinaryMessageCodec.encode(msg, encodeBuffer);
+            int size = encodeBuffer.position();
+            if (queuedBytes + size > limit && !frames.isEmpty()) {
+                rejected++;
+                return false;
+            }
+            encodeBuffer.putInt(0, size - 4);
+            ProtocolTrace.record(ProtocolTrace.SENT, msg.getType(), size - 4, traceSession);
+            ByteBuffer frame = ByteBuffer.allocate(size);
+            frame.put(encodeBuffer.array(), 0, size).flip();
+
+            wasEmpty = frames.isEmpty();
+            frames.add(new Frame(frame, System.nanoTime()));
+            queuedBytes += size;
+            maxDepth = Math.max(maxDepth, frames.size());
+            if (!congested && queuedBytes >= highWatermark) {
+                congested = true;
+                becameCongested = true;
+            }
+        }
+        if (becameCongested && listener != null) listener.congestionChanged(true);
+        if (wasEmpty) wakeup.run();
+        return true;
+    }
+
+    /**
+     * Write queued frames to a non-blocking channel with one gathering write
+     * @param channel target channel
+     * @return true if the queue is empty afterwards
+     * @throws IOException thrown by the channel
+     */
+    public boolean write(GatheringByteChannel channel) throws IOException {
+        boolean empty;
+        boolean becameFree;
+        synchronized (this) {
+            while (true) {
+                int count = 0;
+                for (Frame frame : frames) {
+                    if (count == MAX_GATHER) break;
+                    gather[count++] = frame.data;
+                }
+                if (count == 0) break;
+                long written = channel.write(gather, 0, count);
+                writes++;
+                Arrays.fill(gather, 0, count, null);
+                long sent = completeWritten(System.nanoTime());
+                // socket buffer full, or nothing left
+                if (written == 0 || sent < count || frames.isEmpty()) break;
+            }
+            empty = frames.isEmpty();
+            becameFree = checkFree();
+        }
+        if (becameFree && listener != null) listener.congestionChanged(false);
+        return empty;
+    }
+
+    /**
+     * Write all queued frames to a blocking stream, coalescing them into as few writes as possible
+     * Only one thread may write at a time; the queue lock is not held while writing, so senders never wait for the
+     * stream.
+     * @param out target stream
+     * @throws IOException thrown by the stream
+     */
+    public void write(OutputStream out) throws IOException {
+        while (true) {
+            int length = 0;
+            synchronized (this) {
+                if (frames.isEmpty()) return;
+                if (coalesceBuffer == null) coalesceBuffer = new byte[MAX_COALESCE];
+                for (Frame frame : frames) {
+                    int size = frame.data.remaining();
+                    if (length > 0 && length + size > coalesceBuffer.length) break;
+                    if (size > coalesceBuffer.length) coalesceBuffer = new byte[size];
+                    frame.data.get(coalesceBuffer, length, size);
+                    length += size;
+                }
+            }
+            out.write(coalesceBuffer, 0, length);
+            out.flush();
+            boolean becameFree;
+            synchronized (this) {
+                writes++;
+                completeWritten(System.nanoTime());
+                becameFree = checkFree();
+            }
+            if (becameFree && listener != null) listener.congestionChanged(false);
+        }
+    }
+
+    /**
+     * Check if frames are waiting
+     * @return true if the queue is empty
+     */
+    public synchronized boolean isEmpty() {
+        return frames.isEmpty();
+    }
+
+    /**
+     * Check if the queue is above its high watermark (and did not drain below the low watermark since)
+     * @return true if congested
+     */
+    public synchronized boolean isCongested() {
+        return congested;
+    }
+
+    /**
+     * Drop all queued frames (connection lost)
+     */
+    public synchronized void clear() {
+        frames.clear();
+        queuedBytes = 0;
+        congested = false;
+    }
+
+    /**
+     * Get a snapshot of the queue metrics
+     * @return metrics
+     */
+    public synchronized Metrics getMetrics() {
+        return new Metrics(frames.size(), queuedBytes, maxDepth, sentMessages, writes, rejected,
+                sentMessages == 0 ? 0 : latencySum / sentMessages, maxLatency);
+    }
+
+    /**
+     * Queue metrics
+     */
+    public static class Metrics {
+        private final int depth;
+        private final long queuedBytes;
+        private final int maxDepth;
+        private final long sentMessages;
+        private final long writes;
+        private final long rejected;
+        private final long avgFlushLatency;
+        private final long maxFlushLatency;
+
+        public Metrics(int depth, long queuedBytes, int maxDepth, long sentMessages, long writes, long rejected,
+                       long avgFlushLatency, long maxFlushLatency) {
+            this.depth = depth;
+            this.queuedBytes = queuedBytes;
+            this.maxDepth = maxDepth;
+            this.sentMessages = sentMessages;
+            this.writes = writes;
+            this.rejected = rejected;
+            this.avgFlushLatency = avgFlushLatency;
+            this.maxFlushLatency = maxFlushLatency;
+        }
+
+        /**
+         * Get the number of queued messages
+         * @return queue depth
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        public long getQueuedBytes() {
+            return queuedBytes;
+        }
+
+        /**
+         * Get the highest queue depth so far
+         * @return maximum depth
+         */
+        public int getMaxDepth() {
+            return maxDepth;
+        }
+
+        public long getSentMessages() {
+            return sentMessages;
+        }
+
+        /**
+         * Get the number of write calls (fewer than sent messages if writes were coalesced)
+         * @return write calls
+         */
+        public long getWrites() {
+            return writes;
+        }
+
+        /**
+         * Get the number of messages rejected because the queue was full
+         * @return rejected messages
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * Get the average time from queueing a message until it was completely written
+         * @return average flush latency in nanoseconds
+         */
+        public long getAvgFlushLatency() {
+            return avgFlushLatency;
+        }
+
+        /**
+         * Get the longest time from queueing a message until it was completely written
+         * @return maximum flush latency in nanoseconds
+         */
+        public long getMaxFlushLatency() {
+            return maxFlushLatency;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("depth %d (%d B, max %d), sent %d in %d writes, rejected %d, flush latency avg %dus max %dus",
+                    depth, queuedBytes, maxDepth, sentMessages, writes, rejected, avgFlushLatency / 1000, maxFlushLatency / 1000);
+        }
+    }
+
+/*------------------------------------------------------PRIVATE------------------------------------------------------*/
+
+    /**
+     * Remove the completely written frames from the head and account their latency (holding the lock)
+     * @param now write completion time
+     * @return number of removed frames
+     */
+    private long completeWritten(long now) {
+        long count = 0;
+        while (!frames.isEmpty() && !frames.peek().data.hasRemaining()) {
+            Frame frame = frames.poll();
+            queuedBytes -= frame.data.capacity();
+            long latency = now - frame.queued;
+            latencySum += latency;
+            maxLatency = Math.max(maxLatency, latency);
+            sentMessages++;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Leave the congested state below the low watermark (holding the lock)
+     * @return true if the state changed
+     */
+    private boolean checkFree() {
+        if (congested && queuedBytes <= lowWatermark) {
+            congested = false;
+            return true;
+        }
+        return false;
+    }
+
+    private static class Frame {
+        private final ByteBuffer data;
+        private final long queued;
+
+        Frame(ByteBuffer data, long queued) {
+            this.data = data;
+            this.queued = queued;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package ConnectionLayer;
+
+import java.util.Arrays;
+
+/**
+ * Rolling round trip time statistics of a connection
+ * Keeps the last WINDOW samples; minimum, average and 99th percentile refer to this window.
+ */
+public class RttStats {
+    /**
+     * Number of samples the statistics are computed over
+     */
+    public static final int WINDOW = 128;
+
+    private final long[] samples = new long[WINDOW];
+    private int count = 0;
+    private int next = 0;
+    private long sum = 0;
+    private long last = 0;
+
+    /**
+     * Add a round trip measurement
+     * @param rtt round trip time (in nanoseconds)
+     */
+    public synchronized void add(long rtt) {
+        if (rtt < 0) return;
+        if (count == WINDOW) {
+            sum -= samples[next];
+        } else {
+            count++;
+        }
+        samples[next] = rtt;
+        sum += rtt;
+        last = rtt;
+        next = (next + 1) % WINDOW;
+    }
+
+    /**
+     * Get number of samples in the window
+     * @return sample count (at most WINDOW)
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * Get the latest round trip time
+     * @return last sample (in nanoseconds), 0 without samples
+     */
+    public synchronized long getLast() {
+        return last;
+    }
+
+    /**
+     * Get the smallest round trip time of the window
+     * @return minimum (in nanoseconds), 0 without samples
+     */
+    public synchronized long getMin() {
+        long min = count == 0 ? 0 : Long.MAX_VALUE;
+        for (int i = 0; i < count; i++) min = Math.min(min, samples[i]);
+        return min;
+    }
+
+    /**
+     * Get the average round trip time of the window
+     * @return average (in nanoseconds), 0 without samples
+     */
+    public synchronized long getAvg() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * Get the 99th percentile of the round trip times of the window (nearest rank)
+     * @return 99th percentile (in nanoseconds), 0 without samples
+     */
+    public synchronized long getP99() {
+        if (count == 0) return 0;
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(0.99 * count);
+        return sorted[rank - 1];
+    }
+
+    @Override
+    public String toString() {
+        return String.format("rtt min %.2fms avg %.2fms p99 %.2fms (%d samples)", getMin() / 1e6, getAvg() / 1e6, getP99() / 1e6, getCount());
+    }
+}
@@ -0,0 +1,46 @@
+package ConnectionLayer;
+
+import java.time.Instant;
+
+/**
+ * Clock used for host/client time synchronization
+ * Nanoseconds since the epoch, derived from System.nanoTime (monotonic, high resolution) and anchored to the wall clock
+ * once, so the offset between host and client is small and meaningful to display.
+ */
+public final class SyncClock {
+    private static final long base;
+
+    static {
+        Instant wall = Instant.now();
+        base = wall.getEpochSecond() * 1_000_000_000L + wall.getNano() - System.nanoTime();
+    }
+
+    private SyncClock() {
+    }
+
+    /**
+     * Get current time
+     * @return nanoseconds since the epoch
+     */
+    public static long now() {
+        return base + System.nanoTime();
+    }
+
+    /**
+     * Convert a clock time into the System.nanoTime time base (e.g. for DeadlineTimer)
+     * @param time clock time (nanoseconds since the epoch)
+     * @return corresponding System.nanoTime value
+     */
+    public static long toNanoTime(long time) {
+        return time - base;
+    }
+
+    /**
+     * Convert a System.nanoTime value into clock time
+     * @param nanoTime System.nanoTime value
+     * @return corresponding clock time (nanoseconds since the epoch)
+     */
+    public static long fromNanoTime(long nanoTime) {
+        return nanoTime + base;
+    }
+}
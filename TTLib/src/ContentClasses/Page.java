@@ -5,4 +5,20 @@ import java.io.Serializable;
 
 public interface Page extends Serializable {
     JPanel createPanel();
+
+    /**
+     * Get the pictures shown on this page
+     * @return content hashes (SHA-256, hex) of the pictures in the picture storage
+     */
+    default String[] getPictureHashes() {
+        return new String[0];
+    }
+
+    /**
+     * Get the text shown on this page (for the search index)
+     * @return texts of the page
+     */
+    default String[] getSearchTexts() {
+        return new String[0];
+    }
 }
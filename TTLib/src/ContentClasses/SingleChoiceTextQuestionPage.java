@@ -5,6 +5,7 @@ import ContentPanes.WorkSheets.SingleChoiceTextQuestionPane;
 import javax.swing.*;
 
 public class SingleChoiceTextQuestionPage implements Page {
+    private static final long serialVersionUID = 4148767720702036036L;      // as before getSearchTexts, for stored pages
 
     private final String question;
     private final String text; // TODO allow format
@@ -51,6 +52,15 @@ public class SingleChoiceTextQuestionPage implements Page {
         return answers.length;
     }
 
+    @Override
+    public String[] getSearchTexts() {
+        String[] texts = new String[answers.length + 2];
+        texts[0] = question;
+        texts[1] = text;
+        System.arraycopy(answers, 0, texts, 2, answers.length);
+        return texts;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder("SCTQ(");
@@ -0,0 +1,98 @@
+package ContentPanes.Games;
+
+import Protocol.GameContentCodec;
+import Protocol.MCGameReply;
+import Protocol.MCGameTransmit;
+import Protocol.ProtocolViolationException;
+import Protocol.WireBuffer;
+
+/**
+ * Binary codec for the FastRead game contents
+ * Transmit: kind (1 Byte) | kind specific payload
+ *   display: token (String) | millis (4 Byte)
+ *   preload: reset (1 Byte) | count (4 Byte) | count * (id (4 Byte) | token (String))
+ *   show: id (4 Byte) | millis (4 Byte) | show at (8 Byte, client clock, 0: on arrival)
+ * Reply: id (4 Byte) | achieved exposure (4 Byte, microseconds) | exposure error (4 Byte, microseconds)
+ */
+public class FastReadCodec implements GameContentCodec {
+    private static final byte KIND_DISPLAY = 0;
+    private static final byte KIND_PRELOAD = 1;
+    private static final byte KIND_SHOW = 2;
+
+    @Override
+    public int getGameID() {
+        return GTCFastRead.gameID;
+    }
+
+    @Override
+    public void encodeTransmit(MCGameTransmit.GTContent content, WireBuffer buffer) {
+        if (content instanceof GTCFastReadPreload) {
+            GTCFastReadPreload tmp = (GTCFastReadPreload) content;
+            buffer.putByte(KIND_PRELOAD);
+            buffer.putByte((byte) (tmp.isReset() ? 1 : 0));
+            buffer.putInt(tmp.getIds().length);
+            for (int i = 0; i < tmp.getIds().length; i++) {
+                buffer.putInt(tmp.getIds()[i]);
+                buffer.putString(tmp.getTokens()[i]);
+            }
+        } else if (content instanceof GTCFastReadShow) {
+            GTCFastReadShow tmp = (GTCFastReadShow) content;
+            buffer.putByte(KIND_SHOW);
+            buffer.putInt(tmp.getId());
+            buffer.putInt(tmp.getMillis());
+            buffer.putLong(tmp.getShowAt());
+        } else {
+            GTCFastRead tmp = (GTCFastRead) content;
+            buffer.putByte(KIND_DISPLAY);
+            buffer.putString(tmp.getToken());
+            buffer.putInt(tmp.getMillis());
+        }
+    }
+
+    @Override
+    public MCGameTransmit.GTContent decodeTransmit(WireBuffer buffer) throws ProtocolViolationException {
+        byte kind = buffer.getByte();
+        switch (kind) {
+            case KIND_DISPLAY -> {
+                String token = buffer.getString();
+                int millis = buffer.getInt();
+                return new GTCFastRead(token, millis);
+            }
+            case KIND_PRELOAD -> {
+                boolean reset = buffer.getByte() != 0;
+                int count = buffer.getInt();
+                if (count < 0 || count > GTCFastReadPreload.WINDOW) throw new ProtocolViolationException("bad preload count (" + count + ")");
+                int[] ids = new int[count];
+                String[] tokens = new String[count];
+                for (int i = 0; i < count; i++) {
+                    ids[i] = buffer.getInt();
+                    tokens[i] = buffer.getString();
+                }
+                return new GTCFastReadPreload(reset, ids, tokens);
+            }
+            case KIND_SHOW -> {
+                int id = buffer.getInt();
+                int millis = buffer.getInt();
+                long showAt = buffer.getLong();
+                return new GTCFastReadShow(id, millis, showAt);
+            }
+            default -> throw new ProtocolViolationException("unknown FastRead transmit kind " + kind);
+        }
+    }
+
+    @Override
+    public void encodeReply(MCGameReply.GRContent content, WireBuffer buffer) {
+        GRCFastRead tmp = (GRCFastRead) content;
+        buffer.putInt(tmp.getId());
+        buffer.putInt(tmp.getAchievedMicros());
+        buffer.putInt(tmp.getErrorMicros());
+    }
+
+    @Override
+    public MCGameReply.GRContent decodeReply(WireBuffer buffer) throws ProtocolViolationException {
+        int id = buffer.getInt();
+        int achievedMicros = buffer.getInt();
+        int errorMicros = buffer.getInt();
+        return new GRCFastRead(id, achievedMicros, errorMicros);
+    }
+}
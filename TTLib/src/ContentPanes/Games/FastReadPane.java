@@ -1,5 +1,8 @@
 package ContentPanes.Games;
 
+import Concurrency.DeadlineTimer;
+import Concurrency.TaskRunner;
+import ConnectionLayer.SyncClock;
 import Resources.Fonts.FontLoader;
 
 import javax.swing.*;
@@ -9,11 +12,38 @@ import java.awt.event.ComponentEvent;
 import java.awt.font.FontRenderContext;
 import java.awt.font.TextLayout;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class FastReadPane extends GamePanel {
 
     private final boolean previewMode;
     private String token = null;
+    private final FontFitter fontFitter = new FontFitter(12);
+
+    // pre-rendered token bitmaps, the pane only blits them
+    private volatile Image tokenImage = null;
+    private volatile Image previewImage = null;
+    private Image shownImage = null;
+
+    // pipelined tokens (see GTCFastReadPreload), guarded by preloadLock
+    private final Object preloadLock = new Object();
+    private final Map<Integer, String> preloaded = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+            return size() > GTCFastReadPreload.WINDOW;
+        }
+    };
+    private final Map<Integer, Image[]> prerendered = new HashMap<>();
+
+    // display timing (EDT only)
+    private long displayGeneration = 0;
+    private long hideLatency = 0;
+    private volatile long showLatency = 0;
+    private DisplayFinishedCallback pendingCallback = null;  // display still on screen
+    private long pendingShownAt = 0;
 
     public static void main(String[] args) throws InterruptedException {
         JFrame window = new JFrame();
@@ -22,7 +52,7 @@ public class FastReadPane extends GamePanel {
         window.setVisible(true);
 
         Thread.sleep(2000);
-        panel.setText("This is far longer");
+        panel.setToken("This is far longer");
     }
 
     public FastReadPane(/*GameControllerCreator.GameController controller*/boolean previewMode) {
@@ -34,8 +64,13 @@ public class FastReadPane extends GamePanel {
         addComponentListener(new ComponentAdapter() {
             @Override
             public void componentResized(ComponentEvent e) {
-                Font old = textLabel.getFont();
-                textLabel.setFont(new Font(old.getName(), old.getStyle(), getMaxFontSize(textLabel.getText())));
+                boolean shown = shownImage != null && shownImage == tokenImage;
+                synchronized (preloadLock) {
+                    prerendered.clear();
+                }
+                renderToken();
+                if (shownImage != null) shownImage = shown ? tokenImage : previewImage;
+                repaint();
             }
         });
 
@@ -43,77 +78,201 @@ public class FastReadPane extends GamePanel {
         this.add(panel1, BorderLayout.CENTER);
     }
 
+    /**
+     * Set the token shown by the next display
+     * The token is fitted and rasterized here (may be called off the EDT), so display only has to blit a bitmap.
+     * @param token token to display
+     */
     public void setToken(String token) {
         this.token = token;
+        renderToken();
         if (previewMode) {
-            textLabel.setForeground(Color.GRAY);
-            setText(token);
+            SwingUtilities.invokeLater(() -> {
+                shownImage = previewImage;
+                repaint();
+            });
+        }
+    }
+
+    /**
+     * Store and rasterize a token for a later select(id)
+     * Only the last GTCFastReadPreload.WINDOW tokens are kept (first in, first out).
+     * @param id token id
+     * @param token token
+     */
+    public void preload(int id, String token) {
+        Image[] images = render(token);
+        synchronized (preloadLock) {
+            preloaded.put(id, token);
+            prerendered.put(id, images);
+            prerendered.keySet().retainAll(preloaded.keySet());
+        }
+    }
+
+    /**
+     * Drop all preloaded tokens
+     */
+    public void clearPreloaded() {
+        synchronized (preloadLock) {
+            preloaded.clear();
+            prerendered.clear();
         }
     }
 
+    /**
+     * Make a preloaded token the token shown by the next display
+     * @param id token id
+     * @return false if the id is not preloaded
+     */
+    public boolean select(int id) {
+        String token;
+        Image[] images;
+        synchronized (preloadLock) {
+            token = preloaded.get(id);
+            if (token == null) return false;
+            images = prerendered.get(id);
+        }
+        if (images == null) images = render(token); // dropped by a resize
+        this.token = token;
+        tokenImage = images[0];
+        previewImage = images[1];
+        return true;
+    }
+
+    /**
+     * Show the token for the given duration and hide it afterwards
+     * Show and hide are painted synchronously and flushed to the screen (Toolkit.sync),
+     * the hide is triggered by a nanoTime deadline that is advanced by the measured hide latency.
+     * Must be called on the EDT.
+     * @param millis requested exposure (in milliseconds)
+     * @param callback notified with the achieved exposure (not called in preview mode)
+     */
     public void display(int millis, DisplayFinishedCallback callback) {
-        textLabel.setForeground(Color.BLACK);
-        setText(token);
-        new SwingWorker<>() {
-            @Override
-            protected Object doInBackground() throws Exception {
-                Thread.sleep(millis);
-                return null;
+        show(tokenImage, previewImage, millis, callback);
+    }
+
+    /**
+     * Show the token at the given clock time for the given duration and hide it afterwards
+     * The wake-up is advanced by the measured show latency, so the token reaches the screen at the given time.
+     * The images of the current token are taken now, a later select(id) does not change what this display shows.
+     * May be called from any thread.
+     * @param showAt clock time to show the token at (see SyncClock)
+     * @param millis requested exposure (in milliseconds)
+     * @param callback notified with the achieved exposure (not called in preview mode)
+     */
+    public void displayAt(long showAt, int millis, DisplayFinishedCallback callback) {
+        long deadline = SyncClock.toNanoTime(showAt);
+        Image image = tokenImage;
+        Image preview = previewImage;
+        TaskRunner.start("FastRead-Timer", () -> {
+            long wokeAt;
+            try {
+                wokeAt = DeadlineTimer.waitUntil(deadline - showLatency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                wokeAt = System.nanoTime();
             }
-            @Override
-            protected void done() {
-                if (previewMode) {
-                    textLabel.setForeground(Color.GRAY);
-                } else {
-                    setText("");
-                    callback.displayFinished();
-                }
+            long finalWokeAt = wokeAt;
+            SwingUtilities.invokeLater(() -> {
+                long shownAt = show(image, preview, millis, callback);
+                showLatency += (shownAt - finalWokeAt - showLatency) / 4;
+            });
+        });
+    }
+
+    /**
+     * Show a token now and start the hide timer (EDT)
+     * @param image rendered token
+     * @param preview preview image shown after the hide (preview mode)
+     * @param millis requested exposure (in milliseconds)
+     * @param callback notified with the achieved exposure (not called in preview mode)
+     * @return time (System.nanoTime) at which the token was handed to the screen
+     */
+    private long show(Image image, Image preview, int millis, DisplayFinishedCallback callback) {
+        long requested = millis * 1_000_000L;
+        long generation = ++displayGeneration;
+        shownImage = image;
+        long shownAt = present();
+        // a display scheduled back to back ends with this show, report it
+        if (pendingCallback != null) pendingCallback.displayFinished(shownAt - pendingShownAt);
+        pendingCallback = previewMode ? null : callback;
+        pendingShownAt = shownAt;
+        long deadline = shownAt + requested - Math.min(hideLatency, requested);
+        TaskRunner.start("FastRead-Timer", () -> {
+            long wokeAt;
+            try {
+                wokeAt = DeadlineTimer.waitUntil(deadline);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                wokeAt = System.nanoTime();
             }
-        }.execute();
+            long finalWokeAt = wokeAt;
+            SwingUtilities.invokeLater(() -> {
+                if (generation != displayGeneration) return;  // superseded by a newer display
+                shownImage = previewMode ? preview : null;
+                long hiddenAt = present();
+                hideLatency += (hiddenAt - finalWokeAt - hideLatency) / 4;
+                pendingCallback = null;
+                if (!previewMode) callback.displayFinished(hiddenAt - shownAt);
+            });
+        });
+        return shownAt;
     }
 
+    @Override
+    public void paint(Graphics g) {
+        super.paint(g);
+        Image image = shownImage;
+        if (image != null) {
+            g.drawImage(image, (getWidth() - image.getWidth(null)) / 2, (getHeight() - image.getHeight(null)) / 2, null);
+        }
+    }
 
+    /**
+     * Paint the pane immediately and flush the graphics pipeline
+     * @return time (System.nanoTime) at which the frame was handed to the screen
+     */
+    private long present() {
+        paintImmediately(0, 0, getWidth(), getHeight());
+        Toolkit.getDefaultToolkit().sync();
+        return System.nanoTime();
+    }
 
+    private void renderToken() {
+        Image[] images = render(token);
+        tokenImage = images[0];
+        previewImage = images[1];
+    }
 
-    private void setText(String text) {
-        textLabel.setVisible(false);
-        if (text != null && text.length() > 0 && text.charAt(0) == 'W') {
-            textLabel.setText(" " + text + " ");
-        } else {
-            textLabel.setText(text);
-        }
-        Font old = textLabel.getFont();
-        int fontSize = getMaxFontSize(text);
-        textLabel.setFont(new Font(old.getName(), old.getStyle(), fontSize));
-        textLabel.setVisible(true);
+    /**
+     * Rasterize a token
+     * @param token token to render
+     * @return display image and (in preview mode) preview image, null entries for an empty token
+     */
+    private Image[] render(String token) {
+        if (token == null || token.length() == 0) return new Image[2];
+        Font font = fontFitter.fit(token, textLabel.getFont(), getWidth()*0.5, getHeight()/2.5);
+        return new Image[] {render(token, font, Color.BLACK), previewMode ? render(token, font, Color.GRAY) : null};
     }
 
-    private int getMaxFontSize(String str) {
-        int fontSize = 12;
-        if (str == null || str.length() == 0) return fontSize;
-        double prevWidth = 0;
-        double prevHeight = 0;
-        double maxWidth = textLabel.getWidth()*0.5;
-        double maxHeight = textLabel.getHeight()/2.5;
-
-        while (true) {
-            Font old = textLabel.getFont();
-            Font font = new Font(old.getName(), old.getStyle(), fontSize+1);
-            FontRenderContext frc = new FontRenderContext(font.getTransform(), false, false);
-            TextLayout layout = new TextLayout(str, font, frc);
-            Rectangle2D rect = layout.getBounds();
-            double width = rect.getWidth();
-            double height = rect.getHeight();
-            if (width > maxWidth || height > maxHeight) {
-                break;
-            }
-            if (prevWidth == width || prevHeight == height) {
-                break;
-            }
-            prevHeight = height; prevWidth = width;
-            fontSize++;
-        }
-        return fontSize;
+    private Image render(String text, Font font, Color color) {
+        FontRenderContext frc = new FontRenderContext(null, true, true);
+        TextLayout layout = new TextLayout(text, font, frc);
+        Rectangle2D bounds = layout.getBounds();
+        int width = Math.max(1, (int) Math.ceil(bounds.getWidth()) + 2);
+        int height = Math.max(1, (int) Math.ceil(bounds.getHeight()) + 2);
+
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        BufferedImage image = gc != null
+                ? gc.createCompatibleImage(width, height, Transparency.TRANSLUCENT)
+                : new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+        g.setColor(color);
+        layout.draw(g, (float) (1 - bounds.getX()), (float) (1 - bounds.getY()));
+        g.dispose();
+        return image;
     }
 
     /*private void setMaxFontSize() {
@@ -147,7 +306,8 @@ public class FastReadPane extends GamePanel {
     public interface DisplayFinishedCallback {
         /**
          * display finished callback
+         * @param achievedNanos measured on-screen duration (in nanoseconds)
          */
-        void displayFinished();
+        void displayFinished(long achievedNanos);
     }
 }
@@ -0,0 +1,118 @@
+package ContentPanes.Games;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.TextLayout;
+import java.awt.geom.Rectangle2D;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Finds the largest font size at which a text fits into given bounds
+ * Estimates the size from a single measurement (glyph bounds scale linearly), then binary-searches around the estimate.
+ * Results are cached per (text, bounds, font).
+ */
+public class FontFitter {
+    private static final int REFERENCE_SIZE = 100;
+    private static final int MAX_SIZE = 2000;
+    private static final int CACHE_SIZE = 256;
+
+    private final FontRenderContext frc = new FontRenderContext(null, false, false);
+    private final int minSize;
+    private final Map<Key, Font> cache = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Font> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Create fitter
+     * @param minSize size returned if nothing fits (or there is nothing to fit)
+     */
+    public FontFitter(int minSize) {
+        this.minSize = minSize;
+    }
+
+    /**
+     * Get the base font derived to the largest size at which the text fits
+     * @param text text to fit
+     * @param base font to derive from (name and style)
+     * @param maxWidth maximal width of the text bounds
+     * @param maxHeight maximal height of the text bounds
+     * @return fitted font
+     */
+    public synchronized Font fit(String text, Font base, double maxWidth, double maxHeight) {
+        if (text == null || text.length() == 0) return base.deriveFont((float) minSize);
+        Key key = new Key(text, base, (int) maxWidth, (int) maxHeight);
+        Font font = cache.get(key);
+        if (font == null) {
+            font = base.deriveFont((float) fitSize(text, base, key.width, key.height));
+            cache.put(key, font);
+        }
+        return font;
+    }
+
+/*------------------------------------------------------PRIVATE------------------------------------------------------*/
+
+    private int fitSize(String text, Font base, int maxWidth, int maxHeight) {
+        if (maxWidth <= 0 || maxHeight <= 0) return minSize;
+
+        Rectangle2D reference = measure(text, base.deriveFont((float) REFERENCE_SIZE));
+        if (reference.getWidth() <= 0 || reference.getHeight() <= 0) return minSize;
+        double scale = Math.min(maxWidth / reference.getWidth(), maxHeight / reference.getHeight());
+        int estimate = (int) (REFERENCE_SIZE * scale);
+
+        // glyph hinting makes the scaling slightly non-linear, search the exact size around the estimate
+        int low = Math.max(minSize, estimate - estimate / 8 - 1);
+        int high = Math.min(MAX_SIZE, estimate + estimate / 8 + 1);
+        if (!fits(text, base, low, maxWidth, maxHeight)) return minSize;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (fits(text, base, mid, maxWidth, maxHeight)) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private boolean fits(String text, Font base, int size, int maxWidth, int maxHeight) {
+        Rectangle2D rect = measure(text, base.deriveFont((float) size));
+        return rect.getWidth() <= maxWidth && rect.getHeight() <= maxHeight;
+    }
+
+    private Rectangle2D measure(String text, Font font) {
+        return new TextLayout(text, font, frc).getBounds();
+    }
+
+    private static class Key {
+        private final String text;
+        private final Font font;
+        private final int width;
+        private final int height;
+
+        public Key(String text, Font font, int width, int height) {
+            this.text = text;
+            this.font = font;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return width == key.width && height == key.height && text.equals(key.text) && font.getName().equals(key.font.getName())
+                    && font.getStyle() == key.font.getStyle();
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(text, font.getName(), font.getStyle(), width, height);
+        }
+    }
+}
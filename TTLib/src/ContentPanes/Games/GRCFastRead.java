@@ -3,10 +3,23 @@ package ContentPanes.Games;
 import Protocol.MCGameReply;
 
 public class GRCFastRead extends MCGameReply.GRContent {
+    private static final long serialVersionUID = 4315223600254105637L;      // as before the measured fields, for serialized clients
     public static final int gameID = 0;
 
-    public GRCFastRead() {
+    private final int id;
+    private final int achievedMicros;
+    private final int errorMicros;
 
+    /**
+     * Create reply
+     * @param id id of the displayed token (see GTCFastReadShow), -1 for a directly sent token
+     * @param achievedMicros measured on-screen duration (in microseconds)
+     * @param errorMicros achieved minus requested duration (in microseconds)
+     */
+    public GRCFastRead(int id, int achievedMicros, int errorMicros) {
+        this.id = id;
+        this.achievedMicros = achievedMicros;
+        this.errorMicros = errorMicros;
     }
 
     @Override
@@ -14,8 +27,20 @@ public class GRCFastRead extends MCGameReply.GRContent {
         return gameID;
     }
 
+    public int getId() {
+        return id;
+    }
+
+    public int getAchievedMicros() {
+        return achievedMicros;
+    }
+
+    public int getErrorMicros() {
+        return errorMicros;
+    }
+
     @Override
     public String toString() {
-        return "FastRead[]";
+        return "FastRead[id:" + id + "; achieved:" + achievedMicros + "us; error:" + errorMicros + "us]";
     }
 }
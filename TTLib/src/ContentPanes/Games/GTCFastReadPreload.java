@@ -0,0 +1,62 @@
+package ContentPanes.Games;
+
+import Protocol.MCGameTransmit;
+
+import java.util.Arrays;
+
+/**
+ * Pipelined FastRead: tokens sent ahead of their display
+ * The client keeps the last WINDOW preloaded tokens (first in, first out), the host mirrors that window
+ * and addresses tokens by id in GTCFastReadShow.
+ */
+public class GTCFastReadPreload extends MCGameTransmit.GTContent {
+    public static final int gameID = 0;
+
+    /**
+     * Number of preloaded tokens kept by the client
+     */
+    public static final int WINDOW = 64;
+    /**
+     * First client version understanding preload and show orders, older clients only get GTCFastRead
+     */
+    public static final int MIN_VERSION = 0x00010002;
+
+    private final boolean reset;
+    private final int[] ids;
+    private final String[] tokens;
+
+    /**
+     * Create preload batch
+     * @param reset client drops all previously preloaded tokens before adding these
+     * @param ids token ids (same length as tokens)
+     * @param tokens tokens to preload
+     */
+    public GTCFastReadPreload(boolean reset, int[] ids, String[] tokens) {
+        assert (ids.length == tokens.length);
+        this.reset = reset;
+        this.ids = ids;
+        this.tokens = tokens;
+    }
+
+    @Override
+    public int getGameID() {
+        return gameID;
+    }
+
+    public boolean isReset() {
+        return reset;
+    }
+
+    public int[] getIds() {
+        return ids;
+    }
+
+    public String[] getTokens() {
+        return tokens;
+    }
+
+    @Override
+    public String toString() {
+        return "FastReadPreload:[reset:" + reset + "; ids:" + Arrays.toString(ids) + "]";
+    }
+}
@@ -0,0 +1,48 @@
+package ContentPanes.Games;
+
+import Protocol.MCGameTransmit;
+
+/**
+ * Pipelined FastRead: display a preloaded token (see GTCFastReadPreload)
+ */
+public class GTCFastReadShow extends MCGameTransmit.GTContent {
+    public static final int gameID = 0;
+
+    private final int id;
+    private final int millis;
+    private final long showAt;
+
+    /**
+     * Create show order
+     * @param id id of the preloaded token
+     * @param millis display duration (in milliseconds)
+     * @param showAt client clock time (see SyncClock) to show the token at, 0 to show it on arrival
+     */
+    public GTCFastReadShow(int id, int millis, long showAt) {
+        this.id = id;
+        this.millis = millis;
+        this.showAt = showAt;
+    }
+
+    @Override
+    public int getGameID() {
+        return gameID;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getMillis() {
+        return millis;
+    }
+
+    public long getShowAt() {
+        return showAt;
+    }
+
+    @Override
+    public String toString() {
+        return "FastReadShow:[id:" + id + "; millis:" + millis + "; at:" + showAt + "]";
+    }
+}
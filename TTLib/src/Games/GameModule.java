@@ -0,0 +1,13 @@
+package Games;
+
+/**
+ * Part of a game supplied as service (see GameRegistry)
+ * Host, client and protocol each load their own kind of module, all identified by the game ID.
+ */
+public interface GameModule {
+    /**
+     * Get the ID of the game this module belongs to
+     * @return game ID (small, the registries index their modules by it)
+     */
+    int getGameID();
+}
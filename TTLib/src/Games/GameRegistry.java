@@ -0,0 +1,85 @@
+package Games;
+
+import Exceptions.BadGameIDException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ServiceLoader;
+
+/**
+ * Registry of the game modules of one kind
+ *
+ * The modules are discovered once with a ServiceLoader (every game jar lists its modules in
+ * META-INF/services/<module interface>) and kept in an array indexed by game ID, so finding the module of a game
+ * is a single array lookup.
+ * @param <T> kind of module
+ */
+public final class GameRegistry<T extends GameModule> {
+    /**
+     * Upper bound for game IDs, guards the dense array against a module with a bogus ID
+     */
+    public static final int MAX_GAME_ID = 1024;
+
+    private final T[] modules;
+    private final int[] ids;
+
+    /**
+     * Discover all modules of a kind
+     * @param kind module interface
+     * @throws IllegalStateException thrown if a game ID is out of range or supplied twice
+     */
+    @SuppressWarnings("unchecked")
+    public GameRegistry(Class<T> kind) {
+        List<T> found = new ArrayList<>();
+        int max = -1;
+        for (T module : ServiceLoader.load(kind, kind.getClassLoader())) {
+            int id = module.getGameID();
+            if (id < 0 || id > MAX_GAME_ID) {
+                throw new IllegalStateException(module.getClass().getName() + " has invalid game ID " + id);
+            }
+            found.add(module);
+            max = Math.max(max, id);
+        }
+
+        modules = (T[]) new GameModule[max + 1];
+        for (T module : found) {
+            int id = module.getGameID();
+            if (modules[id] != null) {
+                throw new IllegalStateException("game ID " + id + " supplied by " + modules[id].getClass().getName()
+                        + " and " + module.getClass().getName());
+            }
+            modules[id] = module;
+        }
+        ids = found.stream().mapToInt(GameModule::getGameID).sorted().toArray();
+    }
+
+    /**
+     * Get the module of a game
+     * @param id game ID
+     * @return module, null if no module of the game is installed
+     */
+    public T get(int id) {
+        return id >= 0 && id < modules.length ? modules[id] : null;
+    }
+
+    /**
+     * Get the module of a game which has to exist
+     * @param id game ID
+     * @return module
+     * @throws BadGameIDException thrown if no module of the game is installed
+     */
+    public T require(int id) throws BadGameIDException {
+        T module = get(id);
+        if (module == null) throw new BadGameIDException(id);
+        return module;
+    }
+
+    /**
+     * Get the IDs of all installed games
+     * @return game IDs in ascending order
+     */
+    public int[] getGameIDs() {
+        return Arrays.copyOf(ids, ids.length);
+    }
+}
@@ -0,0 +1,345 @@
+package Logging;
+
+import Concurrency.TaskRunner;
+
+import java.time.Instant;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Asynchronous front end of a java.util.logging Logger
+ *
+ * Callers only check the level and put the unformatted message (text, supplier or pattern with arguments) into a
+ * lock-free ring buffer shared by all loggers; a single writer thread builds the messages and hands them to the
+ * handlers of the target loggers. Disabled levels cost a level check, nothing is formatted or allocated.
+ * Suppliers and arguments are evaluated on the writer thread, so they must not change after logging.
+ *
+ * Patterns use "{}" for the arguments in order. If the buffer is full, records below WARNING are dropped
+ * (counted and reported later) or wait for space, depending on the overflow policy of the logger;
+ * WARNING and above always wait. SEVERE records are handed to the handlers before the call returns (together with
+ * all records logged before), so a SEVERE message right before System.exit is not lost.
+ */
+public class AsyncLogger {
+    /**
+     * What to do with a record below WARNING while the buffer is full
+     */
+    public enum Overflow {
+        DROP, BLOCK
+    }
+
+    private static final int CAPACITY = 8192;     // power of two
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long FLUSH_TIMEOUT_MILLIS = 2000;
+    private static final Object NONE = new Object();    // no arguments, the message is no pattern
+    private static final Ring ring = new Ring(CAPACITY);
+    private static final ConcurrentHashMap<String, AsyncLogger> loggers = new ConcurrentHashMap<>();
+
+    private final Logger target;
+    private volatile Overflow overflow = Overflow.DROP;
+
+    /**
+     * Create an asynchronous front end
+     * @param target logger receiving the records (on the writer thread)
+     */
+    public AsyncLogger(Logger target) {
+        this.target = target;
+    }
+
+    /**
+     * Get the asynchronous front end of a named logger
+     * @param name logger name
+     * @return shared front end
+     */
+    public static AsyncLogger getLogger(String name) {
+        return loggers.computeIfAbsent(name, key -> new AsyncLogger(Logger.getLogger(key)));
+    }
+
+    /**
+     * Wait until all records logged so far are handed to the handlers (or a timeout passed)
+     */
+    public static void flushAll() {
+        ring.flush(FLUSH_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Get the logger receiving the records
+     * @return target logger
+     */
+    public Logger getTarget() {
+        return target;
+    }
+
+    public void setOverflow(Overflow overflow) {
+        this.overflow = overflow;
+    }
+
+    public boolean isLoggable(Level level) {
+        return target.isLoggable(level);
+    }
+
+    public void severe(String msg) {
+        log(Level.SEVERE, msg, null, NONE, null, null, null);
+    }
+
+    public void severe(Supplier<String> msg) {
+        log(Level.SEVERE, null, msg, null, null, null, null);
+    }
+
+    public void severe(String pattern, Object arg) {
+        log(Level.SEVERE, pattern, null, arg, null, null, null);
+    }
+
+    public void severe(String pattern, Object arg1, Object arg2) {
+        log(Level.SEVERE, pattern, null, arg1, arg2, null, null);
+    }
+
+    public void warning(String msg) {
+        log(Level.WARNING, msg, null, NONE, null, null, null);
+    }
+
+    public void warning(Supplier<String> msg) {
+        log(Level.WARNING, null, msg, null, null, null, null);
+    }
+
+    public void warning(String pattern, Object arg) {
+        log(Level.WARNING, pattern, null, arg, null, null, null);
+    }
+
+    public void warning(String pattern, Object arg1, Object arg2) {
+        log(Level.WARNING, pattern, null, arg1, arg2, null, null);
+    }
+
+    public void info(String msg) {
+        log(Level.INFO, msg, null, NONE, null, null, null);
+    }
+
+    public void info(Supplier<String> msg) {
+        log(Level.INFO, null, msg, null, null, null, null);
+    }
+
+    public void info(String pattern, Object arg) {
+        log(Level.INFO, pattern, null, arg, null, null, null);
+    }
+
+    public void info(String pattern, Object arg1, Object arg2) {
+        log(Level.INFO, pattern, null, arg1, arg2, null, null);
+    }
+
+    public void fine(String msg) {
+        log(Level.FINE, msg, null, NONE, null, null, null);
+    }
+
+    public void fine(Supplier<String> msg) {
+        log(Level.FINE, null, msg, null, null, null, null);
+    }
+
+    public void fine(String pattern, Object arg) {
+        log(Level.FINE, pattern, null, arg, null, null, null);
+    }
+
+    public void fine(String pattern, Object arg1, Object arg2) {
+        log(Level.FINE, pattern, null, arg1, arg2, null, null);
+    }
+
+    /**
+     * Log a message with any number of arguments
+     * @param level message level
+     * @param pattern message with "{}" per argument
+     * @param args arguments
+     */
+    public void log(Level level, String pattern, Object... args) {
+        log(level, pattern, null, null, null, args, null);
+    }
+
+    /**
+     * Log a message with an exception (its stack trace is written by the handlers)
+     * @param level message level
+     * @param msg message
+     * @param thrown exception
+     */
+    public void log(Level level, String msg, Throwable thrown) {
+        log(level, msg, null, NONE, null, null, thrown);
+    }
+
+/*------------------------------------------------------PRIVATE------------------------------------------------------*/
+
+    private void log(Level level, String pattern, Supplier<String> supplier, Object arg1, Object arg2, Object[] args,
+                     Throwable thrown) {
+        if (!target.isLoggable(level)) return;
+        boolean block = overflow == Overflow.BLOCK || level.intValue() >= Level.WARNING.intValue();
+        ring.offer(this, level, pattern, supplier, arg1, arg2, args, thrown, block);
+        if (level.intValue() >= Level.SEVERE.intValue()) ring.flush(FLUSH_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Build the message of a record (on the writer thread)
+     */
+    private static String format(String pattern, Supplier<String> supplier, Object arg1, Object arg2, Object[] args) {
+        if (supplier != null) return supplier.get();
+        if (args == null) {
+            if (arg1 == NONE) return pattern;
+            args = new Object[] { arg1, arg2 };
+        }
+        StringBuilder text = new StringBuilder(pattern.length() + 32);
+        int start = 0;
+        for (Object arg : args) {
+            int position = pattern.indexOf("{}", start);
+            if (position < 0) break;
+            text.append(pattern, start, position).append(arg);
+            start = position + 2;
+        }
+        return text.append(pattern, start, pattern.length()).toString();
+    }
+
+    /**
+     * Bounded multi-producer, single consumer ring of reusable slots
+     *
+     * Every slot has a sequence number: a producer may fill slot i when its sequence is the claimed position,
+     * the writer may read it when it is position + 1 and releases it for the next round by setting
+     * position + capacity. Producers claim positions by CAS on the tail.
+     */
+    private static class Ring {
+        private final Slot[] slots;
+        private final AtomicLongArray sequences;
+        private final int mask;
+        private final AtomicLong tail = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private volatile long head = 0;
+        private volatile boolean sleeping = false;
+        private volatile Thread writer;
+
+        Ring(int capacity) {
+            slots = new Slot[capacity];
+            sequences = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) {
+                slots[i] = new Slot();
+                sequences.set(i, i);
+            }
+            mask = capacity - 1;
+        }
+
+        void offer(AsyncLogger logger, Level level, String pattern, Supplier<String> supplier, Object arg1, Object arg2,
+                   Object[] args, Throwable thrown, boolean block) {
+            if (writer == null) startWriter();
+            long position;
+            while (true) {
+                position = tail.get();
+                long difference = sequences.get((int) position & mask) - position;
+                if (difference == 0) {
+                    if (tail.compareAndSet(position, position + 1)) break;
+                } else if (difference < 0) {      // full
+                    if (!block) {
+                        dropped.incrementAndGet();
+                        return;
+                    }
+                    LockSupport.unpark(writer);
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                }
+            }
+            Slot slot = slots[(int) position & mask];
+            slot.logger = logger;
+            slot.level = level;
+            slot.pattern = pattern;
+            slot.supplier = supplier;
+            slot.arg1 = arg1;
+            slot.arg2 = arg2;
+            slot.args = args;
+            slot.thrown = thrown;
+            slot.millis = System.currentTimeMillis();
+            sequences.set((int) position & mask, position + 1);     // volatile, ordered before reading sleeping
+            if (sleeping) LockSupport.unpark(writer);
+        }
+
+        void flush(long timeoutMillis) {
+            if (writer == null || Thread.currentThread() == writer) return;
+            long end = tail.get();
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (head < end && System.currentTimeMillis() < deadline) {
+                LockSupport.unpark(writer);
+                LockSupport.parkNanos(BLOCK_PARK_NANOS);
+            }
+        }
+
+        private synchronized void startWriter() {
+            if (writer != null) return;
+            Thread thread = TaskRunner.newThread("log-writer", this::write);
+            writer = thread;
+            thread.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(FLUSH_TIMEOUT_MILLIS)));
+        }
+
+        private void write() {
+            long position = head;
+            while (true) {
+                Slot slot = slots[(int) position & mask];
+                if (sequences.get((int) position & mask) != position + 1) {
+                    reportDropped();
+                    sleeping = true;
+                    if (sequences.get((int) position & mask) != position + 1) LockSupport.park(this);
+                    sleeping = false;
+                    continue;
+                }
+                LogRecord record;
+                try {
+                    record = new LogRecord(slot.level, format(slot.pattern, slot.supplier, slot.arg1, slot.arg2, slot.args));
+                } catch (RuntimeException e) {
+                    record = new LogRecord(Level.WARNING, "log message not formattable: " + e);
+                }
+                AsyncLogger logger = slot.logger;
+                record.setThrown(slot.thrown);
+                record.setInstant(Instant.ofEpochMilli(slot.millis));
+                slot.clear();
+                sequences.lazySet((int) position & mask, position + mask + 1);
+                publish(logger.target, record);
+                head = ++position;      // after publishing, flush waits for the handlers
+            }
+        }
+
+        private void reportDropped() {
+            long count = dropped.getAndSet(0);
+            if (count > 0) {
+                LogRecord record = new LogRecord(Level.WARNING, count + " log records dropped (buffer full)");
+                publish(Logger.getLogger(""), record);
+            }
+        }
+
+        private static void publish(Logger target, LogRecord record) {
+            record.setLoggerName(target.getName());
+            record.setSourceClassName(target.getName());
+            record.setSourceMethodName(null);
+            try {
+                target.log(record);
+            } catch (RuntimeException e) {
+                // a failing handler must not stop the writer
+            }
+        }
+    }
+
+    private static class Slot {
+        private AsyncLogger logger;
+        private Level level;
+        private String pattern;
+        private Supplier<String> supplier;
+        private Object arg1;
+        private Object arg2;
+        private Object[] args;
+        private Throwable thrown;
+        private long millis;
+
+        void clear() {
+            logger = null;
+            pattern = null;
+            supplier = null;
+            arg1 = arg2 = null;
+            args = null;
+            thrown = null;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package Logging;
+
+import Concurrency.TaskRunner;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Log handler writing into a directory of size limited files
+ *
+ * A file is rolled over once it reaches its size limit. Rolled files (and files left by earlier runs) are compressed
+ * with gzip on a background thread, which then deletes the oldest files until the directory fits its budget and all
+ * files older than the maximum age. Nothing of this runs on the logging thread, so opening the handler never waits
+ * for the cleanup of a large log directory.
+ * Messages longer than a limit are cut, records below WARNING are buffered and written out at least every second.
+ */
+public class RotatingLogHandler extends Handler {
+    public static final String EXT = ".txt";
+    public static final String COMPRESSED_EXT = ".txt.gz";
+
+    private static final String TMP_EXT = ".tmp";
+    private static final int MAX_MESSAGE = 8 * 1024;
+    private static final long FLUSH_MILLIS = 1000;
+
+    private final Path directory;
+    private final long fileLimit;
+    private final long budget;
+    private final long maxAge;
+    private final ScheduledExecutorService maintenance;
+    private Path file;
+    private Writer writer;
+    private long written;
+    private boolean dirty = false;
+
+    /**
+     * Open a new log file in a directory
+     * @param directory log directory (created if missing)
+     * @param fileLimit size of a log file in bytes before it is rolled over
+     * @param budget maximum size of all (compressed) log files in bytes
+     * @param maxAgeDays log files older than this are deleted
+     * @throws IOException thrown if the log file could not be created
+     */
+    public RotatingLogHandler(Path directory, long fileLimit, long budget, int maxAgeDays) throws IOException {
+        this.directory = directory;
+        this.fileLimit = fileLimit;
+        this.budget = budget;
+        this.maxAge = TimeUnit.DAYS.toMillis(maxAgeDays);
+        setFormatter(new SimpleFormatter());
+        Files.createDirectories(directory);
+        open();
+
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, task -> TaskRunner.newThread("log-maintenance", task));
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        maintenance = executor;
+        maintenance.execute(this::maintain);
+        maintenance.scheduleWithFixedDelay(this::flushBuffered, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void publish(LogRecord record) {
+        if (writer == null || !isLoggable(record)) return;
+        String text;
+        try {
+            Formatter formatter = getFormatter();
+            text = formatter.format(record);
+            if (text.length() > MAX_MESSAGE) {
+                text = text.substring(0, MAX_MESSAGE) + "... (" + (text.length() - MAX_MESSAGE) + " characters cut)"
+                        + System.lineSeparator();
+            }
+        } catch (RuntimeException e) {
+            reportError(null, e, ErrorManager.FORMAT_FAILURE);
+            return;
+        }
+        try {
+            writer.write(text);
+            written += text.length();    // characters, close enough to the bytes of mostly ASCII logs
+            if (record.getLevel().intValue() >= Level.WARNING.intValue()) {
+                writer.flush();
+            } else {
+                dirty = true;
+            }
+            if (written >= fileLimit) roll();
+        } catch (IOException e) {
+            reportError(null, e, ErrorManager.WRITE_FAILURE);
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (writer == null) return;
+        try {
+            writer.flush();
+            dirty = false;
+        } catch (IOException e) {
+            reportError(null, e, ErrorManager.FLUSH_FAILURE);
+        }
+    }
+
+    /**
+     * Close the log file and wait for a running compression
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (writer == null) return;
+            try {
+                writer.close();
+            } catch (IOException e) {
+                reportError(null, e, ErrorManager.CLOSE_FAILURE);
+            }
+            writer = null;
+        }
+        maintenance.shutdown();
+        try {
+            maintenance.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+/*------------------------------------------------------PRIVATE------------------------------------------------------*/
+
+    private void open() throws IOException {
+        String name = new Timestamp(System.currentTimeMillis()).toString().replace(':', '-');
+        Path candidate = directory.resolve(name + EXT);
+        for (int i = 1; Files.exists(candidate) || Files.exists(directory.resolve(candidate.getFileName() + ".gz")); i++) {
+            candidate = directory.resolve(name + "_" + i + EXT);
+        }
+        file = candidate;
+        writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8));
+        written = 0;
+    }
+
+    private void roll() throws IOException {
+        writer.close();
+        open();
+        maintenance.execute(this::maintain);
+    }
+
+    private void flushBuffered() {
+        synchronized (this) {
+            if (dirty) flush();
+        }
+    }
+
+    /**
+     * Compress finished log files, then delete by age and budget (on the maintenance thread)
+     */
+    private void maintain() {
+        try {
+            List<Path> files = new ArrayList<>();
+            try (Stream<Path> list = Files.list(directory)) {
+                list.filter(Files::isRegularFile).forEach(files::add);
+            }
+            Path active;
+            synchronized (this) {
+                active = file;
+            }
+            List<Path> logs = new ArrayList<>();
+            for (Path log : files) {
+                String name = log.getFileName().toString();
+                if (log.equals(active)) continue;
+                if (name.endsWith(EXT)) {
+                    logs.add(compress(log));
+                } else if (name.endsWith(COMPRESSED_EXT)) {
+                    logs.add(log);
+                } else if (name.endsWith(TMP_EXT)) {
+                    Files.delete(log);      // interrupted compression
+                }
+            }
+
+            // newest first
+            List<Long> modified = new ArrayList<>();
+            for (Path log : logs) modified.add(Files.getLastModifiedTime(log).toMillis());
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < logs.size(); i++) order.add(i);
+            order.sort(Comparator.comparing(modified::get, Comparator.reverseOrder()));
+            long now = System.currentTimeMillis();
+            long total = 0;
+            for (int i : order) {
+                Path log = logs.get(i);
+                total += Files.size(log);
+                if (total > budget || now - modified.get(i) > maxAge) Files.delete(log);
+            }
+        } catch (IOException e) {
+            reportError("log maintenance failed", e, ErrorManager.GENERIC_FAILURE);
+        }
+    }
+
+    private static Path compress(Path log) throws IOException {
+        Path compressed = log.resolveSibling(log.getFileName() + ".gz");
+        Path tmp = log.resolveSibling(compressed.getFileName() + TMP_EXT);
+        try (InputStream in = Files.newInputStream(log);
+             OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp))) {
+            in.transferTo(out);
+        }
+        Files.move(tmp, compressed, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.setLastModifiedTime(compressed, Files.getLastModifiedTime(log));
+        Files.delete(log);
+        return compressed;
+    }
+}
@@ -0,0 +1,155 @@
+package Protocol;
+
+import Games.GameRegistry;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Binary wire format
+ * Frame: 4 Byte length (of the rest) | 2 Byte type ID | type specific payload
+ * Game contents: 4 Byte game ID | game specific payload (see GameContentCodec)
+ */
+public class BinaryMessageCodec extends MessageCodec {
+    /**
+     * Upper bound for a single frame, larger frames are treated as protocol violation
+     */
+    public static final int MAX_FRAME_SIZE = 1 << 20;
+
+    private static final GameRegistry<GameContentCodec> gameCodecs = new GameRegistry<>(GameContentCodec.class);
+
+    private final DataInputStream in;
+    private final OutputStream out;
+    private final WireBuffer sendBuffer = new WireBuffer(256);
+    private byte[] receiveBuffer = new byte[256];
+
+    /**
+     * Create binary codec
+     * @param in input stream of the socket
+     * @param out output stream of the socket
+     */
+    public BinaryMessageCodec(InputStream in, OutputStream out) {
+        if (!(in instanceof BufferedInputStream)) in = new BufferedInputStream(in);
+        this.in = new DataInputStream(in);
+        this.out = out;
+    }
+
+    @Override
+    public synchronized void writeMessage(Message msg) throws IOException {
+        sendBuffer.clear();
+        sendBuffer.putInt(0);   // length placeholder
+        encode(msg, sendBuffer);
+        sendBuffer.putInt(0, sendBuffer.position() - 4);
+        ProtocolTrace.record(ProtocolTrace.SENT, msg.getType(), sendBuffer.position() - 4, 0);
+        out.write(sendBuffer.array(), 0, sendBuffer.position());
+        out.flush();
+    }
+
+    @Override
+    public Message readMessage() throws IOException, ProtocolViolationException {
+        int length = in.readInt();
+        if (length < 2 || length > MAX_FRAME_SIZE) throw new ProtocolViolationException("bad frame length (" + length + ")");
+        if (receiveBuffer.length < length) receiveBuffer = new byte[Math.max(length, receiveBuffer.length * 2)];
+        in.readFully(receiveBuffer, 0, length);
+        Message msg = decode(new WireBuffer(receiveBuffer, 0, length));
+        ProtocolTrace.record(ProtocolTrace.RECEIVED, msg.getType(), length, 0);
+        return msg;
+    }
+
+    @Override
+    public boolean matchesVersion(int version) {
+        return version >= BINARY_VERSION;
+    }
+
+    /**
+     * Write type ID and payload of a message (without length prefix)
+     * @param msg message to encode
+     * @param buffer target buffer
+     */
+    public static void encode(Message msg, WireBuffer buffer) {
+        MessageContent content = msg.getContent();
+        buffer.putShort(msg.getType());
+        switch (msg.getType()) {
+            case MCClose.TYPE_ID -> buffer.putInt(((MCClose) content).getErrorCode());
+            case MCHello.TYPE_ID -> buffer.putInt(((MCHello) content).getVersion());
+            case MCHelloReply.TYPE_ID -> buffer.putByte(((MCHelloReply) content).getFlags());
+            case MCRegistration.TYPE_ID -> buffer.putString(((MCRegistration) content).getPassword());
+            case MCTimeSync.TYPE_ID -> buffer.putLong(((MCTimeSync) content).getHostSendTime());
+            case MCTimeSyncReply.TYPE_ID -> {
+                MCTimeSyncReply reply = (MCTimeSyncReply) content;
+                buffer.putLong(reply.getHostSendTime());
+                buffer.putLong(reply.getClientReceiveTime());
+                buffer.putLong(reply.getClientSendTime());
+            }
+            case MCPing.TYPE_ID -> {
+                MCPing ping = (MCPing) content;
+                buffer.putInt(ping.getSequence());
+                buffer.putLong(ping.getHostSendTime());
+                buffer.putInt(ping.getInterval());
+            }
+            case MCPong.TYPE_ID -> {
+                MCPong pong = (MCPong) content;
+                buffer.putInt(pong.getSequence());
+                buffer.putLong(pong.getHostSendTime());
+            }
+            case MCGameStart.TYPE_ID -> buffer.putInt(((MCGameStart) content).getGameID());
+            case MCGameTransmit.TYPE_ID -> {
+                MCGameTransmit.GTContent gt = ((MCGameTransmit) content).getContent();
+                buffer.putInt(gt.getGameID());
+                gameCodec(gt.getGameID()).encodeTransmit(gt, buffer);
+            }
+            case MCGameReply.TYPE_ID -> {
+                MCGameReply.GRContent gr = ((MCGameReply) content).getContent();
+                buffer.putInt(gr.getGameID());
+                gameCodec(gr.getGameID()).encodeReply(gr, buffer);
+            }
+            case MCRegistrationAccept.TYPE_ID, MCGameEnd.TYPE_ID -> { }
+            default -> throw new IllegalArgumentException("no encoder for message type " + msg.getType());
+        }
+    }
+
+    /**
+     * Read a message from type ID and payload (length prefix already consumed)
+     * @param buffer source buffer containing exactly one frame
+     * @return decoded message
+     * @throws ProtocolViolationException thrown if the frame is malformed
+     */
+    public static Message decode(WireBuffer buffer) throws ProtocolViolationException {
+        short type = buffer.getShort();
+        MessageContent content = switch (type) {
+            case MCClose.TYPE_ID -> new MCClose(buffer.getInt());
+            case MCHello.TYPE_ID -> new MCHello(buffer.getInt());
+            case MCHelloReply.TYPE_ID -> new MCHelloReply(buffer.getByte());
+            case MCRegistration.TYPE_ID -> new MCRegistration(buffer.getString());
+            case MCRegistrationAccept.TYPE_ID -> new MCRegistrationAccept();
+            case MCTimeSync.TYPE_ID -> new MCTimeSync(buffer.getLong());
+            case MCTimeSyncReply.TYPE_ID -> new MCTimeSyncReply(buffer.getLong(), buffer.getLong(), buffer.getLong());
+            case MCPing.TYPE_ID -> new MCPing(buffer.getInt(), buffer.getLong(), buffer.getInt());
+            case MCPong.TYPE_ID -> new MCPong(buffer.getInt(), buffer.getLong());
+            case MCGameEnd.TYPE_ID -> new MCGameEnd();
+            case MCGameStart.TYPE_ID -> new MCGameStart(buffer.getInt());
+            case MCGameTransmit.TYPE_ID -> new MCGameTransmit(checkedGameCodec(buffer.getInt()).decodeTransmit(buffer));
+            case MCGameReply.TYPE_ID -> new MCGameReply(checkedGameCodec(buffer.getInt()).decodeReply(buffer));
+            default -> throw new ProtocolViolationException("unknown message type " + type);
+        };
+        if (buffer.remaining() != 0) throw new ProtocolViolationException("trailing bytes in message type " + type);
+        return new Message(type, content);
+    }
+
+/*------------------------------------------------------PRIVATE------------------------------------------------------*/
+
+    private static GameContentCodec gameCodec(int gameID) {
+        GameContentCodec codec = gameCodecs.get(gameID);
+        if (codec == null) throw new IllegalArgumentException("no codec for game " + gameID);
+        return codec;
+    }
+
+    private static GameContentCodec checkedGameCodec(int gameID) throws ProtocolViolationException {
+        GameContentCodec codec = gameCodecs.get(gameID);
+        if (codec == null) throw new ProtocolViolationException("unknown game ID " + gameID);
+        return codec;
+    }
+}
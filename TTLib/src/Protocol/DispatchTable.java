@@ -0,0 +1,76 @@
+package Protocol;
+
+import java.util.Arrays;
+
+/**
+ * Message handlers indexed by session state and message type ID
+ *
+ * Every state has a dense array indexed by the type IDs of the MessageContent classes, so dispatching a message is
+ * two array lookups. A message without a handler in the current state is a protocol violation.
+ * @param <S> enum of the session states
+ * @param <C> context passed to the handlers (e.g. the session)
+ */
+public final class DispatchTable<S extends Enum<S>, C> {
+    private final Handler<C>[][] handlers;
+
+    /**
+     * Handler of a message type
+     * @param <C> context type
+     */
+    public interface Handler<C> {
+        /**
+         * Handle a received message
+         * @param context context of the dispatch
+         * @param msg received message
+         * @throws ProtocolViolationException thrown if the message violates the protocol
+         */
+        void handle(C context, Message msg) throws ProtocolViolationException;
+    }
+
+    /**
+     * Create an empty table
+     * @param states enum class of the states
+     */
+    @SuppressWarnings("unchecked")
+    public DispatchTable(Class<S> states) {
+        handlers = (Handler<C>[][]) new Handler<?>[states.getEnumConstants().length][0];
+    }
+
+    /**
+     * Register a handler (while setting up the table)
+     * @param type message type ID (TYPE_ID of a MessageContent class)
+     * @param handler handler of the messages
+     * @param states states the handler is used in
+     * @return this table
+     */
+    @SafeVarargs
+    public final DispatchTable<S, C> on(short type, Handler<C> handler, S... states) {
+        if (type < 0) throw new IllegalArgumentException("bad type ID " + type);
+        for (S state : states) {
+            Handler<C>[] row = handlers[state.ordinal()];
+            if (row.length <= type) {
+                row = Arrays.copyOf(row, type + 1);
+                handlers[state.ordinal()] = row;
+            }
+            row[type] = handler;
+        }
+        return this;
+    }
+
+    /**
+     * Hand a message to its handler
+     * @param state current state
+     * @param context context for the handler
+     * @param msg received message
+     * @throws ProtocolViolationException thrown if there is no handler for the message in this state or by the handler
+     */
+    public void dispatch(S state, C context, Message msg) throws ProtocolViolationException {
+        Handler<C>[] row = handlers[state.ordinal()];
+        short type = msg.getType();
+        Handler<C> handler = type >= 0 && type < row.length ? row[type] : null;
+        if (handler == null) {
+            throw new ProtocolViolationException(String.format("unexpected message type 0x%04x in state %s", type, state.name()));
+        }
+        handler.handle(context, msg);
+    }
+}
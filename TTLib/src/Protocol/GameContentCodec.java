@@ -0,0 +1,40 @@
+package Protocol;
+
+import Games.GameModule;
+
+/**
+ * Binary encoder/decoder for the game specific contents of GameTransmit and GameReply messages
+ * Every game supplies one codec as service (META-INF/services/Protocol.GameContentCodec), BinaryMessageCodec
+ * finds it by the game ID
+ */
+public interface GameContentCodec extends GameModule {
+    /**
+     * Write the game transmit content (without game ID)
+     * @param content content to encode
+     * @param buffer target buffer
+     */
+    void encodeTransmit(MCGameTransmit.GTContent content, WireBuffer buffer);
+
+    /**
+     * Read the game transmit content (game ID already consumed)
+     * @param buffer source buffer
+     * @return decoded content
+     * @throws ProtocolViolationException thrown if the content is malformed
+     */
+    MCGameTransmit.GTContent decodeTransmit(WireBuffer buffer) throws ProtocolViolationException;
+
+    /**
+     * Write the game reply content (without game ID)
+     * @param content content to encode
+     * @param buffer target buffer
+     */
+    void encodeReply(MCGameReply.GRContent content, WireBuffer buffer);
+
+    /**
+     * Read the game reply content (game ID already consumed)
+     * @param buffer source buffer
+     * @return decoded content
+     * @throws ProtocolViolationException thrown if the content is malformed
+     */
+    MCGameReply.GRContent decodeReply(WireBuffer buffer) throws ProtocolViolationException;
+}
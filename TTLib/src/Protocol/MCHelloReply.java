@@ -7,11 +7,16 @@ package Protocol;
  * requires 1 Byte flags
  */
 public class MCHelloReply extends MessageContent {
+    private static final long serialVersionUID = -2028525004646323708L;     // as before the flags accessors, for serialized clients
     public static final short TYPE_ID = 0x0102;
+    /**
+     * flags[0]: 1:pw-required
+     */
+    public static final byte PW_REQUIRED = (byte) 0b10000000;
 
     // success
     /**
-     * flags[0]: 1:pw-required
+     * flags byte as received, bits unknown to this version are kept for later protocol versions
      */
     private byte flags;
 
@@ -20,8 +25,15 @@ public class MCHelloReply extends MessageContent {
      * @param pwRequired indicates weather a password is required or not
      */
     public MCHelloReply(boolean pwRequired) {
-        this.flags = 0;
-        if (pwRequired) flags += 0b10000000;
+        this.flags = pwRequired ? PW_REQUIRED : 0;
+    }
+
+    /**
+     * create reply from a received flags byte
+     * @param flags all flags of the reply
+     */
+    public MCHelloReply(byte flags) {
+        this.flags = flags;
     }
 
     @Override
@@ -30,7 +42,11 @@ public class MCHelloReply extends MessageContent {
     }
 
     public boolean isPwRequired() {
-        return (flags & 0b10000000) != 0;
+        return (flags & PW_REQUIRED) != 0;
+    }
+
+    public byte getFlags() {
+        return flags;
     }
 
     @Override
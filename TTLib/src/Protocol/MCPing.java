@@ -0,0 +1,54 @@
+package Protocol;
+
+/**
+ * Message Type 01 07 Ping
+ * Host->Client
+ * heartbeat, sent periodically on established connections and answered with a Pong
+ * requires 4 Byte sequence number, 8 Byte host send time, 4 Byte heartbeat interval (ms)
+ */
+public class MCPing extends MessageContent {
+    public static final short TYPE_ID = 0x0107;
+
+    /**
+     * First client version answering pings
+     */
+    public static final int MIN_VERSION = 0x00010004;
+
+    private final int sequence;
+    private final long hostSendTime;
+    private final int interval;
+
+    /**
+     * Create ping
+     * @param sequence sequence number (echoed in the pong)
+     * @param hostSendTime host clock when sending (see SyncClock)
+     * @param interval heartbeat interval of the host (in milliseconds), lets the client detect a vanished host
+     */
+    public MCPing(int sequence, long hostSendTime, int interval) {
+        this.sequence = sequence;
+        this.hostSendTime = hostSendTime;
+        this.interval = interval;
+    }
+
+    @Override
+    public short getType() {
+        return TYPE_ID;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    public long getHostSendTime() {
+        return hostSendTime;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    @Override
+    public String toString() {
+        return "Ping-0107:[seq:" + sequence + "; t:" + hostSendTime + "; interval:" + interval + "ms]";
+    }
+}
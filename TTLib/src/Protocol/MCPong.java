@@ -0,0 +1,42 @@
+package Protocol;
+
+/**
+ * Message Type 01 08 Pong
+ * Client->Host
+ * answer to a heartbeat ping
+ * requires 4 Byte sequence number, 8 Byte host send time (both copied from the ping)
+ */
+public class MCPong extends MessageContent {
+    public static final short TYPE_ID = 0x0108;
+
+    private final int sequence;
+    private final long hostSendTime;
+
+    /**
+     * Create pong
+     * @param sequence sequence number of the ping
+     * @param hostSendTime host send time of the ping
+     */
+    public MCPong(int sequence, long hostSendTime) {
+        this.sequence = sequence;
+        this.hostSendTime = hostSendTime;
+    }
+
+    @Override
+    public short getType() {
+        return TYPE_ID;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    public long getHostSendTime() {
+        return hostSendTime;
+    }
+
+    @Override
+    public String toString() {
+        return "Pong-0108:[seq:" + sequence + "; t:" + hostSendTime + "]";
+    }
+}
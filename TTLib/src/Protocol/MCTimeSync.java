@@ -0,0 +1,40 @@
+package Protocol;
+
+/**
+ * Message Type 01 05 Time-Sync
+ * Host->Client
+ * clock offset probe, sent after Hello-Reply and periodically afterwards
+ * requires 8 Byte host send time (t1)
+ */
+public class MCTimeSync extends MessageContent {
+    public static final short TYPE_ID = 0x0105;
+
+    /**
+     * First client version answering time sync probes
+     */
+    public static final int MIN_VERSION = 0x00010003;
+
+    private final long hostSendTime;
+
+    /**
+     * Create probe
+     * @param hostSendTime host clock when sending (see SyncClock)
+     */
+    public MCTimeSync(long hostSendTime) {
+        this.hostSendTime = hostSendTime;
+    }
+
+    @Override
+    public short getType() {
+        return TYPE_ID;
+    }
+
+    public long getHostSendTime() {
+        return hostSendTime;
+    }
+
+    @Override
+    public String toString() {
+        return "TimeSync-0105:[t1:" + hostSendTime + "]";
+    }
+}
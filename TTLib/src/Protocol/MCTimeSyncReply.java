@@ -0,0 +1,49 @@
+package Protocol;
+
+/**
+ * Message Type 01 06 Time-Sync-Reply
+ * Client->Host
+ * answer to a clock offset probe
+ * requires 8 Byte host send time (t1), 8 Byte client receive time (t2), 8 Byte client send time (t3)
+ */
+public class MCTimeSyncReply extends MessageContent {
+    public static final short TYPE_ID = 0x0106;
+
+    private final long hostSendTime;
+    private final long clientReceiveTime;
+    private final long clientSendTime;
+
+    /**
+     * Create reply
+     * @param hostSendTime t1 copied from the probe
+     * @param clientReceiveTime client clock when the probe was received
+     * @param clientSendTime client clock when sending this reply
+     */
+    public MCTimeSyncReply(long hostSendTime, long clientReceiveTime, long clientSendTime) {
+        this.hostSendTime = hostSendTime;
+        this.clientReceiveTime = clientReceiveTime;
+        this.clientSendTime = clientSendTime;
+    }
+
+    @Override
+    public short getType() {
+        return TYPE_ID;
+    }
+
+    public long getHostSendTime() {
+        return hostSendTime;
+    }
+
+    public long getClientReceiveTime() {
+        return clientReceiveTime;
+    }
+
+    public long getClientSendTime() {
+        return clientSendTime;
+    }
+
+    @Override
+    public String toString() {
+        return "TimeSyncReply-0106:[t1:" + hostSendTime + "; t2:" + clientReceiveTime + "; t3:" + clientSendTime + "]";
+    }
+}
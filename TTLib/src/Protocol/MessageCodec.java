@@ -0,0 +1,77 @@
+package Protocol;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Reads and writes Message objects from/to a connection
+ * Clients with version >= BINARY_VERSION use the binary wire format, older ones Java serialization
+ */
+public abstract class MessageCodec {
+    /**
+     * First version speaking the binary wire format
+     */
+    public static final int BINARY_VERSION = 0x00010002;
+
+    /**
+     * Send a message
+     * @param msg message to send
+     * @throws IOException thrown by the underlying stream
+     */
+    public abstract void writeMessage(Message msg) throws IOException;
+
+    /**
+     * Receive the next message
+     * [blocking]
+     * @return received message
+     * @throws IOException thrown by the underlying stream
+     * @throws ProtocolViolationException thrown if the received data is no valid message
+     */
+    public abstract Message readMessage() throws IOException, ProtocolViolationException;
+
+    /**
+     * Check if the version announced in the Hello fits this codec
+     * @param version version of the communication partner
+     * @return true if the version uses this wire format
+     */
+    public abstract boolean matchesVersion(int version);
+
+    /**
+     * Create the codec used by the given (own) version
+     * Client side: the own version decides the wire format
+     * @param version own version
+     * @param in input stream of the socket
+     * @param out output stream of the socket
+     * @return fitting codec
+     * @throws IOException thrown by stream creation
+     */
+    public static MessageCodec forVersion(int version, InputStream in, OutputStream out) throws IOException {
+        if (version >= BINARY_VERSION) {
+            return new BinaryMessageCodec(in, out);
+        }
+        return new SerializedMessageCodec(in, out);
+    }
+
+    /**
+     * Detect the wire format used by the communication partner
+     * Host side: peeks at the first bytes the client sent (serialization stream magic or binary frame)
+     * [blocking]
+     * @param in input stream of the socket
+     * @param out output stream of the socket
+     * @return fitting codec
+     * @throws IOException thrown by stream operations
+     */
+    public static MessageCodec detect(InputStream in, OutputStream out) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in);
+        buffered.mark(2);
+        int first = buffered.read();
+        int second = buffered.read();
+        buffered.reset();
+        if (first == 0xAC && second == 0xED) {
+            return new SerializedMessageCodec(buffered, out);
+        }
+        return new BinaryMessageCodec(buffered, out);
+    }
+}
@@ -0,0 +1,214 @@
+package Protocol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Trace of the sent and received protocol messages
+ *
+ * Every message is recorded as a fixed size event (System.nanoTime, direction, type ID, frame size, session) into a
+ * preallocated ring of longs: recording is a counter increment and four array stores, nothing is allocated or
+ * formatted. The ring keeps the latest CAPACITY events; dump() writes them into a binary file which is decoded offline
+ * (see read(), the ConnectionTester has a dumper).
+ *
+ * Tracing is off unless enabled, either by enable() or by the system property "therapiststoolbox.trace" naming
+ * the file the trace is dumped into when the program exits.
+ */
+public final class ProtocolTrace {
+    public static final String TRACE_PROPERTY = "therapiststoolbox.trace";
+    public static final byte SENT = 1;
+    public static final byte RECEIVED = 2;
+    public static final int CAPACITY = 1 << 16;     // power of two
+
+    private static final int MAGIC = 0x54545054;    // "TTPT"
+    private static final int VERSION = 1;
+    private static final int SLOT = 3;              // longs per event: time | direction, type, size | session, sequence
+    private static final int INVALID = -1;
+
+    private static volatile ProtocolTrace active;
+
+    private final AtomicLongArray events = new AtomicLongArray(CAPACITY * SLOT);
+    private final AtomicLong next = new AtomicLong();
+
+    static {
+        String file = System.getProperty(TRACE_PROPERTY);
+        if (file != null && !file.isEmpty()) {
+            ProtocolTrace trace = enable();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    trace.dump(Paths.get(file));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }));
+        }
+    }
+
+    private ProtocolTrace() {
+        for (int i = 0; i < CAPACITY; i++) events.set(i * SLOT + 2, INVALID);
+    }
+
+    /**
+     * Start tracing (keeps a running trace)
+     * @return active trace
+     */
+    public static synchronized ProtocolTrace enable() {
+        if (active == null) active = new ProtocolTrace();
+        return active;
+    }
+
+    /**
+     * Stop tracing
+     */
+    public static synchronized void disable() {
+        active = null;
+    }
+
+    /**
+     * Get the running trace
+     * @return trace, null if tracing is off
+     */
+    public static ProtocolTrace getActive() {
+        return active;
+    }
+
+    /**
+     * Record a message (does nothing if tracing is off)
+     * @param direction SENT or RECEIVED
+     * @param type message type ID
+     * @param size frame size in bytes (without the length prefix)
+     * @param session session (connection) number
+     */
+    public static void record(byte direction, short type, int size, int session) {
+        ProtocolTrace trace = active;
+        if (trace != null) trace.add(direction, type, size, session);
+    }
+
+    /**
+     * Write the recorded events (oldest first) into a file
+     * Events recorded while dumping may be missing or included.
+     * @param file trace file
+     * @throws IOException thrown by writing the file
+     */
+    public void dump(Path file) throws IOException {
+        long end = next.get();
+        long start = Math.max(0, end - CAPACITY);
+        List<long[]> copies = new ArrayList<>();
+        for (long position = start; position < end; position++) {
+            int slot = (int) (position & (CAPACITY - 1)) * SLOT;
+            long tag = events.getAcquire(slot + 2);
+            long time = events.getPlain(slot);
+            long data = events.getPlain(slot + 1);
+            VarHandle.loadLoadFence();
+            // skip events being written or already overwritten
+            if (tag == INVALID || (int) tag != (int) position || events.getAcquire(slot + 2) != tag) continue;
+            copies.add(new long[] { time, data, tag >>> 32 });
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeLong(System.nanoTime());
+            out.writeInt(copies.size());
+            for (long[] event : copies) {
+                out.writeLong(event[0]);
+                out.writeLong(event[1]);
+                out.writeInt((int) event[2]);
+            }
+        }
+    }
+
+    /**
+     * Read a trace file
+     * @param file trace file written by dump()
+     * @return events, oldest first
+     * @throws IOException thrown by reading the file or if it is no trace file
+     */
+    public static List<Event> read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) throw new IOException("no protocol trace file");
+            int version = in.readInt();
+            if (version != VERSION) throw new IOException("unknown trace version " + version);
+            long wallMillis = in.readLong();
+            long wallNanos = in.readLong();
+            int count = in.readInt();
+            List<Event> events = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long time = in.readLong();
+                long data = in.readLong();
+                int session = in.readInt();
+                long epochNanos = wallMillis * 1_000_000 + (time - wallNanos);
+                events.add(new Event(epochNanos, (byte) (data >>> 48), (short) (data >>> 32), (int) data, session));
+            }
+            return events;
+        }
+    }
+
+    /**
+     * Decoded event of a trace file
+     */
+    public static class Event {
+        private final long epochNanos;
+        private final byte direction;
+        private final short type;
+        private final int size;
+        private final int session;
+
+        public Event(long epochNanos, byte direction, short type, int size, int session) {
+            this.epochNanos = epochNanos;
+            this.direction = direction;
+            this.type = type;
+            this.size = size;
+            this.session = session;
+        }
+
+        /**
+         * Get the time of the event
+         * @return nanoseconds since the epoch (precise relative to the other events, absolute to milliseconds)
+         */
+        public long getEpochNanos() {
+            return epochNanos;
+        }
+
+        public byte getDirection() {
+            return direction;
+        }
+
+        public short getType() {
+            return type;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public int getSession() {
+            return session;
+        }
+    }
+
+/*------------------------------------------------------PRIVATE------------------------------------------------------*/
+
+    private void add(byte direction, short type, int size, int session) {
+        long position = next.getAndIncrement();
+        int slot = (int) (position & (CAPACITY - 1)) * SLOT;
+        // seqlock: invalidate, write, publish with the sequence (low 32 bits of the position)
+        events.setOpaque(slot + 2, INVALID);
+        VarHandle.storeStoreFence();
+        events.setPlain(slot, System.nanoTime());
+        events.setPlain(slot + 1, ((long) (direction & 0xff) << 48) | ((long) (type & 0xffff) << 32) | (size & 0xffffffffL));
+        events.setRelease(slot + 2, ((long) session << 32) | (position & 0xffffffffL));
+    }
+}
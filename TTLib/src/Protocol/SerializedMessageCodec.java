@@ -0,0 +1,63 @@
+package Protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Legacy wire format: Java object serialization
+ * Only kept to talk to clients older than MessageCodec.BINARY_VERSION
+ */
+public class SerializedMessageCodec extends MessageCodec {
+    private final ObjectInputStream in;
+    private final ObjectOutputStream out;
+
+    /**
+     * Create object streams
+     * [possibly blocking] (waits for the stream header of the communication partner)
+     * @param in input stream of the socket
+     * @param out output stream of the socket
+     * @throws IOException thrown by stream creation
+     */
+    public SerializedMessageCodec(InputStream in, OutputStream out) throws IOException {
+        this.out = new ObjectOutputStream(out);
+        this.out.flush();
+        this.in = new ObjectInputStream(in);
+        // only accept protocol classes, everything else is rejected before instantiation
+        this.in.setObjectInputFilter(info -> {
+            Class<?> clazz = info.serialClass();
+            if (clazz == null) return ObjectInputFilter.Status.UNDECIDED;
+            if (clazz.isArray()) clazz = clazz.getComponentType();
+            if (clazz.isPrimitive() || clazz == String.class) return ObjectInputFilter.Status.ALLOWED;
+            String name = clazz.getName();
+            if (name.startsWith("Protocol.") || name.startsWith("ContentPanes.Games.")) return ObjectInputFilter.Status.ALLOWED;
+            return ObjectInputFilter.Status.REJECTED;
+        });
+    }
+
+    @Override
+    public synchronized void writeMessage(Message msg) throws IOException {
+        out.writeObject(msg);
+        out.flush();
+    }
+
+    @Override
+    public Message readMessage() throws IOException, ProtocolViolationException {
+        try {
+            Object obj = in.readObject();
+            if (!(obj instanceof Message)) throw new ProtocolViolationException("received non message object");
+            return (Message) obj;
+        } catch (ClassNotFoundException | InvalidClassException e) {
+            throw new ProtocolViolationException("received unknown or rejected class: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean matchesVersion(int version) {
+        return version < BINARY_VERSION;
+    }
+}
@@ -0,0 +1,155 @@
+package Protocol;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Growable byte buffer used by the binary wire format
+ * All numbers are big-endian, Strings are written as 4 Byte length followed by the UTF-8 bytes
+ */
+public class WireBuffer {
+    private ByteBuffer buffer;
+
+    /**
+     * Create an empty buffer for writing
+     * @param capacity initial capacity (grows on demand)
+     */
+    public WireBuffer(int capacity) {
+        this.buffer = ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Wrap received bytes for reading
+     * @param data received bytes
+     * @param offset start of the content
+     * @param length length of the content
+     */
+    public WireBuffer(byte[] data, int offset, int length) {
+        this.buffer = ByteBuffer.wrap(data, offset, length);
+    }
+
+    /**
+     * Reset the buffer for the next message
+     */
+    public void clear() {
+        buffer.clear();
+    }
+
+    /**
+     * Number of bytes written (or read)
+     * @return current position
+     */
+    public int position() {
+        return buffer.position();
+    }
+
+    /**
+     * Number of bytes left to read
+     * @return remaining bytes
+     */
+    public int remaining() {
+        return buffer.remaining();
+    }
+
+    /**
+     * Underlying array (valid from 0 to position() after writing)
+     * @return backing array
+     */
+    public byte[] array() {
+        return buffer.array();
+    }
+
+/*-------------------------------------------------------WRITE-------------------------------------------------------*/
+
+    public void putByte(byte value) {
+        ensureCapacity(1);
+        buffer.put(value);
+    }
+
+    public void putShort(short value) {
+        ensureCapacity(2);
+        buffer.putShort(value);
+    }
+
+    public void putInt(int value) {
+        ensureCapacity(4);
+        buffer.putInt(value);
+    }
+
+    /**
+     * Overwrite an already written int (e.g. a length prefix)
+     * @param index absolute position of the int
+     * @param value new value
+     */
+    public void putInt(int index, int value) {
+        buffer.putInt(index, value);
+    }
+
+    public void putLong(long value) {
+        ensureCapacity(8);
+        buffer.putLong(value);
+    }
+
+    public void putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensureCapacity(4 + bytes.length);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+/*-------------------------------------------------------READ-------------------------------------------------------*/
+
+    public byte getByte() throws ProtocolViolationException {
+        try {
+            return buffer.get();
+        } catch (BufferUnderflowException e) {
+            throw new ProtocolViolationException("message too short");
+        }
+    }
+
+    public short getShort() throws ProtocolViolationException {
+        try {
+            return buffer.getShort();
+        } catch (BufferUnderflowException e) {
+            throw new ProtocolViolationException("message too short");
+        }
+    }
+
+    public int getInt() throws ProtocolViolationException {
+        try {
+            return buffer.getInt();
+        } catch (BufferUnderflowException e) {
+            throw new ProtocolViolationException("message too short");
+        }
+    }
+
+    public long getLong() throws ProtocolViolationException {
+        try {
+            return buffer.getLong();
+        } catch (BufferUnderflowException e) {
+            throw new ProtocolViolationException("message too short");
+        }
+    }
+
+    public String getString() throws ProtocolViolationException {
+        int length = getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new ProtocolViolationException("bad string length (" + length + ")");
+        }
+        String res = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return res;
+    }
+
+/*------------------------------------------------------PRIVATE------------------------------------------------------*/
+
+    private void ensureCapacity(int additional) {
+        if (buffer.remaining() >= additional) return;
+        int newCapacity = Math.max(buffer.capacity() * 2, buffer.position() + additional);
+        ByteBuffer tmp = ByteBuffer.allocate(newCapacity);
+        buffer.flip();
+        tmp.put(buffer);
+        buffer = tmp;
+    }
+}